@@ -15,13 +15,30 @@
 */
 package org.localmatters.serializer;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.localmatters.serializer.resolver.PropertyResolver;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.writer.AbstractWriter;
+import org.localmatters.serializer.writer.ByteBufferDrain;
+import org.localmatters.serializer.writer.ChannelOutputBuffer;
+import org.localmatters.serializer.writer.CharOutputBuffer;
+import org.localmatters.serializer.writer.Compression;
+import org.localmatters.serializer.writer.FlushPolicy;
+import org.localmatters.serializer.writer.FragmentCache;
+import org.localmatters.serializer.writer.MappedOutputBuffer;
+import org.localmatters.serializer.writer.OutputBuffer;
+import org.localmatters.serializer.writer.SizeHistory;
 import org.localmatters.serializer.writer.Writer;
 
 
@@ -33,10 +50,21 @@ public class SerializationContext {
 	private Stack<String> levels;
 	private Writer writer;
 	private PropertyResolver resolver;
-	private OutputStream outputStream;
+	private OutputBuffer buffer = new OutputBuffer(null);
 	private Map<String, Object> beans;
 	private boolean formatting = false;
-	private Stack<byte[]> prefixes = new Stack<byte[]>();
+	private boolean minimal = false;
+	private Object writerState;
+	private FlushPolicy flushPolicy;
+	private boolean flushTracking;
+	private int flushCount;
+	private long flushPosition;
+	private long flushTime;
+	private SizeHistory sizeHistory;
+	private FragmentCache fragmentCache;
+	private Serialization document;
+	private long documentStart;
+	private boolean documentPending;
 
 	/**
 	 * Constructor with the specification of the writer, the property resolver,
@@ -152,14 +180,346 @@ public class SerializationContext {
 	 * @return The outputStream where to write
 	 */
 	public OutputStream getOutputStream() {
-		return outputStream;
+		return buffer.getOutputStream();
 	}
 
 	/**
 	 * @param os The outputStream where to write
 	 */
 	public void setOutputStream(OutputStream os) {
-		this.outputStream = os;
+		if (buffer.getClass() == OutputBuffer.class) {
+			buffer.setOutputStream(os);
+		} else {
+			setBuffer(new OutputBuffer(os));
+		}
+	}
+
+	/**
+	 * @return The appendable where to write, if the output is written as 
+	 * characters instead of bytes
+	 */
+	public Appendable getAppendable() {
+		if (buffer instanceof CharOutputBuffer) {
+			return ((CharOutputBuffer) buffer).getAppendable();
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the appendable (e.g. a <code>java.io.Writer</code> or a 
+	 * <code>StringBuilder</code>) where to write the output as characters,
+	 * instead of the outputStream
+	 * @param appendable The appendable where to write
+	 * @throws IllegalArgumentException When the output of the writer is 
+	 * binary or when the output is compressed
+	 */
+	public void setAppendable(Appendable appendable) {
+		if ((writer instanceof AbstractWriter) && ((AbstractWriter) writer).isBinary()) {
+			throw new IllegalArgumentException("The output of " + writer.getClass().getSimpleName() + " cannot be written as characters");
+		}
+		if (getCompression() != null) {
+			throw new IllegalArgumentException("The output of characters cannot be compressed");
+		}
+		if (buffer instanceof CharOutputBuffer) {
+			((CharOutputBuffer) buffer).setAppendable(appendable);
+		} else {
+			setBuffer(new CharOutputBuffer(appendable));
+		}
+	}
+
+	/**
+	 * @return The channel where to write, if any
+	 */
+	public WritableByteChannel getChannel() {
+		if (buffer instanceof ChannelOutputBuffer) {
+			return ((ChannelOutputBuffer) buffer).getChannel();
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the channel where to write the output, instead of the outputStream
+	 * @param channel The channel where to write
+	 */
+	public void setChannel(WritableByteChannel channel) {
+		if (buffer instanceof ChannelOutputBuffer) {
+			((ChannelOutputBuffer) buffer).setChannel(channel);
+		} else {
+			setBuffer(new ChannelOutputBuffer(channel, null));
+		}
+	}
+
+	/**
+	 * @return The byte buffer where to write, if any
+	 */
+	public ByteBuffer getByteBuffer() {
+		if (buffer instanceof ChannelOutputBuffer) {
+			return ((ChannelOutputBuffer) buffer).getByteBuffer();
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the byte buffer (which can be a direct buffer) where to write the
+	 * output, instead of the outputStream. When a channel is also set, the 
+	 * byte buffer stages the output written to the channel.
+	 * @param byteBuffer The byte buffer where to write
+	 */
+	public void setByteBuffer(ByteBuffer byteBuffer) {
+		if (buffer instanceof ChannelOutputBuffer) {
+			((ChannelOutputBuffer) buffer).setByteBuffer(byteBuffer);
+		} else {
+			setBuffer(new ChannelOutputBuffer(null, byteBuffer));
+		}
+	}
+
+	/**
+	 * Sets the byte buffer where to write the output, instead of the 
+	 * outputStream, along with the drain that consumes its content whenever
+	 * it is full and when the context is flushed
+	 * @param byteBuffer The byte buffer where to write
+	 * @param drain The drain consuming the byte buffer
+	 */
+	public void setByteBuffer(ByteBuffer byteBuffer, ByteBufferDrain drain) {
+		setByteBuffer(byteBuffer);
+		((ChannelOutputBuffer) buffer).setDrain(drain);
+	}
+
+	/**
+	 * @return The file channel where to write through memory-mapped windows,
+	 * if any
+	 */
+	public FileChannel getFileChannel() {
+		if (buffer instanceof MappedOutputBuffer) {
+			return ((MappedOutputBuffer) buffer).getChannel();
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the file channel where to write the output through memory-mapped
+	 * windows, instead of the outputStream. The file is truncated to the end
+	 * of the output when the context is flushed.
+	 * @param channel The file channel where to write (must be readable and
+	 * writable)
+	 */
+	public void setFileChannel(FileChannel channel) {
+		if (buffer instanceof MappedOutputBuffer) {
+			((MappedOutputBuffer) buffer).setChannel(channel);
+		} else {
+			setBuffer(new MappedOutputBuffer(channel));
+		}
+	}
+
+	/**
+	 * Replaces the buffer, keeping the charset and compression of the current
+	 * one
+	 * @param buffer The new buffer
+	 */
+	private void setBuffer(OutputBuffer buffer) {
+		buffer.setCharset(this.buffer.getCharset());
+		buffer.setCompression(this.buffer.getCompression());
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return The buffer in which the output is accumulated before being 
+	 * written to the outputStream
+	 */
+	public OutputBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The charset in which the output is encoded
+	 */
+	public Charset getCharset() {
+		return buffer.getCharset();
+	}
+
+	/**
+	 * @param charset The charset in which the output is encoded (UTF-8 by 
+	 * default). Only ASCII compatible charsets are supported.
+	 */
+	public void setCharset(Charset charset) {
+		buffer.setCharset(charset);
+	}
+
+	/**
+	 * @return The compression applied to the output, if any
+	 */
+	public Compression getCompression() {
+		return buffer.getCompression();
+	}
+
+	/**
+	 * @param compression The compression to apply to the output (null for
+	 * none). Each flush of the context ends the compressed stream.
+	 * @throws IllegalArgumentException When the output is written as 
+	 * characters
+	 */
+	public void setCompression(Compression compression) {
+		buffer.setCompression(compression);
+	}
+
+	/**
+	 * Writes all the buffered output to the outputStream
+	 * @throws SerializationException When the writing failed
+	 */
+	public void flush() throws SerializationException {
+		try {
+			buffer.flush();
+		} catch (IOException e) {
+			throw new IOSerializationException(this, e);
+		}
+	}
+
+	/**
+	 * Notifies that the writer starts writing the document of the given root
+	 * serialization, which pre-sizes the buffer according to the size 
+	 * history, if any. The buffer is never pre-sized beyond its spill 
+	 * threshold (as a larger document is spilled as it goes), nor when it 
+	 * writes to a channel or a mapped file (where the output is spilled 
+	 * rather than held).
+	 * @param root The root serialization
+	 */
+	public void startDocument(Serialization root) {
+		document = root;
+		documentStart = buffer.position();
+		documentPending = true;
+		if ((sizeHistory != null) 
+				&& !(buffer instanceof ChannelOutputBuffer) 
+				&& !(buffer instanceof MappedOutputBuffer)) {
+			int estimate = Math.min(sizeHistory.getEstimate(root), buffer.getSpillThreshold());
+			if (estimate > 0) {
+				buffer.setInitialCapacity(estimate);
+			}
+		}
+	}
+
+	/**
+	 * Notifies that the writer has written the whole document, which records
+	 * its size in the size history, if any, and flushes the output
+	 * @throws SerializationException When the writing failed
+	 */
+	public void endDocument() throws SerializationException {
+		if ((sizeHistory != null) && (document != null)) {
+			sizeHistory.record(document, buffer.position() - documentStart);
+		}
+		document = null;
+		documentPending = false;
+		flush();
+	}
+
+	/**
+	 * Notifies that the writer stops writing the document, whether it has 
+	 * been written or not. When the document has not been ended (i.e. its
+	 * writing failed), the buffered output is discarded, which returns the
+	 * buffer to the pool and ends the compressed stream, if any. It is meant
+	 * to be called in a finally block following <code>endDocument()</code>.
+	 */
+	public void releaseDocument() {
+		if (documentPending) {
+			document = null;
+			documentPending = false;
+			buffer.discard();
+		}
+	}
+
+	/**
+	 * @return The history of the size of the outputs used to pre-size the
+	 * buffer, if any
+	 */
+	public SizeHistory getSizeHistory() {
+		return sizeHistory;
+	}
+
+	/**
+	 * @param sizeHistory The history of the size of the outputs used to 
+	 * pre-size the buffer (null to use its default initial capacity). It is 
+	 * usually shared between the contexts.
+	 */
+	public void setSizeHistory(SizeHistory sizeHistory) {
+		this.sizeHistory = sizeHistory;
+	}
+
+	/**
+	 * @return The cache of the fragments rendered by the cacheable 
+	 * serializations, if any
+	 */
+	public FragmentCache getFragmentCache() {
+		return fragmentCache;
+	}
+
+	/**
+	 * @param fragmentCache The cache of the fragments rendered by the 
+	 * cacheable serializations (null to not cache them). It is usually 
+	 * shared between the contexts.
+	 */
+	public void setFragmentCache(FragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+
+	/**
+	 * @return The policy to flush the output while it is being produced, if
+	 * any
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * @param flushPolicy The policy to flush the output while it is being 
+	 * produced (null to only flush it at the end)
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+	}
+
+	/**
+	 * Starts tracking the elements of a list for the flush policy, unless 
+	 * there is no policy or the elements of an enclosing list are already
+	 * tracked
+	 * @return True if the elements of the list are tracked, in which case 
+	 * <code>elementWritten()</code> must be called after each of them and
+	 * <code>endTracking()</code> at the end of the list
+	 */
+	public boolean startTracking() {
+		if ((flushPolicy == null) || flushTracking) {
+			return false;
+		}
+		flushTracking = true;
+		if (flushTime == 0) {
+			flushPosition = buffer.position();
+			flushTime = System.currentTimeMillis();
+		}
+		return true;
+	}
+
+	/**
+	 * Ends tracking the elements of a list for the flush policy
+	 */
+	public void endTracking() {
+		flushTracking = false;
+	}
+
+	/**
+	 * Notifies that an element of the tracked list has been written, which
+	 * flushes the output available when the flush policy is due
+	 * @throws SerializationException When the writing failed
+	 */
+	public void elementWritten() throws SerializationException {
+		flushCount++;
+		if (flushPolicy.isDue(buffer.position() - flushPosition, flushCount, flushTime)) {
+			try {
+				buffer.flushAvailable();
+			} catch (IOException e) {
+				throw new IOSerializationException(this, e);
+			}
+			flushCount = 0;
+			flushPosition = buffer.position();
+			flushTime = System.currentTimeMillis();
+		}
 	}
 
 	/**
@@ -177,35 +537,36 @@ public class SerializationContext {
 	}
 
 	/**
-	 * @return The prefix that should be written the next time a write occurs
+	 * @return Whether the output should take the fewest bytes possible (no 
+	 * whitespace at all, no null value and the whole numbers without 
+	 * fraction), for the writers that support it
 	 */
-	public byte[] consomePrefix() {
-	    if (prefixes.isEmpty()) {
-	        return null;
-	    }
-	    return prefixes.pop();
+	public boolean isMinimal() {
+		return minimal;
 	}
 
 	/**
-	 * @param prefix The prefix that should be written the next time a write 
-	 * occurs
+	 * @param minimal Whether the output should take the fewest bytes possible
+	 * (no whitespace at all, no null value and the whole numbers without 
+	 * fraction), for the writers that support it
 	 */
-	public void pushPrefix(byte[] prefix) {
-		prefixes.push(prefix);
+	public void setMinimal(boolean minimal) {
+		this.minimal = minimal;
+	}
+
+	/**
+	 * @return The state kept by the writer for the serialization in progress
+	 * (e.g. the table of the strings already written), if any
+	 */
+	public Object getWriterState() {
+		return writerState;
 	}
 
-    /**
-     * @param prefix The prefix that should be written the next time a write 
-     * occurs
-     */
-    public void pushPrefix(String prefix) {
-        prefixes.push(prefix.getBytes());
-    }
-	
 	/**
-	 * @return The stack of prefixes
+	 * @param writerState The state kept by the writer for the serialization 
+	 * in progress
 	 */
-	public Stack<byte[]> getPrefixes() {
-        return prefixes;
-    }
+	public void setWriterState(Object writerState) {
+		this.writerState = writerState;
+	}
 }
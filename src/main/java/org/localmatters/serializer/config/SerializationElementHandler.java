@@ -26,14 +26,17 @@ import java.util.Set;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.dom4j.Element;
 import org.dom4j.ElementHandler;
 import org.dom4j.ElementPath;
 import org.localmatters.serializer.serialization.AbstractSerialization;
 import org.localmatters.serializer.serialization.AttributeSerialization;
 import org.localmatters.serializer.serialization.BeanSerialization;
+import org.localmatters.serializer.serialization.CacheSerialization;
 import org.localmatters.serializer.serialization.ComplexSerialization;
 import org.localmatters.serializer.serialization.ConstantSerialization;
+import org.localmatters.serializer.serialization.FieldSerialization;
 import org.localmatters.serializer.serialization.IteratorSerialization;
 import org.localmatters.serializer.serialization.MapSerialization;
 import org.localmatters.serializer.serialization.NameSerialization;
@@ -58,6 +61,13 @@ public class SerializationElementHandler implements ElementHandler {
 	public static final String ATTRIBUTE_ID = "id";
 	public static final String ATTRIBUTE_TARGET = "target";
 	public static final String ATTRIBUTE_PARENT = "parent";
+	public static final String ATTRIBUTE_FIELD = "field";
+	public static final String ATTRIBUTE_COLUMNAR = "columnar";
+	public static final String ATTRIBUTE_CACHEABLE = "cacheable";
+	public static final String ATTRIBUTE_CACHE_VERSION = "cache-version";
+	public static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+	public static final int MIN_RESERVED_FIELD_NUMBER = 19000;
+	public static final int MAX_RESERVED_FIELD_NUMBER = 19999;
 	public static final String TYPE_ATTRIBUTE = "attribute";
 	public static final String TYPE_NAMESPACE = "namespace";
 	public static final String TYPE_MAP = "map";
@@ -78,6 +88,8 @@ public class SerializationElementHandler implements ElementHandler {
 	public static final String INVALID_ID_FORMAT = "Unable to find any element with the id(s): %s!";
 	public static final String INVALID_ATTRIBUTES_FORMAT = "Invalid attributes %s on element <%s> at [%s]";
 	public static final String INVALID_LOOP_REFERENCES = "The configuration defines a loop of parents; which is not allowed!";
+	public static final String INVALID_FIELDS_FORMAT = "The complex element at [%s] is invalid. Either all or none of its attributes and elements must have a field number, and these numbers must be unique!";
+	public static final String INVALID_EXTENSION_FIELDS_FORMAT = "The complex element extending \"%s\" is invalid. Either all or none of its attributes and elements (including the inherited ones) must have a field number, and these numbers must be unique!";
 	
 	private Map<String, Serialization> serializations = new HashMap<String, Serialization>();
 	private Map<ReferenceSerialization, String> references = new HashMap<ReferenceSerialization, String>();
@@ -156,6 +168,9 @@ public class SerializationElementHandler implements ElementHandler {
 					if (serialization.getWriteEmpty() == null) {
 						serialization.setWriteEmpty(parent.isWriteEmpty());
 					}
+					if (!hasValidFields(serialization)) {
+						throw new ConfigurationException(INVALID_EXTENSION_FIELDS_FORMAT, id);
+					}
 				}
 			}
 			int newSize = CollectionUtils.size(extensions);
@@ -167,6 +182,27 @@ public class SerializationElementHandler implements ElementHandler {
 		return invalids;
 	}
 
+	/**
+	 * Checks the field numbers of the attributes and elements of the given
+	 * complex serialization: either all or none of them must have one (so 
+	 * that a number set explicitly never collides with the position of 
+	 * another field) and these numbers must be unique
+	 * @param serialization The complex serialization
+	 * @return Whether the field numbers are valid
+	 */
+	@SuppressWarnings("unchecked")
+	protected static boolean hasValidFields(ComplexSerialization serialization) {
+		List<Serialization> fields = mergeAsList(serialization.getAttributes(), serialization.getElements());
+		Set<Integer> numbers = new HashSet<Integer>();
+		for (Serialization field : fields) {
+			int number = FieldSerialization.getNumber(field);
+			if ((number > 0) && !numbers.add(number)) {
+				return false;
+			}
+		}
+		return numbers.isEmpty() || (numbers.size() == fields.size());
+	}
+
 	/**
 	 * Merges the provided list together
 	 * @param <T> The type of the list to merge
@@ -199,14 +235,14 @@ public class SerializationElementHandler implements ElementHandler {
 				throw new ConfigurationException(DUPLICATE_ID_FORMAT, id);
 			}
 			attributes.put(ATTRIBUTE_ID, id);
-			Serialization serialization = handleName(element, attributes);
+			Serialization serialization = handleField(element, attributes);
 			serializations.put(id, serialization);
 			return serialization;
 		} 
 		if (required) {
 			throw new ConfigurationException(MISSING_ID);
 		}
-		return handleName(element, attributes);
+		return handleField(element, attributes);
 	}
 
 	/**
@@ -218,6 +254,32 @@ public class SerializationElementHandler implements ElementHandler {
 		return handleId(element, new HashMap<String, String>(), false);
 	}
 
+	/**
+	 * Handles the optional field attribute (the number of the field for the
+	 * writers of formats that identify the fields by numbers, which must be a
+	 * valid Protocol Buffers field number)
+	 * @param element The element
+	 * @param attributes The map of attributes consumed for this element
+	 * @return The serialization for this element
+	 */
+	protected Serialization handleField(Element element, Map<String, String> attributes) {
+		String field = element.attributeValue(ATTRIBUTE_FIELD);
+		if (StringUtils.isNotBlank(field)) {
+			int number = NumberUtils.toInt(field.trim(), 0);
+			if ((number < 1) || (number > MAX_FIELD_NUMBER) 
+					|| ((number >= MIN_RESERVED_FIELD_NUMBER) && (number <= MAX_RESERVED_FIELD_NUMBER))) {
+				throw new ConfigurationException(MISSING_ATTRIBUTE_FORMAT, ATTRIBUTE_FIELD, element.getPath());
+			}
+			attributes.put(ATTRIBUTE_FIELD, field);
+			Serialization delegate = handleName(element, attributes);
+			FieldSerialization serialization = new FieldSerialization();
+			serialization.setNumber(number);
+			serialization.setDelegate(delegate);
+			return serialization;
+		} 
+		return handleName(element, attributes);
+	}
+
 	/**
 	 * Handles the optional name attribute
 	 * @param element The element
@@ -304,6 +366,7 @@ public class SerializationElementHandler implements ElementHandler {
 	@SuppressWarnings("unchecked")
 	protected Serialization handleType(Element element, Map<String, String> attributes) {
 		AbstractSerialization serialization = null;
+		Serialization result = null;
 		String type = element.getName();
 
 		if (TYPE_REFERENCE.equalsIgnoreCase(type)) {
@@ -334,6 +397,14 @@ public class SerializationElementHandler implements ElementHandler {
 			serialization.setWriteEmpty(Boolean.valueOf(displayEmpty));
 		}
 
+		if (TYPE_REFERENCE.equalsIgnoreCase(type) 
+				|| TYPE_COMPLEX.equalsIgnoreCase(type) 
+				|| TYPE_LIST.equalsIgnoreCase(type)) {
+			result = handleCache(element, attributes, serialization);
+		} else {
+			result = serialization;
+		}
+
 		// validates the number of attributes with the ones that have been
 		// consumed to see if the element contains invalid attributes
 		if (CollectionUtils.size(element.attributes()) != CollectionUtils.size(attributes)) {
@@ -346,7 +417,34 @@ public class SerializationElementHandler implements ElementHandler {
 			}
 			throw new ConfigurationException(INVALID_ATTRIBUTES_FORMAT, invalids, type, element.getPath());
 		}
-		return serialization;
+		return result;
+	}
+
+	/**
+	 * Handles the optional cacheable and cache-version attributes of the 
+	 * complex, list and reference elements
+	 * @param element The element
+	 * @param attributes The map of attributes consumed for this element
+	 * @param serialization The serialization of the type of the element
+	 * @return The serialization for this element
+	 */
+	protected Serialization handleCache(Element element, Map<String, String> attributes, Serialization serialization) {
+		String cacheable = element.attributeValue(ATTRIBUTE_CACHEABLE);
+		if (StringUtils.isBlank(cacheable)) {
+			return serialization;
+		}
+		attributes.put(ATTRIBUTE_CACHEABLE, cacheable);
+		String version = element.attributeValue(ATTRIBUTE_CACHE_VERSION);
+		if (StringUtils.isNotBlank(version)) {
+			attributes.put(ATTRIBUTE_CACHE_VERSION, version);
+		}
+		if (!Boolean.valueOf(cacheable)) {
+			return serialization;
+		}
+		CacheSerialization cache = new CacheSerialization();
+		cache.setVersion(StringUtils.trimToNull(version));
+		cache.setDelegate(serialization);
+		return cache;
 	}
 	
 	/**
@@ -381,6 +479,8 @@ public class SerializationElementHandler implements ElementHandler {
 		}
 		if (attributes.containsKey(ATTRIBUTE_PARENT)) {
 			getExtensions().put(ser, attributes.get(ATTRIBUTE_PARENT));
+		} else if (!hasValidFields(ser)) {
+			throw new ConfigurationException(INVALID_FIELDS_FORMAT, element.getPath());
 		}
 		
 		return ser;
@@ -472,6 +572,12 @@ public class SerializationElementHandler implements ElementHandler {
 		if (!foundElement) {
 			serialization.setElement(new ValueSerialization());
 		}
+
+		String columnar = element.attributeValue(ATTRIBUTE_COLUMNAR);
+		if (StringUtils.isNotBlank(columnar)) {
+			serialization.setColumnar(Boolean.valueOf(columnar));
+			attributes.put(ATTRIBUTE_COLUMNAR, columnar);
+		}
 		return serialization;
 	}
 
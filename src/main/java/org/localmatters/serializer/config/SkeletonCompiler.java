@@ -0,0 +1,180 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.config;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.localmatters.serializer.serialization.BeanSerialization;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.ConstantSerialization;
+import org.localmatters.serializer.serialization.DelegatingSerialization;
+import org.localmatters.serializer.serialization.FieldSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.MapSerialization;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.ReferenceSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.StaticSerialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Compiles parsed serializations into skeletons: every largest subtree 
+ * whose output does not depend on the serialized object (the constants, 
+ * and the complex elements and references made of such subtrees only) is 
+ * wrapped in a <code>StaticSerialization</code>, so that it is rendered 
+ * once per writer and formatting and then written as a single copy. Only 
+ * the dynamic parts (values, properties, beans, lists and maps) are still 
+ * evaluated on each serialization.
+ */
+public abstract class SkeletonCompiler {
+
+	/**
+	 * Compiles the given serializations, in place
+	 * @param serializations The serializations by id
+	 */
+	public static void compile(Map<String, Serialization> serializations) {
+		Map<Serialization, Boolean> statics = new IdentityHashMap<Serialization, Boolean>();
+		Map<Serialization, Boolean> visited = new IdentityHashMap<Serialization, Boolean>();
+		for (Serialization ser : serializations.values()) {
+			compile(ser, statics, visited);
+		}
+	}
+
+	/**
+	 * Compiles the subtrees of the given serialization (the serialization 
+	 * itself cannot be replaced)
+	 * @param ser The serialization
+	 * @param statics Whether the serializations already checked are static
+	 * @param visited The serializations already compiled
+	 */
+	private static void compile(Serialization ser, Map<Serialization, Boolean> statics, Map<Serialization, Boolean> visited) {
+		if ((ser == null) || (ser instanceof StaticSerialization) || (visited.put(ser, Boolean.TRUE) != null)) {
+			return;
+		}
+		if (ser instanceof DelegatingSerialization) {
+			DelegatingSerialization delegating = (DelegatingSerialization) ser;
+			delegating.setDelegate(compileSlot(delegating.getDelegate(), statics, visited));
+		} else if (ser instanceof ReferenceSerialization) {
+			ReferenceSerialization reference = (ReferenceSerialization) ser;
+			reference.setReferenced(compileSlot(reference.getReferenced(), statics, visited));
+		} else if (ser instanceof ComplexSerialization) {
+			ComplexSerialization complex = (ComplexSerialization) ser;
+			compileSlots(complex.getAttributes(), statics, visited);
+			compileSlots(complex.getElements(), statics, visited);
+		} else if (ser instanceof IteratorSerialization) {
+			// the element slot is not replaced as it holds the element name
+			compile(((IteratorSerialization) ser).getElement(), statics, visited);
+		} else if (ser instanceof MapSerialization) {
+			compile(((MapSerialization) ser).getValue(), statics, visited);
+		}
+	}
+
+	/**
+	 * Compiles the serializations of the given list, in place
+	 * @param slots The list of serializations
+	 * @param statics Whether the serializations already checked are static
+	 * @param visited The serializations already compiled
+	 */
+	private static void compileSlots(List<Serialization> slots, Map<Serialization, Boolean> statics, Map<Serialization, Boolean> visited) {
+		for (int i=0; i<slots.size(); i++) {
+			slots.set(i, compileSlot(slots.get(i), statics, visited));
+		}
+	}
+
+	/**
+	 * Compiles the serialization held by a slot
+	 * @param ser The serialization
+	 * @param statics Whether the serializations already checked are static
+	 * @param visited The serializations already compiled
+	 * @return The serialization to set in the slot
+	 */
+	private static Serialization compileSlot(Serialization ser, Map<Serialization, Boolean> statics, Map<Serialization, Boolean> visited) {
+		if (isStatic(ser, statics)) {
+			return new StaticSerialization(ser);
+		}
+		compile(ser, statics, visited);
+		return ser;
+	}
+
+	/**
+	 * Checks whether the output of the given serialization depends on the
+	 * serialized object (besides it being null or not)
+	 * @param ser The serialization
+	 * @param statics Whether the serializations already checked are static
+	 * @return True if the output does not depend on the object
+	 */
+	protected static boolean isStatic(Serialization ser, Map<Serialization, Boolean> statics) {
+		if (ser == null) {
+			return false;
+		}
+		Boolean known = statics.get(ser);
+		if (known != null) {
+			return known;
+		}
+		// a serialization being checked (through a loop of references) is
+		// not static
+		statics.put(ser, Boolean.FALSE);
+		boolean result;
+		if (ser instanceof ConstantSerialization) {
+			result = isValue(((ConstantSerialization) ser).getDelegate());
+		} else if ((ser instanceof PropertySerialization) 
+				|| (ser instanceof BeanSerialization) 
+				|| (ser instanceof StaticSerialization)) {
+			result = false;
+		} else if (ser instanceof DelegatingSerialization) {
+			result = isStatic(((DelegatingSerialization) ser).getDelegate(), statics);
+		} else if (ser instanceof ReferenceSerialization) {
+			result = isStatic(((ReferenceSerialization) ser).getReferenced(), statics);
+		} else if (ser instanceof ComplexSerialization) {
+			ComplexSerialization complex = (ComplexSerialization) ser;
+			result = areStatic(complex.getAttributes(), statics) && areStatic(complex.getElements(), statics);
+		} else {
+			result = false;
+		}
+		statics.put(ser, result);
+		return result;
+	}
+
+	/**
+	 * @param sers The serializations
+	 * @param statics Whether the serializations already checked are static
+	 * @return True if all the given serializations are static
+	 */
+	private static boolean areStatic(List<Serialization> sers, Map<Serialization, Boolean> statics) {
+		for (Serialization ser : sers) {
+			if (!isStatic(ser, statics)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param ser The serialization
+	 * @return True if the serialization writes the object it is given as a
+	 * value, under an optional name
+	 */
+	private static boolean isValue(Serialization ser) {
+		while ((ser instanceof NameSerialization) || (ser instanceof FieldSerialization)) {
+			ser = ((DelegatingSerialization) ser).getDelegate();
+		}
+		return ser instanceof ValueSerialization;
+	}
+}
@@ -27,6 +27,7 @@ import org.localmatters.serializer.serialization.Serialization;
 
 public class XmlSerializationParser implements SerializationParser {
     private String _defaultEncoding = "UTF-8";
+    private boolean _compileSkeletons = false;
 
     public String getDefaultEncoding() {
         return _defaultEncoding;
@@ -36,6 +37,22 @@ public class XmlSerializationParser implements SerializationParser {
         _defaultEncoding = defaultEncoding;
     }
 
+    /**
+     * @return Whether the parsed serializations are compiled into skeletons
+     * (see <code>SkeletonCompiler</code>)
+     */
+    public boolean isCompileSkeletons() {
+        return _compileSkeletons;
+    }
+
+    /**
+     * @param compileSkeletons Whether the parsed serializations are compiled
+     * into skeletons (see <code>SkeletonCompiler</code>)
+     */
+    public void setCompileSkeletons(boolean compileSkeletons) {
+        _compileSkeletons = compileSkeletons;
+    }
+
     /**
      * @see org.localmatters.serializer.config.SerializationParser#parse(java.io.InputStream)
      */
@@ -47,6 +64,9 @@ public class XmlSerializationParser implements SerializationParser {
             saxReader.addHandler("/" + SerializationElementHandler.TYPE_ROOT, handler);
             saxReader.setEncoding(getDefaultEncoding());
             saxReader.read(input);
+            if (isCompileSkeletons()) {
+                SkeletonCompiler.compile(handler.getSerializations());
+            }
             return handler.getSerializations();
 
         }
@@ -0,0 +1,193 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.charset.Charset;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.resolver.PropertyResolverException;
+import org.localmatters.serializer.writer.CharOutputBuffer;
+import org.localmatters.serializer.writer.FragmentCache;
+import org.localmatters.serializer.writer.OutputBuffer;
+import org.localmatters.serializer.writer.Writer;
+
+
+/**
+ * <p>A delegating serialization that caches the bytes rendered by its 
+ * delegate in the fragment cache of the context, if any, and writes them
+ * back instead of serializing the same object again.</p>
+ * <p>The fragments are cached by the identity of the object and the value
+ * of its version property (e.g. <code>updatedAt</code>), if any, as well as
+ * the name under which it is written, the writer instance (so that writers
+ * configured differently do not share fragments), the charset and the
+ * formatting. The object must therefore not change without its version 
+ * changing, nor the writer be configured again once it has cached 
+ * fragments. The keys only hold weak references to the objects and to the
+ * writers, so that the cache does not keep them in memory; the fragments of
+ * an object or a writer that has been garbage collected are purged from the
+ * cache on its next access.</p>
+ * <p>The fragments are neither cached nor written back when the writer
+ * keeps a state in the context (as the bytes then depend on it) or when 
+ * the output is written as characters.</p>
+ */
+public class CacheSerialization extends DelegatingSerialization {
+	private String version;
+
+	/**
+	 * @see org.localmatters.serializer.serialization.Serialization#serialize(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void serialize(Serialization ser, String name, Object obj, SerializationContext ctx) throws SerializationException {
+		FragmentCache cache = ctx.getFragmentCache();
+		OutputBuffer buffer = ctx.getBuffer();
+		if ((cache == null) 
+				|| (obj == null) 
+				|| (ctx.getWriterState() != null) 
+				|| (buffer instanceof CharOutputBuffer)) {
+			getDelegate().serialize(ser, name, obj, ctx);
+			return;
+		}
+
+		Key key = new Key(this, obj, resolveVersion(obj, ctx), name, ctx, cache);
+		byte[] fragment = cache.get(key);
+		if (fragment == null) {
+			long mark = buffer.mark();
+			getDelegate().serialize(ser, name, obj, ctx);
+			fragment = buffer.copy(mark);
+			buffer.unmark();
+			cache.put(key, fragment);
+		} else if (fragment.length > 0) {
+			try {
+				buffer.write(fragment);
+			} catch (IOException e) {
+				throw new IOSerializationException(ctx, e);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the version of the given object
+	 * @param obj The object
+	 * @param ctx The context
+	 * @return The version or null if there is no version property
+	 * @throws UnknownPropertyException When the version property could not be
+	 * resolved
+	 */
+	protected Object resolveVersion(Object obj, SerializationContext ctx) throws UnknownPropertyException {
+		if (getVersion() == null) {
+			return null;
+		}
+		try {
+			return ctx.getPropertyResolver().resolve(obj, getVersion());
+		} catch (PropertyResolverException e) {
+			throw new UnknownPropertyException(getVersion(), ctx, e);
+		}
+	}
+
+	/**
+	 * @return The property holding the version of the object (can be null)
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param version The property holding the version of the object (null 
+	 * if the object never changes)
+	 */
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	/**
+	 * Key of a cached fragment
+	 */
+	protected static class Key {
+		private final Serialization ser;
+		private final FragmentCache.KeyReference<Object> obj;
+		private final Object version;
+		private final String name;
+		private final FragmentCache.KeyReference<Writer> writer;
+		private final Charset charset;
+		private final int indentation;
+		private final boolean minimal;
+		private final int hash;
+
+		/**
+		 * Constructor with the specification of the fragment
+		 * @param ser The cache serialization
+		 * @param obj The object
+		 * @param version The version of the object
+		 * @param name The name under which the object is written
+		 * @param ctx The context
+		 * @param cache The cache in which the fragment is looked up
+		 */
+		protected Key(Serialization ser, Object obj, Object version, String name, SerializationContext ctx, FragmentCache cache) {
+			this.ser = ser;
+			this.obj = new FragmentCache.KeyReference<Object>(obj, this, cache);
+			this.version = version;
+			this.name = name;
+			this.writer = new FragmentCache.KeyReference<Writer>(ctx.getWriter(), this, cache);
+			this.charset = ctx.getCharset();
+			// the indentation of a formatted fragment depends on its depth
+			this.indentation = ctx.isFormatting() ? ctx.getDeepness() : -1;
+			this.minimal = ctx.isMinimal();
+			this.hash = 31 * (31 * System.identityHashCode(obj) + ObjectUtils.hashCode(version)) + ObjectUtils.hashCode(name);
+		}
+
+		/**
+		 * Checks whether both references are to the same object, which must
+		 * not have been garbage collected
+		 * @param reference The reference of this key
+		 * @param other The reference of the other key
+		 * @return True if both references are to the same object
+		 */
+		private static boolean isSame(Reference<?> reference, Reference<?> other) {
+			Object referent = reference.get();
+			return (referent != null) && (referent == other.get());
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return (ser == key.ser)
+				&& isSame(obj, key.obj)
+				&& isSame(writer, key.writer)
+				&& (indentation == key.indentation)
+				&& (minimal == key.minimal)
+				&& ObjectUtils.equals(version, key.version)
+				&& ObjectUtils.equals(name, key.name)
+				&& ObjectUtils.equals(charset, key.charset);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+
+/**
+ * A delegating serialization that can be used to set the number of the field
+ * under which the object will be serialized by the writers of formats that
+ * identify the fields by numbers instead of names (e.g. Protocol Buffers). 
+ * The other writers ignore it.
+ */
+public class FieldSerialization extends DelegatingSerialization {
+	private int number;
+
+	/**
+	 * @see org.localmatters.serializer.serialization.Serialization#serialize(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void serialize(Serialization ser, String name, Object object, SerializationContext ctx) throws SerializationException {
+		getDelegate().serialize(ser, name, object, ctx);
+	}
+
+	/**
+	 * Returns the number of the field of the given serialization, set by the
+	 * first field serialization it delegates through
+	 * @param ser The serialization
+	 * @return The number of the field or 0 if none has been set
+	 */
+	public static int getNumber(Serialization ser) {
+		while (ser instanceof DelegatingSerialization) {
+			if (ser instanceof FieldSerialization) {
+				return ((FieldSerialization) ser).getNumber();
+			}
+			ser = ((DelegatingSerialization) ser).getDelegate();
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The number of the field
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * @param number The number of the field
+	 */
+	public void setNumber(int number) {
+		this.number = number;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+
+/**
+ * Exception raised when a list or map is found within a record written by a 
+ * writer of flat records (e.g. CSV)
+ */
+public class FlatElementExpectedException extends SerializationException {
+	private static final long serialVersionUID = 1L;
+	private static final String MESSAGE_FORMAT = "%s is a list or a map within a record, which cannot be written as flat columns!";
+
+	/**
+	 * Constructor with the specification of the context
+	 * @param context The serialization context
+	 */
+	public FlatElementExpectedException(SerializationContext context) {
+		super(String.format(MESSAGE_FORMAT, context.getPath()));
+	}
+}
@@ -32,6 +32,7 @@ public class IteratorSerialization extends CommentSerialization {
 	protected static final Iterator<?> EMTPY_ITERATOR = Collections.EMPTY_LIST.iterator();
 	private String elementName;
 	private Serialization element;
+	private boolean columnar;
 
 	/**
 	 * @see org.localmatters.serializer.serialization.Serialization#serialize(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
@@ -54,13 +55,20 @@ public class IteratorSerialization extends CommentSerialization {
 			throw new IteratorExpectedException(ctx.nextLevel(name));
 		}
 		
-		ctx.getWriter().writeIterator(ser, name, itr, getElementName(), getElement(), getComments(), ctx);
+		if (ctx.startTracking()) {
+			TrackingIterator tracking = new TrackingIterator(itr, ctx);
+			ctx.getWriter().writeIterator(ser, name, tracking, getElementName(), getElement(), getComments(), ctx);
+			ctx.endTracking();
+			tracking.checkFailure();
+		} else {
+			ctx.getWriter().writeIterator(ser, name, itr, getElementName(), getElement(), getComments(), ctx);
+		}
 	}
 
 	/**
 	 * @return The name under which each element should be serialized
 	 */
-	protected String getElementName() {
+	public String getElementName() {
 		return elementName;
 	}
 
@@ -85,4 +93,84 @@ public class IteratorSerialization extends CommentSerialization {
 	    setElementName(element.removeDefaultName());
 	    this.element = element;
 	}
+
+	/**
+	 * @return Whether the list should be written as columns and rows, when 
+	 * its elements are complex and the writer supports it
+	 */
+	public boolean isColumnar() {
+		return columnar;
+	}
+
+	/**
+	 * @param columnar Whether the list should be written as columns and 
+	 * rows, when its elements are complex and the writer supports it
+	 */
+	public void setColumnar(boolean columnar) {
+		this.columnar = columnar;
+	}
+
+	/**
+	 * Iterator that notifies the context of each element written, for the
+	 * flush policy. An element is known to be written when the writer asks
+	 * whether there is a next one. As the iterator cannot raise a
+	 * serialization exception, a failure to flush ends the iteration and is
+	 * raised by <code>checkFailure()</code>.
+	 */
+	protected static class TrackingIterator implements Iterator<Object> {
+		private final Iterator<?> itr;
+		private final SerializationContext ctx;
+		private boolean written;
+		private SerializationException failure;
+
+		/**
+		 * Constructor with the specification of the iterator and context
+		 * @param itr The iterator over the elements
+		 * @param ctx The context
+		 */
+		protected TrackingIterator(Iterator<?> itr, SerializationContext ctx) {
+			this.itr = itr;
+			this.ctx = ctx;
+		}
+
+		/**
+		 * @see java.util.Iterator#hasNext()
+		 */
+		public boolean hasNext() {
+			if (written) {
+				written = false;
+				try {
+					ctx.elementWritten();
+				} catch (SerializationException e) {
+					failure = e;
+				}
+			}
+			return (failure == null) && itr.hasNext();
+		}
+
+		/**
+		 * @see java.util.Iterator#next()
+		 */
+		public Object next() {
+			written = true;
+			return itr.next();
+		}
+
+		/**
+		 * @see java.util.Iterator#remove()
+		 */
+		public void remove() {
+			itr.remove();
+		}
+
+		/**
+		 * Raises the failure that ended the iteration, if any
+		 * @throws SerializationException The failure
+		 */
+		protected void checkFailure() throws SerializationException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
 }
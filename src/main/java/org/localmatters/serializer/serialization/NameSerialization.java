@@ -25,6 +25,7 @@ import org.localmatters.serializer.SerializationException;
  */
 public class NameSerialization extends DelegatingSerialization {
 	private String name;
+	private NameTokens nameTokens;
 
 	/**
 	 * @see org.localmatters.serializer.serialization.Serialization#serialize(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
@@ -41,10 +42,21 @@ public class NameSerialization extends DelegatingSerialization {
 	}
 
 	/**
+	 * Sets the name and creates its pre-encoded tokens for the writers
 	 * @param name The name under which to serialize the object
 	 */
 	public void setName(String name) {
 		this.name = name;
+		nameTokens = NameTokens.create(name);
+	}
+
+	/**
+	 * @return The pre-encoded tokens of the name (kept when the name is
+	 * removed, as it is then the one given by the parent serialization) or
+	 * null if the name cannot be pre-encoded
+	 */
+	public NameTokens getNameTokens() {
+		return nameTokens;
 	}
 	
 	/**
@@ -54,7 +66,7 @@ public class NameSerialization extends DelegatingSerialization {
 	public String removeDefaultName() {
 	    super.removeDefaultName();
 	    String removed = getName();
-	    setName(null);
+	    name = null;
 	    return removed;
 	}
 }
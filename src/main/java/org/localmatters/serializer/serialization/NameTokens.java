@@ -0,0 +1,282 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import org.apache.commons.lang.StringUtils;
+
+
+/**
+ * <p>The pre-encoded JSON, XML and CBOR tokens surrounding a name (e.g.
+ * <code>"name": </code>, <code>&lt;name&gt;</code>,
+ * <code>&lt;/name&gt;</code>) so that the writers can output them as a single
+ * array copy instead of re-encoding the name every time it is written.</p>
+ * <p>The tokens are created when the configuration is built and held by the
+ * serializations that define a fixed name (see <code>NameSerialization</code>
+ * and <code>PropertySerialization</code>); the writers find them through the
+ * serialization they are given. Only ASCII names are pre-encoded, as their
+ * encoding is the same in every charset supported by the 
+ * <code>OutputBuffer</code>; the writers fall back to encode the other names
+ * (as well as dynamic ones such as map keys) on the fly.</p>
+ */
+public class NameTokens {
+	private static final int MAJOR_TEXT = 0x60;
+	private final String name;
+	private final byte[] jsonKey;
+	private final byte[] jsonOpenObject;
+	private final byte[] jsonOpenArray;
+	private final byte[] jsonEmptyObject;
+	private final byte[] jsonEmptyArray;
+	private final byte[] jsonMinimalKey;
+	private final byte[] jsonMinimalOpenObject;
+	private final byte[] jsonMinimalOpenArray;
+	private final byte[] jsonMinimalEmptyObject;
+	private final byte[] jsonMinimalEmptyArray;
+	private final byte[] xmlStart;
+	private final byte[] xmlOpen;
+	private final byte[] xmlClose;
+	private final byte[] xmlEmpty;
+	private final byte[] xmlAttribute;
+	private final byte[] cborKey;
+
+	/**
+	 * Constructor with the specification of the (ASCII) name
+	 * @param name The name
+	 */
+	protected NameTokens(String name) {
+		this.name = name;
+		jsonKey = ascii("\"", name, "\": ");
+		jsonOpenObject = ascii("\"", name, "\": {");
+		jsonOpenArray = ascii("\"", name, "\": [");
+		jsonEmptyObject = ascii("\"", name, "\": {}");
+		jsonEmptyArray = ascii("\"", name, "\": []");
+		jsonMinimalKey = ascii("\"", name, "\":");
+		jsonMinimalOpenObject = ascii("\"", name, "\":{");
+		jsonMinimalOpenArray = ascii("\"", name, "\":[");
+		jsonMinimalEmptyObject = ascii("\"", name, "\":{}");
+		jsonMinimalEmptyArray = ascii("\"", name, "\":[]");
+		xmlStart = ascii("<", name, "");
+		xmlOpen = ascii("<", name, ">");
+		xmlClose = ascii("</", name, ">");
+		xmlEmpty = ascii("<", name, "/>");
+		xmlAttribute = ascii(" ", name, "=\"");
+		cborKey = cbor(name);
+	}
+
+	/**
+	 * Creates the tokens for the given name, if it is an ASCII name that is not
+	 * blank
+	 * @param name The name
+	 * @return The tokens for this name or null if it cannot be pre-encoded
+	 */
+	public static NameTokens create(String name) {
+		if (StringUtils.isBlank(name)) {
+			return null;
+		}
+		for (int i=0; i<name.length(); i++) {
+			if (name.charAt(i) >= 0x80) {
+				return null;
+			}
+		}
+		return new NameTokens(name);
+	}
+
+	/**
+	 * Returns the tokens held by the given serialization (or by one of its 
+	 * delegates) for the given name
+	 * @param ser The serialization being written
+	 * @param name The name under which it is written
+	 * @return The tokens or null if none are held for this name
+	 */
+	public static NameTokens get(Serialization ser, String name) {
+		if (name == null) {
+			return null;
+		}
+		while (ser instanceof DelegatingSerialization) {
+			NameTokens tokens = null;
+			if (ser instanceof NameSerialization) {
+				tokens = ((NameSerialization) ser).getNameTokens();
+			} else if (ser instanceof PropertySerialization) {
+				tokens = ((PropertySerialization) ser).getNameTokens();
+			}
+			if ((tokens != null) && name.equals(tokens.getName())) {
+				return tokens;
+			}
+			ser = ((DelegatingSerialization) ser).getDelegate();
+		}
+		return null;
+	}
+
+	/**
+	 * Concatenates and encodes the given ASCII strings
+	 * @param before The string before the name
+	 * @param name The name
+	 * @param after The string after the name
+	 * @return The corresponding bytes
+	 */
+	private static byte[] ascii(String before, String name, String after) {
+		String str = before + name + after;
+		byte[] bytes = new byte[str.length()];
+		for (int i=0; i<bytes.length; i++) {
+			bytes[i] = (byte) str.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes the given ASCII name as a CBOR text string
+	 * @param name The name
+	 * @return The corresponding bytes (header and content)
+	 */
+	private static byte[] cbor(String name) {
+		int len = name.length();
+		int header = (len < 24) ? 1 : (len < 0x100) ? 2 : (len < 0x10000) ? 3 : 5;
+		byte[] bytes = new byte[header + len];
+		if (header == 1) {
+			bytes[0] = (byte) (MAJOR_TEXT | len);
+		} else {
+			bytes[0] = (byte) (MAJOR_TEXT | ((header == 2) ? 24 : (header == 3) ? 25 : 26));
+			for (int i=1; i<header; i++) {
+				bytes[i] = (byte) (len >> ((header - 1 - i) * 8));
+			}
+		}
+		for (int i=0; i<len; i++) {
+			bytes[header + i] = (byte) name.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The JSON key (<code>"name": </code>)
+	 */
+	public byte[] getJsonKey() {
+		return jsonKey;
+	}
+
+	/**
+	 * @return The JSON key opening an object (<code>"name": {</code>)
+	 */
+	public byte[] getJsonOpenObject() {
+		return jsonOpenObject;
+	}
+
+	/**
+	 * @return The JSON key opening an array (<code>"name": [</code>)
+	 */
+	public byte[] getJsonOpenArray() {
+		return jsonOpenArray;
+	}
+
+	/**
+	 * @return The JSON key with an empty object (<code>"name": {}</code>)
+	 */
+	public byte[] getJsonEmptyObject() {
+		return jsonEmptyObject;
+	}
+
+	/**
+	 * @return The JSON key with an empty array (<code>"name": []</code>)
+	 */
+	public byte[] getJsonEmptyArray() {
+		return jsonEmptyArray;
+	}
+
+	/**
+	 * @return The minimal JSON key (<code>"name":</code>)
+	 */
+	public byte[] getJsonMinimalKey() {
+		return jsonMinimalKey;
+	}
+
+	/**
+	 * @return The minimal JSON key opening an object (<code>"name":{</code>)
+	 */
+	public byte[] getJsonMinimalOpenObject() {
+		return jsonMinimalOpenObject;
+	}
+
+	/**
+	 * @return The minimal JSON key opening an array (<code>"name":[</code>)
+	 */
+	public byte[] getJsonMinimalOpenArray() {
+		return jsonMinimalOpenArray;
+	}
+
+	/**
+	 * @return The minimal JSON key with an empty object 
+	 * (<code>"name":{}</code>)
+	 */
+	public byte[] getJsonMinimalEmptyObject() {
+		return jsonMinimalEmptyObject;
+	}
+
+	/**
+	 * @return The minimal JSON key with an empty array 
+	 * (<code>"name":[]</code>)
+	 */
+	public byte[] getJsonMinimalEmptyArray() {
+		return jsonMinimalEmptyArray;
+	}
+
+	/**
+	 * @return The start of the XML tag, before its attributes
+	 * (<code>&lt;name</code>)
+	 */
+	public byte[] getXmlStart() {
+		return xmlStart;
+	}
+
+	/**
+	 * @return The XML opening tag (<code>&lt;name&gt;</code>)
+	 */
+	public byte[] getXmlOpen() {
+		return xmlOpen;
+	}
+
+	/**
+	 * @return The XML closing tag (<code>&lt;/name&gt;</code>)
+	 */
+	public byte[] getXmlClose() {
+		return xmlClose;
+	}
+
+	/**
+	 * @return The XML empty tag (<code>&lt;name/&gt;</code>)
+	 */
+	public byte[] getXmlEmpty() {
+		return xmlEmpty;
+	}
+
+	/**
+	 * @return The start of the XML attribute (<code> name="</code>)
+	 */
+	public byte[] getXmlAttribute() {
+		return xmlAttribute;
+	}
+
+	/**
+	 * @return The CBOR key (the name as a text string)
+	 */
+	public byte[] getCborKey() {
+		return cborKey;
+	}
+}
@@ -35,6 +35,7 @@ import org.localmatters.serializer.resolver.PropertyResolverException;
 public class PropertySerialization extends DelegatingSerialization {
 	private String property;
 	private String defaultName;
+	private NameTokens nameTokens;
 
 	/**
 	 * @see org.localmatters.serializer.serialization.Serialization#serialize(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
@@ -75,22 +76,34 @@ public class PropertySerialization extends DelegatingSerialization {
     public String removeDefaultName() {
         super.removeDefaultName();
         String removed = getDefaultName();
-        setDefaultName(null);
+        defaultName = null;
         return removed;
     }
 
     /**
      * @return The default name
      */
-    protected String getDefaultName() {
+    public String getDefaultName() {
         return defaultName;
     }
 
     /**
+     * Sets the default name and creates its pre-encoded tokens for the 
+     * writers
      * @param defaultName The default name
      */
     protected void setDefaultName(String defaultName) {
         this.defaultName = defaultName;
+        nameTokens = NameTokens.create(defaultName);
+    }
+
+    /**
+     * @return The pre-encoded tokens of the default name (kept when the name
+     * is removed, as it is then the one given by the parent serialization) or
+     * null if the name cannot be pre-encoded
+     */
+    public NameTokens getNameTokens() {
+        return nameTokens;
     }
 	
     
@@ -0,0 +1,135 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.localmatters.serializer.SerializationContext;
+import org.apache.commons.lang.ObjectUtils;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.writer.CharOutputBuffer;
+import org.localmatters.serializer.writer.OutputBuffer;
+
+
+/**
+ * <p>A delegating serialization for a subtree whose output does not depend 
+ * on the serialized object (only on whether it is null), such as the 
+ * constants and the complex elements made of constants only. The bytes it 
+ * renders are kept for each class of writer, charset, formatting depth and 
+ * name, and written back as a single copy on the next serializations. They
+ * are shared by the instances of a writer, as the configurations that change
+ * the bytes written (e.g. the CBOR string references) keep a state in the 
+ * context; the renderings are therefore bounded by the configuration and do
+ * not hold the writers in memory.</p>
+ * <p>These serializations are set by the <code>SkeletonCompiler</code>.
+ * As with the <code>CacheSerialization</code>, the bytes are neither kept 
+ * nor written back when the writer keeps a state in the context or when the
+ * output is written as characters.</p>
+ */
+public class StaticSerialization extends DelegatingSerialization {
+	private final ConcurrentMap<Key, byte[]> renderings = new ConcurrentHashMap<Key, byte[]>();
+
+	/**
+	 * Constructor with the specification of the delegate
+	 * @param delegate The static serialization to render
+	 */
+	public StaticSerialization(Serialization delegate) {
+		setDelegate(delegate);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.serialization.Serialization#serialize(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void serialize(Serialization ser, String name, Object obj, SerializationContext ctx) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		if ((ctx.getWriterState() != null) || (buffer instanceof CharOutputBuffer)) {
+			getDelegate().serialize(ser, name, obj, ctx);
+			return;
+		}
+
+		Key key = new Key(obj != null, name, ctx);
+		byte[] rendering = renderings.get(key);
+		if (rendering == null) {
+			long mark = buffer.mark();
+			getDelegate().serialize(ser, name, obj, ctx);
+			rendering = buffer.copy(mark);
+			buffer.unmark();
+			renderings.putIfAbsent(key, rendering);
+		} else if (rendering.length > 0) {
+			try {
+				buffer.write(rendering);
+			} catch (IOException e) {
+				throw new IOSerializationException(ctx, e);
+			}
+		}
+	}
+
+	/**
+	 * Key of a rendering
+	 */
+	protected static class Key {
+		private final boolean present;
+		private final String name;
+		private final Class<?> writer;
+		private final Charset charset;
+		private final int indentation;
+		private final boolean minimal;
+
+		/**
+		 * Constructor with the specification of the rendering
+		 * @param present Whether the object is not null
+		 * @param name The name under which the object is written
+		 * @param ctx The context
+		 */
+		protected Key(boolean present, String name, SerializationContext ctx) {
+			this.present = present;
+			this.name = name;
+			this.writer = ctx.getWriter().getClass();
+			this.charset = ctx.getCharset();
+			// the indentation of a formatted rendering depends on its depth
+			this.indentation = ctx.isFormatting() ? ctx.getDeepness() : -1;
+			this.minimal = ctx.isMinimal();
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * (31 * ObjectUtils.hashCode(name) + writer.hashCode()) + indentation;
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return (present == key.present)
+				&& (writer == key.writer)
+				&& (indentation == key.indentation)
+				&& (minimal == key.minimal)
+				&& ObjectUtils.equals(name, key.name)
+				&& ObjectUtils.equals(charset, key.charset);
+		}
+	}
+}
@@ -31,7 +31,6 @@ import static org.localmatters.serializer.util.SerializationUtils.createConstant
 import static org.localmatters.serializer.util.SerializationUtils.createName;
 import static org.localmatters.serializer.util.SerializationUtils.getSingular;
 
-import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -392,10 +391,12 @@ public class ConfigWriterFromClass {
 		ComplexPropertyResolver resolver = new ComplexPropertyResolver();
 		resolver.setToken(".");
 		resolver.setDelegate(beanUtils);
-		SerializationContext ctx = new SerializationContext(writer, resolver, new ByteArrayOutputStream());
+		StringBuilder sb = new StringBuilder();
+		SerializationContext ctx = new SerializationContext(writer, resolver, null);
+		ctx.setAppendable(sb);
 		ctx.setFormatting(true);
 		Serialization serialization = getSerialization(classes);
 		writer.writeRoot(serialization, classes, ctx);
-		return ctx.getOutputStream().toString();
+		return sb.toString();
 	}
 }
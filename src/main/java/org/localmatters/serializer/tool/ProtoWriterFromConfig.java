@@ -0,0 +1,395 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.config.ConfigurationException;
+import org.localmatters.serializer.config.XmlSerializationParser;
+import org.localmatters.serializer.serialization.BeanSerialization;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.ConstantSerialization;
+import org.localmatters.serializer.serialization.DelegatingSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.MapSerialization;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.NamespaceSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.ReferenceSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.util.ReflectionUtils;
+import org.localmatters.serializer.writer.ProtobufWriter;
+
+
+/**
+ * <p>A tool to write the Protocol Buffers definitions (<code>.proto</code>)
+ * matching the output of the <code>ProtobufWriter</code> for a serialization
+ * configuration: one message per complex element with an id (or wrapping the 
+ * other elements with an id) and nested messages for the other complex 
+ * elements.</p>
+ * <p>The configuration does not define the types of the values, so they are
+ * resolved from the classes of the objects serialized by the elements with
+ * an id, when given, by following the properties of the configuration. The 
+ * values whose type cannot be resolved are defined as strings and flagged 
+ * with a comment, to be checked manually.</p>
+ */
+public class ProtoWriterFromConfig {
+	public static final String DUPLICATE_FIELD_FORMAT = "Duplicate field number %s in the message %s!";
+	private static final String INDENTATION = "  ";
+	private static final String REPEATED = "repeated ";
+	private static final String UNKNOWN_TYPE = " // unknown type";
+	private Map<String, Serialization> serializations;
+	private Map<String, Class<?>> classes;
+	private Map<Serialization, String> messages;
+	private boolean unknown;
+
+	/**
+	 * Constructor with the specification of the configuration and classes
+	 * @param serializations The serializations by id
+	 * @param classes The classes of the objects serialized by the 
+	 * serializations, by id (can be null)
+	 */
+	protected ProtoWriterFromConfig(Map<String, Serialization> serializations, Map<String, Class<?>> classes) {
+		this.serializations = new TreeMap<String, Serialization>(serializations);
+		this.classes = (classes == null) ? Collections.<String, Class<?>>emptyMap() : classes;
+	}
+
+	/**
+	 * Writes the definitions
+	 * @param protoPackage The package of the definitions (can be null)
+	 * @return The definitions
+	 */
+	protected String write(String protoPackage) {
+		StringBuilder sb = new StringBuilder("syntax = \"proto3\";\n");
+		if (StringUtils.isNotBlank(protoPackage)) {
+			sb.append("\npackage ").append(protoPackage).append(";\n");
+		}
+
+		messages = new IdentityHashMap<Serialization, String>();
+		for (Map.Entry<String, Serialization> entry : serializations.entrySet()) {
+			Serialization contextless = entry.getValue().getContextlessSerialization();
+			if (contextless instanceof ComplexSerialization) {
+				messages.put(contextless, getMessageName(entry.getKey()));
+			}
+		}
+
+		for (Map.Entry<String, Serialization> entry : serializations.entrySet()) {
+			String id = entry.getKey();
+			Serialization ser = entry.getValue();
+			Serialization contextless = ser.getContextlessSerialization();
+			Type type = classes.get(id);
+			sb.append('\n');
+			if (contextless instanceof ComplexSerialization) {
+				writeMessage(sb, StringUtils.EMPTY, messages.get(contextless), (ComplexSerialization) contextless, type);
+			} else {
+				// the other roots are written as the first field of a message
+				StringBuilder nested = new StringBuilder();
+				String name = getFieldName(ser, id);
+				unknown = false;
+				String fieldType = getFieldType(contextless, name, type, nested, INDENTATION);
+				sb.append("message ").append(getMessageName(id)).append(" {\n").append(nested);
+				writeField(sb, INDENTATION, fieldType, name, ProtobufWriter.ROOT_FIELD);
+				sb.append("}\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the definition of a message
+	 * @param sb The builder where to write
+	 * @param indent The indentation of the message
+	 * @param name The name of the message
+	 * @param complex The complex serialization
+	 * @param type The type of the object serialized by the complex 
+	 * serialization (can be null if unknown)
+	 */
+	protected void writeMessage(StringBuilder sb, String indent, String name, ComplexSerialization complex, Type type) {
+		List<Serialization> fields = new ArrayList<Serialization>(complex.getAttributes());
+		fields.addAll(complex.getElements());
+		StringBuilder nested = new StringBuilder();
+		StringBuilder definitions = new StringBuilder();
+		Set<Integer> numbers = new HashSet<Integer>();
+		int position = 0;
+		for (Serialization field : fields) {
+			position++;
+			if (field.getContextlessSerialization() instanceof NamespaceSerialization) {
+				continue;
+			}
+			int number = ProtobufWriter.getFieldNumber(field, position);
+			if (!numbers.add(number)) {
+				throw new ConfigurationException(DUPLICATE_FIELD_FORMAT, number, name);
+			}
+			String fieldName = getFieldName(field, "field" + number);
+			unknown = false;
+			String fieldType = getFieldType(field, fieldName, getPropertyType(field, type), nested, indent + INDENTATION);
+			writeField(definitions, indent + INDENTATION, fieldType, fieldName, number);
+		}
+		sb.append(indent).append("message ").append(name).append(" {\n");
+		sb.append(nested).append(definitions);
+		sb.append(indent).append("}\n");
+	}
+
+	/**
+	 * Writes the definition of a field
+	 * @param sb The builder where to write
+	 * @param indent The indentation of the field
+	 * @param fieldType The type of the field
+	 * @param name The name of the field
+	 * @param number The number of the field
+	 */
+	protected void writeField(StringBuilder sb, String indent, String fieldType, String name, int number) {
+		sb.append(indent).append(fieldType).append(' ').append(getIdentifier(name)).append(" = ").append(number).append(';');
+		if (unknown) {
+			sb.append(UNKNOWN_TYPE);
+		}
+		sb.append('\n');
+	}
+
+	/**
+	 * Returns the type of a field, writing the definitions of the nested 
+	 * messages it needs
+	 * @param ser The serialization of the field
+	 * @param name The name of the field
+	 * @param type The type of the value of the field (can be null if unknown)
+	 * @param nested The builder where to write the nested messages
+	 * @param indent The indentation of the nested messages
+	 * @return The type of the field
+	 */
+	protected String getFieldType(Serialization ser, String name, Type type, StringBuilder nested, String indent) {
+		if (isConstant(ser)) {
+			return ProtobufWriter.getProtoType(String.class);
+		}
+		Serialization contextless = ser.getContextlessSerialization();
+		if (contextless instanceof ReferenceSerialization) {
+			Serialization referenced = ((ReferenceSerialization) contextless).getReferenced();
+			String message = messages.get(referenced);
+			if (message != null) {
+				return message;
+			}
+			return getFieldType(referenced, name, type, nested, indent);
+		} 
+		if (contextless instanceof ComplexSerialization) {
+			String message = messages.get(contextless);
+			if (message == null) {
+				message = getMessageName(name);
+				// the nested fields flag their own unknown types
+				boolean unknownField = unknown;
+				writeMessage(nested, indent, message, (ComplexSerialization) contextless, type);
+				unknown = unknownField;
+			}
+			return message;
+		} 
+		if (contextless instanceof IteratorSerialization) {
+			IteratorSerialization iterator = (IteratorSerialization) contextless;
+			Serialization element = iterator.getElement();
+			String elementName = StringUtils.defaultIfEmpty(iterator.getElementName(), name);
+			Type elementType = getPropertyType(element, getElementType(type));
+			// nested iterators are flattened by the writer
+			return REPEATED + StringUtils.removeStart(getFieldType(element, elementName, elementType, nested, indent), REPEATED);
+		} 
+		if (contextless instanceof MapSerialization) {
+			Serialization value = ((MapSerialization) contextless).getValue();
+			Type[] arguments = ReflectionUtils.getTypeArgumentsForType(type);
+			Type valueType = ((arguments != null) && (arguments.length == 2)) ? arguments[1] : null;
+			return "map<string, " + getFieldType(value, name, getPropertyType(value, valueType), nested, indent) + ">";
+		}
+		Class<?> klass = getRawClass(type);
+		if (klass == null) {
+			unknown = true;
+			return ProtobufWriter.getProtoType(String.class);
+		}
+		return ProtobufWriter.getProtoType(klass);
+	}
+
+	/**
+	 * Returns the name of the given field, as set by the configuration
+	 * @param ser The serialization of the field
+	 * @param def The default name
+	 * @return The name or the default one if none is set
+	 */
+	protected static String getFieldName(Serialization ser, String def) {
+		String property = null;
+		while (ser instanceof DelegatingSerialization) {
+			if ((ser instanceof NameSerialization) && StringUtils.isNotBlank(((NameSerialization) ser).getName())) {
+				return ((NameSerialization) ser).getName();
+			}
+			if ((ser instanceof PropertySerialization) && (property == null)) {
+				property = ((PropertySerialization) ser).getDefaultName();
+			}
+			ser = ((DelegatingSerialization) ser).getDelegate();
+		}
+		return StringUtils.defaultIfEmpty(property, def);
+	}
+
+	/**
+	 * Checks whether the given serialization writes a constant
+	 * @param ser The serialization
+	 * @return True if the serialization writes a constant
+	 */
+	protected static boolean isConstant(Serialization ser) {
+		while (ser instanceof DelegatingSerialization) {
+			if (ser instanceof ConstantSerialization) {
+				return true;
+			}
+			ser = ((DelegatingSerialization) ser).getDelegate();
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the type of the object passed by the given serialization to its
+	 * contextless serialization, following its properties
+	 * @param ser The serialization
+	 * @param type The type of the object given to the serialization (can be
+	 * null if unknown)
+	 * @return The type of the object or null if it is unknown
+	 */
+	protected static Type getPropertyType(Serialization ser, Type type) {
+		while ((ser instanceof DelegatingSerialization) && (type != null)) {
+			if (ser instanceof BeanSerialization) {
+				return null;
+			}
+			if (ser instanceof PropertySerialization) {
+				for (String property : StringUtils.split(((PropertySerialization) ser).getProperty(), '.')) {
+					type = getGetterType(type, property);
+				}
+			}
+			ser = ((DelegatingSerialization) ser).getDelegate();
+		}
+		return type;
+	}
+
+	/**
+	 * Returns the return type of the getter of a property
+	 * @param type The type holding the property (can be null if unknown)
+	 * @param property The property
+	 * @return The type of the property or null if it is unknown
+	 */
+	protected static Type getGetterType(Type type, String property) {
+		Class<?> klass = getRawClass(type);
+		if (klass != null) {
+			for (Method getter : ReflectionUtils.getGetters(klass)) {
+				if (property.equals(ReflectionUtils.getGetterFieldName(getter))) {
+					return getter.getGenericReturnType();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the type of the elements of the given iterable or array type
+	 * @param type The type (can be null if unknown)
+	 * @return The type of the elements or null if it is unknown
+	 */
+	protected static Type getElementType(Type type) {
+		if (type instanceof GenericArrayType) {
+			return ((GenericArrayType) type).getGenericComponentType();
+		}
+		Class<?> klass = getRawClass(type);
+		if ((klass == null) || Map.class.isAssignableFrom(klass)) {
+			return null;
+		}
+		Type[] arguments = ReflectionUtils.getTypeArgumentsForType(type);
+		return ((arguments != null) && (arguments.length == 1)) ? arguments[0] : null;
+	}
+
+	/**
+	 * Returns the class of the given type
+	 * @param type The type (can be null if unknown)
+	 * @return The class or null if it is unknown
+	 */
+	protected static Class<?> getRawClass(Type type) {
+		if (type instanceof Class<?>) {
+			return (Class<?>) type;
+		}
+		if ((type instanceof ParameterizedType) && (((ParameterizedType) type).getRawType() instanceof Class<?>)) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the name of the message for the given element name (e.g. 
+	 * <code>SearchResult</code> for <code>search-result</code>)
+	 * @param name The element name
+	 * @return The name of the message
+	 */
+	protected static String getMessageName(String name) {
+		StringBuilder sb = new StringBuilder();
+		for (String part : StringUtils.split(name, "_-.: ")) {
+			sb.append(StringUtils.capitalize(getIdentifier(part)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the given name as a valid identifier
+	 * @param name The name
+	 * @return The identifier
+	 */
+	protected static String getIdentifier(String name) {
+		String identifier = name.replaceAll("\\W", "_");
+		if (!Character.isLetter(identifier.charAt(0))) {
+			identifier = "f" + identifier;
+		}
+		return identifier;
+	}
+
+	/**
+	 * Returns the Protocol Buffers definitions for the given configuration
+	 * @param protoPackage The package of the definitions (can be null)
+	 * @param serializations The serializations by id
+	 * @param classes The classes of the objects serialized by the 
+	 * serializations, by id (can be null)
+	 * @return The definitions
+	 * @throws ConfigurationException When the same field number is used 
+	 * twice in a message
+	 */
+	public static String getProto(String protoPackage, Map<String, Serialization> serializations, Map<String, Class<?>> classes) {
+		return new ProtoWriterFromConfig(serializations, classes).write(protoPackage);
+	}
+
+	/**
+	 * Returns the Protocol Buffers definitions for the given XML configuration
+	 * @param protoPackage The package of the definitions (can be null)
+	 * @param config The XML configuration
+	 * @param classes The classes of the objects serialized by the 
+	 * serializations, by id (can be null)
+	 * @return The definitions
+	 * @throws IOException When the configuration cannot be read
+	 * @throws ConfigurationException When the configuration is invalid or the
+	 * same field number is used twice in a message
+	 */
+	public static String getProto(String protoPackage, InputStream config, Map<String, Class<?>> classes) throws IOException {
+		return getProto(protoPackage, new XmlSerializationParser().parse(config), classes);
+	}
+}
@@ -15,8 +15,6 @@
 */
 package org.localmatters.serializer.util;
 
-import java.io.StringWriter;
-
 import org.apache.commons.lang.StringEscapeUtils;
 
 /**
@@ -24,11 +22,44 @@ import org.apache.commons.lang.StringEscapeUtils;
  */
 public class EscapeUtils extends StringEscapeUtils {
 
+	private static final char[] JSON_ESCAPES = new char[128];
+	static {
+		JSON_ESCAPES['\b'] = 'b';
+		JSON_ESCAPES['\n'] = 'n';
+		JSON_ESCAPES['\t'] = 't';
+		JSON_ESCAPES['\f'] = 'f';
+		JSON_ESCAPES['\r'] = 'r';
+		JSON_ESCAPES['"'] = '"';
+		JSON_ESCAPES['\\'] = '\\';
+	}
+
+	private static final char[] TSV_ESCAPES = new char[128];
+	static {
+		TSV_ESCAPES['\t'] = 't';
+		TSV_ESCAPES['\n'] = 'n';
+		TSV_ESCAPES['\r'] = 'r';
+		TSV_ESCAPES['\\'] = '\\';
+	}
+
+	private static final String[] XML_TEXT_ESCAPES = new String[128];
+	private static final String[] XML_ATTRIBUTE_ESCAPES = new String[128];
+	static {
+		XML_TEXT_ESCAPES['&'] = "&amp;";
+		XML_TEXT_ESCAPES['<'] = "&lt;";
+		XML_TEXT_ESCAPES['>'] = "&gt;";
+		System.arraycopy(XML_TEXT_ESCAPES, 0, XML_ATTRIBUTE_ESCAPES, 0, 128);
+		XML_ATTRIBUTE_ESCAPES['"'] = "&quot;";
+		XML_ATTRIBUTE_ESCAPES['\t'] = "&#9;";
+		XML_ATTRIBUTE_ESCAPES['\n'] = "&#10;";
+		XML_ATTRIBUTE_ESCAPES['\r'] = "&#13;";
+	}
+
 	/**
      * Escapes the characters in a <code>String</code> using JSON String rules.
      * Deals correctly with quotes and control-chars (tab, backslash, cr, ff, 
      * etc.). So a tab becomes the characters <code>'\\'</code> and 
-     * <code>'t'</code>.
+     * <code>'t'</code>. The string itself is returned when it does not 
+     * contain any character to escape.
      * @param str The string to escape
      * @return The escaped string
      */
@@ -36,45 +67,141 @@ public class EscapeUtils extends StringEscapeUtils {
         if (str == null) {
             return null;
         }
-        StringWriter writer = new StringWriter(str.length() * 2);
-        int sz;
-        sz = str.length();
-        for (int i=0; i<sz; i++) {
-        	char ch = str.charAt(i);
-    		switch (ch) {
-    		case '\b':
-    			writer.write('\\');
-    			writer.write('b');
-    			break;
-    		case '\n':
-    			writer.write('\\');
-    			writer.write('n');
-    			break;
-    		case '\t':
-    			writer.write('\\');
-    			writer.write('t');
-    			break;
-    		case '\f':
-    			writer.write('\\');
-    			writer.write('f');
-    			break;
-    		case '\r':
-    			writer.write('\\');
-    			writer.write('r');
-    			break;
-            case '"':
-            	writer.write('\\');
-            	writer.write('"');
-                break;
-            case '\\':
-            	writer.write('\\');
-            	writer.write('\\');
-                break;
-    		default :
-    			writer.write(ch);
-    			break;
-    		}
+        int i = indexOfJsonEscape(str, 0);
+        if (i < 0) {
+        	return str;
+        }
+        int sz = str.length();
+        StringBuilder sb = new StringBuilder(sz + 16);
+        int start = 0;
+        while (i >= 0) {
+        	sb.append(str, start, i).append('\\').append(getJsonEscape(str.charAt(i)));
+        	start = i + 1;
+        	i = indexOfJsonEscape(str, start);
         }
-        return writer.toString();
+        sb.append(str, start, sz);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the index of the first character that needs to be escaped in 
+     * JSON, starting the search at the given index
+     * @param str The string to scan
+     * @param from The index from which to start the search
+     * @return The index of the first character to escape or -1 if none
+     */
+    public static int indexOfJsonEscape(String str, int from) {
+    	char[] escapes = JSON_ESCAPES;
+    	for (int i=from, sz=str.length(); i<sz; i++) {
+    		char ch = str.charAt(i);
+    		if ((ch < 128) && (escapes[ch] != 0)) {
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+
+    /**
+     * Returns the character to write after the backslash to escape the given
+     * character in JSON
+     * @param ch The character to escape
+     * @return The escaping character or 0 if the character does not need to
+     * be escaped
+     */
+    public static char getJsonEscape(char ch) {
+    	if (ch < 128) {
+    		return JSON_ESCAPES[ch];
+    	}
+    	return 0;
+    }
+
+    /**
+     * Returns the index of the first character that needs to be escaped in 
+     * XML, starting the search at the given index. Besides the markup
+     * characters, all the non-ASCII characters are escaped (as numeric 
+     * character references) so that the output does not depend on the 
+     * charset.
+     * @param str The string to scan
+     * @param from The index from which to start the search
+     * @param attribute Whether the string is an attribute value (delimited by
+     * double quotes) or a text node
+     * @return The index of the first character to escape or -1 if none
+     */
+    public static int indexOfXmlEscape(String str, int from, boolean attribute) {
+    	String[] escapes = attribute ? XML_ATTRIBUTE_ESCAPES : XML_TEXT_ESCAPES;
+    	for (int i=from, sz=str.length(); i<sz; i++) {
+    		char ch = str.charAt(i);
+    		if ((ch >= 128) || (escapes[ch] != null)) {
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+
+    /**
+     * Returns the entity to escape the given ASCII character in XML
+     * @param ch The character to escape
+     * @param attribute Whether the character is part of an attribute value 
+     * or of a text node
+     * @return The entity or null if the character is not an ASCII character 
+     * that needs to be escaped
+     */
+    public static String getXmlEscape(char ch, boolean attribute) {
+    	if (ch < 128) {
+    		return attribute ? XML_ATTRIBUTE_ESCAPES[ch] : XML_TEXT_ESCAPES[ch];
+    	}
+    	return null;
+    }
+
+    /**
+     * Returns the index of the first character that requires a CSV field to
+     * be quoted (RFC 4180): the delimiter, a double quote or a line break, 
+     * starting the search at the given index
+     * @param str The string to scan
+     * @param from The index from which to start the search
+     * @param delimiter The delimiter of the fields
+     * @return The index of the first character requiring quotes or -1 if none
+     */
+    public static int indexOfCsvQuote(String str, int from, char delimiter) {
+    	for (int i=from, sz=str.length(); i<sz; i++) {
+    		char ch = str.charAt(i);
+    		if ((ch == delimiter) || (ch == '"') || (ch == '\n') || (ch == '\r')) {
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+
+    /**
+     * Returns the index of the first character that needs to be escaped in a
+     * TSV field (tab, line break or backslash), starting the search at the 
+     * given index
+     * @param str The string to scan
+     * @param from The index from which to start the search
+     * @return The index of the first character to escape or -1 if none
+     */
+    public static int indexOfTsvEscape(String str, int from) {
+    	char[] escapes = TSV_ESCAPES;
+    	for (int i=from, sz=str.length(); i<sz; i++) {
+    		char ch = str.charAt(i);
+    		if ((ch < 128) && (escapes[ch] != 0)) {
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+
+    /**
+     * Returns the character to write after the backslash to escape the given
+     * character in a TSV field
+     * @param ch The character to escape
+     * @return The escaping character or 0 if the character does not need to
+     * be escaped
+     */
+    public static char getTsvEscape(char ch) {
+    	if (ch < 128) {
+    		return TSV_ESCAPES[ch];
+    	}
+    	return 0;
     }
 }
@@ -16,15 +16,18 @@
 package org.localmatters.serializer.writer;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.localmatters.serializer.SerializationContext;
 import org.localmatters.serializer.SerializationException;
 import org.localmatters.serializer.resolver.PropertyResolverException;
+import org.localmatters.serializer.serialization.DelegatingSerialization;
 import org.localmatters.serializer.serialization.IOSerializationException;
 import org.localmatters.serializer.serialization.NameExpectedException;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.Serialization;
 import org.localmatters.serializer.serialization.UnknownPropertyException;
 
 
@@ -32,6 +35,17 @@ import org.localmatters.serializer.serialization.UnknownPropertyException;
  * This class defines a common functionalities between serializers
  */
 public abstract class AbstractWriter implements Writer {
+	protected static final byte[] NO_PREFIX = new byte[0];
+	private static final byte[] TRUE_BYTES = "true".getBytes();
+	private static final byte[] FALSE_BYTES = "false".getBytes();
+
+	/**
+	 * @return Whether the output of this writer is binary, in which case it
+	 * cannot be written as characters (false by default)
+	 */
+	public boolean isBinary() {
+		return false;
+	}
 
 	/**
 	 * Writes the given string
@@ -41,7 +55,14 @@ public abstract class AbstractWriter implements Writer {
 	 * @throws SerializationException When the writing failed
 	 */
 	protected AbstractWriter write(SerializationContext ctx, String str) throws SerializationException {
-		return write(ctx, str.getBytes());
+		try {
+			if (str.length() > 0) {
+				ctx.getBuffer().write(str);
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+		return this;
 	}
 
 	/**
@@ -54,13 +75,7 @@ public abstract class AbstractWriter implements Writer {
 	protected AbstractWriter write(SerializationContext ctx, byte[] bytes) throws SerializationException {
 		try {
 			if (bytes.length > 0) {
-				Iterator<byte[]> itr = ctx.getPrefixes().iterator();
-				while (itr.hasNext()) {
-				    byte[] prefix = itr.next();
-				    ctx.getOutputStream().write(prefix);
-				    itr.remove();
-				}
-				ctx.getOutputStream().write(bytes);
+				ctx.getBuffer().write(bytes);
 			}
 		} catch (IOException e) {
 			throw new IOSerializationException(ctx, e);
@@ -68,6 +83,98 @@ public abstract class AbstractWriter implements Writer {
 		return this;
 	}
 
+	/**
+	 * Checks whether the given value is a number or boolean wrapper that can
+	 * be written directly, without going through its string representation
+	 * @param value The value
+	 * @return True if the value can be written directly
+	 */
+	protected static boolean isDirect(Object value) {
+		Class<?> klass = value.getClass();
+		return (klass == Integer.class) 
+			|| (klass == Long.class) 
+			|| (klass == Double.class) 
+			|| (klass == Boolean.class) 
+			|| (klass == Float.class) 
+			|| (klass == Short.class) 
+			|| (klass == Byte.class);
+	}
+
+	/**
+	 * Writes the given number or boolean wrapper (see 
+	 * <code>isDirect(Object)</code>) directly into the buffer
+	 * @param ctx The context
+	 * @param value The value to write
+	 * @return The writer itself for ease of coding
+	 * @throws SerializationException When the writing failed
+	 */
+	protected AbstractWriter writeDirect(SerializationContext ctx, Object value) throws SerializationException {
+		try {
+			OutputBuffer buffer = ctx.getBuffer();
+			Class<?> klass = value.getClass();
+			if (klass == Double.class) {
+				buffer.writeDouble(((Double) value).doubleValue());
+			} else if (klass == Float.class) {
+				buffer.writeFloat(((Float) value).floatValue());
+			} else if (klass == Boolean.class) {
+				buffer.write(((Boolean) value).booleanValue() ? TRUE_BYTES : FALSE_BYTES);
+			} else {
+				buffer.writeLong(((Number) value).longValue());
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+		return this;
+	}
+
+	/**
+	 * Serializes the given element, discarding everything written from the 
+	 * given mark (e.g. the element separator) when the element itself wrote 
+	 * nothing
+	 * @param ctx The context
+	 * @param mark The position to rewind to, marked by the caller
+	 * @param element The serialization of the element
+	 * @param name The name of the element
+	 * @param object The object to serialize
+	 * @return True if the element has been written, false if it was empty
+	 * @throws SerializationException When the serialization failed
+	 */
+	protected static boolean serializeOrRewind(SerializationContext ctx, 
+			long mark, 
+			Serialization element, 
+			String name, 
+			Object object) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		long position = buffer.position();
+		element.serialize(element, name, object, ctx);
+		if (buffer.position() == position) {
+			buffer.rewind(mark);
+			return false;
+		}
+		buffer.unmark();
+		return true;
+	}
+
+	/**
+	 * Commits the content of an element (object, list...) once its first 
+	 * entry has been written, as its opening can no longer be discarded, so
+	 * that the tentative marks of the element and of the elements enclosing
+	 * it no longer hold their position and the next entries can be spilled 
+	 * (and flushed) as they are written instead of being held until the end 
+	 * of the document. The mark of the element must still be released.
+	 * @param buffer The buffer
+	 * @param start The position right after the opening
+	 * @param pending Whether nothing has been committed yet
+	 * @return Whether nothing has been committed yet
+	 */
+	protected static boolean releaseWhenWritten(OutputBuffer buffer, long start, boolean pending) {
+		if (pending && (buffer.position() != start)) {
+			buffer.commit();
+			return false;
+		}
+		return pending;
+	}
+
 	/**
 	 * Resolves the serialization key for the given map entry 
 	 * @param keyProperty The property of the map entry key that should be 
@@ -108,4 +215,24 @@ public abstract class AbstractWriter implements Writer {
 		}
 		return name;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the name under which the given serialization is written, as 
+	 * set by the configuration (its name or, by default, its property)
+	 * @param ser The serialization
+	 * @return The name or null if none is set
+	 */
+	protected static String getConfiguredName(Serialization ser) {
+		String property = null;
+		while (ser instanceof DelegatingSerialization) {
+			if ((ser instanceof NameSerialization) && StringUtils.isNotEmpty(((NameSerialization) ser).getName())) {
+				return ((NameSerialization) ser).getName();
+			}
+			if ((ser instanceof PropertySerialization) && (property == null)) {
+				property = ((PropertySerialization) ser).getDefaultName();
+			}
+			ser = ((DelegatingSerialization) ser).getDelegate();
+		}
+		return property;
+	}
+}
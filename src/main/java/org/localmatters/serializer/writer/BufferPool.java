@@ -0,0 +1,100 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.lang.ref.SoftReference;
+
+
+/**
+ * Pool of reusable byte (and char) arrays backing the output buffers. Each thread keeps
+ * (softly) the largest array it has released so that consecutive
+ * serializations on the same thread do not have to allocate a new buffer,
+ * without requiring any locking between threads.
+ */
+public abstract class BufferPool {
+	/** Arrays larger than this capacity are not kept in the pool */
+	public static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+	private static final ThreadLocal<SoftReference<byte[]>> POOL = new ThreadLocal<SoftReference<byte[]>>();
+	private static final ThreadLocal<SoftReference<char[]>> CHAR_POOL = new ThreadLocal<SoftReference<char[]>>();
+
+	/**
+	 * Returns a byte array of at least the given capacity, reusing the one
+	 * pooled for the current thread when it is large enough
+	 * @param minCapacity The minimum capacity of the array
+	 * @return The byte array
+	 */
+	public static byte[] acquire(int minCapacity) {
+		SoftReference<byte[]> ref = POOL.get();
+		if (ref != null) {
+			byte[] bytes = ref.get();
+			if ((bytes != null) && (bytes.length >= minCapacity)) {
+				POOL.remove();
+				return bytes;
+			}
+		}
+		return new byte[minCapacity];
+	}
+
+	/**
+	 * Returns the given array to the pool of the current thread. The array
+	 * must not be used by the caller anymore after this call.
+	 * @param bytes The byte array to release
+	 */
+	public static void release(byte[] bytes) {
+		if ((bytes == null) || (bytes.length > MAX_POOLED_CAPACITY)) {
+			return;
+		}
+		SoftReference<byte[]> ref = POOL.get();
+		byte[] pooled = (ref == null) ? null : ref.get();
+		if ((pooled == null) || (pooled.length < bytes.length)) {
+			POOL.set(new SoftReference<byte[]>(bytes));
+		}
+	}
+
+	/**
+	 * Returns a char array of at least the given capacity, reusing the one
+	 * pooled for the current thread when it is large enough
+	 * @param minCapacity The minimum capacity of the array
+	 * @return The char array
+	 */
+	public static char[] acquireChars(int minCapacity) {
+		SoftReference<char[]> ref = CHAR_POOL.get();
+		if (ref != null) {
+			char[] chars = ref.get();
+			if ((chars != null) && (chars.length >= minCapacity)) {
+				CHAR_POOL.remove();
+				return chars;
+			}
+		}
+		return new char[minCapacity];
+	}
+
+	/**
+	 * Returns the given array to the pool of the current thread. The array
+	 * must not be used by the caller anymore after this call.
+	 * @param chars The char array to release
+	 */
+	public static void release(char[] chars) {
+		if ((chars == null) || (chars.length > MAX_POOLED_CAPACITY)) {
+			return;
+		}
+		SoftReference<char[]> ref = CHAR_POOL.get();
+		char[] pooled = (ref == null) ? null : ref.get();
+		if ((pooled == null) || (pooled.length < chars.length)) {
+			CHAR_POOL.set(new SoftReference<char[]>(chars));
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Consumes the output copied into the byte buffer of a 
+ * <code>ChannelOutputBuffer</code> that has no channel, each time the byte 
+ * buffer is full and when the output is flushed, so that an output larger 
+ * than the byte buffer can be written through it.
+ */
+public interface ByteBufferDrain {
+
+	/**
+	 * Consumes the content of the given byte buffer, which is ready to be 
+	 * read (i.e. flipped). The bytes that are left unread are kept at the 
+	 * start of the byte buffer for the next drain.
+	 * @param byteBuffer The byte buffer to drain
+	 * @throws IOException When the content could not be consumed
+	 */
+	public void drain(ByteBuffer byteBuffer) throws IOException;
+}
@@ -0,0 +1,755 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.NameTokens;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * <p>This class defines a serialization writer that outputs CBOR (RFC 8949),
+ * following the same structure as the <code>JSONWriter</code>: complex 
+ * elements and maps are written as CBOR maps keyed by their names, iterators 
+ * as CBOR arrays. Numbers, booleans and byte arrays are written with their
+ * native encodings (the floating point numbers in the shortest precision
+ * that preserves their value, the big integers and decimals as tagged
+ * bignums and decimal fractions) and every other value as a text string.</p>
+ * <p>As empty entries are discarded while they are written, maps and arrays
+ * are opened with an indefinite-length header, which is replaced by a 
+ * definite-length one when they end with less than 24 entries (and are 
+ * otherwise closed by a break). The maps and arrays do not hold their 
+ * content in the buffer once an entry has been written, so that large 
+ * outputs are spilled as they are written; when the header of a map or 
+ * array has already been spilled, it is closed by a break whatever its 
+ * number of entries.</p>
+ * <p>When string references are enabled, the output is wrapped in a 
+ * string reference namespace (tag 256) and the strings written more than 
+ * once (mostly the keys) are replaced by references to their first 
+ * occurrence (tag 25), as defined by the stringref extension. The 
+ * consumers must then support this extension.</p>
+ * <p>The comments, name-spaces and formatting of the output are ignored and
+ * the text strings are always encoded in UTF-8, whatever the charset of the
+ * context. The output cannot be written to an <code>Appendable</code>.</p>
+ */
+public class CBORWriter extends AbstractWriter {
+	static final int MAJOR_UNSIGNED = 0x00;
+	static final int MAJOR_NEGATIVE = 0x20;
+	static final int MAJOR_BYTES = 0x40;
+	static final int MAJOR_TEXT = 0x60;
+	static final int MAJOR_ARRAY = 0x80;
+	static final int MAJOR_MAP = 0xA0;
+	static final int MAJOR_TAG = 0xC0;
+	private static final int INDEFINITE = 0x1F;
+	private static final int FALSE = 0xF4;
+	private static final int TRUE = 0xF5;
+	private static final int NULL = 0xF6;
+	private static final int HALF = 0xF9;
+	private static final int SINGLE = 0xFA;
+	private static final int DOUBLE = 0xFB;
+	private static final int BREAK = 0xFF;
+	private static final int TAG_POSITIVE_BIGNUM = 2;
+	private static final int TAG_NEGATIVE_BIGNUM = 3;
+	private static final int TAG_DECIMAL_FRACTION = 4;
+	private static final int TAG_STRING_REFERENCE = 25;
+	private static final int TAG_STRING_NAMESPACE = 256;
+	private static final int MAX_DEFINITE_LENGTH = 23;
+	private static final String VALUE_LEVEL = "value";
+	private static final String MAP_LEVEL = "map";
+	private static final String ITERATOR_LEVEL = "iterator";
+	private static final String COMPLEX_LEVEL = "complex";
+	private boolean stringReferences = false;
+
+	/**
+	 * @see org.localmatters.serializer.writer.AbstractWriter#isBinary()
+	 */
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeRoot(Serialization ser, 
+			Object root, 
+			SerializationContext ctx) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		ctx.startDocument(ser);
+		try {
+			long mark = buffer.markTentative();
+			if (isStringReferences()) {
+				ctx.setWriterState(new StringReferences());
+				writeHeader(ctx, MAJOR_TAG, TAG_STRING_NAMESPACE);
+			} else {
+				ctx.setWriterState(null);
+			}
+			long start = buffer.position();
+
+			Serialization contextless = ser.getContextlessSerialization();
+			if (contextless instanceof ValueSerialization) {
+				long header = buffer.position();
+				writeHeader(ctx, MAJOR_MAP, 0);
+				if (writeEntry(ctx, ser, null, root)) {
+					buffer.set(header, MAJOR_MAP | 1);
+				}
+			} else if (ser instanceof NameSerialization) {
+				contextless = ((NameSerialization) ser).getDelegate();
+				contextless.serialize(contextless, null, root, ctx);
+			} else {
+				ser.serialize(ser, null, root, ctx);
+			}
+
+			// a string reference namespace must contain an item
+			if (buffer.position() == start) {
+				buffer.rewind(mark);
+			} else {
+				buffer.unmark();
+			}
+			ctx.endDocument();
+		} finally {
+			ctx.setWriterState(null);
+			ctx.releaseDocument();
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeValue(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeValue(Serialization ser, 
+			String name,
+			Object value, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
+
+		if (value == null) {
+			if (ser.isWriteEmpty()) {
+				writeKey(ctx, ser, name);
+				writeSimple(ctx, NULL);
+			}
+		} else if (value instanceof Boolean) {
+			writeKey(ctx, ser, name);
+			writeSimple(ctx, ((Boolean) value).booleanValue() ? TRUE : FALSE);
+		} else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short) || (value instanceof Byte)) {
+			writeKey(ctx, ser, name);
+			writeInteger(ctx, ((Number) value).longValue());
+		} else if ((value instanceof Double) || (value instanceof Float)) {
+			writeKey(ctx, ser, name);
+			writeFloatingPoint(ctx, ((Number) value).doubleValue());
+		} else if (value instanceof BigInteger) {
+			writeKey(ctx, ser, name);
+			writeInteger(ctx, (BigInteger) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			writeKey(ctx, ser, name);
+			writeHeader(ctx, MAJOR_TAG, TAG_DECIMAL_FRACTION);
+			writeHeader(ctx, MAJOR_ARRAY, 2);
+			writeInteger(ctx, -decimal.scale());
+			writeInteger(ctx, decimal.unscaledValue());
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			if (bytes.length > 0) {
+				writeKey(ctx, ser, name);
+				writeBytes(ctx, MAJOR_BYTES, bytes);
+			} else if (ser.isWriteEmpty()) {
+				writeKey(ctx, ser, name);
+				writeSimple(ctx, NULL);
+			}
+		} else {
+			String str = value.toString();
+			if (StringUtils.isNotEmpty(str)) {
+				writeKey(ctx, ser, name);
+				writeText(ctx, str);
+			} else if (ser.isWriteEmpty()) {
+				writeKey(ctx, ser, name);
+				writeSimple(ctx, NULL);
+			}
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeAttribute(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeAttribute(Serialization ser, 
+			String name,
+			Object attribute, 
+			SerializationContext ctx) throws SerializationException {
+		writeValue(ser, checkRequiredName(ctx, name), attribute, ctx);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeNamespace(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeNamespace(Serialization ser, 
+			String name,
+			Object namespace, 
+			SerializationContext ctx) throws SerializationException {
+		// name-spaces are not a CBOR concept supported
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeComplex(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, java.util.Collection, java.util.Collection, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeComplex(Serialization ser, 
+			String name,
+			Object object, 
+			Collection<Serialization> attributes, 
+			Collection<Serialization> elements, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, COMPLEX_LEVEL));
+		boolean empty = true;
+
+		if (CollectionUtils.isNotEmpty(attributes) || CollectionUtils.isNotEmpty(elements)) {
+			OutputBuffer buffer = ctx.getBuffer();
+			int strings = getStringCount(ctx);
+			long mark = buffer.markTentative();
+			writeKey(ctx, ser, name);
+			long header = buffer.position();
+			writeIndefinite(ctx, MAJOR_MAP);
+			int entries = 0;
+			if (CollectionUtils.isNotEmpty(attributes)) {
+				for (Serialization attribute : attributes) {
+					if (writeEntry(ctx, attribute, null, object)) {
+						entries++;
+						buffer.commit();
+					}
+				}
+			}
+			if (CollectionUtils.isNotEmpty(elements)) {
+				for (Serialization element : elements) {
+					if (writeEntry(ctx, element, null, object)) {
+						entries++;
+						buffer.commit();
+					}
+				}
+			}
+			empty = !writeEnd(ctx, mark, strings, header, MAJOR_MAP, entries);
+		}
+
+		if (empty && ser.isWriteEmpty()) {
+			writeKey(ctx, ser, name);
+			writeHeader(ctx, MAJOR_MAP, 0);
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeIterator(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Iterator, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeIterator(Serialization ser, 
+			String name,
+			Iterator<?> itr, 
+			String elementName,
+			Serialization element, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, ITERATOR_LEVEL));
+		boolean empty = true;
+
+		if (itr.hasNext()) {
+			OutputBuffer buffer = ctx.getBuffer();
+			int strings = getStringCount(ctx);
+			long mark = buffer.markTentative();
+			writeKey(ctx, ser, name);
+			long header = buffer.position();
+			writeIndefinite(ctx, MAJOR_ARRAY);
+			int entries = 0;
+			while (itr.hasNext()) {
+				if (writeEntry(ctx, element, null, itr.next())) {
+					entries++;
+					buffer.commit();
+				}
+			}
+			empty = !writeEnd(ctx, mark, strings, header, MAJOR_ARRAY, entries);
+		}
+
+		if (empty && ser.isWriteEmpty()) {
+			writeKey(ctx, ser, name);
+			writeHeader(ctx, MAJOR_ARRAY, 0);
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeMap(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Collection, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	@SuppressWarnings("rawtypes")
+	public void writeMap(Serialization ser, 
+			String name,
+			Collection<Map.Entry> entries, 
+			String key,
+			Serialization value, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, MAP_LEVEL));
+		boolean empty = true;
+
+		if (CollectionUtils.isNotEmpty(entries)) {
+			OutputBuffer buffer = ctx.getBuffer();
+			int strings = getStringCount(ctx);
+			long mark = buffer.markTentative();
+			writeKey(ctx, ser, name);
+			long header = buffer.position();
+			writeIndefinite(ctx, MAJOR_MAP);
+			int written = 0;
+			for (Map.Entry entry : entries) {
+				if (writeEntry(ctx, value, resolvesMapKey(key, entry, ctx), entry.getValue())) {
+					written++;
+					buffer.commit();
+				}
+			}
+			empty = !writeEnd(ctx, mark, strings, header, MAJOR_MAP, written);
+		}
+
+		if (empty && ser.isWriteEmpty()) {
+			writeKey(ctx, ser, name);
+			writeHeader(ctx, MAJOR_MAP, 0);
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Writes an entry of a map or array. As there is no separator between the
+	 * entries, nothing has to be discarded when the entry is empty.
+	 * @param ctx The context
+	 * @param element The serialization of the entry
+	 * @param name The name of the entry
+	 * @param object The object to serialize
+	 * @return True if the entry has been written, false if it was empty
+	 * @throws SerializationException When the writing failed
+	 */
+	protected boolean writeEntry(SerializationContext ctx, Serialization element, String name, Object object) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		long position = buffer.position();
+		element.serialize(element, name, object, ctx);
+		return buffer.position() != position;
+	}
+
+	/**
+	 * Writes the end of a map or array if any of its entries has been 
+	 * written, otherwise discards its opening (as well as the strings it
+	 * registered as references). A map or array with less than 24 entries 
+	 * whose header is still held by the buffer gets it replaced by a 
+	 * definite-length one, the others are closed by a break. 
+	 * @param ctx The context
+	 * @param mark The position marked before the opening
+	 * @param strings The number of strings registered as references before
+	 * the opening
+	 * @param header The position of the header
+	 * @param major The major type of the header
+	 * @param entries The number of entries written
+	 * @return True if the map or array has been written, false if it was
+	 * empty
+	 * @throws SerializationException When the writing failed
+	 */
+	protected boolean writeEnd(SerializationContext ctx, long mark, int strings, long header, int major, int entries) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		if (entries == 0) {
+			buffer.rewind(mark);
+			StringReferences references = getStringReferences(ctx);
+			if (references != null) {
+				references.truncate(strings);
+			}
+			return false;
+		}
+		if ((entries <= MAX_DEFINITE_LENGTH) && buffer.isHeld(header)) {
+			buffer.set(header, major | entries);
+		} else {
+			writeSimple(ctx, BREAK);
+		}
+		buffer.unmark();
+		return true;
+	}
+
+	/**
+	 * Writes the key under which a value is written, if any
+	 * @param ctx The context
+	 * @param ser The serialization being written
+	 * @param name The name of the value
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeKey(SerializationContext ctx, Serialization ser, String name) throws SerializationException {
+		if (StringUtils.isNotBlank(name)) {
+			NameTokens tokens = (getStringReferences(ctx) == null) ? NameTokens.get(ser, name) : null;
+			if (tokens != null) {
+				write(ctx, tokens.getCborKey());
+			} else {
+				writeText(ctx, name);
+			}
+		}
+	}
+
+	/**
+	 * Writes the given string as a text string, or as a reference to its
+	 * first occurrence when string references are enabled
+	 * @param ctx The context
+	 * @param str The string to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeText(SerializationContext ctx, String str) throws SerializationException {
+		StringReferences references = getStringReferences(ctx);
+		if (references != null) {
+			int index = references.indexOf(str);
+			if (index >= 0) {
+				writeHeader(ctx, MAJOR_TAG, TAG_STRING_REFERENCE);
+				writeHeader(ctx, MAJOR_UNSIGNED, index);
+				return;
+			}
+		}
+		int len = utf8Length(str);
+		if (references != null) {
+			references.add(str, len);
+		}
+		writeHeader(ctx, MAJOR_TEXT, len);
+		try {
+			ctx.getBuffer().writeUtf8(str, 0, str.length());
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Writes the given bytes as a byte string
+	 * @param ctx The context
+	 * @param major The major type (byte string)
+	 * @param bytes The bytes to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeBytes(SerializationContext ctx, int major, byte[] bytes) throws SerializationException {
+		StringReferences references = getStringReferences(ctx);
+		if (references != null) {
+			// byte strings are numbered as well, but never referenced
+			references.add(null, bytes.length);
+		}
+		writeHeader(ctx, major, bytes.length);
+		write(ctx, bytes);
+	}
+
+	/**
+	 * Writes the given integer
+	 * @param ctx The context
+	 * @param l The integer to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeInteger(SerializationContext ctx, long l) throws SerializationException {
+		if (l >= 0) {
+			writeHeader(ctx, MAJOR_UNSIGNED, l);
+		} else {
+			writeHeader(ctx, MAJOR_NEGATIVE, ~l);
+		}
+	}
+
+	/**
+	 * Writes the given big integer, as a bignum when it does not fit in 64 
+	 * bits
+	 * @param ctx The context
+	 * @param i The big integer to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeInteger(SerializationContext ctx, BigInteger i) throws SerializationException {
+		boolean negative = i.signum() < 0;
+		// negative integers are encoded as -1 - n
+		BigInteger n = negative ? i.not() : i;
+		if (n.bitLength() <= 64) {
+			writeHeader(ctx, negative ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, n.longValue());
+		} else {
+			byte[] bytes = n.toByteArray();
+			if (bytes[0] == 0) {
+				byte[] magnitude = new byte[bytes.length - 1];
+				System.arraycopy(bytes, 1, magnitude, 0, magnitude.length);
+				bytes = magnitude;
+			}
+			writeHeader(ctx, MAJOR_TAG, negative ? TAG_NEGATIVE_BIGNUM : TAG_POSITIVE_BIGNUM);
+			writeBytes(ctx, MAJOR_BYTES, bytes);
+		}
+	}
+
+	/**
+	 * Writes the given floating point number in the shortest precision (half,
+	 * single or double) that preserves its value
+	 * @param ctx The context
+	 * @param d The number to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeFloatingPoint(SerializationContext ctx, double d) throws SerializationException {
+		float f = (float) d;
+		try {
+			OutputBuffer buffer = ctx.getBuffer();
+			if ((f == d) || Double.isNaN(d)) {
+				int half = toHalf(f);
+				if (half >= 0) {
+					buffer.write(HALF);
+					writeBigEndian(buffer, half, 2);
+				} else {
+					buffer.write(SINGLE);
+					writeBigEndian(buffer, Float.floatToIntBits(f), 4);
+				}
+			} else {
+				buffer.write(DOUBLE);
+				writeBigEndian(buffer, Double.doubleToLongBits(d), 8);
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Converts the given float to a half-precision float
+	 * @param f The float
+	 * @return The bits of the half-precision float or -1 if it cannot 
+	 * represent the float exactly
+	 */
+	protected static int toHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+		if (exponent == 0xFF) {
+			return (mantissa == 0) ? (sign | 0x7C00) : 0x7E00;
+		}
+		if ((exponent == 0) && (mantissa == 0)) {
+			return sign;
+		}
+		int e = exponent - 127 + 15;
+		if (e >= 0x1F) {
+			return -1;
+		}
+		if (e > 0) {
+			if ((mantissa & 0x1FFF) != 0) {
+				return -1;
+			}
+			return sign | (e << 10) | (mantissa >> 13);
+		}
+		// sub-normal half-precision float
+		int shift = 14 - e;
+		if ((exponent == 0) || (shift > 24)) {
+			return -1;
+		}
+		int full = mantissa | 0x800000;
+		if ((full & ((1 << shift) - 1)) != 0) {
+			return -1;
+		}
+		return sign | (full >> shift);
+	}
+
+	/**
+	 * Writes the header of a data item with the given major type and argument
+	 * in its shortest form
+	 * @param ctx The context
+	 * @param major The major type
+	 * @param n The argument (an unsigned 64 bits integer)
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeHeader(SerializationContext ctx, int major, long n) throws SerializationException {
+		try {
+			OutputBuffer buffer = ctx.getBuffer();
+			if ((n >= 0) && (n < 24)) {
+				buffer.write(major | (int) n);
+			} else if ((n >= 0) && (n < 0x100)) {
+				buffer.write(major | 24);
+				buffer.write((int) n);
+			} else if ((n >= 0) && (n < 0x10000)) {
+				buffer.write(major | 25);
+				writeBigEndian(buffer, n, 2);
+			} else if ((n >= 0) && (n < 0x100000000L)) {
+				buffer.write(major | 26);
+				writeBigEndian(buffer, n, 4);
+			} else {
+				buffer.write(major | 27);
+				writeBigEndian(buffer, n, 8);
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Writes the indefinite-length header of a map or array
+	 * @param ctx The context
+	 * @param major The major type
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeIndefinite(SerializationContext ctx, int major) throws SerializationException {
+		writeSimple(ctx, major | INDEFINITE);
+	}
+
+	/**
+	 * Writes a single byte data item (simple value, break, etc.)
+	 * @param ctx The context
+	 * @param b The byte
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeSimple(SerializationContext ctx, int b) throws SerializationException {
+		try {
+			ctx.getBuffer().write(b);
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Writes the lowest bytes of the given number in big-endian order
+	 * @param buffer The buffer
+	 * @param n The number
+	 * @param len The number of bytes to write
+	 * @throws IOException When the writing failed
+	 */
+	private static void writeBigEndian(OutputBuffer buffer, long n, int len) throws IOException {
+		for (int i=len-1; i>=0; i--) {
+			buffer.write((int) (n >>> (i * 8)));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the given string encoded in UTF-8, the
+	 * way <code>OutputBuffer.writeUtf8</code> encodes it
+	 * @param str The string
+	 * @return The number of bytes
+	 */
+	protected static int utf8Length(String str) {
+		int len = str.length();
+		int bytes = len;
+		for (int i=0; i<len; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				continue;
+			} else if (c < 0x800) {
+				bytes++;
+			} else if (Character.isHighSurrogate(c) && (i + 1 < len) && Character.isLowSurrogate(str.charAt(i + 1))) {
+				// 4 bytes for 2 characters
+				bytes += 2;
+				i++;
+			} else if ((c < Character.MIN_SURROGATE) || (c > Character.MAX_SURROGATE)) {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @param ctx The context
+	 * @return The string references of the serialization in progress or null
+	 * if they are not enabled
+	 */
+	protected static StringReferences getStringReferences(SerializationContext ctx) {
+		return (StringReferences) ctx.getWriterState();
+	}
+
+	/**
+	 * @param ctx The context
+	 * @return The number of strings registered as references so far
+	 */
+	private static int getStringCount(SerializationContext ctx) {
+		StringReferences references = getStringReferences(ctx);
+		return (references == null) ? 0 : references.size();
+	}
+
+	/**
+	 * @return Whether the strings written more than once are replaced by 
+	 * references to their first occurrence
+	 */
+	public boolean isStringReferences() {
+		return stringReferences;
+	}
+
+	/**
+	 * @param stringReferences Whether the strings written more than once 
+	 * should be replaced by references to their first occurrence (false by
+	 * default)
+	 */
+	public void setStringReferences(boolean stringReferences) {
+		this.stringReferences = stringReferences;
+	}
+
+	/**
+	 * The table of the strings written so far in a string reference 
+	 * namespace. Like the consumers, it numbers every string long enough for
+	 * a reference to it to be shorter than the string itself.
+	 */
+	protected static class StringReferences {
+		private final List<String> strings = new ArrayList<String>();
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+		/**
+		 * Returns the index of the given text string
+		 * @param str The string
+		 * @return The index or -1 if it has not been numbered
+		 */
+		public int indexOf(String str) {
+			Integer index = indexes.get(str);
+			return (index == null) ? -1 : index.intValue();
+		}
+
+		/**
+		 * Numbers the given string if it is long enough
+		 * @param str The text string (null for a byte string)
+		 * @param len The length in bytes of the string
+		 */
+		public void add(String str, int len) {
+			int index = strings.size();
+			int min = (index < 24) ? 3 : (index < 0x100) ? 4 : (index < 0x10000) ? 5 : 7;
+			if (len >= min) {
+				strings.add(str);
+				if (str != null) {
+					indexes.put(str, index);
+				}
+			}
+		}
+
+		/**
+		 * Forgets the strings numbered after the given number of strings, 
+		 * as their output has been discarded
+		 * @param size The number of strings to keep
+		 */
+		public void truncate(int size) {
+			for (int i=strings.size()-1; i>=size; i--) {
+				String str = strings.remove(i);
+				if (str != null) {
+					indexes.remove(str);
+				}
+			}
+		}
+
+		/**
+		 * @return The number of strings numbered
+		 */
+		public int size() {
+			return strings.size();
+		}
+	}
+}
@@ -0,0 +1,462 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.config.ConfigurationException;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.FlatElementExpectedException;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.NamespaceSerialization;
+import org.localmatters.serializer.serialization.ReferenceSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+
+
+/**
+ * <p>This class defines a serialization writer that outputs CSV (RFC 4180)
+ * or TSV records. When the root is a list, each of its elements is written
+ * as a record, otherwise the root itself is the only record. The records are 
+ * preceded by a header with the names of the columns, as set by the 
+ * configuration; the values of the nested complex elements are flattened 
+ * into columns named after their path (e.g. <code>address.city</code>).</p>
+ * <p>The empty values are written as empty fields, so every record has all 
+ * the columns. The lists and maps within a record cannot be flattened and 
+ * raise a <code>FlatElementExpectedException</code>.</p>
+ * <p>The CSV fields are quoted only when they need to be, and the TSV fields
+ * have their tabs, line breaks and backslashes escaped with a backslash.</p>
+ */
+public class CSVWriter extends AbstractWriter {
+	/** The supported formats */
+	public static enum Format {
+		/** Comma-separated values (RFC 4180), with CRLF line breaks */
+		CSV,
+		/** Tab-separated values, with LF line breaks */
+		TSV
+	}
+	public static final String RECURSIVE_ELEMENT_FORMAT = "The element %s contains itself and cannot be flattened into columns!";
+	private static final String VALUE_COLUMN = "value";
+	private static final String VALUE_LEVEL = "value";
+	private static final String COMPLEX_LEVEL = "complex";
+	private static final String RECORD_LEVEL = "record";
+	private static final byte[] CRLF_BYTES = "\r\n".getBytes();
+	private static final byte[] LF_BYTES = "\n".getBytes();
+	private final Map<Serialization, Layout> layouts = new ConcurrentHashMap<Serialization, Layout>();
+	private Format format = Format.CSV;
+	private boolean header = true;
+
+	/**
+	 * Default constructor, for CSV
+	 */
+	public CSVWriter() {
+	}
+
+	/**
+	 * Constructor with the specification of the format
+	 * @param format The format
+	 */
+	public CSVWriter(Format format) {
+		setFormat(format);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeRoot(Serialization ser, 
+			Object root, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.startDocument(ser);
+		Layout layout = getLayout(ser);
+		Record record = new Record(layout);
+		Object state = ctx.getWriterState();
+		ctx.setWriterState(record);
+		try {
+			if (header) {
+				for (String column : layout.columns) {
+					writeField(ctx, record, column);
+				}
+				writeLineBreak(ctx);
+			}
+			if (layout.list) {
+				// the list writes its elements as records (see writeIterator)
+				ser.serialize(ser, null, root, ctx);
+			} else {
+				writeRecord(ctx, record, ser, root);
+			}
+			ctx.endDocument();
+		} finally {
+			ctx.setWriterState(state);
+			ctx.releaseDocument();
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeValue(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeValue(Serialization ser, 
+			String name,
+			Object value, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
+		Record record = getRecord(ctx);
+		if ((value != null) && isDirect(value)) {
+			writeSeparator(ctx, record);
+			writeDirect(ctx, value);
+		} else if ((value instanceof BigDecimal) || (value instanceof BigInteger)) {
+			writeSeparator(ctx, record);
+			write(ctx, value.toString());
+		} else if (value != null) {
+			writeField(ctx, record, value.toString());
+		} else {
+			writeSeparator(ctx, record);
+		}
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeAttribute(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeAttribute(Serialization ser, 
+			String name,
+			Object attribute, 
+			SerializationContext ctx) throws SerializationException {
+		writeValue(ser, name, attribute, ctx);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeNamespace(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeNamespace(Serialization ser, 
+			String name,
+			Object namespace, 
+			SerializationContext ctx) throws SerializationException {
+		// name-spaces are not written in the records
+	}
+
+	/**
+	 * Writes the values of the complex element as the next columns of the 
+	 * current record, with empty fields for the values that are not written
+	 * @see org.localmatters.serializer.writer.Writer#writeComplex(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, java.util.Collection, java.util.Collection, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeComplex(Serialization ser, 
+			String name,
+			Object object, 
+			Collection<Serialization> attributes, 
+			Collection<Serialization> elements, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, COMPLEX_LEVEL));
+		Record record = getRecord(ctx);
+		if (attributes != null) {
+			for (Serialization attribute : attributes) {
+				writeColumns(ctx, record, attribute, object);
+			}
+		}
+		if (elements != null) {
+			for (Serialization element : elements) {
+				writeColumns(ctx, record, element, object);
+			}
+		}
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Writes each element of the root list as a record
+	 * @see org.localmatters.serializer.writer.Writer#writeIterator(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Iterator, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeIterator(Serialization ser, 
+			String name,
+			Iterator<?> itr, 
+			String elementName,
+			Serialization element, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		Record record = getRecord(ctx);
+		if (record.started) {
+			throw new FlatElementExpectedException(ctx.nextLevel(name));
+		}
+		while (itr.hasNext()) {
+			writeRecord(ctx, record, element, itr.next());
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeMap(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Collection, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	@SuppressWarnings("rawtypes")
+	public void writeMap(Serialization ser, 
+			String name,
+			Collection<Map.Entry> entries, 
+			String key,
+			Serialization value, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		throw new FlatElementExpectedException(ctx.nextLevel(name));
+	}
+
+	/**
+	 * Writes a record, which is discarded when nothing is written for it
+	 * @param ctx The context
+	 * @param record The state of the record
+	 * @param ser The serialization of the record
+	 * @param object The object to serialize
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeRecord(SerializationContext ctx, Record record, Serialization ser, Object object) throws SerializationException {
+		ctx.nextLevel(RECORD_LEVEL);
+		OutputBuffer buffer = ctx.getBuffer();
+		long mark = buffer.mark();
+		record.started = true;
+		record.field = 0;
+		ser.serialize(ser, null, object, ctx);
+		if (record.field == 0) {
+			buffer.rewind(mark);
+		} else {
+			buffer.unmark();
+			writeEmptyFields(ctx, record, record.layout.columns.size());
+			writeLineBreak(ctx);
+		}
+		record.started = false;
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Writes the columns of an attribute or element of a complex element,
+	 * with empty fields for its values that are not written
+	 * @param ctx The context
+	 * @param record The state of the record
+	 * @param ser The serialization of the attribute or element
+	 * @param object The object of the complex element
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeColumns(SerializationContext ctx, Record record, Serialization ser, Object object) throws SerializationException {
+		Integer width = record.layout.widths.get(ser);
+		if ((width == null) || (width > 0)) {
+			int end = record.field + ((width == null) ? 1 : width);
+			ser.serialize(ser, null, object, ctx);
+			writeEmptyFields(ctx, record, end);
+		}
+	}
+
+	/**
+	 * Writes empty fields up to the given column
+	 * @param ctx The context
+	 * @param record The state of the record
+	 * @param end The index of the column up to which to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeEmptyFields(SerializationContext ctx, Record record, int end) throws SerializationException {
+		while (record.field < end) {
+			writeSeparator(ctx, record);
+		}
+	}
+
+	/**
+	 * Writes the given string as the next field of the record
+	 * @param ctx The context
+	 * @param record The state of the record
+	 * @param str The string to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeField(SerializationContext ctx, Record record, String str) throws SerializationException {
+		writeSeparator(ctx, record);
+		try {
+			if (format == Format.TSV) {
+				ctx.getBuffer().writeTsv(str);
+			} else {
+				ctx.getBuffer().writeCsv(str, ',');
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Starts the next field of the record, writing the delimiter unless it is
+	 * the first one
+	 * @param ctx The context
+	 * @param record The state of the record
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeSeparator(SerializationContext ctx, Record record) throws SerializationException {
+		if (record.field++ > 0) {
+			try {
+				ctx.getBuffer().write((format == Format.TSV) ? '\t' : ',');
+			} catch (IOException e) {
+				throw new IOSerializationException(ctx, e);
+			}
+		}
+	}
+
+	/**
+	 * Ends the current line
+	 * @param ctx The context
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeLineBreak(SerializationContext ctx) throws SerializationException {
+		write(ctx, (format == Format.TSV) ? LF_BYTES : CRLF_BYTES);
+	}
+
+	/**
+	 * Returns the state of the record being written
+	 * @param ctx The context
+	 * @return The state of the record
+	 * @throws IllegalStateException When the root has not been written by
+	 * this writer
+	 */
+	protected static Record getRecord(SerializationContext ctx) {
+		Object state = ctx.getWriterState();
+		if (!(state instanceof Record)) {
+			throw new IllegalStateException("The records must be written from the root");
+		}
+		return (Record) state;
+	}
+
+	/**
+	 * Returns the columns layout of the records of the given root 
+	 * serialization, building it the first time
+	 * @param root The root serialization
+	 * @return The layout
+	 */
+	protected Layout getLayout(Serialization root) {
+		Layout layout = layouts.get(root);
+		if (layout == null) {
+			layout = new Layout();
+			Serialization contextless = root.getContextlessSerialization();
+			Serialization record = root;
+			String name = getConfiguredName(root);
+			if (contextless instanceof IteratorSerialization) {
+				IteratorSerialization iterator = (IteratorSerialization) contextless;
+				layout.list = true;
+				record = iterator.getElement();
+				name = StringUtils.defaultIfEmpty(iterator.getElementName(), name);
+			}
+			collect(record, StringUtils.defaultIfEmpty(name, VALUE_COLUMN), null, layout, new IdentityHashMap<Serialization, Boolean>());
+			layouts.put(root, layout);
+		}
+		return layout;
+	}
+
+	/**
+	 * Collects the columns written by the given serialization and records
+	 * its width (its number of columns)
+	 * @param ser The serialization
+	 * @param name The name of its single column when it is not complex
+	 * @param prefix The prefix of the names of its columns (null for the 
+	 * record itself)
+	 * @param layout The layout being built
+	 * @param path The complex serializations containing this one
+	 * @return The width
+	 */
+	private static int collect(Serialization ser, String name, String prefix, Layout layout, Map<Serialization, Boolean> path) {
+		Serialization contextless = ser.getContextlessSerialization();
+		while (contextless instanceof ReferenceSerialization) {
+			contextless = ((ReferenceSerialization) contextless).getReferenced().getContextlessSerialization();
+		}
+		int width = 0;
+		if (contextless instanceof NamespaceSerialization) {
+			width = 0;
+		} else if (contextless instanceof ComplexSerialization) {
+			if (path.put(contextless, Boolean.TRUE) != null) {
+				throw new ConfigurationException(RECURSIVE_ELEMENT_FORMAT, name);
+			}
+			ComplexSerialization complex = (ComplexSerialization) contextless;
+			List<Serialization> children = new ArrayList<Serialization>(complex.getAttributes());
+			children.addAll(complex.getElements());
+			for (Serialization child : children) {
+				String childName = StringUtils.defaultIfEmpty(getConfiguredName(child), VALUE_COLUMN);
+				String childPrefix = (prefix == null) ? childName : prefix + "." + childName;
+				width += collect(child, childPrefix, childPrefix, layout, path);
+			}
+			path.remove(contextless);
+		} else {
+			layout.columns.add(name);
+			width = 1;
+		}
+		layout.widths.put(ser, width);
+		return width;
+	}
+
+	/**
+	 * @return The format
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * @param format The format
+	 */
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+
+	/**
+	 * @return Whether the records are preceded by a header
+	 */
+	public boolean isHeader() {
+		return header;
+	}
+
+	/**
+	 * @param header Whether the records should be preceded by a header
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	/**
+	 * The columns of the records of a root serialization: their names and
+	 * the number of columns written by each serialization within a record.
+	 * It is built once and then only read.
+	 */
+	protected static class Layout {
+		private final List<String> columns = new ArrayList<String>();
+		private final Map<Serialization, Integer> widths = new IdentityHashMap<Serialization, Integer>();
+		private boolean list;
+	}
+
+	/**
+	 * The state of the record being written, kept as the writer state of the
+	 * context
+	 */
+	protected static class Record {
+		private final Layout layout;
+		private boolean started;
+		private int field;
+
+		/**
+		 * Constructor with the specification of the layout
+		 * @param layout The layout of the records
+		 */
+		protected Record(Layout layout) {
+			this.layout = layout;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * <p>Output buffer that writes its content to NIO targets instead of an
+ * output stream: a caller-provided <code>ByteBuffer</code> (which can be a
+ * direct buffer), a <code>WritableByteChannel</code>, or both.</p>
+ * <p>When only a byte buffer is set, the output is copied into it in bulk
+ * and left there for the caller. When the output does not fit, the byte 
+ * buffer is filled and handed to the drain set by the caller, if any, 
+ * which consumes it before the rest of the output is copied (the drain is 
+ * also handed the last bytes when the output is flushed); without a drain,
+ * the caller is responsible for the size of the byte buffer. When only
+ * a channel is set, the output is written straight to it. When both are set,
+ * the byte buffer stages the output and, once it is full, is written to the
+ * channel along with the pending output in a single gathering write.</p>
+ * <p>The channel must be in blocking mode.</p>
+ */
+public class ChannelOutputBuffer extends OutputBuffer {
+	private WritableByteChannel channel;
+	private ByteBuffer byteBuffer;
+	private ByteBufferDrain drain;
+
+	/**
+	 * Constructor with the specification of the channel and byte buffer
+	 * @param channel The channel where to write (can be null)
+	 * @param byteBuffer The byte buffer where to write (can be null)
+	 */
+	public ChannelOutputBuffer(WritableByteChannel channel, ByteBuffer byteBuffer) {
+		super(null);
+		setChannel(channel);
+		setByteBuffer(byteBuffer);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#output(byte[], int, int)
+	 */
+	@Override
+	protected void output(byte[] b, int off, int len) throws IOException {
+		ByteBuffer chunk = ByteBuffer.wrap(b, off, len);
+		if (byteBuffer == null) {
+			writeFully(chunk);
+			return;
+		}
+		while (byteBuffer.remaining() < chunk.remaining()) {
+			if (channel != null) {
+				byteBuffer.flip();
+				writeFully(byteBuffer, chunk);
+				byteBuffer.clear();
+				return;
+			} else if (drain == null) {
+				throw new IOException("The byte buffer is full (" + byteBuffer.remaining() + " bytes remaining, " + chunk.remaining() + " needed)");
+			}
+			int n = byteBuffer.remaining();
+			byteBuffer.put(b, chunk.position(), n);
+			chunk.position(chunk.position() + n);
+			drain();
+		}
+		byteBuffer.put(chunk);
+	}
+
+	/**
+	 * Hands the content of the byte buffer to the drain, then keeps the 
+	 * bytes it left unread at the start of the byte buffer
+	 * @throws IOException When the drain failed or did not consume anything
+	 */
+	protected void drain() throws IOException {
+		byteBuffer.flip();
+		drain.drain(byteBuffer);
+		byteBuffer.compact();
+		if (!byteBuffer.hasRemaining()) {
+			throw new IOException("The byte buffer has not been drained");
+		}
+	}
+
+	/**
+	 * Writes the content of the buffer to the byte buffer and/or the channel.
+	 * When both are set, the byte buffer is drained to the channel.
+	 * @see org.localmatters.serializer.writer.OutputBuffer#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		super.flush();
+		flushOutput();
+	}
+
+	/**
+	 * Drains the byte buffer to the channel when both are set, or to the 
+	 * drain when there is no channel
+	 * @see org.localmatters.serializer.writer.OutputBuffer#flushOutput()
+	 */
+	@Override
+	protected void flushOutput() throws IOException {
+		if ((byteBuffer == null) || (byteBuffer.position() == 0)) {
+			return;
+		}
+		if (channel != null) {
+			byteBuffer.flip();
+			writeFully(byteBuffer);
+			byteBuffer.clear();
+		} else if (drain != null) {
+			byteBuffer.flip();
+			drain.drain(byteBuffer);
+			byteBuffer.compact();
+		}
+	}
+
+	/**
+	 * Writes the given buffers entirely to the channel, using a gathering
+	 * write when the channel supports it
+	 * @param srcs The buffers to write
+	 * @throws IOException When the writing failed
+	 */
+	protected void writeFully(ByteBuffer... srcs) throws IOException {
+		if (channel == null) {
+			throw new IOException("No channel to write to");
+		}
+		if ((srcs.length > 1) && (channel instanceof GatheringByteChannel)) {
+			GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			ByteBuffer last = srcs[srcs.length - 1];
+			while (last.hasRemaining()) {
+				gathering.write(srcs);
+			}
+		} else {
+			for (ByteBuffer src : srcs) {
+				while (src.hasRemaining()) {
+					channel.write(src);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The channel where to write
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @param channel The channel where to write
+	 */
+	public void setChannel(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * @return The byte buffer where to write
+	 */
+	public ByteBuffer getByteBuffer() {
+		return byteBuffer;
+	}
+
+	/**
+	 * @param byteBuffer The byte buffer where to write
+	 */
+	public void setByteBuffer(ByteBuffer byteBuffer) {
+		this.byteBuffer = byteBuffer;
+	}
+
+	/**
+	 * @return The drain consuming the byte buffer when there is no channel
+	 */
+	public ByteBufferDrain getDrain() {
+		return drain;
+	}
+
+	/**
+	 * @param drain The drain consuming the byte buffer when there is no 
+	 * channel
+	 */
+	public void setDrain(ByteBufferDrain drain) {
+		this.drain = drain;
+	}
+}
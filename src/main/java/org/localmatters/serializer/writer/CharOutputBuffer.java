@@ -0,0 +1,292 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import org.localmatters.serializer.util.EscapeUtils;
+
+
+/**
+ * Output buffer that accumulates characters instead of bytes and writes them
+ * to an <code>Appendable</code> (e.g. a <code>java.io.Writer</code> or a
+ * <code>StringBuilder</code>), so that the output never goes through an
+ * encoding and decoding round-trip. The pre-encoded tokens of the writers are
+ * ASCII and copied as is; the charset is only used to decode the rare
+ * non-ASCII byte arrays (e.g. the XML comments).
+ */
+public class CharOutputBuffer extends OutputBuffer {
+	private Appendable appendable;
+	private char[] chars;
+
+	/**
+	 * Constructor with the specification of the appendable
+	 * @param appendable The appendable where to write
+	 */
+	public CharOutputBuffer(Appendable appendable) {
+		super(null);
+		setAppendable(appendable);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len > 0) {
+			ensureCapacity(len);
+			char[] c = chars;
+			int pos = count;
+			for (int i=off, end=off+len; i<end; i++) {
+				if (b[i] < 0) {
+					CharBuffer decoded = getCharset().decode(ByteBuffer.wrap(b, i, end - i));
+					count = pos;
+					ensureCapacity(decoded.remaining());
+					pos = count;
+					int remaining = decoded.remaining();
+					decoded.get(chars, pos, remaining);
+					count = pos + remaining;
+					return;
+				}
+				c[pos++] = (char) b[i];
+			}
+			count = pos;
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(1);
+		chars[count++] = (char) b;
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#write(java.lang.String, int, int)
+	 */
+	@Override
+	public void write(String str, int start, int end) throws IOException {
+		if (start < end) {
+			ensureCapacity(end - start);
+			str.getChars(start, end, chars, count);
+			count += end - start;
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#writeJson(java.lang.String)
+	 */
+	@Override
+	public void writeJson(String str) throws IOException {
+		int start = 0;
+		int i = EscapeUtils.indexOfJsonEscape(str, 0);
+		while (i >= 0) {
+			write(str, start, i);
+			ensureCapacity(2);
+			chars[count++] = '\\';
+			chars[count++] = EscapeUtils.getJsonEscape(str.charAt(i));
+			start = i + 1;
+			i = EscapeUtils.indexOfJsonEscape(str, start);
+		}
+		write(str, start, str.length());
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#writeLong(long)
+	 */
+	@Override
+	public void writeLong(long l) throws IOException {
+		if (l == Long.MIN_VALUE) {
+			write(String.valueOf(l));
+			return;
+		}
+		ensureCapacity(20);
+		if (l < 0) {
+			chars[count++] = '-';
+			l = -l;
+		}
+		int digits = 1;
+		for (long n=l/10; n>0; n/=10) {
+			digits++;
+		}
+		char[] c = chars;
+		int pos = count + digits;
+		count = pos;
+		do {
+			c[--pos] = (char) ('0' + (int) (l % 10));
+			l /= 10;
+		} while (l > 0);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#writeDecimal(boolean, long, int)
+	 */
+	@Override
+	protected void writeDecimal(boolean negative, long m, int k) throws IOException {
+		long unit = 1;
+		for (int i=0; i<k; i++) {
+			unit *= 10;
+		}
+		while ((k > 1) && (m % 10 == 0)) {
+			m /= 10;
+			unit /= 10;
+			k--;
+		}
+		if (negative) {
+			write('-');
+		}
+		writeLong(m / unit);
+		ensureCapacity(k + 1);
+		char[] c = chars;
+		c[count] = '.';
+		long fraction = m % unit;
+		for (int pos=count+k; pos>count; pos--) {
+			c[pos] = (char) ('0' + (int) (fraction % 10));
+			fraction /= 10;
+		}
+		count += k + 1;
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#writeCharacterReference(int)
+	 */
+	@Override
+	protected void writeCharacterReference(int cp) throws IOException {
+		ensureCapacity(10);
+		char[] c = chars;
+		c[count++] = '&';
+		c[count++] = '#';
+		int digits = 1;
+		for (int n=cp/10; n>0; n/=10) {
+			digits++;
+		}
+		int pos = count + digits;
+		count = pos + 1;
+		c[pos] = ';';
+		do {
+			c[--pos] = (char) ('0' + (cp % 10));
+			cp /= 10;
+		} while (cp > 0);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#reserve(int)
+	 */
+	@Override
+	protected void reserve(int capacity) {
+		if (chars == null) {
+			chars = BufferPool.acquireChars(Math.max(capacity, getInitialCapacity()));
+		} else if (capacity > chars.length) {
+			char[] larger = BufferPool.acquireChars(Math.max(capacity, chars.length << 1));
+			System.arraycopy(chars, 0, larger, 0, count);
+			BufferPool.release(chars);
+			chars = larger;
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#spill(int)
+	 */
+	@Override
+	protected void spill(int len) throws IOException {
+		if (appendable instanceof java.io.Writer) {
+			((java.io.Writer) appendable).write(chars, 0, len);
+		} else if (appendable instanceof StringBuilder) {
+			((StringBuilder) appendable).append(chars, 0, len);
+		} else {
+			appendable.append(CharBuffer.wrap(chars, 0, len));
+		}
+		if (count > len) {
+			System.arraycopy(chars, len, chars, 0, count - len);
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#flushOutput()
+	 */
+	@Override
+	protected void flushOutput() throws IOException {
+		if (appendable instanceof Flushable) {
+			((Flushable) appendable).flush();
+		}
+	}
+
+	/**
+	 * Compression is not supported as the output is not made of bytes
+	 * @see org.localmatters.serializer.writer.OutputBuffer#setCompression(org.localmatters.serializer.writer.Compression)
+	 */
+	@Override
+	public void setCompression(Compression compression) {
+		if (compression != null) {
+			throw new IllegalArgumentException("The output of characters cannot be compressed");
+		}
+	}
+
+	/**
+	 * Bytes cannot be replaced as the output is not made of bytes
+	 * @see org.localmatters.serializer.writer.OutputBuffer#set(long, int)
+	 */
+	@Override
+	public void set(long position, int b) {
+		throw new UnsupportedOperationException("The output of characters cannot be patched");
+	}
+
+	/**
+	 * Bytes cannot be inserted as the output is not made of bytes
+	 * @see org.localmatters.serializer.writer.OutputBuffer#insert(long, byte[], int, int)
+	 */
+	@Override
+	public void insert(long position, byte[] b, int off, int len) {
+		throw new UnsupportedOperationException("The output of characters cannot be patched");
+	}
+
+	/**
+	 * Bytes cannot be copied as the output is not made of bytes
+	 * @see org.localmatters.serializer.writer.OutputBuffer#copy(long)
+	 */
+	@Override
+	public byte[] copy(long position) {
+		throw new UnsupportedOperationException("The output of characters cannot be copied as bytes");
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#release()
+	 */
+	@Override
+	protected void release() {
+		BufferPool.release(chars);
+		chars = null;
+	}
+
+	/**
+	 * @return The appendable where to write
+	 */
+	public Appendable getAppendable() {
+		return appendable;
+	}
+
+	/**
+	 * @param appendable The appendable where to write
+	 */
+	public void setAppendable(Appendable appendable) {
+		this.appendable = appendable;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.NameTokens;
+import org.localmatters.serializer.serialization.Serialization;
+
+
+/**
+ * <p>This class defines a serialization writer that outputs compact JSON 
+ * only: the output is never formatted, whatever the formatting of the 
+ * context, so that the indentation logic is skipped on every token. The 
+ * values, which are most of the tokens, are written without any prefix and
+ * with their string representation computed once; the keys and openings 
+ * are written without prefix either, and the unnamed ones (the elements of
+ * the lists) skip the lookup of their name.</p>
+ * <p>The output is the same as the one of the <code>JSONWriter</code> when
+ * the context is not formatting.</p>
+ */
+public class CompactJSONWriter extends JSONWriter {
+	private static final String VALUE_LEVEL = "value";
+	private static final byte[] NULL_BYTES = "null".getBytes();
+	private static final byte[] QUOTE_BYTES = "\"".getBytes();
+	private static final byte[] LEFT_CURLY_BYTES = "{".getBytes();
+	private static final byte[] LEFT_SQUARE_BYTES = "[".getBytes();
+	private static final byte[] QUOTE_COLUMN_BYTES = "\": ".getBytes();
+	private static final byte[] QUOTE_COLUMN_LEFT_CURLY_BYTES = "\": {".getBytes();
+	private static final byte[] QUOTE_COLUMN_LEFT_SQUARE_BYTES = "\": [".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_BYTES = "\":".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_LEFT_CURLY_BYTES = "\":{".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_LEFT_SQUARE_BYTES = "\":[".getBytes();
+
+	/**
+	 * @see org.localmatters.serializer.writer.JSONWriter#writeValue(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	@Override
+	public void writeValue(Serialization ser, 
+			String name,
+			Object value, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
+
+		if (value == null) {
+			if (ser.isWriteEmpty() && !ctx.isMinimal()) {
+				writeKey(ctx, ser, name);
+				write(ctx, NULL_BYTES);
+			}
+		} else if (isDirect(value)) {
+			writeKey(ctx, ser, name);
+			writeDirect(ctx, value);
+		} else if ((value instanceof BigDecimal) || (value instanceof BigInteger)) {
+			// their string representation never needs to be escaped
+			writeKey(ctx, ser, name);
+			write(ctx, QUOTE_BYTES).write(ctx, value.toString()).write(ctx, QUOTE_BYTES);
+		} else {
+			String str = value.toString();
+			if ((str != null) && (str.length() > 0)) {
+				writeKey(ctx, ser, name);
+				write(ctx, QUOTE_BYTES);
+				writeEscaped(ctx, str).write(ctx, QUOTE_BYTES);
+			} else if (ser.isWriteEmpty() && !ctx.isMinimal()) {
+				writeKey(ctx, ser, name);
+				write(ctx, NULL_BYTES);
+			}
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Writes the key of a value, checking first for the unnamed values (the 
+	 * elements of the lists) which have none, so that they skip the row and
+	 * token lookups
+	 * @see org.localmatters.serializer.writer.JSONWriter#writeKey(org.localmatters.serializer.SerializationContext, org.localmatters.serializer.serialization.Serialization, java.lang.String)
+	 */
+	@Override
+	protected void writeKey(SerializationContext ctx, Serialization ser, String name) throws SerializationException {
+		if ((name == null) || (name.length() == 0) || (getTable(ctx, 2) != null)) {
+			return;
+		}
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (tokens != null) {
+			write(ctx, ctx.isMinimal() ? tokens.getJsonMinimalKey() : tokens.getJsonKey());
+		} else if (StringUtils.isNotBlank(name)) {
+			// only the names without tokens can be blank
+			write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, ctx.isMinimal() ? MINIMAL_QUOTE_COLUMN_BYTES : QUOTE_COLUMN_BYTES);
+		}
+	}
+
+	/**
+	 * Writes the opening of an object or array without writing the prefix,
+	 * which is always empty
+	 * @see org.localmatters.serializer.writer.JSONWriter#writeOpening(org.localmatters.serializer.SerializationContext, byte[], org.localmatters.serializer.serialization.Serialization, java.lang.String, boolean)
+	 */
+	@Override
+	protected void writeOpening(SerializationContext ctx, byte[] prefix, Serialization ser, String name, boolean array) throws SerializationException {
+		if ((name == null) || (name.length() == 0) || (getTable(ctx, 2) != null)) {
+			write(ctx, array ? LEFT_SQUARE_BYTES : LEFT_CURLY_BYTES);
+			return;
+		}
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (tokens == null) {
+			byte[] opening;
+			if (ctx.isMinimal()) {
+				opening = array ? MINIMAL_QUOTE_COLUMN_LEFT_SQUARE_BYTES : MINIMAL_QUOTE_COLUMN_LEFT_CURLY_BYTES;
+			} else {
+				opening = array ? QUOTE_COLUMN_LEFT_SQUARE_BYTES : QUOTE_COLUMN_LEFT_CURLY_BYTES;
+			}
+			write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, opening);
+		} else if (ctx.isMinimal()) {
+			write(ctx, array ? tokens.getJsonMinimalOpenArray() : tokens.getJsonMinimalOpenObject());
+		} else {
+			write(ctx, array ? tokens.getJsonOpenArray() : tokens.getJsonOpenObject());
+		}
+	}
+
+	/**
+	 * Returns no prefix, as the output is never formatted
+	 * @see org.localmatters.serializer.writer.JSONWriter#getPrefix(org.localmatters.serializer.SerializationContext)
+	 */
+	@Override
+	protected byte[] getPrefix(SerializationContext ctx) {
+		return NO_PREFIX;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.util.zip.Deflater;
+
+
+/**
+ * <p>Immutable specification of the compression applied by an
+ * <code>OutputBuffer</code> to its output: the format, the level and an
+ * optional preset dictionary (see <code>CompressionDictionary</code>). It can
+ * be shared between threads and contexts.</p>
+ * <p>A preset dictionary is only supported by the zlib and raw deflate
+ * formats, as the gzip format has no way to reference it; the decompressing
+ * side must be set with the same dictionary.</p>
+ */
+public class Compression {
+	/** The supported formats */
+	public static enum Format {
+		/** The gzip format (RFC 1952) */
+		GZIP,
+		/** The zlib format (RFC 1950) */
+		ZLIB,
+		/** The raw deflate format (RFC 1951), without header nor trailer */
+		DEFLATE
+	}
+	private final Format format;
+	private final int level;
+	private final byte[] dictionary;
+
+	/**
+	 * Constructor with the specification of the format and level
+	 * @param format The format
+	 * @param level The level (from <code>Deflater.BEST_SPEED</code> to
+	 * <code>Deflater.BEST_COMPRESSION</code> or
+	 * <code>Deflater.DEFAULT_COMPRESSION</code>)
+	 */
+	public Compression(Format format, int level) {
+		this(format, level, null);
+	}
+
+	/**
+	 * Constructor with the specification of the format, level and preset
+	 * dictionary
+	 * @param format The format
+	 * @param level The level (from <code>Deflater.BEST_SPEED</code> to
+	 * <code>Deflater.BEST_COMPRESSION</code> or
+	 * <code>Deflater.DEFAULT_COMPRESSION</code>)
+	 * @param dictionary The preset dictionary (can be null)
+	 * @throws IllegalArgumentException When the level is invalid or a
+	 * dictionary is set with the gzip format
+	 */
+	public Compression(Format format, int level, byte[] dictionary) {
+		if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		if ((format == Format.GZIP) && (dictionary != null)) {
+			throw new IllegalArgumentException("The gzip format does not support preset dictionaries");
+		}
+		this.format = format;
+		this.level = level;
+		this.dictionary = (dictionary == null) ? null : dictionary.clone();
+	}
+
+	/**
+	 * @return A new deflater for this compression, set with the preset
+	 * dictionary if any
+	 */
+	public Deflater newDeflater() {
+		Deflater deflater = new Deflater(level, format != Format.ZLIB);
+		if (dictionary != null) {
+			deflater.setDictionary(dictionary);
+		}
+		return deflater;
+	}
+
+	/**
+	 * @return The format
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return The level
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return The preset dictionary or null if none
+	 */
+	public byte[] getDictionary() {
+		return (dictionary == null) ? null : dictionary.clone();
+	}
+}
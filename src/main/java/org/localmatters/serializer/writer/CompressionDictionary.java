@@ -0,0 +1,192 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.serialization.AttributeSerialization;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.ConstantSerialization;
+import org.localmatters.serializer.serialization.DelegatingSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.MapSerialization;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.NamespaceSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.ReferenceSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+
+
+/**
+ * Builds the preset dictionary of a <code>Compression</code> from a parsed
+ * serialization tree: the tokens the writers output around the names of the
+ * tree (e.g. <code>"name": </code> or <code>&lt;name&gt;</code> and
+ * <code>&lt;/name&gt;</code>) and its constants. The tokens are ordered from
+ * the least to the most used, as the strings at the end of a dictionary are
+ * the cheapest to reference.
+ */
+public abstract class CompressionDictionary {
+	/** The maximum size of a dictionary (the size of the deflate window) */
+	public static final int MAX_SIZE = 32 * 1024;
+	private static final String UTF_8 = "UTF-8";
+
+	/**
+	 * Builds the dictionary for the given serialization
+	 * @param root The root of the serialization tree
+	 * @param xml Whether the dictionary is for the XML or the JSON writer
+	 * @return The dictionary
+	 */
+	public static byte[] build(Serialization root, boolean xml) {
+		return build(Collections.singleton(root), xml);
+	}
+
+	/**
+	 * Builds the dictionary for the given serializations
+	 * @param roots The roots of the serialization trees
+	 * @param xml Whether the dictionary is for the XML or the JSON writer
+	 * @return The dictionary
+	 */
+	public static byte[] build(Collection<Serialization> roots, boolean xml) {
+		Map<String, Integer> tokens = new LinkedHashMap<String, Integer>();
+		Map<Serialization, Boolean> visited = new IdentityHashMap<Serialization, Boolean>();
+		for (Serialization root : roots) {
+			collect(root, xml, tokens, visited);
+		}
+		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(tokens.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+			public int compare(Map.Entry<String, Integer> e1, Map.Entry<String, Integer> e2) {
+				return e1.getValue().compareTo(e2.getValue());
+			}
+		});
+
+		List<byte[]> encoded = new ArrayList<byte[]>(entries.size());
+		for (Map.Entry<String, Integer> entry : entries) {
+			encoded.add(encode(entry.getKey()));
+		}
+		// drops the least used tokens that do not fit
+		int size = 0;
+		int first = encoded.size();
+		while ((first > 0) && (size + encoded.get(first - 1).length <= MAX_SIZE)) {
+			size += encoded.get(--first).length;
+		}
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+		for (byte[] token : encoded.subList(first, encoded.size())) {
+			dictionary.write(token, 0, token.length);
+		}
+		return dictionary.toByteArray();
+	}
+
+	/**
+	 * Collects the tokens of the given serialization and its children
+	 * @param ser The serialization
+	 * @param xml Whether to collect the XML or the JSON tokens
+	 * @param tokens The tokens collected so far with their number of uses
+	 * @param visited The serializations already visited
+	 */
+	private static void collect(Serialization ser, boolean xml, Map<String, Integer> tokens, Map<Serialization, Boolean> visited) {
+		if ((ser == null) || (visited.put(ser, Boolean.TRUE) != null)) {
+			return;
+		}
+		if (ser instanceof NameSerialization) {
+			NameSerialization name = (NameSerialization) ser;
+			addName(name.getName(), name.getDelegate(), xml, tokens);
+		} else if (ser instanceof PropertySerialization) {
+			PropertySerialization property = (PropertySerialization) ser;
+			addName(property.getDefaultName(), property.getDelegate(), xml, tokens);
+		} else if (ser instanceof ConstantSerialization) {
+			Object constant = ((ConstantSerialization) ser).getConstant();
+			if (constant != null) {
+				add(String.valueOf(constant), tokens);
+			}
+		}
+
+		if (ser instanceof DelegatingSerialization) {
+			collect(((DelegatingSerialization) ser).getDelegate(), xml, tokens, visited);
+		} else if (ser instanceof ReferenceSerialization) {
+			collect(((ReferenceSerialization) ser).getReferenced(), xml, tokens, visited);
+		} else if (ser instanceof ComplexSerialization) {
+			ComplexSerialization complex = (ComplexSerialization) ser;
+			for (Serialization attribute : complex.getAttributes()) {
+				collect(attribute, xml, tokens, visited);
+			}
+			for (Serialization element : complex.getElements()) {
+				collect(element, xml, tokens, visited);
+			}
+		} else if (ser instanceof IteratorSerialization) {
+			IteratorSerialization iterator = (IteratorSerialization) ser;
+			addName(iterator.getElementName(), iterator.getElement(), xml, tokens);
+			collect(iterator.getElement(), xml, tokens, visited);
+		} else if (ser instanceof MapSerialization) {
+			collect(((MapSerialization) ser).getValue(), xml, tokens, visited);
+		}
+	}
+
+	/**
+	 * Adds the tokens written around the given name
+	 * @param name The name
+	 * @param ser The serialization written under this name
+	 * @param xml Whether to add the XML or the JSON tokens
+	 * @param tokens The tokens collected so far with their number of uses
+	 */
+	private static void addName(String name, Serialization ser, boolean xml, Map<String, Integer> tokens) {
+		if (StringUtils.isBlank(name)) {
+			return;
+		}
+		if (!xml) {
+			add("\"" + name + "\": ", tokens);
+		} else if ((ser != null)
+				&& ((ser.getContextlessSerialization() instanceof AttributeSerialization)
+				|| (ser.getContextlessSerialization() instanceof NamespaceSerialization))) {
+			add(" " + name + "=\"", tokens);
+		} else {
+			add("<" + name + ">", tokens);
+			add("</" + name + ">", tokens);
+		}
+	}
+
+	/**
+	 * Adds the given token
+	 * @param token The token
+	 * @param tokens The tokens collected so far with their number of uses
+	 */
+	private static void add(String token, Map<String, Integer> tokens) {
+		Integer count = tokens.get(token);
+		tokens.put(token, (count == null) ? 1 : count + 1);
+	}
+
+	/**
+	 * Encodes the given token in UTF-8
+	 * @param token The token
+	 * @return The encoded token
+	 */
+	private static byte[] encode(String token) {
+		try {
+			return token.getBytes(UTF_8);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
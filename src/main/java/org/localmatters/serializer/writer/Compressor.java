@@ -0,0 +1,160 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Compression stage of an <code>OutputBuffer</code>: deflates the chunks
+ * spilled by the buffer and passes the compressed bytes on to its output,
+ * adding the gzip header and trailer when needed. The deflater is created on
+ * the first chunk and ended (releasing its native memory) with the stream, so
+ * that each flush of the buffer produces a complete compressed stream.
+ */
+class Compressor {
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int OUTPUT_SIZE = 8 * 1024;
+	private final Compression compression;
+	private Deflater deflater;
+	private CRC32 crc;
+	private byte[] output;
+
+	/**
+	 * Constructor with the specification of the compression
+	 * @param compression The compression
+	 */
+	Compressor(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Compresses the given bytes and writes the result to the output of the
+	 * given buffer, starting a new compressed stream if needed
+	 * @param b The byte array to compress
+	 * @param off The offset of the first byte to compress
+	 * @param len The number of bytes to compress
+	 * @param buffer The buffer to the output of which to write
+	 * @throws IOException When the writing failed
+	 */
+	void compress(byte[] b, int off, int len, OutputBuffer buffer) throws IOException {
+		if (deflater == null) {
+			start(buffer);
+		}
+		if (crc != null) {
+			crc.update(b, off, len);
+		}
+		deflater.setInput(b, off, len);
+		while (!deflater.needsInput()) {
+			deflate(buffer);
+		}
+	}
+
+	/**
+	 * Ends the current compressed stream, if any
+	 * @param buffer The buffer to the output of which to write
+	 * @throws IOException When the writing failed
+	 */
+	void finish(OutputBuffer buffer) throws IOException {
+		if (deflater == null) {
+			return;
+		}
+		try {
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate(buffer);
+			}
+			if (crc != null) {
+				writeInt(output, 0, (int) crc.getValue());
+				writeInt(output, 4, (int) deflater.getBytesRead());
+				buffer.output(output, 0, 8);
+			}
+		} finally {
+			deflater.end();
+			deflater = null;
+		}
+	}
+
+	/**
+	 * Ends the current compressed stream, if any, without writing its end
+	 */
+	void end() {
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+	}
+
+	/**
+	 * Starts a new compressed stream
+	 * @param buffer The buffer to the output of which to write
+	 * @throws IOException When the writing failed
+	 */
+	private void start(OutputBuffer buffer) throws IOException {
+		if (output == null) {
+			output = new byte[OUTPUT_SIZE];
+		}
+		deflater = compression.newDeflater();
+		if (compression.getFormat() == Compression.Format.GZIP) {
+			crc = new CRC32();
+			byte[] header = output;
+			header[0] = (byte) GZIP_MAGIC;
+			header[1] = (byte) (GZIP_MAGIC >> 8);
+			header[2] = Deflater.DEFLATED;
+			for (int i=3; i<9; i++) {
+				header[i] = 0;
+			}
+			header[9] = (byte) 0xFF;
+			buffer.output(header, 0, 10);
+		} else {
+			crc = null;
+		}
+	}
+
+	/**
+	 * Deflates the pending input once and writes the result to the output
+	 * @param buffer The buffer to the output of which to write
+	 * @throws IOException When the writing failed
+	 */
+	private void deflate(OutputBuffer buffer) throws IOException {
+		int n = deflater.deflate(output, 0, output.length);
+		if (n > 0) {
+			buffer.output(output, 0, n);
+		}
+	}
+
+	/**
+	 * Writes the given integer in little-endian order
+	 * @param b The byte array
+	 * @param off The offset where to write
+	 * @param i The integer
+	 */
+	private static void writeInt(byte[] b, int off, int i) {
+		b[off] = (byte) i;
+		b[off + 1] = (byte) (i >> 8);
+		b[off + 2] = (byte) (i >> 16);
+		b[off + 3] = (byte) (i >> 24);
+	}
+
+	/**
+	 * @return The compression
+	 */
+	Compression getCompression() {
+		return compression;
+	}
+}
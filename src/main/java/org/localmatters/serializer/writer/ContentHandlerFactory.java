@@ -0,0 +1,38 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import org.localmatters.serializer.SerializationContext;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Creates the SAX <code>ContentHandler</code> to which the 
+ * <code>SAXWriter</code> forwards the document of a context (e.g. the 
+ * <code>TransformerHandler</code> of an XSLT transform or the 
+ * <code>ValidatorHandler</code> of a schema).
+ */
+public interface ContentHandlerFactory {
+
+	/**
+	 * Creates the handler for the document to write in the given context
+	 * @param ctx The context
+	 * @return The handler
+	 * @throws SAXException When the handler could not be created
+	 */
+	public ContentHandler createContentHandler(SerializationContext ctx) throws SAXException;
+}
@@ -0,0 +1,88 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+
+/**
+ * <p>Immutable specification of when the output of a serialization is 
+ * flushed while it is still being produced, so that the first bytes of a 
+ * long response reach the client early: after a number of bytes, after a 
+ * number of elements of the outermost list and/or after a time interval. It
+ * can be shared between threads and contexts.</p>
+ * <p>The policy is checked between the elements of the outermost list 
+ * being serialized. A flush writes the output that can no longer be 
+ * discarded by the writer (see <code>OutputBuffer.flushAvailable()</code>)
+ * and flushes the underlying output.</p>
+ */
+public class FlushPolicy {
+	private final long bytes;
+	private final int elements;
+	private final long interval;
+
+	/**
+	 * Constructor with the specification of the criteria, any of which 
+	 * triggers a flush (0 disables a criterion)
+	 * @param bytes The number of bytes written after which to flush
+	 * @param elements The number of elements of the outermost list written 
+	 * after which to flush
+	 * @param interval The time (in milliseconds) after which to flush
+	 * @throws IllegalArgumentException When a criterion is negative
+	 */
+	public FlushPolicy(long bytes, int elements, long interval) {
+		if ((bytes < 0) || (elements < 0) || (interval < 0)) {
+			throw new IllegalArgumentException("Invalid flush policy: " + bytes + " bytes, " + elements + " elements, " + interval + " ms");
+		}
+		this.bytes = bytes;
+		this.elements = elements;
+		this.interval = interval;
+	}
+
+	/**
+	 * Checks whether the output is due to be flushed
+	 * @param written The number of bytes written since the last flush
+	 * @param count The number of elements written since the last flush
+	 * @param last The time (in milliseconds) of the last flush
+	 * @return True if the output should be flushed
+	 */
+	public boolean isDue(long written, int count, long last) {
+		return ((bytes > 0) && (written >= bytes))
+			|| ((elements > 0) && (count >= elements))
+			|| ((interval > 0) && (System.currentTimeMillis() - last >= interval));
+	}
+
+	/**
+	 * @return The number of bytes written after which to flush (0 if 
+	 * disabled)
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return The number of elements of the outermost list written after 
+	 * which to flush (0 if disabled)
+	 */
+	public int getElements() {
+		return elements;
+	}
+
+	/**
+	 * @return The time (in milliseconds) after which to flush (0 if disabled)
+	 */
+	public long getInterval() {
+		return interval;
+	}
+}
@@ -0,0 +1,188 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * <p>Bounded cache of the rendered bytes of the subtrees marked as 
+ * cacheable in the configuration (see <code>CacheSerialization</code>). The
+ * memory held by the cache is accounted as the size of the fragments plus
+ * an estimated overhead per entry, and the least recently used fragments 
+ * are evicted once it exceeds the capacity. It is thread safe and meant to
+ * be shared between the contexts (see 
+ * <code>SerializationContext.setFragmentCache(FragmentCache)</code>).</p>
+ * <p>The keys can hold weak references to the objects they depend on (see
+ * <code>KeyReference</code>), which are therefore not kept in memory by the
+ * cache. The fragments whose objects have been garbage collected are purged
+ * on the next access to the cache.</p>
+ */
+public class FragmentCache {
+	/** The estimated memory used by an entry besides its fragment */
+	public static final int ENTRY_OVERHEAD = 128;
+	private final LinkedHashMap<Object, byte[]> fragments = new LinkedHashMap<Object, byte[]>(16, 0.75f, true);
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	private final long capacity;
+	private long size;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor with the specification of the capacity
+	 * @param capacity The maximum memory (in bytes) held by the cache
+	 * @throws IllegalArgumentException When the capacity is not positive
+	 */
+	public FragmentCache(long capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the fragment cached under the given key
+	 * @param key The key
+	 * @return The fragment or null if none is cached under this key
+	 */
+	public synchronized byte[] get(Object key) {
+		purge();
+		byte[] fragment = fragments.get(key);
+		if (fragment == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return fragment;
+	}
+
+	/**
+	 * Caches the given fragment under the given key, evicting the least
+	 * recently used fragments as needed. A fragment larger than the 
+	 * capacity is not cached.
+	 * @param key The key
+	 * @param fragment The fragment
+	 */
+	public synchronized void put(Object key, byte[] fragment) {
+		long needed = fragment.length + ENTRY_OVERHEAD;
+		if (needed > capacity) {
+			return;
+		}
+		purge();
+		byte[] previous = fragments.put(key, fragment);
+		if (previous != null) {
+			size -= previous.length + ENTRY_OVERHEAD;
+		}
+		size += needed;
+		Iterator<Map.Entry<Object, byte[]>> itr = fragments.entrySet().iterator();
+		while (size > capacity) {
+			size -= itr.next().getValue().length + ENTRY_OVERHEAD;
+			itr.remove();
+		}
+	}
+
+	/**
+	 * Evicts the fragments whose keys reference objects that have been 
+	 * garbage collected. The keys are removed by identity, as they are no 
+	 * longer equal to themselves once their objects are gone.
+	 */
+	protected void purge() {
+		Reference<?> reference;
+		while ((reference = collected.poll()) != null) {
+			byte[] fragment = fragments.remove(((KeyReference<?>) reference).getKey());
+			if (fragment != null) {
+				size -= fragment.length + ENTRY_OVERHEAD;
+			}
+		}
+	}
+
+	/**
+	 * Evicts all the fragments
+	 */
+	public synchronized void clear() {
+		fragments.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return The maximum memory (in bytes) held by the cache
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The memory (in bytes) currently held by the cache
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The number of fragments currently cached
+	 */
+	public synchronized int getCount() {
+		return fragments.size();
+	}
+
+	/**
+	 * @return The number of lookups that found a fragment
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of lookups that did not find any fragment
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Weak reference held by a key to an object it depends on, which evicts
+	 * the fragment cached under this key once the object has been garbage
+	 * collected
+	 * @param <T> The type of the object
+	 */
+	public static class KeyReference<T> extends WeakReference<T> {
+		private final Object key;
+
+		/**
+		 * Constructor with the specification of the object, of the key that
+		 * holds the reference and of the cache
+		 * @param referent The object
+		 * @param key The key
+		 * @param cache The cache
+		 */
+		public KeyReference(T referent, Object key, FragmentCache cache) {
+			super(referent, cache.collected);
+			this.key = key;
+		}
+
+		/**
+		 * @return The key holding the reference
+		 */
+		public Object getKey() {
+			return key;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+
+import org.localmatters.serializer.SerializationContext;
+
+
+/**
+ * Creates the <code>StreamingGenerator</code> to which the 
+ * <code>GeneratorWriter</code> forwards the document of a context (e.g. a 
+ * Jackson <code>JsonGenerator</code> over the output stream of the context).
+ */
+public interface GeneratorFactory {
+
+	/**
+	 * Creates the generator for the document to write in the given context
+	 * @param ctx The context
+	 * @return The generator
+	 * @throws IOException When the generator could not be created
+	 */
+	public StreamingGenerator createGenerator(SerializationContext ctx) throws IOException;
+}
@@ -0,0 +1,502 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * <p>This class defines a serialization writer that forwards the document as
+ * events to a <code>StreamingGenerator</code>, created for each document by
+ * its <code>GeneratorFactory</code>, instead of writing it to the buffer of 
+ * the context. The events describe the same document as the one written by
+ * the <code>JSONWriter</code> (including the columnar lists), while the 
+ * generator is in charge of the encoding (e.g. JSON or Smile) and of the 
+ * formatting.</p>
+ * <p>As the events cannot be taken back once forwarded, the opening of the
+ * objects and arrays is held until their first entry is written, so that the
+ * empty ones can be dropped. The generator is flushed, but not closed, at 
+ * the end of the document.</p>
+ * <p>The output does not go through the buffer of the context, so it is 
+ * neither cached, nor compressed, nor recorded in the size history.</p>
+ */
+public class GeneratorWriter extends AbstractWriter {
+	private static final String VALUE_LEVEL = "value";
+	private static final String MAP_LEVEL = "map";
+	private static final String ITERATOR_LEVEL = "iterator";
+	private static final String COMPLEX_LEVEL = "complex";
+	private static final String ROWS_LEVEL = "rows";
+	private static final String COLUMNS_NAME = "columns";
+	private static final String ROWS_NAME = "rows";
+	private GeneratorFactory generatorFactory;
+
+	/**
+	 * Default constructor
+	 */
+	public GeneratorWriter() {
+	}
+
+	/**
+	 * Constructor with the specification of the generator factory
+	 * @param generatorFactory The factory of the generators
+	 */
+	public GeneratorWriter(GeneratorFactory generatorFactory) {
+		setGeneratorFactory(generatorFactory);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeRoot(Serialization ser, 
+			Object root, 
+			SerializationContext ctx) throws SerializationException {
+		Generation generation;
+		try {
+			generation = new Generation(getGeneratorFactory().createGenerator(ctx));
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+		Object state = ctx.getWriterState();
+		ctx.setWriterState(generation);
+		try {
+			Serialization contextless = ser.getContextlessSerialization();
+			if (contextless instanceof ValueSerialization) {
+				generation.start(null, false, null);
+				ser.serialize(ser, null, root, ctx);
+				end(ctx, generation, true);
+			} else if (ser instanceof NameSerialization) {
+				contextless = ((NameSerialization) ser).getDelegate();
+				contextless.serialize(contextless, null, root, ctx);
+			} else {
+				ser.serialize(ser, null, root, ctx);
+			}
+		} finally {
+			ctx.setWriterState(state);
+		}
+
+		try {
+			generation.getGenerator().flush();
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeValue(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeValue(Serialization ser, 
+			String name,
+			Object value, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
+		Generation generation = getGeneration(ctx);
+		StreamingGenerator generator = generation.getGenerator();
+
+		try {
+			if ((value != null) && isDirect(value)) {
+				generation.prepare(name);
+				Class<?> klass = value.getClass();
+				if (klass == Double.class) {
+					generator.writeNumber(((Double) value).doubleValue());
+				} else if (klass == Float.class) {
+					generator.writeNumber(((Float) value).floatValue());
+				} else if (klass == Boolean.class) {
+					generator.writeBoolean(((Boolean) value).booleanValue());
+				} else {
+					generator.writeNumber(((Number) value).longValue());
+				}
+			} else if ((value instanceof BigDecimal) || (value instanceof BigInteger)) {
+				// written as strings, like the JSON writer does, to keep 
+				// their precision
+				generation.prepare(name);
+				generator.writeString(value.toString());
+			} else {
+				String str = (value == null) ? null : value.toString();
+				if (StringUtils.isNotEmpty(str)) {
+					generation.prepare(name);
+					generator.writeString(str);
+				} else if (ser.isWriteEmpty() && !ctx.isMinimal()) {
+					generation.prepare(name);
+					generator.writeNull();
+				}
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeAttribute(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeAttribute(Serialization ser, 
+			String name,
+			Object attribute, 
+			SerializationContext ctx) throws SerializationException {
+		writeValue(ser, checkRequiredName(ctx, name), attribute, ctx);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeNamespace(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeNamespace(Serialization ser, 
+			String name,
+			Object namespace, 
+			SerializationContext ctx) throws SerializationException {
+		// name-spaces are not supported by the generators
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeComplex(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, java.util.Collection, java.util.Collection, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeComplex(Serialization ser, 
+			String name,
+			Object object, 
+			Collection<Serialization> attributes, 
+			Collection<Serialization> elements, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, COMPLEX_LEVEL));
+		Generation generation = getGeneration(ctx);
+
+		List<Serialization> columns = generation.getColumns();
+		if (columns != null) {
+			// a row of a columnar list, written as an array of the values
+			generation.start(null, true, null);
+			for (Serialization column : columns) {
+				long written = generation.getWritten();
+				column.serialize(column, null, object, ctx);
+				if (generation.getWritten() == written) {
+					generation.addNull();
+				}
+			}
+		} else {
+			generation.start(name, false, null);
+			if (attributes != null) {
+				for (Serialization attribute : attributes) {
+					attribute.serialize(attribute, null, object, ctx);
+				}
+			}
+			if (elements != null) {
+				for (Serialization element : elements) {
+					element.serialize(element, null, object, ctx);
+				}
+			}
+		}
+		end(ctx, generation, ser.isWriteEmpty());
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeIterator(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Iterator, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeIterator(Serialization ser, 
+			String name,
+			Iterator<?> itr, 
+			String elementName,
+			Serialization element, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, ITERATOR_LEVEL));
+		Generation generation = getGeneration(ctx);
+
+		if ((element != null) 
+				&& (element.getContextlessSerialization() instanceof ComplexSerialization) 
+				&& JSONWriter.isColumnar(ser)) {
+			// the rows are written by the complex element, one level below
+			generation.start(name, true, JSONWriter.getColumns((ComplexSerialization) element.getContextlessSerialization()));
+			ctx.nextLevel(ROWS_LEVEL);
+			while (itr.hasNext()) {
+				element.serialize(element, null, itr.next(), ctx);
+			}
+			ctx.previousLevel();
+		} else {
+			generation.start(name, true, null);
+			while (itr.hasNext()) {
+				element.serialize(element, null, itr.next(), ctx);
+			}
+		}
+		end(ctx, generation, ser.isWriteEmpty());
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeMap(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Collection, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	@SuppressWarnings("rawtypes")
+	public void writeMap(Serialization ser, 
+			String name,
+			Collection<Map.Entry> entries, 
+			String key,
+			Serialization value, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, MAP_LEVEL));
+		Generation generation = getGeneration(ctx);
+
+		generation.start(name, false, null);
+		if (entries != null) {
+			for (Map.Entry entry : entries) {
+				value.serialize(value, resolvesMapKey(key, entry, ctx), entry.getValue(), ctx);
+			}
+		}
+		end(ctx, generation, ser.isWriteEmpty());
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Ends the current object or array
+	 * @param ctx The context
+	 * @param generation The generation in progress
+	 * @param writeEmpty Whether to write the object or array when empty
+	 * @throws SerializationException When the writing failed
+	 */
+	protected static void end(SerializationContext ctx, Generation generation, boolean writeEmpty) throws SerializationException {
+		try {
+			generation.end(writeEmpty);
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Returns the generation in progress in the given context
+	 * @param ctx The context
+	 * @return The generation
+	 * @throws SerializationException When no generation is in progress, as 
+	 * the writer has not been called from its root
+	 */
+	protected static Generation getGeneration(SerializationContext ctx) throws SerializationException {
+		Object state = ctx.getWriterState();
+		if (!(state instanceof Generation)) {
+			throw new IOSerializationException(ctx, new IllegalStateException("No generator, the document must be written from its root"));
+		}
+		return (Generation) state;
+	}
+
+	/**
+	 * @return The factory of the generators
+	 */
+	public GeneratorFactory getGeneratorFactory() {
+		return generatorFactory;
+	}
+
+	/**
+	 * @param generatorFactory The factory of the generators
+	 */
+	public void setGeneratorFactory(GeneratorFactory generatorFactory) {
+		this.generatorFactory = generatorFactory;
+	}
+
+	/**
+	 * The state of a document being forwarded to a generator, kept as the 
+	 * writer state of the context: the objects and arrays currently open, 
+	 * some of which may not have been forwarded yet as they are still empty.
+	 */
+	protected static class Generation {
+		private final StreamingGenerator generator;
+		private final List<Frame> frames = new ArrayList<Frame>();
+		// the index of the first frame that has not been opened yet or that
+		// has nulls pending
+		private int pending;
+		private long written;
+
+		/**
+		 * Constructor with the specification of the generator
+		 * @param generator The generator
+		 */
+		protected Generation(StreamingGenerator generator) {
+			this.generator = generator;
+		}
+
+		/**
+		 * Starts an object or array, which is only opened once its first 
+		 * entry is written
+		 * @param name The name of the object or array
+		 * @param array Whether the entries are written in an array
+		 * @param columns The columns when the array holds the rows of a 
+		 * columnar list, null otherwise
+		 */
+		protected void start(String name, boolean array, List<Serialization> columns) {
+			frames.add(new Frame(name, array, columns));
+		}
+
+		/**
+		 * Prepares the writing of an entry of the current object or array:
+		 * opens the objects and arrays that are not open yet, writes the 
+		 * pending nulls and the name of the entry
+		 * @param name The name of the entry
+		 * @throws IOException When the writing failed
+		 */
+		protected void prepare(String name) throws IOException {
+			open();
+			writeName(frames.size(), name);
+			written++;
+		}
+
+		/**
+		 * Adds a null to write before the next entry of the current array,
+		 * if any
+		 */
+		protected void addNull() {
+			int index = frames.size() - 1;
+			frames.get(index).nulls++;
+			if (pending > index) {
+				pending = index;
+			}
+		}
+
+		/**
+		 * Ends the current object or array
+		 * @param writeEmpty Whether to write the object or array when it is
+		 * empty
+		 * @return True if the object or array has been written
+		 * @throws IOException When the writing failed
+		 */
+		protected boolean end(boolean writeEmpty) throws IOException {
+			int index = frames.size() - 1;
+			Frame frame = frames.get(index);
+			if (frame.opened || writeEmpty) {
+				open();
+				if (frame.columns != null) {
+					generator.writeEndArray();
+					generator.writeEndObject();
+				} else if (frame.array) {
+					generator.writeEndArray();
+				} else {
+					generator.writeEndObject();
+				}
+			}
+			frames.remove(index);
+			if (pending > index) {
+				pending = index;
+			}
+			return frame.opened;
+		}
+
+		/**
+		 * Opens the objects and arrays that are not open yet and writes the
+		 * pending nulls
+		 * @throws IOException When the writing failed
+		 */
+		private void open() throws IOException {
+			for (int i=pending; i<frames.size(); i++) {
+				Frame frame = frames.get(i);
+				if (!frame.opened) {
+					writeName(i, frame.name);
+					if (frame.columns != null) {
+						generator.writeStartObject();
+						generator.writeFieldName(COLUMNS_NAME);
+						generator.writeStartArray();
+						for (Serialization column : frame.columns) {
+							generator.writeString(StringUtils.defaultString(getConfiguredName(column)));
+						}
+						generator.writeEndArray();
+						generator.writeFieldName(ROWS_NAME);
+						generator.writeStartArray();
+					} else if (frame.array) {
+						generator.writeStartArray();
+					} else {
+						generator.writeStartObject();
+					}
+					frame.opened = true;
+					written++;
+				}
+				for (; frame.nulls > 0; frame.nulls--) {
+					generator.writeNull();
+				}
+			}
+			pending = frames.size();
+		}
+
+		/**
+		 * Writes the name of an entry when it is written in an object
+		 * @param index The index of the frame of the entry
+		 * @param name The name of the entry
+		 * @throws IOException When the writing failed
+		 */
+		private void writeName(int index, String name) throws IOException {
+			if ((index > 0) && !frames.get(index - 1).array && StringUtils.isNotBlank(name)) {
+				generator.writeFieldName(name);
+			}
+		}
+
+		/**
+		 * @return The columns of the current array when it holds the rows of
+		 * a columnar list, null otherwise
+		 */
+		protected List<Serialization> getColumns() {
+			return frames.isEmpty() ? null : frames.get(frames.size() - 1).columns;
+		}
+
+		/**
+		 * @return The number of entries, objects and arrays written so far
+		 */
+		protected long getWritten() {
+			return written;
+		}
+
+		/**
+		 * @return The generator
+		 */
+		protected StreamingGenerator getGenerator() {
+			return generator;
+		}
+	}
+
+	/**
+	 * An object or array started by the generation
+	 */
+	private static class Frame {
+		private final String name;
+		private final boolean array;
+		private final List<Serialization> columns;
+		private boolean opened;
+		private int nulls;
+
+		/**
+		 * Constructor with the specification of the object or array
+		 * @param name The name of the object or array
+		 * @param array Whether the entries are written in an array
+		 * @param columns The columns of the rows, if any
+		 */
+		private Frame(String name, boolean array, List<Serialization> columns) {
+			this.name = name;
+			this.array = array;
+			this.columns = columns;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+
+/**
+ * Immutable table of the pre-encoded prefixes (a new line followed by the
+ * indentation) written in front of the elements when the output is
+ * formatted, indexed by depth. As the table is computed up-front and never
+ * modified, it can be shared between threads. The prefixes deeper than the
+ * maximum depth of the table are computed on the fly.
+ */
+public class Indentation {
+	public static final int DEFAULT_MAX_DEPTH = 32;
+	private static final char NEW_LINE = '\n';
+	private final String indentation;
+	private final byte[][] prefixes;
+
+	/**
+	 * Constructor with the specification of the indentation of each level
+	 * and of the maximum depth of the table
+	 * @param indentation The indentation of each level (must be ASCII)
+	 * @param maxDepth The maximum depth of the table
+	 */
+	public Indentation(String indentation, int maxDepth) {
+		this.indentation = indentation;
+		prefixes = new byte[maxDepth + 1][];
+		for (int depth=0; depth<=maxDepth; depth++) {
+			prefixes[depth] = build(depth);
+		}
+	}
+
+	/**
+	 * Returns the prefix for the given depth
+	 * @param depth The depth
+	 * @return The prefix (must not be modified)
+	 */
+	public byte[] getPrefix(int depth) {
+		if (depth < prefixes.length) {
+			return prefixes[depth];
+		}
+		return build(depth);
+	}
+
+	/**
+	 * Builds the prefix for the given depth: a new line followed by the
+	 * indentation repeated once per level below the root
+	 * @param depth The depth
+	 * @return The prefix
+	 */
+	private byte[] build(int depth) {
+		int levels = Math.max(depth - 1, 0);
+		byte[] prefix = new byte[1 + levels * indentation.length()];
+		prefix[0] = NEW_LINE;
+		int pos = 1;
+		for (int i=0; i<levels; i++) {
+			for (int j=0; j<indentation.length(); j++) {
+				prefix[pos++] = (byte) indentation.charAt(j);
+			}
+		}
+		return prefix;
+	}
+
+	/**
+	 * @return The indentation of each level
+	 */
+	public String getIndentation() {
+		return indentation;
+	}
+
+	/**
+	 * @return The maximum depth of the table
+	 */
+	public int getMaxDepth() {
+		return prefixes.length - 1;
+	}
+}
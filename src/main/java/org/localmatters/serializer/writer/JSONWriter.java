@@ -15,47 +15,76 @@
 */
 package org.localmatters.serializer.writer;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.localmatters.serializer.SerializationContext;
 import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.IteratorSerialization;
 import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.NamespaceSerialization;
+import org.localmatters.serializer.serialization.NameTokens;
 import org.localmatters.serializer.serialization.Serialization;
 import org.localmatters.serializer.serialization.ValueSerialization;
-import org.localmatters.serializer.util.EscapeUtils;
-import org.localmatters.serializer.util.ReflectionUtils;
 
 
 /**
- * This class defines a serialization writer that outputs JSON.
+ * <p>This class defines a serialization writer that outputs JSON.</p>
+ * <p>The lists of complex elements configured as columnar are written as
+ * an object holding the names of the columns (the attributes and elements of
+ * the complex element) and the rows, each row being an array of the values
+ * in the order of the columns (<code>null</code> when a value is empty):
+ * <code>{"columns": ["id", "name"], "rows": [["1", "a"], ["2", "b"]]}</code>.
+ * </p>
+ * <p>When the context is set to be minimal, the output has no whitespace at 
+ * all (whatever the formatting of the context), the empty values are never 
+ * written, even when the serialization is set to write them when empty, and 
+ * the whole doubles and floats are written without fraction (e.g. 
+ * <code>2</code> instead of <code>2.0</code>).</p>
  */
 public class JSONWriter extends AbstractWriter {
     private static final String INDENTATION = "   ";
-    private static final String LEFT_CURLY = "{";
-    private static final String LEFT_SQUARE = "[";
-    private static final String QUOTE = "\"";
-    private static final String QUOTE_COLUMN_LEFT_CURLY = "\": {";
-    private static final String QUOTE_COLUMN_LEFT_SQUARE = "\": [";
-    private static final String NEW_LINE = "\n";
     private static final String VALUE_LEVEL = "value";
     private static final String MAP_LEVEL = "map";
     private static final String ITERATOR_LEVEL = "iterator";
     private static final String COMPLEX_LEVEL = "complex";
+    private static final String ROWS_LEVEL = "rows";
     private static final byte[] NULL_BYTES = "null".getBytes();
-	private static final byte[] LEFT_CURLY_BYTES = LEFT_CURLY.getBytes();
+	private static final byte[] LEFT_CURLY_BYTES = "{".getBytes();
+	private static final byte[] LEFT_SQUARE_BYTES = "[".getBytes();
 	private static final byte[] RIGHT_CURLY_BYTES = "}".getBytes();
 	private static final byte[] RIGHT_SQUARE_BYTES = "]".getBytes();
-	private static final byte[] QUOTE_BYTES = QUOTE.getBytes();
+	private static final byte[] QUOTE_BYTES = "\"".getBytes();
 	private static final byte[] QUOTE_COLUMN_BYTES = "\": ".getBytes();
+	private static final byte[] QUOTE_COLUMN_LEFT_CURLY_BYTES = "\": {".getBytes();
+	private static final byte[] QUOTE_COLUMN_LEFT_SQUARE_BYTES = "\": [".getBytes();
 	private static final byte[] QUOTE_COLUMN_CLOSED_CURLY_BYTES = "\": {}".getBytes();
 	private static final byte[] QUOTE_COLUMN_CLOSED_SQUARE_BYTES = "\": []".getBytes();
 	private static final byte[] COMMA_BYTES = ", ".getBytes();
-	private Map<Integer, String> prefixes = new HashMap<Integer, String>();
+	private static final byte[] COLUMNS_BYTES = "\"columns\": [".getBytes();
+	private static final byte[] ROWS_BYTES = "\"rows\": [".getBytes();
+	private static final byte[] EMPTY_OBJECT_BYTES = "{}".getBytes();
+	private static final byte[] EMPTY_ARRAY_BYTES = "[]".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_BYTES = "\":".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_LEFT_CURLY_BYTES = "\":{".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_LEFT_SQUARE_BYTES = "\":[".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_CLOSED_CURLY_BYTES = "\":{}".getBytes();
+	private static final byte[] MINIMAL_QUOTE_COLUMN_CLOSED_SQUARE_BYTES = "\":[]".getBytes();
+	private static final byte[] MINIMAL_COMMA_BYTES = ",".getBytes();
+	private static final byte[] MINIMAL_COLUMNS_BYTES = "\"columns\":[".getBytes();
+	private static final byte[] MINIMAL_ROWS_BYTES = "\"rows\":[".getBytes();
+	private static final double MAX_EXACT_WHOLE = 9007199254740992d;
+	private Indentation indentation = new Indentation(INDENTATION, Indentation.DEFAULT_MAX_DEPTH);
 
 	/**
 	 * @see org.localmatters.serializer.writer.Writer#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
@@ -63,6 +92,25 @@ public class JSONWriter extends AbstractWriter {
 	public void writeRoot(Serialization ser, 
 			Object root, 
 			SerializationContext ctx) throws SerializationException {
+		ctx.startDocument(ser);
+		try {
+			writeDocument(ser, root, ctx);
+			ctx.endDocument();
+		} finally {
+			ctx.releaseDocument();
+		}
+	}
+
+	/**
+	 * Writes the given root object as a JSON document, without flushing it
+	 * @param ser The serialization of the root
+	 * @param root The root object
+	 * @param ctx The context
+	 * @throws SerializationException When the serialization failed
+	 */
+	protected void writeDocument(Serialization ser, 
+			Object root, 
+			SerializationContext ctx) throws SerializationException {
 		Serialization contextless = ser.getContextlessSerialization();
 		if (contextless instanceof ValueSerialization) {
 			write(ctx, LEFT_CURLY_BYTES);
@@ -74,7 +122,6 @@ public class JSONWriter extends AbstractWriter {
 		} else {
 			ser.serialize(ser, null, root, ctx);
 		}
-		
 	}
 
 	/**
@@ -86,24 +133,24 @@ public class JSONWriter extends AbstractWriter {
 			SerializationContext ctx) throws SerializationException {
 		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
 
-		String prefix = getPrefix(ctx);
-        String str = String.valueOf(value);
-		if ((value != null) && StringUtils.isNotEmpty(str)) {
+		byte[] prefix = getPrefix(ctx);
+		if ((value != null) && isDirect(value)) {
 			write(ctx, prefix);
-			if (StringUtils.isNotBlank(name)) {
-				write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, QUOTE_COLUMN_BYTES);
-			}
-
-			if (ReflectionUtils.isNumeric(value.getClass()) || ReflectionUtils.isBoolean(value.getClass())) {
-				write(ctx, str);
-			} else {
-				write(ctx, QUOTE_BYTES).write(ctx, EscapeUtils.escapeJson(str)).write(ctx, QUOTE_BYTES);
-			}
-		} else if (ser.isWriteEmpty()) {
+			writeKey(ctx, ser, name);
+			writeDirect(ctx, value);
+		} else if ((value instanceof BigDecimal) || (value instanceof BigInteger)) {
+			// their string representation never needs to be escaped
 			write(ctx, prefix);
-			if (StringUtils.isNotBlank(name)) {
-				write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, QUOTE_COLUMN_BYTES);
-			}
+			writeKey(ctx, ser, name);
+			write(ctx, QUOTE_BYTES).write(ctx, value.toString()).write(ctx, QUOTE_BYTES);
+		} else if ((value != null) && StringUtils.isNotEmpty(value.toString())) {
+			write(ctx, prefix);
+			writeKey(ctx, ser, name);
+			write(ctx, QUOTE_BYTES);
+			writeEscaped(ctx, value.toString()).write(ctx, QUOTE_BYTES);
+		} else if (ser.isWriteEmpty() && !ctx.isMinimal()) {
+			write(ctx, prefix);
+			writeKey(ctx, ser, name);
 			write(ctx, NULL_BYTES);
 		}
 
@@ -139,44 +186,39 @@ public class JSONWriter extends AbstractWriter {
 			Collection<Serialization> elements, 
 			Collection<String> comments, 
 			SerializationContext ctx) throws SerializationException {
+		Table table = getTable(ctx, 0);
+		if (table != null) {
+			writeRow(ser, name, object, table, ctx);
+			return;
+		}
+
 		ctx.nextLevel(StringUtils.defaultIfEmpty(name, COMPLEX_LEVEL));
 		boolean empty = true;
 
-		String prefix = getPrefix(ctx);
+		byte[] prefix = getPrefix(ctx);
 		if (CollectionUtils.isNotEmpty(attributes) || CollectionUtils.isNotEmpty(elements)) {
-			if (StringUtils.isEmpty(name)) {
-			    ctx.pushPrefix(prefix + LEFT_CURLY);
-			} else {
-			    ctx.pushPrefix(prefix + QUOTE + name + QUOTE_COLUMN_LEFT_CURLY);
-			}
-			byte[] sep = new byte[]{};
-			
+			OutputBuffer buffer = ctx.getBuffer();
+			long mark = buffer.markTentative();
+			writeOpening(ctx, prefix, ser, name, false);
+			long start = buffer.position();
+			boolean pending = true;
 			if (CollectionUtils.isNotEmpty(attributes)) {
 				for (Serialization attribute : attributes) {
-					ctx.pushPrefix(sep);
-					attribute.serialize(attribute, null, object, ctx);
-					if (ctx.consomePrefix() == null) {
-						sep = COMMA_BYTES;
-					}
+					writeEntry(ctx, start, attribute, null, object);
+					pending = releaseWhenWritten(buffer, start, pending);
 				}
 			}
 			if (CollectionUtils.isNotEmpty(elements)) {
 				for (Serialization element : elements) {
-					ctx.pushPrefix(sep);
-					element.serialize(element, null, object, ctx);
-					if (ctx.consomePrefix() == null) {
-						sep = COMMA_BYTES;
-					}
+					writeEntry(ctx, start, element, null, object);
+					pending = releaseWhenWritten(buffer, start, pending);
 				}
 			}
-			if (ctx.consomePrefix() == null) {
-			    write(ctx, prefix).write(ctx, RIGHT_CURLY_BYTES);
-			    empty = false;
-			}
+			empty = !writeEnd(ctx, mark, start, prefix, RIGHT_CURLY_BYTES);
 		} 
 
 		if (empty && ser.isWriteEmpty()){
-			write(ctx, prefix).write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, QUOTE_COLUMN_CLOSED_CURLY_BYTES);
+			writeEmpty(ctx, prefix, ser, name, false);
 		}
 
 		ctx.previousLevel();
@@ -192,32 +234,32 @@ public class JSONWriter extends AbstractWriter {
 			Serialization element, 
 			Collection<String> comments, 
 			SerializationContext ctx) throws SerializationException {
+		if ((element != null) 
+				&& (element.getContextlessSerialization() instanceof ComplexSerialization) 
+				&& isColumnar(ser)) {
+			writeTable(ser, name, itr, element, (ComplexSerialization) element.getContextlessSerialization(), ctx);
+			return;
+		}
+
 		ctx.nextLevel(StringUtils.defaultIfEmpty(name, ITERATOR_LEVEL));
         boolean empty = true;
 
-		String prefix = getPrefix(ctx);
+		byte[] prefix = getPrefix(ctx);
 		if (itr.hasNext()) {
-			if (StringUtils.isEmpty(name)) {
-			    ctx.pushPrefix(prefix + LEFT_SQUARE);
-			} else {
-			    ctx.pushPrefix(prefix + QUOTE + name + QUOTE_COLUMN_LEFT_SQUARE);
-			}
-			byte[] sep = new byte[]{};
+			OutputBuffer buffer = ctx.getBuffer();
+			long mark = buffer.markTentative();
+			writeOpening(ctx, prefix, ser, name, true);
+			long start = buffer.position();
+			boolean pending = true;
 			while (itr.hasNext()) {
-				ctx.pushPrefix(sep);
-				element.serialize(element, null, itr.next(), ctx);
-				if (ctx.consomePrefix() == null) {
-					sep = COMMA_BYTES;
-				}
+				writeEntry(ctx, start, element, null, itr.next());
+				pending = releaseWhenWritten(buffer, start, pending);
 			}
-            if (ctx.consomePrefix() == null) {
-                write(ctx, prefix).write(ctx, RIGHT_SQUARE_BYTES);
-                empty = false;
-            }
+			empty = !writeEnd(ctx, mark, start, prefix, RIGHT_SQUARE_BYTES);
 		} 
 
         if (empty && ser.isWriteEmpty()){
-			write(ctx, prefix).write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, QUOTE_COLUMN_CLOSED_SQUARE_BYTES);
+			writeEmpty(ctx, prefix, ser, name, true);
 		}
 
 		ctx.previousLevel();
@@ -237,54 +279,402 @@ public class JSONWriter extends AbstractWriter {
 		ctx.nextLevel(StringUtils.defaultIfEmpty(name, MAP_LEVEL));
         boolean empty = true;
 
-		String prefix = getPrefix(ctx);
+		byte[] prefix = getPrefix(ctx);
 		if (CollectionUtils.isNotEmpty(entries)) {
-			if (StringUtils.isEmpty(name)) {
-			    ctx.pushPrefix(prefix + LEFT_CURLY);
-			} else {
-			    ctx.pushPrefix(prefix + QUOTE + name + QUOTE_COLUMN_LEFT_CURLY);
-			}
-			byte[] sep = new byte[]{};
+			OutputBuffer buffer = ctx.getBuffer();
+			long mark = buffer.markTentative();
+			writeOpening(ctx, prefix, ser, name, false);
+			long start = buffer.position();
+			boolean pending = true;
 			for (Map.Entry entry : entries) {
-				ctx.pushPrefix(sep);
-				value.serialize(value, resolvesMapKey(key, entry, ctx), entry.getValue(), ctx);
-				if (ctx.consomePrefix() == null) {
-					sep = COMMA_BYTES;
-				}
+				writeEntry(ctx, start, value, resolvesMapKey(key, entry, ctx), entry.getValue());
+				pending = releaseWhenWritten(buffer, start, pending);
 			}
-            if (ctx.consomePrefix() == null) {
-                write(ctx, prefix).write(ctx, RIGHT_CURLY_BYTES);
-                empty = false;
-            }
+			empty = !writeEnd(ctx, mark, start, prefix, RIGHT_CURLY_BYTES);
 		} 
 
         if (empty && ser.isWriteEmpty()){
-			write(ctx, prefix).write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, QUOTE_COLUMN_CLOSED_CURLY_BYTES);
+			writeEmpty(ctx, prefix, ser, name, false);
 		}
 
 		ctx.previousLevel();
 	}
 
 	/**
-	 * Returns the prefix
+	 * Writes a columnar list: the names of the columns, then the rows
+	 * written by the complex element (see <code>writeRow</code>)
+	 * @param ser The serialization of the list
+	 * @param name The name of the list
+	 * @param itr The iterator over the elements
+	 * @param element The serialization of the elements
+	 * @param complex The complex serialization of the elements
 	 * @param ctx The context
-	 * @return The prefix
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeTable(Serialization ser, 
+			String name,
+			Iterator<?> itr, 
+			Serialization element,
+			ComplexSerialization complex,
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, ITERATOR_LEVEL));
+		byte[] prefix = getPrefix(ctx);
+		OutputBuffer buffer = ctx.getBuffer();
+		long mark = buffer.markTentative();
+		writeOpening(ctx, prefix, ser, name, false);
+
+		ctx.nextLevel(ROWS_LEVEL);
+		byte[] rowsPrefix = getPrefix(ctx);
+		List<Serialization> columns = getColumns(complex);
+		boolean minimal = ctx.isMinimal();
+		byte[] comma = getComma(ctx);
+		write(ctx, rowsPrefix).write(ctx, minimal ? MINIMAL_COLUMNS_BYTES : COLUMNS_BYTES);
+		for (int i=0; i<columns.size(); i++) {
+			if (i > 0) {
+				write(ctx, comma);
+			}
+			write(ctx, QUOTE_BYTES);
+			writeEscaped(ctx, StringUtils.defaultString(getConfiguredName(columns.get(i)))).write(ctx, QUOTE_BYTES);
+		}
+		write(ctx, RIGHT_SQUARE_BYTES).write(ctx, comma).write(ctx, rowsPrefix).write(ctx, minimal ? MINIMAL_ROWS_BYTES : ROWS_BYTES);
+
+		// the rows are written by the complex element, one level below
+		long start = buffer.position();
+		Object state = ctx.getWriterState();
+		ctx.setWriterState(new Table(ctx.getDeepness(), columns));
+		boolean pending = true;
+		while (itr.hasNext()) {
+			writeEntry(ctx, start, element, null, itr.next());
+			pending = releaseWhenWritten(buffer, start, pending);
+		}
+		ctx.setWriterState(state);
+		if (!pending) {
+			write(ctx, rowsPrefix);
+		}
+		write(ctx, RIGHT_SQUARE_BYTES);
+		ctx.previousLevel();
+
+		if (pending && !ser.isWriteEmpty()) {
+			buffer.rewind(mark);
+		} else {
+			buffer.unmark();
+			write(ctx, prefix).write(ctx, RIGHT_CURLY_BYTES);
+		}
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Writes a row of a columnar list: an array of the values of the 
+	 * columns, in order, where the empty values are written as 
+	 * <code>null</code>. The row is discarded when all its values are empty,
+	 * unless the complex element is set to be written when empty.
+	 * @param ser The serialization of the complex element
+	 * @param name The name of the complex element
+	 * @param object The object to serialize
+	 * @param table The columnar list being written
+	 * @param ctx The context
+	 * @throws SerializationException When the writing failed
 	 */
-	protected String getPrefix(SerializationContext ctx) {
-		String prefix = StringUtils.EMPTY;
-		int deepness = ctx.getDeepness();
-		if (ctx.isFormatting()) {
-			prefix = prefixes.get(deepness);
-			if (prefix == null) {
-				prefix = NEW_LINE;
-				for (int i=1; i<deepness; i++) {
-					prefix += INDENTATION;
+	protected void writeRow(Serialization ser, 
+			String name,
+			Object object, 
+			Table table,
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, COMPLEX_LEVEL));
+		OutputBuffer buffer = ctx.getBuffer();
+		long mark = buffer.markTentative();
+		write(ctx, getPrefix(ctx)).write(ctx, LEFT_SQUARE_BYTES);
+		byte[] comma = getComma(ctx);
+		boolean empty = true;
+		for (int i=0; i<table.columns.size(); i++) {
+			if (i > 0) {
+				write(ctx, comma);
+			}
+			Serialization column = table.columns.get(i);
+			long position = buffer.position();
+			column.serialize(column, null, object, ctx);
+			if (buffer.position() == position) {
+				write(ctx, NULL_BYTES);
+			} else {
+				empty = false;
+			}
+		}
+		if (empty && !ser.isWriteEmpty()) {
+			buffer.rewind(mark);
+		} else {
+			buffer.unmark();
+			write(ctx, RIGHT_SQUARE_BYTES);
+		}
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Returns the columnar list whose rows (at offset 0) or values (at 
+	 * offset 2, as the values write their key one level below the row) are 
+	 * being written at the current level of the context
+	 * @param ctx The context
+	 * @param offset The offset of the current level from the rows level
+	 * @return The columnar list or null if none
+	 */
+	protected static Table getTable(SerializationContext ctx, int offset) {
+		Object state = ctx.getWriterState();
+		if ((state instanceof Table) && (((Table) state).depth + offset == ctx.getDeepness())) {
+			return (Table) state;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the name under which a value is written, which is none for the
+	 * values of a row
+	 * @param ctx The context
+	 * @param name The name of the value
+	 * @return The name or null if the value is written in a row
+	 */
+	protected static String getKeyName(SerializationContext ctx, String name) {
+		return (getTable(ctx, 2) == null) ? name : null;
+	}
+
+	/**
+	 * Checks whether the given list serialization is set to be columnar
+	 * @param ser The serialization of the list
+	 * @return True if the list is columnar
+	 */
+	protected static boolean isColumnar(Serialization ser) {
+		Serialization contextless = ser.getContextlessSerialization();
+		return (contextless instanceof IteratorSerialization) && ((IteratorSerialization) contextless).isColumnar();
+	}
+
+	/**
+	 * Returns the columns of the given complex serialization: its attributes
+	 * and elements, except the name-spaces that are not written in JSON
+	 * @param complex The complex serialization
+	 * @return The columns
+	 */
+	protected static List<Serialization> getColumns(ComplexSerialization complex) {
+		List<Serialization> columns = new ArrayList<Serialization>();
+		for (Serialization attribute : complex.getAttributes()) {
+			if (!(attribute.getContextlessSerialization() instanceof NamespaceSerialization)) {
+				columns.add(attribute);
+			}
+		}
+		for (Serialization element : complex.getElements()) {
+			if (!(element.getContextlessSerialization() instanceof NamespaceSerialization)) {
+				columns.add(element);
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Writes the given string escaped using the JSON string rules. The prefixes
+	 * must have been written already (by the opening quote).
+	 * @param ctx The context
+	 * @param str The string to write
+	 * @return The writer itself for ease of coding
+	 * @throws SerializationException When the writing failed
+	 */
+	protected JSONWriter writeEscaped(SerializationContext ctx, String str) throws SerializationException {
+		try {
+			ctx.getBuffer().writeJson(str);
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the key under which a value is written, if any
+	 * @param ctx The context
+	 * @param ser The serialization being written
+	 * @param name The name of the value
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeKey(SerializationContext ctx, Serialization ser, String name) throws SerializationException {
+		name = getKeyName(ctx, name);
+		NameTokens tokens = NameTokens.get(ser, name);
+		boolean minimal = ctx.isMinimal();
+		if (tokens != null) {
+			write(ctx, minimal ? tokens.getJsonMinimalKey() : tokens.getJsonKey());
+		} else if (StringUtils.isNotBlank(name)) {
+			write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, minimal ? MINIMAL_QUOTE_COLUMN_BYTES : QUOTE_COLUMN_BYTES);
+		}
+	}
+
+	/**
+	 * Writes the opening of an object or array
+	 * @param ctx The context
+	 * @param prefix The prefix
+	 * @param ser The serialization being written
+	 * @param name The name of the object or array
+	 * @param array Whether to open an array or an object
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeOpening(SerializationContext ctx, byte[] prefix, Serialization ser, String name, boolean array) throws SerializationException {
+		write(ctx, prefix);
+		name = getKeyName(ctx, name);
+		if (StringUtils.isEmpty(name)) {
+			write(ctx, array ? LEFT_SQUARE_BYTES : LEFT_CURLY_BYTES);
+		} else if (ctx.isMinimal()) {
+			NameTokens tokens = NameTokens.get(ser, name);
+			if (tokens != null) {
+				write(ctx, array ? tokens.getJsonMinimalOpenArray() : tokens.getJsonMinimalOpenObject());
+			} else {
+				write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, array ? MINIMAL_QUOTE_COLUMN_LEFT_SQUARE_BYTES : MINIMAL_QUOTE_COLUMN_LEFT_CURLY_BYTES);
+			}
+		} else {
+			NameTokens tokens = NameTokens.get(ser, name);
+			if (tokens != null) {
+				write(ctx, array ? tokens.getJsonOpenArray() : tokens.getJsonOpenObject());
+			} else {
+				write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, array ? QUOTE_COLUMN_LEFT_SQUARE_BYTES : QUOTE_COLUMN_LEFT_CURLY_BYTES);
+			}
+		}
+	}
+
+	/**
+	 * Writes an entry of an object or array, preceded by a separator unless 
+	 * it is the first one written. The separator is discarded when the entry 
+	 * is empty.
+	 * @param ctx The context
+	 * @param start The position right after the opening of the object or array
+	 * @param element The serialization of the entry
+	 * @param name The name of the entry
+	 * @param object The object to serialize
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeEntry(SerializationContext ctx, long start, Serialization element, String name, Object object) throws SerializationException {
+		long mark = ctx.getBuffer().markTentative();
+		if (mark != start) {
+			write(ctx, getComma(ctx));
+		}
+		serializeOrRewind(ctx, mark, element, name, object);
+	}
+
+	/**
+	 * Writes the end of an object or array if any of its entries has been 
+	 * written, otherwise discards its opening
+	 * @param ctx The context
+	 * @param mark The position marked before the opening
+	 * @param start The position right after the opening
+	 * @param prefix The prefix
+	 * @param end The end to write
+	 * @return True if the object or array has been written, false if it was
+	 * empty
+	 * @throws SerializationException When the writing failed
+	 */
+	protected boolean writeEnd(SerializationContext ctx, long mark, long start, byte[] prefix, byte[] end) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		if (buffer.position() == start) {
+			buffer.rewind(mark);
+			return false;
+		}
+		buffer.unmark();
+		write(ctx, prefix).write(ctx, end);
+		return true;
+	}
+
+	/**
+	 * Writes an empty object or array
+	 * @param ctx The context
+	 * @param prefix The prefix
+	 * @param ser The serialization being written
+	 * @param name The name of the object or array
+	 * @param array Whether to write an array or an object
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeEmpty(SerializationContext ctx, byte[] prefix, Serialization ser, String name, boolean array) throws SerializationException {
+		write(ctx, prefix);
+		name = getKeyName(ctx, name);
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (StringUtils.isEmpty(name)) {
+			write(ctx, array ? EMPTY_ARRAY_BYTES : EMPTY_OBJECT_BYTES);
+		} else if (ctx.isMinimal()) {
+			if (tokens != null) {
+				write(ctx, array ? tokens.getJsonMinimalEmptyArray() : tokens.getJsonMinimalEmptyObject());
+			} else {
+				write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, array ? MINIMAL_QUOTE_COLUMN_CLOSED_SQUARE_BYTES : MINIMAL_QUOTE_COLUMN_CLOSED_CURLY_BYTES);
+			}
+		} else if (tokens != null) {
+			write(ctx, array ? tokens.getJsonEmptyArray() : tokens.getJsonEmptyObject());
+		} else {
+			write(ctx, QUOTE_BYTES).write(ctx, name).write(ctx, array ? QUOTE_COLUMN_CLOSED_SQUARE_BYTES : QUOTE_COLUMN_CLOSED_CURLY_BYTES);
+		}
+	}
+
+	/**
+	 * Writes the whole doubles and floats without fraction when the context 
+	 * is minimal, as long as they can be represented exactly by a long
+	 * @see org.localmatters.serializer.writer.AbstractWriter#writeDirect(org.localmatters.serializer.SerializationContext, java.lang.Object)
+	 */
+	@Override
+	protected AbstractWriter writeDirect(SerializationContext ctx, Object value) throws SerializationException {
+		if (ctx.isMinimal() && ((value instanceof Double) || (value instanceof Float))) {
+			double d = ((Number) value).doubleValue();
+			// the negative zero keeps its fraction to keep its sign
+			if ((d == Math.rint(d)) && (Math.abs(d) < MAX_EXACT_WHOLE) && (Double.doubleToRawLongBits(d) != Long.MIN_VALUE)) {
+				try {
+					ctx.getBuffer().writeLong((long) d);
+				} catch (IOException e) {
+					throw new IOSerializationException(ctx, e);
 				}
-				prefixes.put(deepness, prefix);
+				return this;
 			}
 		}
-		return prefix;
-		
+		return super.writeDirect(ctx, value);
+	}
+
+	/**
+	 * Returns the separator between the entries of an object or array
+	 * @param ctx The context
+	 * @return The separator
+	 */
+	protected byte[] getComma(SerializationContext ctx) {
+		return ctx.isMinimal() ? MINIMAL_COMMA_BYTES : COMMA_BYTES;
+	}
+
+	/**
+	 * Returns the prefix, which is none within the rows of a columnar list
+	 * as each row is written on a single line, or when the context is 
+	 * minimal
+	 * @param ctx The context
+	 * @return The prefix
+	 */
+	protected byte[] getPrefix(SerializationContext ctx) {
+		Object state = ctx.getWriterState();
+		if ((state instanceof Table) && (ctx.getDeepness() > ((Table) state).depth + 1)) {
+			return NO_PREFIX;
+		}
+		if (ctx.isFormatting() && !ctx.isMinimal()) {
+			return indentation.getPrefix(ctx.getDeepness());
+		}
+		return NO_PREFIX;
 	}
 
+	/**
+	 * @param maxDepth The depth up to which the prefixes of the formatted 
+	 * output are pre-computed
+	 */
+	public void setMaxIndentationDepth(int maxDepth) {
+		indentation = new Indentation(INDENTATION, maxDepth);
+	}
+
+	/**
+	 * The state of a columnar list being written, kept as the writer state of
+	 * the context
+	 */
+	protected static class Table {
+		private final int depth;
+		private final List<Serialization> columns;
+
+		/**
+		 * Constructor with the specification of the level and columns
+		 * @param depth The depth of the context where the rows are written
+		 * @param columns The columns
+		 */
+		protected Table(int depth, List<Serialization> columns) {
+			this.depth = depth;
+			this.columns = columns;
+		}
+	}
 }
@@ -0,0 +1,130 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * <p>Output buffer that writes its content to a file through memory-mapped
+ * windows of a <code>FileChannel</code>, for very large serializations. The
+ * output is copied into the current window, which is replaced by the next
+ * one (growing the file) once it is full; the operating system writes the
+ * pages back lazily.</p>
+ * <p>The output starts at the position of the channel. On flush, the file
+ * is truncated to the exact end of the output (so any content after it is
+ * lost) and the channel is positioned there; the next writes map a new
+ * window from that position.</p>
+ * <p>Only the content held back by pending marks (elements that are still
+ * empty, or fragments being patched or copied) stays in the heap, so the 
+ * spill threshold rather than the size of the document bounds the memory
+ * used.</p>
+ */
+public class MappedOutputBuffer extends OutputBuffer {
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+	private FileChannel channel;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private MappedByteBuffer window;
+	private long windowOffset;
+
+	/**
+	 * Constructor with the specification of the file channel
+	 * @param channel The file channel where to write (must be readable and
+	 * writable)
+	 */
+	public MappedOutputBuffer(FileChannel channel) {
+		super(null);
+		setChannel(channel);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.OutputBuffer#output(byte[], int, int)
+	 */
+	@Override
+	protected void output(byte[] b, int off, int len) throws IOException {
+		int end = off + len;
+		while (off < end) {
+			if ((window == null) || !window.hasRemaining()) {
+				map();
+			}
+			int n = Math.min(end - off, window.remaining());
+			window.put(b, off, n);
+			off += n;
+		}
+	}
+
+	/**
+	 * Maps the next window of the file: the one following the current
+	 * window or, if there is none, the one starting at the position of the
+	 * channel
+	 * @throws IOException When the file could not be mapped
+	 */
+	protected void map() throws IOException {
+		long offset = (window == null) ? channel.position() : windowOffset + window.capacity();
+		window = channel.map(FileChannel.MapMode.READ_WRITE, offset, windowSize);
+		windowOffset = offset;
+	}
+
+	/**
+	 * Writes the content of the buffer to the mapped file, then truncates the
+	 * file to the end of the output
+	 * @see org.localmatters.serializer.writer.OutputBuffer#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		super.flush();
+		if (window != null) {
+			long end = windowOffset + window.position();
+			// the window must not be written anymore once the file is
+			// truncated, so the next writes will map a new one
+			window = null;
+			channel.truncate(end);
+			channel.position(end);
+		}
+	}
+
+	/**
+	 * @return The file channel where to write
+	 */
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @param channel The file channel where to write (must be readable and
+	 * writable)
+	 */
+	public void setChannel(FileChannel channel) {
+		this.channel = channel;
+		window = null;
+	}
+
+	/**
+	 * @return The size of the mapped windows
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @param windowSize The size of the mapped windows
+	 */
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+
+
+/**
+ * <p>This class defines a serialization writer that outputs newline-delimited
+ * JSON (NDJSON): when the root is a list, each of its elements is written as
+ * a complete JSON document on its own line, instead of as an entry of a
+ * single array, so that consumers can process the records as they come. Any
+ * other root is written as a single line.</p>
+ * <p>The lines are never formatted (see <code>CompactJSONWriter</code>), as
+ * they cannot contain line breaks. The output can be flushed after every 
+ * given number of records (see <code>OutputBuffer.flushAvailable()</code>);
+ * when it is compressed in gzip, each flush ends a gzip member, which 
+ * decompressors read as a continuous output, while the zlib and raw 
+ * deflate outputs are only ended with the document.</p>
+ */
+public class NDJSONWriter extends CompactJSONWriter {
+	private static final String ITERATOR_LEVEL = "iterator";
+	private static final byte[] NEWLINE_BYTES = "\n".getBytes();
+	private int flushInterval;
+
+	/**
+	 * @see org.localmatters.serializer.writer.JSONWriter#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	@Override
+	public void writeRoot(Serialization ser, 
+			Object root, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.startDocument(ser);
+		try {
+			if (ser.getContextlessSerialization() instanceof IteratorSerialization) {
+				// the root list writes its own lines (see writeIterator)
+				ser.serialize(ser, null, root, ctx);
+			} else {
+				writeDocument(ser, root, ctx);
+				write(ctx, NEWLINE_BYTES);
+			}
+			ctx.endDocument();
+		} finally {
+			ctx.releaseDocument();
+		}
+	}
+
+	/**
+	 * Writes each element of the root list as a line, otherwise writes the
+	 * list as an array
+	 * @see org.localmatters.serializer.writer.JSONWriter#writeIterator(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Iterator, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	@Override
+	public void writeIterator(Serialization ser, 
+			String name,
+			Iterator<?> itr, 
+			String elementName,
+			Serialization element, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		if (ctx.getDeepness() > 0) {
+			super.writeIterator(ser, name, itr, elementName, element, comments, ctx);
+			return;
+		}
+
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, ITERATOR_LEVEL));
+		OutputBuffer buffer = ctx.getBuffer();
+		int records = 0;
+		while (itr.hasNext()) {
+			long position = buffer.position();
+			element.serialize(element, null, itr.next(), ctx);
+			if (buffer.position() != position) {
+				write(ctx, NEWLINE_BYTES);
+				if ((flushInterval > 0) && (++records == flushInterval)) {
+					try {
+						buffer.flushAvailable();
+					} catch (IOException e) {
+						throw new IOSerializationException(ctx, e);
+					}
+					records = 0;
+				}
+			}
+		}
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @return The number of records after which the output is flushed (0 
+	 * when it is only flushed at the end)
+	 */
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * @param flushInterval The number of records after which the output is
+	 * flushed (0 to only flush it at the end)
+	 */
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+}
@@ -0,0 +1,933 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import org.localmatters.serializer.util.EscapeUtils;
+
+
+/**
+ * Growable byte buffer in which the writers accumulate their output before it
+ * is written to the underlying output stream in bulk. The backing array is
+ * taken from the <code>BufferPool</code> on the first write and returned to
+ * it when the buffer is flushed. Strings are encoded directly into the buffer
+ * using the configured charset (UTF-8 by default).
+ * Positions can be marked and rewound to, which lets the writers output an
+ * opening token eagerly and discard it when nothing has been written after it;
+ * the buffer never spills past the oldest mark that still holds its position.
+ * The marks set with <code>markTentative()</code> stop holding their position
+ * once content is committed after them (see <code>commit()</code>), so that 
+ * a document can be spilled while its enclosing elements are still open.
+ */
+public class OutputBuffer {
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
+	public static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	public static final Charset US_ASCII = Charset.forName("US-ASCII");
+	public static final int DEFAULT_INITIAL_CAPACITY = 8 * 1024;
+	public static final int DEFAULT_SPILL_THRESHOLD = 64 * 1024;
+	private static final String ASCII_PROBE = "<?xml\"{}[]:, ->/=&;\\\n\t";
+	private static final byte REPLACEMENT = '?';
+	private static final byte[] LONG_MIN_VALUE = String.valueOf(Long.MIN_VALUE).getBytes();
+	private static final byte[] ZERO = "0.0".getBytes();
+	private static final byte[] NEGATIVE_ZERO = "-0.0".getBytes();
+	private static final double MAX_EXACT_LONG = 1L << 53;
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private OutputStream outputStream;
+	private Charset charset = UTF_8;
+	private boolean utf8 = true;
+	private int maxSingleByteChar = -1;
+	private byte[] bytes;
+	protected int count;
+	private long spilled;
+	private long[] marks = new long[16];
+	private boolean[] tentative = new boolean[16];
+	private boolean[] holding = new boolean[16];
+	private int depth;
+	private int tentatives;
+	private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+	private int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+	private Compressor compressor;
+
+	/**
+	 * Constructor with the specification of the output stream
+	 * @param os The outputStream where to write
+	 */
+	public OutputBuffer(OutputStream os) {
+		setOutputStream(os);
+	}
+
+	/**
+	 * Writes the given byte array
+	 * @param b The byte array to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	/**
+	 * Writes the given part of a byte array
+	 * @param b The byte array to write
+	 * @param off The offset of the first byte to write
+	 * @param len The number of bytes to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len > 0) {
+			ensureCapacity(len);
+			System.arraycopy(b, off, bytes, count, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Writes the given byte
+	 * @param b The byte to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void write(int b) throws IOException {
+		ensureCapacity(1);
+		bytes[count++] = (byte) b;
+	}
+
+	/**
+	 * Writes the given string encoded with the charset of this buffer
+	 * @param str The string to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	/**
+	 * Writes the given part of a string encoded with the charset of this 
+	 * buffer
+	 * @param str The string to write
+	 * @param start The index of the first character to write
+	 * @param end The index after the last character to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void write(String str, int start, int end) throws IOException {
+		if (start >= end) {
+			return;
+		}
+		if (utf8) {
+			writeUtf8(str, start, end);
+		} else if (maxSingleByteChar > 0) {
+			writeSingleByte(str, start, end);
+		} else {
+			ByteBuffer encoded = charset.encode(CharBuffer.wrap(str, start, end));
+			int len = encoded.remaining();
+			ensureCapacity(len);
+			encoded.get(bytes, count, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Writes the given string escaped using the JSON string rules. The string
+	 * is scanned for the characters to escape and the runs of characters in
+	 * between are encoded directly, without building any intermediate string.
+	 * @param str The string to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void writeJson(String str) throws IOException {
+		int start = 0;
+		int i = EscapeUtils.indexOfJsonEscape(str, 0);
+		while (i >= 0) {
+			write(str, start, i);
+			ensureCapacity(2);
+			bytes[count++] = '\\';
+			bytes[count++] = (byte) EscapeUtils.getJsonEscape(str.charAt(i));
+			start = i + 1;
+			i = EscapeUtils.indexOfJsonEscape(str, start);
+		}
+		write(str, start, str.length());
+	}
+
+	/**
+	 * Writes the given string escaped for XML. The string is scanned for the
+	 * characters to escape and the runs of characters in between are encoded 
+	 * directly, without building any intermediate string. The non-ASCII 
+	 * characters are written as numeric character references.
+	 * @param str The string to write
+	 * @param attribute Whether the string is an attribute value (delimited by
+	 * double quotes) or a text node
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void writeXml(String str, boolean attribute) throws IOException {
+		int len = str.length();
+		int start = 0;
+		int i = EscapeUtils.indexOfXmlEscape(str, 0, attribute);
+		while (i >= 0) {
+			write(str, start, i);
+			char c = str.charAt(i);
+			if (c < 128) {
+				write(EscapeUtils.getXmlEscape(c, attribute));
+			} else {
+				int cp = c;
+				if (Character.isHighSurrogate(c) && (i + 1 < len) && Character.isLowSurrogate(str.charAt(i + 1))) {
+					cp = Character.toCodePoint(c, str.charAt(++i));
+				}
+				writeCharacterReference(cp);
+			}
+			start = i + 1;
+			i = EscapeUtils.indexOfXmlEscape(str, start, attribute);
+		}
+		write(str, start, len);
+	}
+
+	/**
+	 * Writes the given string as a CSV field (RFC 4180): as is, or enclosed 
+	 * in double quotes with its double quotes doubled when it contains the 
+	 * delimiter, a double quote or a line break. No intermediate string is
+	 * built.
+	 * @param str The string to write
+	 * @param delimiter The delimiter of the fields
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void writeCsv(String str, char delimiter) throws IOException {
+		if (EscapeUtils.indexOfCsvQuote(str, 0, delimiter) < 0) {
+			write(str);
+			return;
+		}
+		write('"');
+		int start = 0;
+		int i = str.indexOf('"');
+		while (i >= 0) {
+			// writes the quote itself, then doubles it
+			write(str, start, i + 1);
+			write('"');
+			start = i + 1;
+			i = str.indexOf('"', start);
+		}
+		write(str, start, str.length());
+		write('"');
+	}
+
+	/**
+	 * Writes the given string as a TSV field, where the tabs, line breaks and
+	 * backslashes are escaped with a backslash (e.g. <code>\t</code>). No
+	 * intermediate string is built.
+	 * @param str The string to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void writeTsv(String str) throws IOException {
+		int start = 0;
+		int i = EscapeUtils.indexOfTsvEscape(str, 0);
+		while (i >= 0) {
+			write(str, start, i);
+			write('\\');
+			write(EscapeUtils.getTsvEscape(str.charAt(i)));
+			start = i + 1;
+			i = EscapeUtils.indexOfTsvEscape(str, start);
+		}
+		write(str, start, str.length());
+	}
+
+	/**
+	 * Writes the decimal digits of the given number, the same way 
+	 * <code>Long.toString()</code> would, without building any string
+	 * @param l The number to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void writeLong(long l) throws IOException {
+		if (l == Long.MIN_VALUE) {
+			write(LONG_MIN_VALUE);
+			return;
+		}
+		ensureCapacity(20);
+		if (l < 0) {
+			bytes[count++] = '-';
+			l = -l;
+		}
+		int digits = 1;
+		for (long n=l/10; n>0; n/=10) {
+			digits++;
+		}
+		byte[] b = bytes;
+		int pos = count + digits;
+		count = pos;
+		do {
+			b[--pos] = (byte) ('0' + (int) (l % 10));
+			l /= 10;
+		} while (l > 0);
+	}
+
+	/**
+	 * Writes the given double the same way <code>Double.toString()</code> 
+	 * would, using the shortest fraction that reads back as the same double.
+	 * The values outside of [10<sup>-3</sup>, 10<sup>7</sup>[ (which are 
+	 * written in the computerized scientific notation) are delegated to 
+	 * <code>Double.toString()</code>.
+	 * @param d The double to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void writeDouble(double d) throws IOException {
+		double abs = Math.abs(d);
+		if ((abs >= 1e-3) && (abs < 1e7)) {
+			for (int k=1; k<POWERS_OF_TEN.length; k++) {
+				double scaled = abs * POWERS_OF_TEN[k];
+				if (scaled >= MAX_EXACT_LONG) {
+					break;
+				}
+				long m = Math.round(scaled);
+				if (m / POWERS_OF_TEN[k] == abs) {
+					writeDecimal(d < 0, m, k);
+					return;
+				}
+			}
+		} else if (d == 0) {
+			write((Double.doubleToRawLongBits(d) < 0) ? NEGATIVE_ZERO : ZERO);
+			return;
+		}
+		write(Double.toString(d));
+	}
+
+	/**
+	 * Writes the given float the same way <code>Float.toString()</code> 
+	 * would, using the shortest fraction that reads back as the same float.
+	 * The values outside of [10<sup>-3</sup>, 10<sup>7</sup>[ (which are 
+	 * written in the computerized scientific notation) are delegated to 
+	 * <code>Float.toString()</code>.
+	 * @param f The float to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	public void writeFloat(float f) throws IOException {
+		float abs = Math.abs(f);
+		if ((abs >= 1e-3f) && (abs < 1e7f)) {
+			for (int k=1; k<POWERS_OF_TEN.length; k++) {
+				double scaled = abs * POWERS_OF_TEN[k];
+				if (scaled >= MAX_EXACT_LONG) {
+					break;
+				}
+				long m = Math.round(scaled);
+				double q = m / POWERS_OF_TEN[k];
+				float r = (float) q;
+				// skips the fractions that fall right between two floats, 
+				// for which the double rounding could be wrong
+				if ((r == abs) && (Math.abs(q - r) != Math.ulp(r) / 2d)) {
+					writeDecimal(f < 0, m, k);
+					return;
+				}
+			}
+		} else if (f == 0) {
+			write((Float.floatToRawIntBits(f) < 0) ? NEGATIVE_ZERO : ZERO);
+			return;
+		}
+		write(Float.toString(f));
+	}
+
+	/**
+	 * Writes the decimal number m &times; 10<sup>-k</sup>, with at least one
+	 * digit before and after the decimal point and without trailing zeros
+	 * @param negative Whether the number is negative
+	 * @param m The unscaled value
+	 * @param k The scale (greater than 0)
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	protected void writeDecimal(boolean negative, long m, int k) throws IOException {
+		while ((k > 1) && (m % 10 == 0)) {
+			m /= 10;
+			k--;
+		}
+		long unit = (long) POWERS_OF_TEN[k];
+		if (negative) {
+			write('-');
+		}
+		writeLong(m / unit);
+		ensureCapacity(k + 1);
+		byte[] b = bytes;
+		b[count] = '.';
+		long fraction = m % unit;
+		for (int pos=count+k; pos>count; pos--) {
+			b[pos] = (byte) ('0' + (int) (fraction % 10));
+			fraction /= 10;
+		}
+		count += k + 1;
+	}
+
+	/**
+	 * Writes the numeric character reference (<code>&amp;#nnn;</code>) of the
+	 * given code point
+	 * @param cp The code point
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	protected void writeCharacterReference(int cp) throws IOException {
+		ensureCapacity(10);
+		byte[] b = bytes;
+		b[count++] = '&';
+		b[count++] = '#';
+		int digits = 1;
+		for (int n=cp/10; n>0; n/=10) {
+			digits++;
+		}
+		int pos = count + digits;
+		count = pos + 1;
+		b[pos] = ';';
+		do {
+			b[--pos] = (byte) ('0' + (cp % 10));
+			cp /= 10;
+		} while (cp > 0);
+	}
+
+	/**
+	 * Encodes the given part of a string in UTF-8 directly into the buffer. 
+	 * The leading ASCII characters are copied in a tight loop; the rest is 
+	 * only encoded character by character once a non-ASCII character is met.
+	 * Unpaired surrogates are replaced by a question mark, the same way 
+	 * <code>String.getBytes()</code> does.
+	 * @param str The string to write
+	 * @param start The index of the first character to write
+	 * @param end The index after the last character to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	protected void writeUtf8(String str, int start, int end) throws IOException {
+		ensureCapacity(end - start);
+		byte[] b = bytes;
+		int pos = count;
+		int i = start;
+		for (; i<end; i++) {
+			char c = str.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			b[pos++] = (byte) c;
+		}
+		if (i < end) {
+			count = pos;
+			ensureCapacity((end - i) * 3);
+			b = bytes;
+			pos = count;
+			for (; i<end; i++) {
+				char c = str.charAt(i);
+				if (c < 0x80) {
+					b[pos++] = (byte) c;
+				} else if (c < 0x800) {
+					b[pos++] = (byte) (0xC0 | (c >> 6));
+					b[pos++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && (i + 1 < end) && Character.isLowSurrogate(str.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, str.charAt(++i));
+					b[pos++] = (byte) (0xF0 | (cp >> 18));
+					b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					b[pos++] = (byte) (0x80 | (cp & 0x3F));
+				} else if ((c >= Character.MIN_SURROGATE) && (c <= Character.MAX_SURROGATE)) {
+					b[pos++] = REPLACEMENT;
+				} else {
+					b[pos++] = (byte) (0xE0 | (c >> 12));
+					b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					b[pos++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+		count = pos;
+	}
+
+	/**
+	 * Encodes the given part of a string directly into the buffer for a 
+	 * single-byte charset whose first characters map to the same byte 
+	 * (ISO-8859-1 or US-ASCII). Characters that cannot be represented are 
+	 * replaced by a question mark.
+	 * @param str The string to write
+	 * @param start The index of the first character to write
+	 * @param end The index after the last character to write
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	protected void writeSingleByte(String str, int start, int end) throws IOException {
+		ensureCapacity(end - start);
+		byte[] b = bytes;
+		int pos = count;
+		int max = maxSingleByteChar;
+		for (int i=start; i<end; i++) {
+			char c = str.charAt(i);
+			b[pos++] = (c <= max) ? (byte) c : REPLACEMENT;
+		}
+		count = pos;
+	}
+
+	/**
+	 * Encodes the given string with the charset of this buffer
+	 * @param str The string to encode
+	 * @return The corresponding bytes
+	 */
+	public byte[] getBytes(String str) {
+		ByteBuffer encoded = charset.encode(str);
+		byte[] b = new byte[encoded.remaining()];
+		encoded.get(b);
+		return b;
+	}
+
+	/**
+	 * Makes sure that the given number of bytes can be appended to the buffer.
+	 * When the buffer would grow past the spill threshold, its content is
+	 * first written to the output stream.
+	 * @param len The number of bytes about to be written
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 */
+	protected void ensureCapacity(int len) throws IOException {
+		if ((count > 0) && (count + len > getSpillThreshold())) {
+			spill();
+		}
+		reserve(count + len);
+	}
+
+	/**
+	 * Makes sure that the backing array can hold the given number of bytes,
+	 * taking it from the pool or growing it as needed
+	 * @param capacity The capacity needed
+	 */
+	protected void reserve(int capacity) {
+		if (bytes == null) {
+			bytes = BufferPool.acquire(Math.max(capacity, getInitialCapacity()));
+		} else if (capacity > bytes.length) {
+			byte[] larger = BufferPool.acquire(Math.max(capacity, bytes.length << 1));
+			System.arraycopy(bytes, 0, larger, 0, count);
+			BufferPool.release(bytes);
+			bytes = larger;
+		}
+	}
+
+	/**
+	 * Writes the content of the buffer to the output stream, keeping the
+	 * backing array for the next writes. Only the bytes before the oldest 
+	 * pending mark are written; the others are kept so that they can still be
+	 * rewound.
+	 * @throws IOException When the writing failed
+	 */
+	protected void spill() throws IOException {
+		int len = count;
+		for (int i=0; i<depth; i++) {
+			if (holding[i]) {
+				len = (int) (marks[i] - spilled);
+				break;
+			}
+		}
+		if (len > 0) {
+			spill(len);
+			count -= len;
+			spilled += len;
+		}
+	}
+
+	/**
+	 * Writes the given number of bytes from the beginning of the backing 
+	 * array to the output (compressing them first if the buffer is set with
+	 * a compression) and moves the remaining ones to the beginning of the 
+	 * array
+	 * @param len The number of bytes to write
+	 * @throws IOException When the writing failed
+	 */
+	protected void spill(int len) throws IOException {
+		if (compressor != null) {
+			compressor.compress(bytes, 0, len, this);
+		} else {
+			output(bytes, 0, len);
+		}
+		if (count > len) {
+			System.arraycopy(bytes, len, bytes, 0, count - len);
+		}
+	}
+
+	/**
+	 * Writes the given bytes to the output stream
+	 * @param b The byte array to write
+	 * @param off The offset of the first byte to write
+	 * @param len The number of bytes to write
+	 * @throws IOException When the writing failed
+	 */
+	protected void output(byte[] b, int off, int len) throws IOException {
+		getOutputStream().write(b, off, len);
+	}
+
+	/**
+	 * Writes the content of the buffer to the output stream and returns the
+	 * backing array to the pool. Any pending mark is discarded. When the 
+	 * buffer is set with a compression, the compressed stream is ended.
+	 * @throws IOException When the writing failed
+	 */
+	public void flush() throws IOException {
+		depth = 0;
+		tentatives = 0;
+		try {
+			spill();
+			if (compressor != null) {
+				compressor.finish(this);
+			}
+		} finally {
+			discard();
+		}
+	}
+
+	/**
+	 * Discards the content of the buffer that has not been written yet, as
+	 * well as any pending mark, and returns the backing array to the pool. 
+	 * When the buffer is set with a compression, the compressed stream is 
+	 * ended without writing its end (releasing the memory of the deflater).
+	 * Used when the writing failed, so that the buffer can be reused.
+	 */
+	public void discard() {
+		depth = 0;
+		tentatives = 0;
+		count = 0;
+		if (compressor != null) {
+			compressor.end();
+		}
+		release();
+	}
+
+	/**
+	 * Writes the content of the buffer that can no longer be rewound (the
+	 * bytes before the oldest pending mark) to the output and flushes it,
+	 * keeping the backing array for the next writes. When the output is
+	 * compressed in gzip, the current member is ended so that the bytes 
+	 * written so far can be decompressed (the next ones start a new member,
+	 * with a new compression window, which costs some compression ratio on
+	 * every flush). The zlib and raw deflate decompressors stop at the end 
+	 * of the first stream, so these streams are not ended: the bytes are 
+	 * only passed on to the compression, which outputs them as it sees fit.
+	 * @throws IOException When the writing failed
+	 */
+	public void flushAvailable() throws IOException {
+		spill();
+		if ((compressor != null) && (compressor.getCompression().getFormat() == Compression.Format.GZIP)) {
+			compressor.finish(this);
+		}
+		flushOutput();
+	}
+
+	/**
+	 * Flushes the output where the content of the buffer is written
+	 * @throws IOException When the flushing failed
+	 */
+	protected void flushOutput() throws IOException {
+		if (outputStream != null) {
+			outputStream.flush();
+		}
+	}
+
+	/**
+	 * Returns the backing array to the pool
+	 */
+	protected void release() {
+		BufferPool.release(bytes);
+		bytes = null;
+	}
+
+	/**
+	 * @return The position of the next byte written, counting the bytes 
+	 * already written to the output stream
+	 */
+	public long position() {
+		return spilled + count;
+	}
+
+	/**
+	 * Copies the bytes written from the given position, which must still be
+	 * in the buffer (e.g. because it is marked)
+	 * @param position The position from which to copy
+	 * @return The bytes written from this position
+	 * @throws IllegalArgumentException When the bytes from this position 
+	 * have already been written to the output
+	 */
+	public byte[] copy(long position) {
+		if (position < spilled) {
+			throw new IllegalArgumentException("The position " + position + " has already been written to the output");
+		}
+		int off = (int) (position - spilled);
+		byte[] copy = new byte[count - off];
+		if (copy.length > 0) {
+			System.arraycopy(bytes, off, copy, 0, copy.length);
+		}
+		return copy;
+	}
+
+	/**
+	 * Marks the current position so that the buffer can later be rewound to
+	 * it, or its content copied from it. The bytes after the mark are held 
+	 * by the buffer until it is released. Every mark must be released by 
+	 * either <code>unmark()</code> or <code>rewind(long)</code>, in the 
+	 * reverse order of their creation.
+	 * @return The marked position
+	 */
+	public long mark() {
+		return push(false);
+	}
+
+	/**
+	 * Marks the current position so that the buffer can be rewound to it as
+	 * long as no content has been committed after it (see 
+	 * <code>commit()</code>), e.g. to discard the opening of an element that
+	 * turns out to be empty. Like any mark, it must be released by either
+	 * <code>unmark()</code> or <code>rewind(long)</code>.
+	 * @return The marked position
+	 */
+	public long markTentative() {
+		tentatives++;
+		return push(true);
+	}
+
+	/**
+	 * Pushes a mark at the current position
+	 * @param tentativeMark Whether the mark is tentative
+	 * @return The marked position
+	 */
+	private long push(boolean tentativeMark) {
+		if (depth == marks.length) {
+			long[] largerMarks = new long[depth << 1];
+			boolean[] largerTentative = new boolean[depth << 1];
+			boolean[] largerHolding = new boolean[depth << 1];
+			System.arraycopy(marks, 0, largerMarks, 0, depth);
+			System.arraycopy(tentative, 0, largerTentative, 0, depth);
+			System.arraycopy(holding, 0, largerHolding, 0, depth);
+			marks = largerMarks;
+			tentative = largerTentative;
+			holding = largerHolding;
+		}
+		long position = position();
+		marks[depth] = position;
+		tentative[depth] = tentativeMark;
+		holding[depth] = true;
+		depth++;
+		return position;
+	}
+
+	/**
+	 * Notifies that the content written so far will be kept, so that the 
+	 * pending tentative marks no longer hold their position and the bytes
+	 * after them can be spilled. They must still be released by their 
+	 * owners, which must not rewind to them anymore.
+	 */
+	public void commit() {
+		if (tentatives > 0) {
+			for (int i=0; i<depth; i++) {
+				if (tentative[i]) {
+					holding[i] = false;
+				}
+			}
+			tentatives = 0;
+		}
+	}
+
+	/**
+	 * Releases the last mark, keeping what has been written since
+	 */
+	public void unmark() {
+		depth--;
+		if (tentative[depth] && holding[depth]) {
+			tentatives--;
+		}
+	}
+
+	/**
+	 * Releases the last mark and discards everything that has been written 
+	 * since
+	 * @param mark The position returned by <code>mark()</code>
+	 * @throws IllegalStateException When the content after the mark has 
+	 * already been committed and written to the output
+	 */
+	public void rewind(long mark) {
+		if (mark < spilled) {
+			throw new IllegalStateException("The position " + mark + " has already been written to the output");
+		}
+		unmark();
+		count = (int) (mark - spilled);
+	}
+
+	/**
+	 * Checks whether the byte at the given position is still held by the 
+	 * buffer (i.e. has been written but not yet spilled to the output), 
+	 * which is always the case when it follows a pending mark that is not 
+	 * tentative
+	 * @param position The position of the byte
+	 * @return True if the byte can still be replaced
+	 */
+	public boolean isHeld(long position) {
+		return (position >= spilled) && (position < position());
+	}
+
+	/**
+	 * Replaces a byte already written, e.g. to patch a header once the
+	 * content that follows it is known. The byte must still be held by the
+	 * buffer, which is guaranteed when it follows a pending mark that is not
+	 * tentative (see <code>isHeld(long)</code>).
+	 * @param position The position of the byte to replace
+	 * @param b The new byte
+	 * @throws IndexOutOfBoundsException When the byte is not held by the 
+	 * buffer
+	 */
+	public void set(long position, int b) {
+		if (!isHeld(position)) {
+			throw new IndexOutOfBoundsException("Position " + position + " is not held by the buffer");
+		}
+		bytes[(int) (position - spilled)] = (byte) b;
+	}
+
+	/**
+	 * Inserts bytes before the ones already written from the given position,
+	 * e.g. to prepend a header whose size was not known in advance. The 
+	 * position must follow a pending mark that is not tentative, so that the
+	 * bytes after it are still held by the buffer.
+	 * @param position The position where to insert the bytes
+	 * @param b The byte array to insert
+	 * @param off The offset of the first byte to insert
+	 * @param len The number of bytes to insert
+	 * @throws IOException When the buffer had to be spilled and the writing
+	 * failed
+	 * @throws IndexOutOfBoundsException When the position is not held by the
+	 * buffer
+	 */
+	public void insert(long position, byte[] b, int off, int len) throws IOException {
+		if (position > position()) {
+			throw new IndexOutOfBoundsException("Position " + position + " is after the end of the buffer");
+		}
+		ensureCapacity(len);
+		if (position < spilled) {
+			throw new IndexOutOfBoundsException("Position " + position + " is not held by the buffer");
+		}
+		int index = (int) (position - spilled);
+		System.arraycopy(bytes, index, bytes, index + len, count - index);
+		System.arraycopy(b, off, bytes, index, len);
+		count += len;
+	}
+
+	/**
+	 * @return The number of bytes currently held in the buffer
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return The outputStream where to write
+	 */
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * @param os The outputStream where to write
+	 */
+	public void setOutputStream(OutputStream os) {
+		this.outputStream = os;
+	}
+
+	/**
+	 * @return The charset used to encode the strings
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Sets the charset used to encode the strings. As the writers output their
+	 * markup as pre-encoded ASCII bytes, only charsets that are ASCII 
+	 * compatible are supported.
+	 * @param charset The charset used to encode the strings
+	 * @throws IllegalArgumentException When the charset is not ASCII 
+	 * compatible
+	 */
+	public void setCharset(Charset charset) {
+		if (!UTF_8.equals(charset) && !ISO_8859_1.equals(charset) && !US_ASCII.equals(charset)) {
+			ByteBuffer probe = charset.encode(ASCII_PROBE);
+			if (probe.remaining() != ASCII_PROBE.length()) {
+				throw new IllegalArgumentException(charset.name() + " is not ASCII compatible");
+			}
+			for (int i=0; i<ASCII_PROBE.length(); i++) {
+				if (probe.get(i) != ASCII_PROBE.charAt(i)) {
+					throw new IllegalArgumentException(charset.name() + " is not ASCII compatible");
+				}
+			}
+		}
+		this.charset = charset;
+		utf8 = UTF_8.equals(charset);
+		if (ISO_8859_1.equals(charset)) {
+			maxSingleByteChar = 0xFF;
+		} else if (US_ASCII.equals(charset)) {
+			maxSingleByteChar = 0x7F;
+		} else {
+			maxSingleByteChar = -1;
+		}
+	}
+
+	/**
+	 * @return The compression applied to the output, if any
+	 */
+	public Compression getCompression() {
+		return (compressor == null) ? null : compressor.getCompression();
+	}
+
+	/**
+	 * @param compression The compression to apply to the output (null for
+	 * none)
+	 */
+	public void setCompression(Compression compression) {
+		compressor = (compression == null) ? null : new Compressor(compression);
+	}
+
+	/**
+	 * @return The capacity of the buffer when it is first allocated
+	 */
+	public int getInitialCapacity() {
+		return initialCapacity;
+	}
+
+	/**
+	 * @param initialCapacity The capacity of the buffer when it is first
+	 * allocated
+	 */
+	public void setInitialCapacity(int initialCapacity) {
+		this.initialCapacity = initialCapacity;
+	}
+
+	/**
+	 * @return The number of bytes above which the buffer is written to the
+	 * output stream instead of growing
+	 */
+	public int getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * @param spillThreshold The number of bytes above which the buffer is
+	 * written to the output stream instead of growing
+	 */
+	public void setSpillThreshold(int spillThreshold) {
+		this.spillThreshold = spillThreshold;
+	}
+}
@@ -0,0 +1,563 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.DelegatingSerialization;
+import org.localmatters.serializer.serialization.FieldSerialization;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+import org.localmatters.serializer.util.ReflectionUtils;
+
+
+/**
+ * <p>This class defines a serialization writer that outputs the Protocol 
+ * Buffers wire format. The complex elements are written as messages (nested
+ * ones as length-delimited sub-messages), the iterators as repeated fields 
+ * (packed for the numbers and booleans) and the maps as maps of strings 
+ * (i.e. repeated entry messages with the key as field 1 and the value as 
+ * field 2). The matching <code>.proto</code> definitions can be generated
+ * with the <code>ProtoWriterFromConfig</code> tool.</p>
+ * <p>The fields of a message are identified by the number set with the 
+ * <code>field</code> attribute of the configuration or, when none is set, 
+ * by their position among the attributes and elements of the complex 
+ * element (starting at 1). As these positions change when the configuration 
+ * is modified, the numbers of the payloads that evolve should be set 
+ * explicitly. The configuration rejects the complex elements where only some
+ * of the fields have a number, as these numbers could collide with the 
+ * positions of the others, as well as those with duplicate numbers.</p>
+ * <p>The values are encoded according to their class (see 
+ * <code>getProtoType(Class)</code>). A complex element at the root is the
+ * root message; any other root is written as the field 1 of the root 
+ * message. The names, comments, name-spaces and formatting are ignored, as 
+ * well as the null values; nested iterators are flattened.</p>
+ * <p>The length of a sub-message is only known once it has been written, so 
+ * it is written in a single byte in front of it and grown when needed, which
+ * requires the whole sub-message to be held in the buffer. The output 
+ * cannot be written to an <code>Appendable</code>.</p>
+ */
+public class ProtobufWriter extends AbstractWriter {
+	public static final int WIRE_VARINT = 0;
+	public static final int WIRE_FIXED64 = 1;
+	public static final int WIRE_LENGTH_DELIMITED = 2;
+	public static final int WIRE_FIXED32 = 5;
+	public static final int ROOT_FIELD = 1;
+	public static final int MAP_KEY_FIELD = 1;
+	public static final int MAP_VALUE_FIELD = 2;
+	private static final int MAX_VARINT_SIZE = 10;
+	private static final String VALUE_LEVEL = "value";
+	private static final String MAP_LEVEL = "map";
+	private static final String ITERATOR_LEVEL = "iterator";
+	private static final String COMPLEX_LEVEL = "complex";
+
+	/**
+	 * @see org.localmatters.serializer.writer.AbstractWriter#isBinary()
+	 */
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeRoot(Serialization ser, 
+			Object root, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.startDocument(ser);
+		Field field = new Field();
+		ctx.setWriterState(field);
+		if (ser.getContextlessSerialization() instanceof ComplexSerialization) {
+			// the fields of the root message are written directly
+			field.number = 0;
+		} else {
+			field.number = ROOT_FIELD;
+		}
+		try {
+			ser.serialize(ser, null, root, ctx);
+			ctx.endDocument();
+		} finally {
+			ctx.setWriterState(null);
+			ctx.releaseDocument();
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeValue(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeValue(Serialization ser, 
+			String name,
+			Object value, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
+		int number = getField(ctx).number;
+
+		if (isPackable(value)) {
+			writeTag(ctx, number, getWireType(value.getClass()));
+			writeScalar(ctx, value);
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			if ((bytes.length > 0) || ser.isWriteEmpty()) {
+				writeTag(ctx, number, WIRE_LENGTH_DELIMITED);
+				writeVarint(ctx, bytes.length);
+				write(ctx, bytes);
+			}
+		} else if (value != null) {
+			String str = value.toString();
+			if (StringUtils.isNotEmpty(str) || ser.isWriteEmpty()) {
+				writeTag(ctx, number, WIRE_LENGTH_DELIMITED);
+				writeString(ctx, str);
+			}
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeAttribute(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeAttribute(Serialization ser, 
+			String name,
+			Object attribute, 
+			SerializationContext ctx) throws SerializationException {
+		writeValue(ser, name, attribute, ctx);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeNamespace(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeNamespace(Serialization ser, 
+			String name,
+			Object namespace, 
+			SerializationContext ctx) throws SerializationException {
+		// name-spaces are not a Protocol Buffers concept supported
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeComplex(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, java.util.Collection, java.util.Collection, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeComplex(Serialization ser, 
+			String name,
+			Object object, 
+			Collection<Serialization> attributes, 
+			Collection<Serialization> elements, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, COMPLEX_LEVEL));
+		Field field = getField(ctx);
+		int number = field.number;
+
+		if (number == 0) {
+			writeFields(ctx, field, attributes, elements, object);
+		} else {
+			boolean empty = true;
+			if (CollectionUtils.isNotEmpty(attributes) || CollectionUtils.isNotEmpty(elements)) {
+				OutputBuffer buffer = ctx.getBuffer();
+				long mark = buffer.mark();
+				long start = writeOpening(ctx, number);
+				writeFields(ctx, field, attributes, elements, object);
+				empty = !writeEnd(ctx, mark, start);
+			}
+			if (empty && ser.isWriteEmpty()) {
+				writeTag(ctx, number, WIRE_LENGTH_DELIMITED);
+				writeVarint(ctx, 0);
+			}
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeIterator(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Iterator, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeIterator(Serialization ser, 
+			String name,
+			Iterator<?> itr, 
+			String elementName,
+			Serialization element, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, ITERATOR_LEVEL));
+		Field field = getField(ctx);
+		int number = field.number;
+		OutputBuffer buffer = ctx.getBuffer();
+
+		// consecutive numbers and booleans are written as packed runs
+		boolean packable = isPlainValue(element);
+		long mark = 0;
+		long start = -1;
+		while (itr.hasNext()) {
+			Object item = itr.next();
+			if (packable && isPackable(item)) {
+				if (start < 0) {
+					mark = buffer.mark();
+					start = writeOpening(ctx, number);
+				}
+				writeScalar(ctx, item);
+			} else {
+				if (start >= 0) {
+					writeEnd(ctx, mark, start);
+					start = -1;
+				}
+				field.number = number;
+				element.serialize(element, null, item, ctx);
+			}
+		}
+		if (start >= 0) {
+			writeEnd(ctx, mark, start);
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeMap(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Collection, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	@SuppressWarnings("rawtypes")
+	public void writeMap(Serialization ser, 
+			String name,
+			Collection<Map.Entry> entries, 
+			String key,
+			Serialization value, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, MAP_LEVEL));
+		Field field = getField(ctx);
+		int number = field.number;
+
+		if (CollectionUtils.isNotEmpty(entries)) {
+			OutputBuffer buffer = ctx.getBuffer();
+			for (Map.Entry entry : entries) {
+				String entryKey = resolvesMapKey(key, entry, ctx);
+				long mark = buffer.mark();
+				long start = writeOpening(ctx, number);
+				writeTag(ctx, MAP_KEY_FIELD, WIRE_LENGTH_DELIMITED);
+				writeString(ctx, entryKey);
+				long position = buffer.position();
+				field.number = MAP_VALUE_FIELD;
+				value.serialize(value, entryKey, entry.getValue(), ctx);
+				if (buffer.position() == position) {
+					buffer.rewind(mark);
+				} else {
+					writeEnd(ctx, mark, start);
+				}
+			}
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Writes the fields of a message, each under the number set in the 
+	 * configuration or its position
+	 * @param ctx The context
+	 * @param field The number of the field being written
+	 * @param attributes The attributes serialization
+	 * @param elements The elements serialization
+	 * @param object The object to serialize
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeFields(SerializationContext ctx, 
+			Field field, 
+			Collection<Serialization> attributes, 
+			Collection<Serialization> elements, 
+			Object object) throws SerializationException {
+		int position = 0;
+		if (CollectionUtils.isNotEmpty(attributes)) {
+			for (Serialization attribute : attributes) {
+				field.number = getFieldNumber(attribute, ++position);
+				attribute.serialize(attribute, null, object, ctx);
+			}
+		}
+		if (CollectionUtils.isNotEmpty(elements)) {
+			for (Serialization element : elements) {
+				field.number = getFieldNumber(element, ++position);
+				element.serialize(element, null, object, ctx);
+			}
+		}
+	}
+
+	/**
+	 * Writes the tag of a length-delimited field, followed by a single byte
+	 * reserved for its length
+	 * @param ctx The context
+	 * @param number The number of the field
+	 * @return The position of the length
+	 * @throws SerializationException When the writing failed
+	 */
+	protected long writeOpening(SerializationContext ctx, int number) throws SerializationException {
+		writeTag(ctx, number, WIRE_LENGTH_DELIMITED);
+		long start = ctx.getBuffer().position();
+		writeVarint(ctx, 0);
+		return start;
+	}
+
+	/**
+	 * Writes the length of a length-delimited field if anything has been 
+	 * written after its opening, otherwise discards it
+	 * @param ctx The context
+	 * @param mark The position marked before the opening
+	 * @param start The position of the length
+	 * @return True if the field has been written, false if it was empty
+	 * @throws SerializationException When the writing failed
+	 */
+	protected boolean writeEnd(SerializationContext ctx, long mark, long start) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		long length = buffer.position() - start - 1;
+		if (length == 0) {
+			buffer.rewind(mark);
+			return false;
+		}
+		if (length < 0x80) {
+			buffer.set(start, (int) length);
+		} else {
+			byte[] varint = new byte[MAX_VARINT_SIZE];
+			int len = encodeVarint(varint, length);
+			buffer.set(start, varint[0]);
+			try {
+				buffer.insert(start + 1, varint, 1, len - 1);
+			} catch (IOException e) {
+				throw new IOSerializationException(ctx, e);
+			}
+		}
+		buffer.unmark();
+		return true;
+	}
+
+	/**
+	 * Writes the tag of a field
+	 * @param ctx The context
+	 * @param number The number of the field
+	 * @param wireType The wire type
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeTag(SerializationContext ctx, int number, int wireType) throws SerializationException {
+		writeVarint(ctx, ((long) number << 3) | wireType);
+	}
+
+	/**
+	 * Writes the given number or boolean without tag
+	 * @param ctx The context
+	 * @param value The value (see <code>isPackable(Object)</code>)
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeScalar(SerializationContext ctx, Object value) throws SerializationException {
+		Class<?> klass = value.getClass();
+		if (klass == Boolean.class) {
+			writeVarint(ctx, ((Boolean) value).booleanValue() ? 1 : 0);
+		} else if (klass == Double.class) {
+			writeFixed(ctx, Double.doubleToLongBits(((Double) value).doubleValue()), 8);
+		} else if (klass == Float.class) {
+			writeFixed(ctx, Float.floatToIntBits(((Float) value).floatValue()), 4);
+		} else {
+			// zig-zag encoding (sint32 and sint64)
+			long l = ((Number) value).longValue();
+			writeVarint(ctx, (l << 1) ^ (l >> 63));
+		}
+	}
+
+	/**
+	 * Writes the given string, preceded by its length
+	 * @param ctx The context
+	 * @param str The string to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeString(SerializationContext ctx, String str) throws SerializationException {
+		writeVarint(ctx, CBORWriter.utf8Length(str));
+		try {
+			ctx.getBuffer().writeUtf8(str, 0, str.length());
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Writes the given unsigned number as a varint
+	 * @param ctx The context
+	 * @param n The number
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeVarint(SerializationContext ctx, long n) throws SerializationException {
+		try {
+			OutputBuffer buffer = ctx.getBuffer();
+			if ((n >= 0) && (n < 0x80)) {
+				buffer.write((int) n);
+			} else {
+				byte[] varint = new byte[MAX_VARINT_SIZE];
+				buffer.write(varint, 0, encodeVarint(varint, n));
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Writes the lowest bytes of the given number in little-endian order
+	 * @param ctx The context
+	 * @param n The number
+	 * @param len The number of bytes to write
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeFixed(SerializationContext ctx, long n, int len) throws SerializationException {
+		try {
+			OutputBuffer buffer = ctx.getBuffer();
+			for (int i=0; i<len; i++) {
+				buffer.write((int) (n >>> (i * 8)));
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Encodes the given unsigned number as a varint
+	 * @param b The byte array where to encode (of at least 10 bytes)
+	 * @param n The number
+	 * @return The number of bytes of the varint
+	 */
+	protected static int encodeVarint(byte[] b, long n) {
+		int len = 0;
+		while ((n & ~0x7FL) != 0) {
+			b[len++] = (byte) ((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		b[len++] = (byte) n;
+		return len;
+	}
+
+	/**
+	 * Returns the number of the given field of a message
+	 * @param field The serialization of the field
+	 * @param position The position of the field among the attributes and
+	 * elements of the message (starting at 1)
+	 * @return The number set in the configuration or the position
+	 */
+	public static int getFieldNumber(Serialization field, int position) {
+		int number = FieldSerialization.getNumber(field);
+		return (number > 0) ? number : position;
+	}
+
+	/**
+	 * Returns the Protocol Buffers scalar type of the values of the given 
+	 * class: <code>bool</code>, <code>sint32</code> (for bytes, shorts and 
+	 * integers), <code>sint64</code>, <code>float</code>, <code>double</code>,
+	 * <code>bytes</code> (for byte arrays) or <code>string</code> (for the 
+	 * others, which are written through their string representation)
+	 * @param klass The class of the values
+	 * @return The type
+	 */
+	public static String getProtoType(Class<?> klass) {
+		if (klass == byte[].class) {
+			return "bytes";
+		}
+		Class<?> primitive = klass.isPrimitive() ? klass : ReflectionUtils.getPrimitiveClass(klass);
+		if (primitive == boolean.class) {
+			return "bool";
+		} else if ((primitive == int.class) || (primitive == short.class) || (primitive == byte.class)) {
+			return "sint32";
+		} else if (primitive == long.class) {
+			return "sint64";
+		} else if (primitive == float.class) {
+			return "float";
+		} else if (primitive == double.class) {
+			return "double";
+		}
+		return "string";
+	}
+
+	/**
+	 * Returns the wire type of the values of the given class
+	 * @param klass The class of the values
+	 * @return The wire type
+	 */
+	protected static int getWireType(Class<?> klass) {
+		if (klass == Double.class) {
+			return WIRE_FIXED64;
+		} else if (klass == Float.class) {
+			return WIRE_FIXED32;
+		} else if (isPackable(klass)) {
+			return WIRE_VARINT;
+		}
+		return WIRE_LENGTH_DELIMITED;
+	}
+
+	/**
+	 * Checks whether the given value is a number or boolean that can be
+	 * written in a packed repeated field
+	 * @param value The value
+	 * @return True if the value can be packed
+	 */
+	protected static boolean isPackable(Object value) {
+		return (value != null) && isPackable(value.getClass());
+	}
+
+	/**
+	 * Checks whether the values of the given class are numbers or booleans 
+	 * that can be written in a packed repeated field
+	 * @param klass The class of the values
+	 * @return True if the values can be packed
+	 */
+	private static boolean isPackable(Class<?> klass) {
+		return (klass == Integer.class) 
+			|| (klass == Long.class) 
+			|| (klass == Double.class) 
+			|| (klass == Boolean.class) 
+			|| (klass == Float.class) 
+			|| (klass == Short.class) 
+			|| (klass == Byte.class);
+	}
+
+	/**
+	 * Checks whether the given element serialization writes the elements
+	 * themselves as values, so that they can be packed
+	 * @param element The element serialization
+	 * @return True if the element serialization is a plain value
+	 */
+	protected static boolean isPlainValue(Serialization element) {
+		while ((element instanceof NameSerialization) || (element instanceof FieldSerialization)) {
+			element = ((DelegatingSerialization) element).getDelegate();
+		}
+		return element instanceof ValueSerialization;
+	}
+
+	/**
+	 * @param ctx The context
+	 * @return The number of the field being written
+	 */
+	protected static Field getField(SerializationContext ctx) {
+		return (Field) ctx.getWriterState();
+	}
+
+	/**
+	 * The number of the field being written, set by the message, iterator or
+	 * map before serializing each of its entries (0 for the fields of the 
+	 * root message)
+	 */
+	protected static class Field {
+		private int number;
+	}
+}
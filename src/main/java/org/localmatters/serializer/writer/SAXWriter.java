@@ -0,0 +1,407 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.Serialization;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/**
+ * <p>This class defines a serialization writer that forwards the document as
+ * SAX events to a <code>ContentHandler</code>, created for each document by 
+ * its <code>ContentHandlerFactory</code>, instead of writing it to the buffer
+ * of the context. The events describe the same document as the one written 
+ * by the <code>XMLWriter</code>, so that it can be fed to any SAX consumer 
+ * (e.g. an XSLT transform or a validator) without being encoded and parsed 
+ * again.</p>
+ * <p>As the events cannot be taken back once forwarded, the start of the 
+ * elements is held until their first content is written, so that the empty 
+ * ones can be dropped; their attributes are collected in the meantime. The 
+ * elements and attributes have no namespace URI (the name-spaces are 
+ * forwarded as <code>xmlns</code> attributes, as the <code>XMLWriter</code>
+ * writes them) and the comments are forwarded when the context is 
+ * formatting and the handler is also a <code>LexicalHandler</code>.</p>
+ * <p>The output does not go through the buffer of the context, so it is 
+ * neither cached, nor compressed, nor recorded in the size history.</p>
+ */
+public class SAXWriter extends AbstractWriter {
+	private static final String VALUE_LEVEL = "value";
+	private static final String NO_URI = "";
+	private static final String CDATA = "CDATA";
+	private static final String DASH_DASH = "--";
+	private static final String STAR_STAR = "**";
+	private ContentHandlerFactory contentHandlerFactory;
+
+	/**
+	 * Default constructor
+	 */
+	public SAXWriter() {
+	}
+
+	/**
+	 * Constructor with the specification of the content handler factory
+	 * @param contentHandlerFactory The factory of the content handlers
+	 */
+	public SAXWriter(ContentHandlerFactory contentHandlerFactory) {
+		setContentHandlerFactory(contentHandlerFactory);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeRoot(Serialization ser, Object root, SerializationContext ctx) throws SerializationException {
+		Events events;
+		try {
+			events = new Events(getContentHandlerFactory().createContentHandler(ctx));
+			events.getHandler().startDocument();
+		} catch (SAXException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+		Object state = ctx.getWriterState();
+		ctx.setWriterState(events);
+		try {
+			ser.serialize(ser, null, root, ctx);
+		} finally {
+			ctx.setWriterState(state);
+		}
+		try {
+			events.getHandler().endDocument();
+		} catch (SAXException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeValue(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeValue(Serialization ser, 
+			String name,
+			Object value, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
+		Events events = getEvents(ctx);
+
+		String valueStr = (value == null) ? null : String.valueOf(value);
+		boolean named = StringUtils.isNotBlank(name);
+		try {
+			if (StringUtils.isNotEmpty(valueStr)) {
+				if (named) {
+					events.start(name, null);
+				}
+				events.prepare();
+				events.getHandler().characters(valueStr.toCharArray(), 0, valueStr.length());
+				if (named) {
+					events.end(false);
+				}
+			} else if (ser.isWriteEmpty() && named) {
+				events.start(name, null);
+				events.end(true);
+			}
+		} catch (SAXException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeAttribute(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeAttribute(Serialization ser, 
+			String name,
+			Object attribute, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(checkRequiredName(ctx, name));
+		Events events = getEvents(ctx);
+
+		if (attribute != null) {
+			events.addAttribute(name, String.valueOf(attribute));
+		} else if (ser.isWriteEmpty()) {
+			events.addAttribute(name, StringUtils.EMPTY);
+		}
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeNamespace(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeNamespace(Serialization ser, 
+			String name,
+			Object namespace, 
+			SerializationContext ctx) throws SerializationException {
+		writeAttribute(ser, name, namespace, ctx);
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeComplex(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.lang.Object, java.util.Collection, java.util.Collection, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeComplex(Serialization ser, 
+			String name,
+			Object object, 
+			Collection<Serialization> attributes, 
+			Collection<Serialization> elements, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(checkRequiredName(ctx, name));
+		Events events = getEvents(ctx);
+
+		events.start(name, getComments(ctx, comments));
+		// the attributes are all collected before the element can start
+		if (attributes != null) {
+			for (Serialization attribute : attributes) {
+				attribute.serialize(attribute, null, object, ctx);
+			}
+		}
+		if (elements != null) {
+			for (Serialization element : elements) {
+				element.serialize(element, null, object, ctx);
+			}
+		}
+		end(ctx, events, ser.isWriteEmpty());
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeIterator(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Iterator, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	public void writeIterator(Serialization ser, 
+			String name,
+			Iterator<?> itr, 
+			String elementName,
+			Serialization element, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(checkRequiredName(ctx, name));
+		Events events = getEvents(ctx);
+
+		events.start(name, getComments(ctx, comments));
+		while (itr.hasNext()) {
+			element.serialize(element, elementName, itr.next(), ctx);
+		}
+		end(ctx, events, ser.isWriteEmpty());
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * @see org.localmatters.serializer.writer.Writer#writeMap(org.localmatters.serializer.serialization.Serialization, java.lang.String, java.util.Collection, java.lang.String, org.localmatters.serializer.serialization.Serialization, java.util.Collection, org.localmatters.serializer.SerializationContext)
+	 */
+	@SuppressWarnings("rawtypes")
+	public void writeMap(Serialization ser, 
+			String name,
+			Collection<Map.Entry> entries, 
+			String key,
+			Serialization value, 
+			Collection<String> comments, 
+			SerializationContext ctx) throws SerializationException {
+		ctx.nextLevel(checkRequiredName(ctx, name));
+		Events events = getEvents(ctx);
+
+		events.start(name, getComments(ctx, comments));
+		if (entries != null) {
+			for (Map.Entry entry : entries) {
+				value.serialize(value, resolvesMapKey(key, entry, ctx), entry.getValue(), ctx);
+			}
+		}
+		end(ctx, events, ser.isWriteEmpty());
+
+		ctx.previousLevel();
+	}
+
+	/**
+	 * Ends the current element
+	 * @param ctx The context
+	 * @param events The events in progress
+	 * @param writeEmpty Whether to write the element when empty
+	 * @throws SerializationException When the writing failed
+	 */
+	protected static void end(SerializationContext ctx, Events events, boolean writeEmpty) throws SerializationException {
+		try {
+			events.end(writeEmpty);
+		} catch (SAXException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+	}
+
+	/**
+	 * Returns the comments to forward before an element, which are only 
+	 * forwarded when the context is formatting, as the <code>XMLWriter</code>
+	 * only writes them in that case
+	 * @param ctx The context
+	 * @param comments The comments of the element
+	 * @return The comments or null if none
+	 */
+	protected static Collection<String> getComments(SerializationContext ctx, Collection<String> comments) {
+		return (ctx.isFormatting() && CollectionUtils.isNotEmpty(comments)) ? comments : null;
+	}
+
+	/**
+	 * Returns the events in progress in the given context
+	 * @param ctx The context
+	 * @return The events
+	 * @throws SerializationException When no events are in progress, as the 
+	 * writer has not been called from its root
+	 */
+	protected static Events getEvents(SerializationContext ctx) throws SerializationException {
+		Object state = ctx.getWriterState();
+		if (!(state instanceof Events)) {
+			throw new IOSerializationException(ctx, new IllegalStateException("No content handler, the document must be written from its root"));
+		}
+		return (Events) state;
+	}
+
+	/**
+	 * @return The factory of the content handlers
+	 */
+	public ContentHandlerFactory getContentHandlerFactory() {
+		return contentHandlerFactory;
+	}
+
+	/**
+	 * @param contentHandlerFactory The factory of the content handlers
+	 */
+	public void setContentHandlerFactory(ContentHandlerFactory contentHandlerFactory) {
+		this.contentHandlerFactory = contentHandlerFactory;
+	}
+
+	/**
+	 * The state of a document being forwarded to a content handler, kept as
+	 * the writer state of the context: the elements currently open, some of 
+	 * which may not have been started yet as they are still empty.
+	 */
+	protected static class Events {
+		private final ContentHandler handler;
+		private final List<Element> elements = new ArrayList<Element>();
+		// the index of the first element that has not been started yet
+		private int pending;
+
+		/**
+		 * Constructor with the specification of the handler
+		 * @param handler The content handler
+		 */
+		protected Events(ContentHandler handler) {
+			this.handler = handler;
+		}
+
+		/**
+		 * Opens an element, which is only started once its first content 
+		 * is written
+		 * @param name The name of the element
+		 * @param comments The comments to forward before the element, if any
+		 */
+		protected void start(String name, Collection<String> comments) {
+			elements.add(new Element(name, comments));
+		}
+
+		/**
+		 * Adds an attribute to the current element, if any
+		 * @param name The name of the attribute
+		 * @param value The value of the attribute
+		 */
+		protected void addAttribute(String name, String value) {
+			if (!elements.isEmpty()) {
+				Element element = elements.get(elements.size() - 1);
+				if (element.attributes == null) {
+					element.attributes = new AttributesImpl();
+				}
+				element.attributes.addAttribute(NO_URI, name, name, CDATA, value);
+			}
+		}
+
+		/**
+		 * Prepares the writing of content in the current element by starting
+		 * the elements that have not been started yet
+		 * @throws SAXException When the handler failed
+		 */
+		protected void prepare() throws SAXException {
+			for (int i=pending; i<elements.size(); i++) {
+				Element element = elements.get(i);
+				if ((element.comments != null) && (handler instanceof LexicalHandler)) {
+					for (String comment : element.comments) {
+						char[] ch = StringUtils.replace(comment, DASH_DASH, STAR_STAR).toCharArray();
+						((LexicalHandler) handler).comment(ch, 0, ch.length);
+					}
+				}
+				handler.startElement(NO_URI, element.name, element.name, 
+						(element.attributes == null) ? new AttributesImpl() : element.attributes);
+			}
+			pending = elements.size();
+		}
+
+		/**
+		 * Closes the current element, which is ended if it has been started 
+		 * or, otherwise, written if it has attributes or should be written 
+		 * when empty
+		 * @param writeEmpty Whether to write the element when empty
+		 * @return True if the element has been written
+		 * @throws SAXException When the handler failed
+		 */
+		protected boolean end(boolean writeEmpty) throws SAXException {
+			int index = elements.size() - 1;
+			Element element = elements.get(index);
+			boolean written = (pending > index) || writeEmpty || (element.attributes != null);
+			if (written) {
+				prepare();
+				handler.endElement(NO_URI, element.name, element.name);
+				pending = index;
+			}
+			elements.remove(index);
+			return written;
+		}
+
+		/**
+		 * @return The content handler
+		 */
+		protected ContentHandler getHandler() {
+			return handler;
+		}
+	}
+
+	/**
+	 * An element opened by the events
+	 */
+	private static class Element {
+		private final String name;
+		private final Collection<String> comments;
+		private AttributesImpl attributes;
+
+		/**
+		 * Constructor with the specification of the element
+		 * @param name The name of the element
+		 * @param comments The comments to forward before the element, if any
+		 */
+		private Element(String name, Collection<String> comments) {
+			this.name = name;
+			this.comments = comments;
+		}
+	}
+}
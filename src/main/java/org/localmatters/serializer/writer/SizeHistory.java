@@ -0,0 +1,112 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.localmatters.serializer.serialization.Serialization;
+
+
+/**
+ * <p>History of the size of the output of each root serialization, kept as 
+ * an exponentially weighted moving average, used to pre-size the buffer of 
+ * the next serializations so that a typical output fits in the first 
+ * allocation instead of growing (and copying) the buffer several times. It
+ * is thread safe and meant to be shared between the contexts (see
+ * <code>SerializationContext.setSizeHistory(SizeHistory)</code>).</p>
+ * <p>Callers collecting the output in memory (e.g. in a 
+ * <code>ByteArrayOutputStream</code>) can size it with 
+ * <code>getEstimate(Serialization)</code> as well.</p>
+ */
+public class SizeHistory {
+	/** The default weight of the last size in the average */
+	public static final double DEFAULT_WEIGHT = 0.25;
+	private final ConcurrentMap<Serialization, AtomicLong> averages = new ConcurrentHashMap<Serialization, AtomicLong>();
+	private final double weight;
+
+	/**
+	 * Default constructor
+	 */
+	public SizeHistory() {
+		this(DEFAULT_WEIGHT);
+	}
+
+	/**
+	 * Constructor with the specification of the weight
+	 * @param weight The weight of the last size in the average (between 0 
+	 * exclusive and 1 inclusive, the higher the faster the average follows
+	 * the changes of size)
+	 * @throws IllegalArgumentException When the weight is invalid
+	 */
+	public SizeHistory(double weight) {
+		if (!(weight > 0) || (weight > 1)) {
+			throw new IllegalArgumentException("Invalid weight: " + weight);
+		}
+		this.weight = weight;
+	}
+
+	/**
+	 * Records the size of an output of the given serialization
+	 * @param ser The root serialization
+	 * @param size The size of the output
+	 */
+	public void record(Serialization ser, long size) {
+		AtomicLong average = averages.get(ser);
+		if (average == null) {
+			average = averages.putIfAbsent(ser, new AtomicLong(size));
+			if (average == null) {
+				return;
+			}
+		}
+		long current;
+		do {
+			current = average.get();
+		} while (!average.compareAndSet(current, current + Math.round((size - current) * weight)));
+	}
+
+	/**
+	 * Returns the estimated size of the next output of the given 
+	 * serialization: its average size plus an eighth, so that most outputs
+	 * fit
+	 * @param ser The root serialization
+	 * @return The estimated size or 0 if no output of this serialization has
+	 * been recorded
+	 */
+	public int getEstimate(Serialization ser) {
+		AtomicLong average = averages.get(ser);
+		if (average == null) {
+			return 0;
+		}
+		long size = average.get();
+		return (int) Math.min(size + (size >> 3), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Forgets the sizes recorded so far
+	 */
+	public void clear() {
+		averages.clear();
+	}
+
+	/**
+	 * @return The weight of the last size in the average
+	 */
+	public double getWeight() {
+		return weight;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.IOException;
+
+
+/**
+ * <p>A streaming JSON-like generator to which the <code>GeneratorWriter</code>
+ * forwards its output as a sequence of events, so that the serializations 
+ * can be written by a third-party output stack (e.g. a Jackson 
+ * <code>JsonGenerator</code>, whose methods have the same signatures, for its
+ * UTF-8 encoder or its Smile backend).</p>
+ * <p>The writer calls the events in a well-formed order: the names are only
+ * written within objects, right before their value.</p>
+ */
+public interface StreamingGenerator {
+
+	/**
+	 * Starts an object
+	 * @throws IOException When the writing failed
+	 */
+	public void writeStartObject() throws IOException;
+
+	/**
+	 * Ends the current object
+	 * @throws IOException When the writing failed
+	 */
+	public void writeEndObject() throws IOException;
+
+	/**
+	 * Starts an array
+	 * @throws IOException When the writing failed
+	 */
+	public void writeStartArray() throws IOException;
+
+	/**
+	 * Ends the current array
+	 * @throws IOException When the writing failed
+	 */
+	public void writeEndArray() throws IOException;
+
+	/**
+	 * Writes the name of the next entry of the current object
+	 * @param name The name
+	 * @throws IOException When the writing failed
+	 */
+	public void writeFieldName(String name) throws IOException;
+
+	/**
+	 * Writes a string value
+	 * @param text The string
+	 * @throws IOException When the writing failed
+	 */
+	public void writeString(String text) throws IOException;
+
+	/**
+	 * Writes an integral number value
+	 * @param value The number
+	 * @throws IOException When the writing failed
+	 */
+	public void writeNumber(long value) throws IOException;
+
+	/**
+	 * Writes a double value
+	 * @param value The number
+	 * @throws IOException When the writing failed
+	 */
+	public void writeNumber(double value) throws IOException;
+
+	/**
+	 * Writes a float value
+	 * @param value The number
+	 * @throws IOException When the writing failed
+	 */
+	public void writeNumber(float value) throws IOException;
+
+	/**
+	 * Writes a boolean value
+	 * @param state The boolean
+	 * @throws IOException When the writing failed
+	 */
+	public void writeBoolean(boolean state) throws IOException;
+
+	/**
+	 * Writes a null value
+	 * @throws IOException When the writing failed
+	 */
+	public void writeNull() throws IOException;
+
+	/**
+	 * Flushes the output written so far to the underlying target
+	 * @throws IOException When the flushing failed
+	 */
+	public void flush() throws IOException;
+}
@@ -32,7 +32,8 @@ import org.localmatters.serializer.serialization.Serialization;
 public interface Writer {
 
 	/**
-	 * Writes the root
+	 * Writes the root and flushes the buffered output to the context's 
+	 * outputStream
 	 * @param ser The root serialization
 	 * @param root The root object (if any)
 	 * @param ctx The serialization context
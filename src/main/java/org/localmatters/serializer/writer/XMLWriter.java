@@ -15,25 +15,27 @@
 */
 package org.localmatters.serializer.writer;
 
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.localmatters.serializer.SerializationContext;
 import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.NameTokens;
 import org.localmatters.serializer.serialization.Serialization;
-import org.localmatters.serializer.util.EscapeUtils;
 
 
 /**
  * This class defines a serialization writer that outputs XML.
  */
 public class XMLWriter extends AbstractWriter {
-    private static final String LT = "<";
-    private static final String GT = ">";
     private static final String STAR_STAR = "**";
     private static final String DASH_DASH = "--";
     private static final String MIDDLE_COMMENT = "     ";
@@ -41,23 +43,35 @@ public class XMLWriter extends AbstractWriter {
     private static final String START_COMMENT = "<!-- ";
     private static final String NEW_LINE = "\n";
     private static final String VALUE_LEVEL = "value";
-	private static final byte[] ROOT = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>".getBytes();
-	private static final byte[] LT_BYTES = LT.getBytes();
+	private static final String ROOT_FORMAT = "<?xml version=\"1.0\" encoding=\"%s\" standalone=\"yes\"?>";
+	private static final byte[] ROOT = String.format(ROOT_FORMAT, "UTF-8").getBytes();
+	private static final byte[] LT_BYTES = "<".getBytes();
 	private static final byte[] LT_SLASH_BYTES = "</".getBytes();
-	private static final byte[] GT_BYTES = GT.getBytes();
+	private static final byte[] GT_BYTES = ">".getBytes();
 	private static final byte[] SLASH_GT_BYTES = "/>".getBytes();
 	private static final byte[] SPACE_BYTES = " ".getBytes();
 	private static final byte[] EQUALS_QUOTE_BYTES = "=\"".getBytes();
 	private static final byte[] QUOTE_BYTES = "\"".getBytes();
 	private static final String INDENTATION = "    ";
-	private Map<Integer, String> prefixes = new HashMap<Integer, String>();
+	private Indentation indentation = new Indentation(INDENTATION, Indentation.DEFAULT_MAX_DEPTH);
+	private ConcurrentMap<CommentsKey, byte[]> commentBlocks = new ConcurrentHashMap<CommentsKey, byte[]>();
 
 	/**
 	 * @see org.localmatters.serializer.writer.Writer#writeRoot(org.localmatters.serializer.serialization.Serialization, java.lang.Object, org.localmatters.serializer.SerializationContext)
 	 */
 	public void writeRoot(Serialization ser, Object root, SerializationContext ctx) throws SerializationException {
-		write(ctx, ROOT);
-		ser.serialize(ser, null, root, ctx);
+		ctx.startDocument(ser);
+		try {
+			if (OutputBuffer.UTF_8.equals(ctx.getCharset())) {
+				write(ctx, ROOT);
+			} else {
+				write(ctx, String.format(ROOT_FORMAT, ctx.getCharset().name()));
+			}
+			ser.serialize(ser, null, root, ctx);
+			ctx.endDocument();
+		} finally {
+			ctx.releaseDocument();
+		}
 	}
 
 	/**
@@ -69,20 +83,23 @@ public class XMLWriter extends AbstractWriter {
 			SerializationContext ctx) throws SerializationException {
 		ctx.nextLevel(StringUtils.defaultIfEmpty(name, VALUE_LEVEL));
 
-		String prefix = getPrefix(ctx);
-		String valueStr = String.valueOf(value);
-		if ((value != null) && (StringUtils.isNotEmpty(valueStr))) {
-            String str = EscapeUtils.escapeXml(valueStr);
+		byte[] prefix = getPrefix(ctx);
+		boolean direct = (value != null) && isDirect(value);
+		String valueStr = direct ? null : String.valueOf(value);
+		if ((value != null) && (direct || StringUtils.isNotEmpty(valueStr))) {
 			if (StringUtils.isNotBlank(name)) {
-				write(ctx, prefix)
-				.write(ctx, LT_BYTES).write(ctx, name).write(ctx, GT_BYTES)
-				.write(ctx, str)
-				.write(ctx, LT_SLASH_BYTES).write(ctx, name).write(ctx, GT_BYTES);
+				writeOpening(ctx, prefix, ser, name);
+			}
+			if (direct) {
+				writeDirect(ctx, value);
 			} else {
-				write(ctx, str);
+				writeEscaped(ctx, valueStr, false);
+			}
+			if (StringUtils.isNotBlank(name)) {
+				writeClosing(ctx, NO_PREFIX, ser, name);
 			}
 		} else if (ser.isWriteEmpty() && StringUtils.isNotBlank(name)) {
-			write(ctx, prefix).write(ctx, LT_BYTES).write(ctx, name).write(ctx, SLASH_GT_BYTES);
+			writeEmpty(ctx, prefix, ser, name);
 		}
 
 		ctx.previousLevel();
@@ -98,15 +115,11 @@ public class XMLWriter extends AbstractWriter {
 		ctx.nextLevel(checkRequiredName(ctx, name));
 
 		if (attribute != null) {
-			write(ctx, SPACE_BYTES)
-			.write(ctx, name)
-			.write(ctx, EQUALS_QUOTE_BYTES)
-			.write(ctx, EscapeUtils.escapeXml(String.valueOf(attribute)))
+			writeAttributeName(ctx, ser, name)
+			.writeEscaped(ctx, String.valueOf(attribute), true)
 			.write(ctx, QUOTE_BYTES);
 		} else if (ser.isWriteEmpty()) {
-			write(ctx, SPACE_BYTES)
-			.write(ctx, name)
-			.write(ctx, EQUALS_QUOTE_BYTES)
+			writeAttributeName(ctx, ser, name)
 			.write(ctx, QUOTE_BYTES);
 		}
 
@@ -135,9 +148,12 @@ public class XMLWriter extends AbstractWriter {
 		ctx.nextLevel(checkRequiredName(ctx, name));
         boolean empty = true;
 
-		String prefix = getPrefix(ctx);
+		byte[] prefix = getPrefix(ctx);
 		if (CollectionUtils.isNotEmpty(attributes) || CollectionUtils.isNotEmpty(elements)) {
-		    ctx.pushPrefix(processComments(ctx, prefix, comments) + LT + name);
+			OutputBuffer buffer = ctx.getBuffer();
+			long mark = buffer.markTentative();
+			writeStart(ctx, processComments(ctx, prefix, comments), ser, name);
+			long start = buffer.position();
 
 			// writes the attributes
 			if (CollectionUtils.isNotEmpty(attributes)) {
@@ -145,31 +161,39 @@ public class XMLWriter extends AbstractWriter {
 					attribute.serialize(attribute, null, object, ctx);
 				}
 			}
+			boolean attributed = (buffer.position() != start);
+			if (attributed) {
+				buffer.commit();
+			}
 
 			if (CollectionUtils.isEmpty(elements)) {
-			    if (ctx.consomePrefix() == null) {
-			        empty = false;
-                    write(ctx, SLASH_GT_BYTES);
-                }
-            } else {
-                if (ctx.consomePrefix() == null) {
-                    empty = false;
-                    write(ctx, GT_BYTES);
-                } else {
-                    ctx.pushPrefix(processComments(ctx, prefix, comments) + LT + name + GT);
-                }
-                for (Serialization element : elements) {
-                    element.serialize(element, null, object, ctx);
-                }
-                if (ctx.consomePrefix() == null) {
-                    empty = false;
-                    write(ctx, prefix).write(ctx, LT_SLASH_BYTES).write(ctx, name).write(ctx, GT_BYTES);
-                }
-            }
+				if (attributed) {
+					buffer.unmark();
+					write(ctx, SLASH_GT_BYTES);
+					empty = false;
+				} else {
+					buffer.rewind(mark);
+				}
+			} else {
+				write(ctx, GT_BYTES);
+				long content = buffer.position();
+				boolean pending = !attributed;
+				for (Serialization element : elements) {
+					element.serialize(element, null, object, ctx);
+					pending = releaseWhenWritten(buffer, content, pending);
+				}
+				if (attributed) {
+					buffer.unmark();
+					writeClosing(ctx, prefix, ser, name);
+					empty = false;
+				} else {
+					empty = !writeEnd(ctx, mark, content, prefix, ser, name);
+				}
+			}
 		} 
 
 		if (empty && ser.isWriteEmpty()){
-		    write(ctx, processComments(ctx, prefix, comments)).write(ctx, LT_BYTES).write(ctx, name).write(ctx, SLASH_GT_BYTES);
+		    writeEmpty(ctx, processComments(ctx, prefix, comments), ser, name);
 		}
 
 		ctx.previousLevel();
@@ -188,20 +212,22 @@ public class XMLWriter extends AbstractWriter {
 		ctx.nextLevel(checkRequiredName(ctx, name));
         boolean empty = true;
 
-		String prefix = getPrefix(ctx);
+		byte[] prefix = getPrefix(ctx);
 		if (itr.hasNext()) {
-		    ctx.pushPrefix(processComments(ctx, prefix, comments) + LT + name + GT);
+			OutputBuffer buffer = ctx.getBuffer();
+			long mark = buffer.markTentative();
+			writeOpening(ctx, processComments(ctx, prefix, comments), ser, name);
+			long start = buffer.position();
+			boolean pending = true;
 			while (itr.hasNext()) {
 				element.serialize(element, elementName, itr.next(), ctx);
+				pending = releaseWhenWritten(buffer, start, pending);
 			}
-            if (ctx.consomePrefix() == null) {
-                empty = false;
-                write(ctx, prefix).write(ctx, LT_SLASH_BYTES).write(ctx, name).write(ctx, GT_BYTES);
-            }
+			empty = !writeEnd(ctx, mark, start, prefix, ser, name);
 		} 
 
         if (empty && ser.isWriteEmpty()){
-			write(ctx, processComments(ctx, prefix, comments)).write(ctx, LT_BYTES).write(ctx, name).write(ctx, SLASH_GT_BYTES);
+			writeEmpty(ctx, processComments(ctx, prefix, comments), ser, name);
 		}
 
 		ctx.previousLevel();
@@ -221,45 +247,184 @@ public class XMLWriter extends AbstractWriter {
 		ctx.nextLevel(checkRequiredName(ctx, name));
         boolean empty = true;
 
-		String prefix = getPrefix(ctx);
+		byte[] prefix = getPrefix(ctx);
 		if (CollectionUtils.isNotEmpty(entries)) {
-		    ctx.pushPrefix(processComments(ctx, prefix, comments) + LT + name + GT);
+			OutputBuffer buffer = ctx.getBuffer();
+			long mark = buffer.markTentative();
+			writeOpening(ctx, processComments(ctx, prefix, comments), ser, name);
+			long start = buffer.position();
+			boolean pending = true;
 			for (Map.Entry entry : entries) {
 				value.serialize(value, resolvesMapKey(key, entry, ctx), entry.getValue(), ctx);
+				pending = releaseWhenWritten(buffer, start, pending);
 			}
-            if (ctx.consomePrefix() == null) {
-                empty = false;
-                write(ctx, prefix).write(ctx, LT_SLASH_BYTES).write(ctx, name).write(ctx, GT_BYTES);
-            }
+			empty = !writeEnd(ctx, mark, start, prefix, ser, name);
 		} 
 
         if (empty && ser.isWriteEmpty()){
-		    write(ctx, processComments(ctx, prefix, comments)).write(ctx, LT_BYTES).write(ctx, name).write(ctx, SLASH_GT_BYTES);
+		    writeEmpty(ctx, processComments(ctx, prefix, comments), ser, name);
 		}
 
 		ctx.previousLevel();
 	}
 
+	/**
+	 * Writes the given string escaped for XML
+	 * @param ctx The context
+	 * @param str The string to write
+	 * @param attribute Whether the string is an attribute value or a text node
+	 * @return The writer itself for ease of coding
+	 * @throws SerializationException When the writing failed
+	 */
+	protected XMLWriter writeEscaped(SerializationContext ctx, String str, boolean attribute) throws SerializationException {
+		try {
+			if (str.length() > 0) {
+				ctx.getBuffer().writeXml(str, attribute);
+			}
+		} catch (IOException e) {
+			throw new IOSerializationException(ctx, e);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the given prefix followed by the opening tag
+	 * @param ctx The context
+	 * @param prefix The prefix
+	 * @param ser The serialization being written
+	 * @param name The name of the tag
+	 * @return The writer itself for ease of coding
+	 * @throws SerializationException When the writing failed
+	 */
+	protected XMLWriter writeOpening(SerializationContext ctx, byte[] prefix, Serialization ser, String name) throws SerializationException {
+		write(ctx, prefix);
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (tokens != null) {
+			write(ctx, tokens.getXmlOpen());
+		} else {
+			write(ctx, LT_BYTES).write(ctx, name).write(ctx, GT_BYTES);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the given prefix followed by the start of the opening tag, left
+	 * open for its attributes
+	 * @param ctx The context
+	 * @param prefix The prefix
+	 * @param ser The serialization being written
+	 * @param name The name of the tag
+	 * @return The writer itself for ease of coding
+	 * @throws SerializationException When the writing failed
+	 */
+	protected XMLWriter writeStart(SerializationContext ctx, byte[] prefix, Serialization ser, String name) throws SerializationException {
+		write(ctx, prefix);
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (tokens != null) {
+			write(ctx, tokens.getXmlStart());
+		} else {
+			write(ctx, LT_BYTES).write(ctx, name);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the given prefix followed by the closing tag
+	 * @param ctx The context
+	 * @param prefix The prefix
+	 * @param ser The serialization being written
+	 * @param name The name of the tag
+	 * @return The writer itself for ease of coding
+	 * @throws SerializationException When the writing failed
+	 */
+	protected XMLWriter writeClosing(SerializationContext ctx, byte[] prefix, Serialization ser, String name) throws SerializationException {
+		write(ctx, prefix);
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (tokens != null) {
+			write(ctx, tokens.getXmlClose());
+		} else {
+			write(ctx, LT_SLASH_BYTES).write(ctx, name).write(ctx, GT_BYTES);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the given prefix followed by the empty tag
+	 * @param ctx The context
+	 * @param prefix The prefix
+	 * @param ser The serialization being written
+	 * @param name The name of the tag
+	 * @throws SerializationException When the writing failed
+	 */
+	protected void writeEmpty(SerializationContext ctx, byte[] prefix, Serialization ser, String name) throws SerializationException {
+		write(ctx, prefix);
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (tokens != null) {
+			write(ctx, tokens.getXmlEmpty());
+		} else {
+			write(ctx, LT_BYTES).write(ctx, name).write(ctx, SLASH_GT_BYTES);
+		}
+	}
+
+	/**
+	 * Writes the name of an attribute, up to the opening quote of its value
+	 * @param ctx The context
+	 * @param ser The serialization being written
+	 * @param name The name of the attribute
+	 * @return The writer itself for ease of coding
+	 * @throws SerializationException When the writing failed
+	 */
+	protected XMLWriter writeAttributeName(SerializationContext ctx, Serialization ser, String name) throws SerializationException {
+		NameTokens tokens = NameTokens.get(ser, name);
+		if (tokens != null) {
+			write(ctx, tokens.getXmlAttribute());
+		} else {
+			write(ctx, SPACE_BYTES).write(ctx, name).write(ctx, EQUALS_QUOTE_BYTES);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the closing tag if anything has been written since the given 
+	 * start position, otherwise discards the opening tag
+	 * @param ctx The context
+	 * @param mark The position marked before the opening tag
+	 * @param start The position right after the opening tag
+	 * @param prefix The prefix
+	 * @param ser The serialization being written
+	 * @param name The name of the tag
+	 * @return True if the tag has been written, false if it was empty
+	 * @throws SerializationException When the writing failed
+	 */
+	protected boolean writeEnd(SerializationContext ctx, long mark, long start, byte[] prefix, Serialization ser, String name) throws SerializationException {
+		OutputBuffer buffer = ctx.getBuffer();
+		if (buffer.position() == start) {
+			buffer.rewind(mark);
+			return false;
+		}
+		buffer.unmark();
+		writeClosing(ctx, prefix, ser, name);
+		return true;
+	}
+
 	/**
 	 * Returns the prefix
 	 * @param ctx The context
 	 * @return The prefix
 	 */
-	protected String getPrefix(SerializationContext ctx) {
-		String prefix = StringUtils.EMPTY;
-		int deepness = ctx.getDeepness();
+	protected byte[] getPrefix(SerializationContext ctx) {
 		if (ctx.isFormatting()) {
-			prefix = prefixes.get(deepness);
-			if (prefix == null) {
-				prefix = NEW_LINE;
-				for (int i=1; i<deepness; i++) {
-					prefix += INDENTATION;
-				}
-				prefixes.put(deepness, prefix);
-			}
+			return indentation.getPrefix(ctx.getDeepness());
 		}
-		return prefix;
-		
+		return NO_PREFIX;
+	}
+
+	/**
+	 * @param maxDepth The depth up to which the prefixes of the formatted 
+	 * output are pre-computed
+	 */
+	public void setMaxIndentationDepth(int maxDepth) {
+		indentation = new Indentation(INDENTATION, maxDepth);
 	}
 
 	/**
@@ -267,23 +432,81 @@ public class XMLWriter extends AbstractWriter {
 	 * @param ctx The context
 	 * @param prefix The prefix 
 	 * @param comments The comments to write 
-	 * @return The writer itself for ease of coding
+	 * @return The comments followed by the prefix, or the prefix alone
 	 * @throws SerializationException When the writing failed
 	 */
-	protected String processComments(SerializationContext ctx, String prefix, Collection<String> comments) throws SerializationException {
-	    StringBuilder sb = new StringBuilder();
-		if (ctx.isFormatting()) {
-			if (CollectionUtils.isNotEmpty(comments)) {
-				String sep = NEW_LINE + prefix + START_COMMENT; 
-				for (String comment : comments) {
-					sb.append(sep);
-					sb.append(comment.replaceAll(DASH_DASH, STAR_STAR));
-					sep = prefix + MIDDLE_COMMENT;
-				}
-				sb.append(END_COMMENT);
+	protected byte[] processComments(SerializationContext ctx, byte[] prefix, Collection<String> comments) throws SerializationException {
+		if (!ctx.isFormatting()) {
+			return NO_PREFIX;
+		}
+		if (CollectionUtils.isEmpty(comments)) {
+			return prefix;
+		}
+		CommentsKey key = new CommentsKey(comments, prefix.length, ctx.getCharset());
+		byte[] block = commentBlocks.get(key);
+		if (block == null) {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : prefix) {
+				sb.append((char) b);
+			}
+			String indent = sb.toString();
+			sb.setLength(0);
+			String sep = NEW_LINE + indent + START_COMMENT; 
+			for (String comment : comments) {
+				sb.append(sep);
+				sb.append(StringUtils.replace(comment, DASH_DASH, STAR_STAR));
+				sep = indent + MIDDLE_COMMENT;
+			}
+			sb.append(END_COMMENT);
+			sb.append(indent);
+			block = ctx.getBuffer().getBytes(sb.toString());
+			commentBlocks.put(key, block);
+		}
+		return block;
+	}
+
+	/**
+	 * Key of the rendered comment blocks. As the comments are part of the 
+	 * configuration, they are compared by identity; the prefix, identified by
+	 * its length, depends on the depth at which they are rendered and the 
+	 * charset on the context. 
+	 */
+	private static class CommentsKey {
+		private final Collection<String> comments;
+		private final int prefix;
+		private final Charset charset;
+
+		/**
+		 * Constructor with the specification of the comments, prefix and
+		 * charset
+		 * @param comments The comments
+		 * @param prefix The length of the prefix
+		 * @param charset The charset
+		 */
+		public CommentsKey(Collection<String> comments, int prefix, Charset charset) {
+			this.comments = comments;
+			this.prefix = prefix;
+			this.charset = charset;
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(comments) + prefix) + charset.hashCode();
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CommentsKey)) {
+				return false;
 			}
-			sb.append(prefix);
+			CommentsKey other = (CommentsKey) obj;
+			return (comments == other.comments) && (prefix == other.prefix) && charset.equals(other.charset);
 		}
-		return sb.toString();
 	}
-}
\ No newline at end of file
+}
@@ -20,8 +20,12 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.easymock.classextension.EasyMock.createMock;
 import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_BEAN;
+import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_CACHEABLE;
+import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_CACHE_VERSION;
 import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_CONSTANT;
 import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_DISPLAY_EMPTY;
+import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_COLUMNAR;
+import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_FIELD;
 import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_ID;
 import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_KEY;
 import static org.localmatters.serializer.config.SerializationElementHandler.ATTRIBUTE_NAME;
@@ -31,6 +35,8 @@ import static org.localmatters.serializer.config.SerializationElementHandler.ATT
 import static org.localmatters.serializer.config.SerializationElementHandler.DUPLICATE_ID_FORMAT;
 import static org.localmatters.serializer.config.SerializationElementHandler.INVALID_ATTRIBUTES_FORMAT;
 import static org.localmatters.serializer.config.SerializationElementHandler.INVALID_ATTRIBUTE_ELEMENT_FORMAT;
+import static org.localmatters.serializer.config.SerializationElementHandler.INVALID_EXTENSION_FIELDS_FORMAT;
+import static org.localmatters.serializer.config.SerializationElementHandler.INVALID_FIELDS_FORMAT;
 import static org.localmatters.serializer.config.SerializationElementHandler.INVALID_LIST_FORMAT;
 import static org.localmatters.serializer.config.SerializationElementHandler.INVALID_LOOP_REFERENCES;
 import static org.localmatters.serializer.config.SerializationElementHandler.INVALID_MAP_FORMAT;
@@ -60,8 +66,10 @@ import org.apache.commons.collections.CollectionUtils;
 import org.dom4j.Element;
 import org.localmatters.serializer.serialization.AttributeSerialization;
 import org.localmatters.serializer.serialization.BeanSerialization;
+import org.localmatters.serializer.serialization.CacheSerialization;
 import org.localmatters.serializer.serialization.ComplexSerialization;
 import org.localmatters.serializer.serialization.ConstantSerialization;
+import org.localmatters.serializer.serialization.FieldSerialization;
 import org.localmatters.serializer.serialization.IteratorSerialization;
 import org.localmatters.serializer.serialization.MapSerialization;
 import org.localmatters.serializer.serialization.NameSerialization;
@@ -129,6 +137,7 @@ public class SerializationElementHandlerTest extends TestCase {
 	 */
 	public void testHandleId() {
 		expect(element.attributeValue(ATTRIBUTE_ID)).andReturn("12345");
+		expect(element.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
 		expect(element.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(element.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
 		expect(element.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
@@ -145,6 +154,48 @@ public class SerializationElementHandlerTest extends TestCase {
 		assertEquals(1, CollectionUtils.size(handler.getSerializations()));
 	}
 	
+	/**
+	 * Tests the <code>handleField</code> method
+	 */
+	public void testHandleField() {
+		expect(element.attributeValue(ATTRIBUTE_FIELD)).andReturn("12");
+		expect(element.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
+		expect(element.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
+		expect(element.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
+		expect(element.attributeValue(ATTRIBUTE_PROPERTY)).andReturn(null);
+		expect(element.getName()).andReturn(TYPE_VALUE);
+		expect(element.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn(null);
+		expect(element.attributes()).andReturn(Arrays.asList("12"));
+
+		replay(element);
+		Serialization result = handler.handleField(element, attributes);
+		verify(element);
+
+		assertTrue(result instanceof FieldSerialization);
+		FieldSerialization serialization = (FieldSerialization) result;
+		assertEquals(12, serialization.getNumber());
+		assertTrue(serialization.getDelegate() instanceof ValueSerialization);
+	}
+
+	/**
+	 * Tests the <code>handleField</code> method when the number is invalid
+	 */
+	public void testHandleFieldWhenInvalid() {
+		for (String field : Arrays.asList("abc", "0", "-1", "19500", "536870912")) {
+			Element element = createMock(Element.class);
+			expect(element.attributeValue(ATTRIBUTE_FIELD)).andReturn(field);
+			expect(element.getPath()).andReturn(PATH);
+			replay(element);
+			try {
+				handler.handleField(element, attributes);
+				fail("ConfigurationException expected");
+			} catch (ConfigurationException e) {
+				assertEquals(String.format(MISSING_ATTRIBUTE_FORMAT, ATTRIBUTE_FIELD, PATH), e.getMessage());
+			}
+			verify(element);
+		}
+	}
+
 	/**
 	 * Tests the <code>handleName</code> method
 	 */
@@ -403,6 +454,7 @@ public class SerializationElementHandlerTest extends TestCase {
 	 */
 	public void testHandleListWhenNoChild() {
 		expect(element.elements()).andReturn(null);
+		expect(element.attributeValue(ATTRIBUTE_COLUMNAR)).andReturn(null);
 
 		replay(element);
 		Serialization result = handler.handleList(element, attributes);
@@ -426,6 +478,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.elements()).andReturn(Arrays.asList(child1, child2));
 		expect(child1.getName()).andReturn(TYPE_VALUE);
 		expect(child1.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(child1.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
@@ -456,6 +509,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.elements()).andReturn(Arrays.asList(child, comment));
 		expect(child.getName()).andReturn(TYPE_VALUE);
 		expect(child.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(child.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
@@ -465,6 +519,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(child.getName()).andReturn(TYPE_VALUE);
 		expect(comment.getName()).andReturn(TYPE_COMMENT);
 		expect(comment.getStringValue()).andReturn("Hello World");
+		expect(element.attributeValue(ATTRIBUTE_COLUMNAR)).andReturn("true");
 
 		replay(element, child, comment);
 		Serialization result = handler.handleList(element, attributes);
@@ -472,6 +527,8 @@ public class SerializationElementHandlerTest extends TestCase {
 
 		assertTrue(result instanceof IteratorSerialization);
 		IteratorSerialization ser = (IteratorSerialization) result;
+		assertTrue(ser.isColumnar());
+		assertEquals("true", attributes.get(ATTRIBUTE_COLUMNAR));
 		assertTrue(ser.getElement() instanceof ValueSerialization);
 		assertFalse(ser.getElement().isWriteEmpty());
 		assertEquals(1, CollectionUtils.size(ser.getComments()));
@@ -488,6 +545,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.elements()).andReturn(Arrays.asList(child));
 		expect(child.getName()).andReturn(TYPE_VALUE);
 		expect(child.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(child.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
@@ -495,7 +553,9 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(child.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn(null);
 		expect(child.attributes()).andReturn(Collections.emptyList());
 		expect(child.getName()).andReturn(TYPE_VALUE);
+		expect(element.attributeValue(ATTRIBUTE_COLUMNAR)).andReturn(null);
 		expect(element.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn("true");
+		expect(element.attributeValue(ATTRIBUTE_CACHEABLE)).andReturn(null);
 		expect(element.attributes()).andReturn(Arrays.asList("false"));
 
 		replay(element, child);
@@ -524,6 +584,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(child1.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(child1.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
 		expect(child1.attributeValue(ATTRIBUTE_PROPERTY)).andReturn(null);
@@ -576,6 +637,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(child.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(child.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
 		expect(child.attributeValue(ATTRIBUTE_PROPERTY)).andReturn(null);
@@ -686,6 +748,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.getName()).andReturn(TYPE_REFERENCE);
 		expect(element.attributeValue(ATTRIBUTE_TARGET)).andReturn("12345");
 		expect(element.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn("true");
+		expect(element.attributeValue(ATTRIBUTE_CACHEABLE)).andReturn(null);
 		expect(element.attributes()).andReturn(Arrays.asList("12345", "true"));
 
 		replay(element);
@@ -696,6 +759,28 @@ public class SerializationElementHandlerTest extends TestCase {
 		assertTrue(result.isWriteEmpty());
 	}
 	
+	/**
+	 * Tests the <code>handleType</code> method when a cacheable reference
+	 */
+	public void testHandleTypeWhenCacheableReference() {
+		expect(element.getName()).andReturn(TYPE_REFERENCE);
+		expect(element.attributeValue(ATTRIBUTE_TARGET)).andReturn("12345");
+		expect(element.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn(null);
+		expect(element.attributeValue(ATTRIBUTE_CACHEABLE)).andReturn("true");
+		expect(element.attributeValue(ATTRIBUTE_CACHE_VERSION)).andReturn("updatedAt");
+		expect(element.attributes()).andReturn(Arrays.asList("12345", "true", "updatedAt"));
+
+		replay(element);
+		Serialization result = handler.handleType(element, attributes);
+		verify(element);
+
+		assertTrue(result instanceof CacheSerialization);
+		assertEquals("updatedAt", ((CacheSerialization) result).getVersion());
+		assertTrue(((CacheSerialization) result).getDelegate() instanceof ReferenceSerialization);
+		assertEquals("true", attributes.get(ATTRIBUTE_CACHEABLE));
+		assertEquals("updatedAt", attributes.get(ATTRIBUTE_CACHE_VERSION));
+	}
+	
 	/**
 	 * Tests the <code>handleComplex</code> method with name-space
 	 */
@@ -705,6 +790,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.elements()).andReturn(Arrays.asList(namespace));
 		expect(namespace.getName()).andReturn(TYPE_NAMESPACE);
 		expect(namespace.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(namespace.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
 		expect(namespace.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
 		expect(namespace.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
 		expect(namespace.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
@@ -738,6 +824,7 @@ public class SerializationElementHandlerTest extends TestCase {
         expect(element.elements()).andReturn(Arrays.asList(attribute, comment, subElement));
         expect(attribute.getName()).andReturn(TYPE_ATTRIBUTE);
         expect(attribute.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+        expect(attribute.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
         expect(attribute.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
         expect(attribute.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
         expect(attribute.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
@@ -751,6 +838,7 @@ public class SerializationElementHandlerTest extends TestCase {
         expect(comment.getStringValue()).andReturn("Hello World");
         expect(subElement.getName()).andReturn(TYPE_VALUE);
         expect(subElement.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+        expect(subElement.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
         expect(subElement.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
         expect(subElement.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
         expect(subElement.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
@@ -773,6 +861,76 @@ public class SerializationElementHandlerTest extends TestCase {
         assertEquals("Hello World", ser.getComments().get(0));
     }
 	
+	/**
+	 * Tests the <code>handleComplex</code> method when a field number is set
+	 * on only some of the elements
+	 */
+	public void testHandleComplexWhenMissingFields() {
+		Element numbered = createMock(Element.class);
+		Element positional = createMock(Element.class);
+
+		expect(element.elements()).andReturn(Arrays.asList(numbered, positional));
+		expect(numbered.getName()).andReturn(TYPE_VALUE);
+		expect(numbered.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(numbered.attributeValue(ATTRIBUTE_FIELD)).andReturn("2");
+		expect(numbered.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
+		expect(numbered.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
+		expect(numbered.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
+		expect(numbered.attributeValue(ATTRIBUTE_PROPERTY)).andReturn(null);
+		expect(numbered.getName()).andReturn(TYPE_VALUE);
+		expect(numbered.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn(null);
+		expect(numbered.attributes()).andReturn(Arrays.asList("2"));
+		expect(positional.getName()).andReturn(TYPE_VALUE);
+		expect(positional.attributeValue(ATTRIBUTE_ID)).andReturn(null);
+		expect(positional.attributeValue(ATTRIBUTE_FIELD)).andReturn(null);
+		expect(positional.attributeValue(ATTRIBUTE_NAME)).andReturn(null);
+		expect(positional.attributeValue(ATTRIBUTE_CONSTANT)).andReturn(null);
+		expect(positional.attributeValue(ATTRIBUTE_BEAN)).andReturn(null);
+		expect(positional.attributeValue(ATTRIBUTE_PROPERTY)).andReturn(null);
+		expect(positional.getName()).andReturn(TYPE_VALUE);
+		expect(positional.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn(null);
+		expect(positional.attributes()).andReturn(Collections.emptyList());
+		expect(element.getPath()).andReturn(PATH);
+
+		replay(element, numbered, positional);
+		try {
+			handler.handleComplex(element, attributes);
+			fail("ConfigurationException expected");
+		} catch (ConfigurationException e) {
+			assertEquals(String.format(INVALID_FIELDS_FORMAT, PATH), e.getMessage());
+		}
+		verify(element, numbered, positional);
+	}
+
+	/**
+	 * Tests the <code>hasValidFields</code> method
+	 */
+	public void testHasValidFields() {
+		ComplexSerialization ser = new ComplexSerialization();
+		assertTrue(SerializationElementHandler.hasValidFields(ser));
+		ser.setAttributes(Arrays.<Serialization>asList(new AttributeSerialization()));
+		ser.setElements(Arrays.<Serialization>asList(new ValueSerialization()));
+		assertTrue(SerializationElementHandler.hasValidFields(ser));
+		ser.setAttributes(Arrays.<Serialization>asList(createField(1, new AttributeSerialization())));
+		assertFalse(SerializationElementHandler.hasValidFields(ser));
+		ser.setElements(Arrays.<Serialization>asList(createField(1, new ValueSerialization())));
+		assertFalse(SerializationElementHandler.hasValidFields(ser));
+		ser.setElements(Arrays.<Serialization>asList(createField(3, new ValueSerialization())));
+		assertTrue(SerializationElementHandler.hasValidFields(ser));
+	}
+
+	/**
+	 * @param number The number of the field
+	 * @param delegate The delegate serialization
+	 * @return The field serialization
+	 */
+	private static FieldSerialization createField(int number, Serialization delegate) {
+		FieldSerialization field = new FieldSerialization();
+		field.setNumber(number);
+		field.setDelegate(delegate);
+		return field;
+	}
+	
 	/**
 	 * Tests the <code>HandleComplex</code> method when has ID and parent
 	 */
@@ -804,6 +962,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.attributeValue(ATTRIBUTE_PARENT)).andReturn("parent");
 		expect(element.elements()).andReturn(null);
 		expect(element.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn("true");
+		expect(element.attributeValue(ATTRIBUTE_CACHEABLE)).andReturn(null);
 		expect(element.attributes()).andReturn(Arrays.asList("parent", "true"));
 
 		replay(element);
@@ -827,6 +986,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.attributeValue(ATTRIBUTE_PARENT)).andReturn(null);
 		expect(element.elements()).andReturn(null);
 		expect(element.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn("true");
+		expect(element.attributeValue(ATTRIBUTE_CACHEABLE)).andReturn(null);
 		expect(element.attributes()).andReturn(Arrays.asList("true"));
 
 		replay(element);
@@ -868,6 +1028,7 @@ public class SerializationElementHandlerTest extends TestCase {
 		expect(element.getName()).andReturn(TYPE_REFERENCE);
 		expect(element.attributeValue(ATTRIBUTE_TARGET)).andReturn("12345");
 		expect(element.attributeValue(ATTRIBUTE_DISPLAY_EMPTY)).andReturn(null);
+		expect(element.attributeValue(ATTRIBUTE_CACHEABLE)).andReturn(null);
 		expect(element.attributes()).andReturn(Arrays.asList(target, invalid));
 		expect(element.attributes()).andReturn(Arrays.asList(target, invalid));
 		expect(target.getName()).andReturn(ATTRIBUTE_TARGET);
@@ -942,6 +1103,28 @@ public class SerializationElementHandlerTest extends TestCase {
 		assertTrue(results.containsAll(Arrays.asList("12345", "6789")));
 	}
 	
+	/**
+	 * Tests the resolution of the extensions when a field number of the 
+	 * extension is already used by the parent
+	 */
+	public void testResolveExtensionsWhenDuplicateFields() {
+		ComplexSerialization parent = new ComplexSerialization();
+		parent.addElement(createField(2, new ValueSerialization()));
+		ComplexSerialization ser = new ComplexSerialization();
+		ser.addElement(createField(2, new ValueSerialization()));
+		Map<ComplexSerialization, String> extensions = new HashMap<ComplexSerialization, String>(); 
+		extensions.put(ser, "12345");
+		Map<String, ComplexSerialization> parents = new HashMap<String, ComplexSerialization>();
+		parents.put("12345", parent);
+
+		try {
+			SerializationElementHandler.resolveExtensions(extensions, parents);
+			fail("ConfigurationException expected");
+		} catch (ConfigurationException e) {
+			assertEquals(String.format(INVALID_EXTENSION_FIELDS_FORMAT, "12345"), e.getMessage());
+		}
+	}
+	
 	/**
 	 * Tests the resolution of the extensions when loop
 	 */
@@ -0,0 +1,141 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.config;
+
+import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.resolver.BeanUtilsPropertyResolver;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.ReferenceSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.StaticSerialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+import org.localmatters.serializer.writer.JSONWriter;
+
+
+/**
+ * Tests the <code>SkeletonCompiler</code>
+ */
+public class SkeletonCompilerTest extends TestCase {
+	private Map<String, Serialization> serializations;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		serializations = new HashMap<String, Serialization>();
+	}
+
+	/**
+	 * Serializes the given object with the JSON writer
+	 * @param ser The serialization
+	 * @param obj The object
+	 * @return The output
+	 */
+	private static String serialize(Serialization ser, Object obj) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new JSONWriter().writeRoot(ser, obj, new SerializationContext(new JSONWriter(), new BeanUtilsPropertyResolver(), os));
+		return os.toString("UTF-8");
+	}
+
+	/**
+	 * Tests compiling a complex made of static and dynamic elements
+	 */
+	public void testCompile() throws Exception {
+		ComplexSerialization meta = new ComplexSerialization();
+		meta.addElement(createConstantValue("version", "1.0"));
+		meta.addElement(createConstantValue("source", "test"));
+		IteratorSerialization tags = new IteratorSerialization();
+		tags.setElement(createConstantValue("tag", "all"));
+		PropertySerialization property = new PropertySerialization();
+		property.setProperty("tags");
+		property.setDelegate(tags);
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createConstantValue("type", "hotel"));
+		PropertySerialization name = new PropertySerialization();
+		name.setProperty("name");
+		name.setDelegate(new ValueSerialization());
+		complex.addElement(name);
+		complex.addElement(createName("meta", meta));
+		complex.addElement(createName("tags", property));
+		NameSerialization root = createName("listing", complex);
+		serializations.put("listing", root);
+		Map<String, Object> listing = new HashMap<String, Object>();
+		listing.put("name", "12345 Hotel");
+		listing.put("tags", Arrays.asList("a", "b"));
+		String expected = serialize(root, listing);
+
+		SkeletonCompiler.compile(serializations);
+		assertSame(complex, root.getDelegate());
+		assertTrue(complex.getElements().get(0) instanceof StaticSerialization);
+		assertFalse(complex.getElements().get(1) instanceof StaticSerialization);
+		assertTrue(complex.getElements().get(2) instanceof StaticSerialization);
+		assertFalse(complex.getElements().get(3) instanceof StaticSerialization);
+		assertFalse(tags.getElement() instanceof StaticSerialization);
+		assertEquals(expected, serialize(root, listing));
+		assertEquals(expected, serialize(root, listing));
+
+		// compiling again does not wrap the skeleton again
+		SkeletonCompiler.compile(serializations);
+		assertFalse(((StaticSerialization) complex.getElements().get(0)).getDelegate() instanceof StaticSerialization);
+	}
+
+	/**
+	 * Tests compiling a root made of constants only
+	 */
+	public void testCompileWhenConstantRoot() throws Exception {
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createConstantValue("status", "ok"));
+		NameSerialization root = createName("response", complex);
+		serializations.put("response", root);
+
+		SkeletonCompiler.compile(serializations);
+		assertTrue(root.getDelegate() instanceof StaticSerialization);
+		assertEquals("{\"status\": \"ok\"}", serialize(root, new Object()));
+		assertEquals("{\"status\": \"ok\"}", serialize(root, new Object()));
+	}
+
+	/**
+	 * Tests compiling a loop of references
+	 */
+	public void testCompileWhenLoop() throws Exception {
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createConstantValue("type", "node"));
+		ReferenceSerialization reference = new ReferenceSerialization();
+		complex.addElement(createName("child", reference));
+		NameSerialization root = createName("node", complex);
+		reference.setReferenced(root);
+		serializations.put("node", root);
+
+		SkeletonCompiler.compile(serializations);
+		assertTrue(complex.getElements().get(0) instanceof StaticSerialization);
+		assertFalse(complex.getElements().get(1) instanceof StaticSerialization);
+		assertSame(root, reference.getReferenced());
+	}
+}
@@ -0,0 +1,228 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reset;
+import static org.easymock.EasyMock.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.resolver.PropertyResolver;
+import org.localmatters.serializer.writer.FragmentCache;
+import org.localmatters.serializer.writer.JSONWriter;
+
+
+/**
+ * Tests the <code>CacheSerialization</code>
+ */
+public class CacheSerializationTest extends TestCase {
+	private static final String MERCHANT = "\"merchant\": {\"name\": \"Joe's\"}";
+	private CacheSerialization ser;
+	private PropertyResolver resolver;
+	private FragmentCache cache;
+	private ByteArrayOutputStream os;
+	private SerializationContext ctx;
+	private Object merchant;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		PropertySerialization name = new PropertySerialization();
+		name.setProperty("name");
+		name.setDelegate(new ValueSerialization());
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(name);
+		ser = new CacheSerialization();
+		ser.setVersion("updatedAt");
+		ser.setDelegate(complex);
+		resolver = createMock(PropertyResolver.class);
+		cache = new FragmentCache(1024);
+		os = new ByteArrayOutputStream();
+		ctx = new SerializationContext(new JSONWriter(), resolver, os);
+		ctx.setFragmentCache(cache);
+		merchant = new Object();
+	}
+
+	/**
+	 * @return The output written so far
+	 */
+	private String getOutput() throws Exception {
+		ctx.flush();
+		return os.toString("UTF-8");
+	}
+
+	/**
+	 * Tests that the fragment is written back from the cache
+	 */
+	public void testSerializeWhenCached() throws Exception {
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(1L).times(2);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's");
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		assertEquals(MERCHANT + MERCHANT, getOutput());
+		assertEquals(1, cache.getCount());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/**
+	 * Tests that the object is serialized again when its version changed
+	 */
+	public void testSerializeWhenVersionChanged() throws Exception {
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(1L);
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(2L);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's").times(2);
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		assertEquals(MERCHANT + MERCHANT, getOutput());
+		assertEquals(2, cache.getCount());
+	}
+
+	/**
+	 * Tests that the fragments are cached by name
+	 */
+	public void testSerializeWhenOtherName() throws Exception {
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(1L).times(2);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's").times(2);
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		ser.serialize(ser, "seller", merchant, ctx);
+		verify(resolver);
+		assertEquals(MERCHANT + "\"seller\": {\"name\": \"Joe's\"}", getOutput());
+	}
+
+	/**
+	 * Tests that the fragments written minimal are cached apart
+	 */
+	public void testSerializeWhenMinimal() throws Exception {
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(1L).times(2);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's").times(2);
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		ctx.setMinimal(true);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		assertEquals(MERCHANT + "\"merchant\":{\"name\":\"Joe's\"}", getOutput());
+		assertEquals(2, cache.getCount());
+	}
+
+	/**
+	 * Tests that nothing is cached when the context has no cache
+	 */
+	public void testSerializeWhenNoCache() throws Exception {
+		ctx.setFragmentCache(null);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's").times(2);
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		assertEquals(MERCHANT + MERCHANT, getOutput());
+	}
+
+	/**
+	 * Tests that nothing is cached when the writer keeps a state in the
+	 * context
+	 */
+	public void testSerializeWhenWriterState() throws Exception {
+		ctx.setWriterState(new Object());
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's");
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		assertEquals(MERCHANT, getOutput());
+		assertEquals(0, cache.getCount());
+	}
+
+	/**
+	 * Tests that the fragments written by writers configured differently 
+	 * are cached apart
+	 */
+	public void testSerializeWhenOtherWriter() throws Exception {
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(1L).times(2);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's").times(2);
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		ctx.flush();
+		JSONWriter writer = new JSONWriter();
+		writer.setMaxIndentationDepth(0);
+		ctx = new SerializationContext(writer, resolver, os);
+		ctx.setFragmentCache(cache);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		assertEquals(MERCHANT + MERCHANT, getOutput());
+		assertEquals(2, cache.getCount());
+		assertEquals(0, cache.getHits());
+	}
+
+	/**
+	 * Tests that the keys do not keep the cached objects in memory
+	 */
+	public void testSerializeWhenObjectCollected() throws Exception {
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(1L);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's");
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		// the mock keeps the arguments of the calls it recorded
+		reset(resolver);
+		WeakReference<Object> reference = new WeakReference<Object>(merchant);
+		merchant = null;
+		// the collected references are enqueued asynchronously
+		for (int i=0; (i<100) && ((reference.get() != null) || (cache.getCount() > 0)); i++) {
+			System.gc();
+			Thread.sleep(10);
+			cache.get("other");
+		}
+		assertNull(reference.get());
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * Tests that the keys do not keep the writers in memory
+	 */
+	public void testSerializeWhenWriterCollected() throws Exception {
+		expect(resolver.resolve(merchant, "updatedAt")).andReturn(1L);
+		expect(resolver.resolve(merchant, "name")).andReturn("Joe's");
+		replay(resolver);
+		ser.serialize(ser, "merchant", merchant, ctx);
+		verify(resolver);
+		WeakReference<Object> reference = new WeakReference<Object>(ctx.getWriter());
+		ctx = null;
+		// the collected references are enqueued asynchronously
+		for (int i=0; (i<100) && ((reference.get() != null) || (cache.getCount() > 0)); i++) {
+			System.gc();
+			Thread.sleep(10);
+			cache.get("other");
+		}
+		assertNull(reference.get());
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+	}
+}
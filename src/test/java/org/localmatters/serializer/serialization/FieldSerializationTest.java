@@ -0,0 +1,73 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.writer.Writer;
+
+
+/**
+ * Tests the <code>FieldSerialization</code>
+ */
+public class FieldSerializationTest extends TestCase {
+	private FieldSerialization ser;
+	private Serialization parentSer;
+	private Serialization delegate;
+	private Writer writer;
+	private Object object;
+	private SerializationContext ctx;
+	
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		delegate = createMock(Serialization.class); 
+		parentSer = createMock(Serialization.class);
+		ser = new FieldSerialization();
+		ser.setNumber(7);
+		ser.setDelegate(delegate);
+		writer = createMock(Writer.class);
+		object = new Object();
+		ctx = new SerializationContext(writer, null, null);
+	}
+
+	/**
+	 * Tests the serialization
+	 */
+	public void testHandle() throws Exception {
+		delegate.serialize(parentSer, "name", object, ctx);
+		replay(delegate, writer);
+		ser.serialize(parentSer, "name", object, ctx);
+		verify(delegate, writer);
+	}
+
+	/**
+	 * Tests getting the number of the field of a serialization
+	 */
+	public void testGetNumber() {
+		assertEquals(7, FieldSerialization.getNumber(ser));
+		assertEquals(7, FieldSerialization.getNumber(createName("name", ser)));
+		assertEquals(0, FieldSerialization.getNumber(createName("name", new ValueSerialization())));
+		assertEquals(0, FieldSerialization.getNumber(new ValueSerialization()));
+	}
+}
@@ -0,0 +1,93 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the <code>NameTokens</code>
+ */
+public class NameTokensTest extends TestCase {
+
+	/**
+	 * Tests creating the tokens of a name
+	 */
+	public void testCreate() {
+		NameTokens tokens = NameTokens.create("address");
+		assertEquals("address", tokens.getName());
+		assertEquals("\"address\": ", new String(tokens.getJsonKey()));
+		assertEquals("\"address\": {", new String(tokens.getJsonOpenObject()));
+		assertEquals("\"address\": [", new String(tokens.getJsonOpenArray()));
+		assertEquals("\"address\": {}", new String(tokens.getJsonEmptyObject()));
+		assertEquals("\"address\": []", new String(tokens.getJsonEmptyArray()));
+		assertEquals("\"address\":", new String(tokens.getJsonMinimalKey()));
+		assertEquals("\"address\":{", new String(tokens.getJsonMinimalOpenObject()));
+		assertEquals("\"address\":[", new String(tokens.getJsonMinimalOpenArray()));
+		assertEquals("\"address\":{}", new String(tokens.getJsonMinimalEmptyObject()));
+		assertEquals("\"address\":[]", new String(tokens.getJsonMinimalEmptyArray()));
+		assertEquals("<address", new String(tokens.getXmlStart()));
+		assertEquals("<address>", new String(tokens.getXmlOpen()));
+		assertEquals("</address>", new String(tokens.getXmlClose()));
+		assertEquals("<address/>", new String(tokens.getXmlEmpty()));
+		assertEquals(" address=\"", new String(tokens.getXmlAttribute()));
+		assertEquals("gaddress", new String(tokens.getCborKey()));
+	}
+
+	/**
+	 * Tests creating the tokens of names that cannot be pre-encoded
+	 */
+	public void testCreateWhenInvalid() {
+		assertNull(NameTokens.create(null));
+		assertNull(NameTokens.create(" "));
+		assertNull(NameTokens.create("café"));
+	}
+
+	/**
+	 * Tests getting the tokens held by a serialization
+	 */
+	public void testGet() {
+		NameSerialization name = new NameSerialization();
+		name.setName("address");
+		PropertySerialization property = new PropertySerialization();
+		property.setProperty("location");
+		property.setDelegate(name);
+		NameSerialization outer = new NameSerialization();
+		outer.setDelegate(property);
+
+		assertSame(name.getNameTokens(), NameTokens.get(outer, "address"));
+		assertSame(property.getNameTokens(), NameTokens.get(outer, "location"));
+		assertNull(NameTokens.get(outer, "other"));
+		assertNull(NameTokens.get(outer, null));
+		assertNull(NameTokens.get(new ValueSerialization(), "address"));
+	}
+
+	/**
+	 * Tests that the tokens are kept when the name is removed to be given by
+	 * the parent serialization (i.e. the element name of a list)
+	 */
+	public void testGetWhenNameRemoved() {
+		NameSerialization name = new NameSerialization();
+		name.setName("address");
+		name.setDelegate(new ValueSerialization());
+		IteratorSerialization list = new IteratorSerialization();
+		list.setElement(name);
+
+		assertNull(name.getName());
+		assertEquals("address", list.getElementName());
+		assertSame(name.getNameTokens(), NameTokens.get(name, list.getElementName()));
+	}
+}
@@ -0,0 +1,145 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.serialization;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.same;
+import static org.easymock.EasyMock.verify;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import org.easymock.IAnswer;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.writer.JSONWriter;
+import org.localmatters.serializer.writer.XMLWriter;
+
+
+/**
+ * Tests the <code>StaticSerialization</code>
+ */
+public class StaticSerializationTest extends TestCase {
+	private StaticSerialization ser;
+	private Serialization delegate;
+	private ByteArrayOutputStream os;
+	private SerializationContext ctx;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		delegate = createMock(Serialization.class);
+		ser = new StaticSerialization(delegate);
+		os = new ByteArrayOutputStream();
+		ctx = new SerializationContext(new JSONWriter(), null, os);
+	}
+
+	/**
+	 * @return The output written so far
+	 */
+	private String getOutput() throws Exception {
+		ctx.flush();
+		return os.toString("UTF-8");
+	}
+
+	/**
+	 * Expects the delegate to render the given string
+	 * @param rendering The string rendered by the delegate
+	 */
+	private void expectRendering(final String rendering) {
+		expectLastCall().andAnswer(new IAnswer<Object>() {
+			public Object answer() throws Throwable {
+				ctx.getBuffer().write(rendering);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Tests that the delegate is rendered once and then written back
+	 */
+	public void testSerialize() throws Exception {
+		delegate.serialize(same(ser), eq("type"), same(this), same(ctx));
+		expectRendering("\"type\": \"hotel\"");
+		delegate.serialize(same(ser), (String) isNull(), isNull(), same(ctx));
+		expectRendering("\"hotel\"");
+		replay(delegate);
+		ser.serialize(ser, "type", this, ctx);
+		ser.serialize(ser, "type", "other", ctx);
+		ser.serialize(ser, null, null, ctx);
+		ser.serialize(ser, null, null, ctx);
+		verify(delegate);
+		assertEquals("\"type\": \"hotel\"\"type\": \"hotel\"\"hotel\"\"hotel\"", getOutput());
+	}
+
+	/**
+	 * Tests that the delegate is rendered for each depth when formatting
+	 */
+	public void testSerializeWhenFormatting() throws Exception {
+		ctx.setFormatting(true);
+		delegate.serialize(same(ser), eq("type"), same(this), same(ctx));
+		expectRendering("a");
+		expectLastCall().times(2);
+		replay(delegate);
+		ser.serialize(ser, "type", this, ctx);
+		ser.serialize(ser, "type", this, ctx.nextLevel("listing"));
+		ser.serialize(ser, "type", this, ctx);
+		verify(delegate);
+		assertEquals("aaa", getOutput());
+	}
+
+	/**
+	 * Tests that the delegate is always rendered when the writer keeps a 
+	 * state in the context
+	 */
+	public void testSerializeWhenWriterState() throws Exception {
+		ctx.setWriterState(new Object());
+		delegate.serialize(same(ser), eq("type"), same(this), same(ctx));
+		expectRendering("a");
+		expectLastCall().times(2);
+		replay(delegate);
+		ser.serialize(ser, "type", this, ctx);
+		ser.serialize(ser, "type", this, ctx);
+		verify(delegate);
+		assertEquals("aa", getOutput());
+	}
+
+	/**
+	 * Tests that the instances of a writer share the renderings, while the
+	 * other writers render their own
+	 */
+	public void testSerializeWhenOtherWriters() throws Exception {
+		delegate.serialize(same(ser), eq("type"), same(this), same(ctx));
+		expectRendering("a");
+		SerializationContext other = new SerializationContext(new JSONWriter(), null, os);
+		SerializationContext xml = new SerializationContext(new XMLWriter(), null, new ByteArrayOutputStream());
+		delegate.serialize(same(ser), eq("type"), same(this), same(xml));
+		replay(delegate);
+		ser.serialize(ser, "type", this, ctx);
+		ctx.flush();
+		ser.serialize(ser, "type", this, other);
+		other.flush();
+		ser.serialize(ser, "type", this, xml);
+		verify(delegate);
+		assertEquals("aa", os.toString("UTF-8"));
+	}
+}
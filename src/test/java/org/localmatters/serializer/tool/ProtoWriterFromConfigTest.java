@@ -0,0 +1,126 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.tool;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.config.ConfigurationException;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.FieldSerialization;
+import org.localmatters.serializer.serialization.NameSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+import org.localmatters.serializer.test.domain.DummyObject;
+import org.springframework.core.io.ClassPathResource;
+
+
+/**
+ * Tests the <code>ProtoWriterFromConfig</code>
+ */
+public class ProtoWriterFromConfigTest extends TestCase {
+
+	/**
+	 * Tests getting the definitions for the <code>DummyObject</code>
+	 * configuration
+	 */
+	public void testProtoForDummyObject() throws Exception {
+		Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+		classes.put("DummyObject", DummyObject.class);
+		classes.put("Address", DummyObject.Address.class);
+		String proto = ProtoWriterFromConfig.getProto("test", new ClassPathResource("test-dummy-object-config.xml").getInputStream(), classes);
+		assertEquals("syntax = \"proto3\";\n" +
+				"\n" +
+				"package test;\n" +
+				"\n" +
+				"message Address {\n" +
+				"  string city = 1;\n" +
+				"  string state = 2;\n" +
+				"  string street = 3;\n" +
+				"  string z = 4;\n" +
+				"  string zip = 5;\n" +
+				"}\n" +
+				"\n" +
+				"message DummyObject {\n" +
+				"  message OrdersByAddress {\n" +
+				"    Address key = 1;\n" +
+				"    repeated string value = 2; // unknown type\n" +
+				"  }\n" +
+				"  map<string, Address> addresses = 1;\n" +
+				"  map<string, string> addressesRaw = 2; // unknown type\n" +
+				"  string id = 3;\n" +
+				"  string name = 4;\n" +
+				"  repeated string orders = 5;\n" +
+				"  repeated OrdersByAddress ordersByAddresses = 6;\n" +
+				"  repeated string ordersList = 7;\n" +
+				"}\n", proto);
+	}
+
+	/**
+	 * Tests getting the definitions for a root value with explicit field 
+	 * numbers and without classes
+	 */
+	public void testProtoForValue() {
+		Map<String, Serialization> serializations = new HashMap<String, Serialization>();
+		serializations.put("search-count", name("count", new ValueSerialization()));
+		assertEquals("syntax = \"proto3\";\n" +
+				"\n" +
+				"message SearchCount {\n" +
+				"  string count = 1; // unknown type\n" +
+				"}\n", ProtoWriterFromConfig.getProto(null, serializations, null));
+	}
+
+	/**
+	 * Tests getting the definitions when a field number is used twice
+	 */
+	public void testProtoWhenDuplicateNumber() {
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(field(2, name("a", new ValueSerialization())));
+		complex.addElement(name("b", new ValueSerialization()));
+		Map<String, Serialization> serializations = new HashMap<String, Serialization>();
+		serializations.put("root", complex);
+		try {
+			ProtoWriterFromConfig.getProto(null, serializations, null);
+			fail("ConfigurationException expected");
+		} catch (ConfigurationException e) {
+			assertEquals("Duplicate field number 2 in the message Root!", e.getMessage());
+		}
+	}
+
+	/**
+	 * Tests getting the message name
+	 */
+	public void testGetMessageName() {
+		assertEquals("SearchResult", ProtoWriterFromConfig.getMessageName("search-result"));
+		assertEquals("NsItem", ProtoWriterFromConfig.getMessageName("ns:item"));
+	}
+
+	private static NameSerialization name(String name, Serialization delegate) {
+		NameSerialization ser = new NameSerialization();
+		ser.setName(name);
+		ser.setDelegate(delegate);
+		return ser;
+	}
+
+	private static FieldSerialization field(int number, Serialization delegate) {
+		FieldSerialization ser = new FieldSerialization();
+		ser.setNumber(number);
+		ser.setDelegate(delegate);
+		return ser;
+	}
+}
@@ -32,6 +32,57 @@ public class EscapeUtilsTest extends TestCase {
 		assertEquals("hotel \\\\ spa", EscapeUtils.escapeJson("hotel \\ spa"));
 		assertEquals("hotel / spa", EscapeUtils.escapeJson("hotel / spa"));
 		assertEquals(null, EscapeUtils.escapeJson(null));
+		String clean = "hotel & caf\u00e9";
+		assertSame(clean, EscapeUtils.escapeJson(clean));
+	}
+
+	/**
+	 * Tests looking for the characters to escape in JSON
+	 */
+	public void testIndexOfJsonEscape() {
+		assertEquals(-1, EscapeUtils.indexOfJsonEscape("hotel & caf\u00e9", 0));
+		assertEquals(6, EscapeUtils.indexOfJsonEscape("hotel \"spa\"", 0));
+		assertEquals(10, EscapeUtils.indexOfJsonEscape("hotel \"spa\"", 7));
+		assertEquals('n', EscapeUtils.getJsonEscape('\n'));
+		assertEquals(0, EscapeUtils.getJsonEscape('a'));
+		assertEquals(0, EscapeUtils.getJsonEscape('\u00e9'));
+	}
+
+	/**
+	 * Tests looking for the characters requiring a CSV field to be quoted
+	 */
+	public void testIndexOfCsvQuote() {
+		assertEquals(-1, EscapeUtils.indexOfCsvQuote("hotel & caf\u00e9\t", 0, ','));
+		assertEquals(5, EscapeUtils.indexOfCsvQuote("hotel, \"spa\"", 0, ','));
+		assertEquals(7, EscapeUtils.indexOfCsvQuote("hotel, \"spa\"", 6, ','));
+		assertEquals(5, EscapeUtils.indexOfCsvQuote("hotel\tspa", 0, '\t'));
+		assertEquals(5, EscapeUtils.indexOfCsvQuote("hotel\nspa", 0, ','));
+	}
+
+	/**
+	 * Tests looking for the characters to escape in TSV
+	 */
+	public void testIndexOfTsvEscape() {
+		assertEquals(-1, EscapeUtils.indexOfTsvEscape("hotel, \"caf\u00e9\"", 0));
+		assertEquals(5, EscapeUtils.indexOfTsvEscape("hotel\tspa\\", 0));
+		assertEquals(9, EscapeUtils.indexOfTsvEscape("hotel\tspa\\", 6));
+		assertEquals('t', EscapeUtils.getTsvEscape('\t'));
+		assertEquals('\\', EscapeUtils.getTsvEscape('\\'));
+		assertEquals(0, EscapeUtils.getTsvEscape('"'));
+		assertEquals(0, EscapeUtils.getTsvEscape('\u00e9'));
+	}
+
+	/**
+	 * Tests looking for the characters to escape in XML
+	 */
+	public void testIndexOfXmlEscape() {
+		assertEquals(-1, EscapeUtils.indexOfXmlEscape("hotel \"spa\"", 0, false));
+		assertEquals(6, EscapeUtils.indexOfXmlEscape("hotel \"spa\"", 0, true));
+		assertEquals(11, EscapeUtils.indexOfXmlEscape("hotel & caf\u00e9", 7, false));
+		assertEquals("&amp;", EscapeUtils.getXmlEscape('&', false));
+		assertNull(EscapeUtils.getXmlEscape('"', false));
+		assertEquals("&quot;", EscapeUtils.getXmlEscape('"', true));
+		assertNull(EscapeUtils.getXmlEscape('\u00e9', true));
 	}
 
 }
@@ -15,8 +15,10 @@
 */
 package org.localmatters.serializer.writer;
 
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.classextension.EasyMock.createMock;
 import static org.easymock.classextension.EasyMock.replay;
 import static org.easymock.classextension.EasyMock.verify;
@@ -31,6 +33,7 @@ import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.easymock.IAnswer;
 import org.localmatters.serializer.SerializationContext;
 import org.localmatters.serializer.resolver.InvalidPropertyException;
 import org.localmatters.serializer.resolver.PropertyResolver;
@@ -71,12 +74,13 @@ public class AbstractWriterTest extends TestCase {
 		SerializationContext ctx = new SerializationContext(writer, null, os);
 		byte[] bytes = "string to write".getBytes();
 
-		os.write(bytes);
+		os.write(isA(byte[].class), eq(0), eq(bytes.length));
 		expectLastCall().andThrow(new IOException());
 
 		replay(os);
 		try {
 			writer.write(ctx, bytes);
+			ctx.flush();
 			fail("IOSerializationException expected");
 		} catch (IOSerializationException e) {
 		}
@@ -90,6 +94,7 @@ public class AbstractWriterTest extends TestCase {
 		OutputStream os = new ByteArrayOutputStream();
 		SerializationContext ctx = new SerializationContext(writer, null, os);
 		writer.write(ctx, "string to write".getBytes());
+		ctx.flush();
 		assertEquals("string to write", os.toString());
 	}
 
@@ -100,9 +105,40 @@ public class AbstractWriterTest extends TestCase {
 		OutputStream os = new ByteArrayOutputStream();
 		SerializationContext ctx = new SerializationContext(writer, null, os);
 		writer.write(ctx, "string to write");
+		ctx.flush();
 		assertEquals("string to write", os.toString());
 	}
 	
+	/**
+	 * Tests that what has been written since the mark is discarded when the 
+	 * element writes nothing 
+	 */
+	public void testSerializeOrRewind() throws Exception {
+		OutputStream os = new ByteArrayOutputStream();
+		final SerializationContext ctx = new SerializationContext(writer, null, os);
+		Serialization empty = createMock(Serialization.class);
+		Serialization element = createMock(Serialization.class);
+		empty.serialize(empty, "empty", "value", ctx);
+		element.serialize(element, "element", "value", ctx);
+		expectLastCall().andAnswer(new IAnswer<Object>() {
+			public Object answer() throws Throwable {
+				writer.write(ctx, "value");
+				return null;
+			}
+		});
+		replay(empty, element);
+		writer.write(ctx, "{");
+		long mark = ctx.getBuffer().mark();
+		writer.write(ctx, "\"empty\": ");
+		assertFalse(AbstractWriter.serializeOrRewind(ctx, mark, empty, "empty", "value"));
+		mark = ctx.getBuffer().mark();
+		writer.write(ctx, "\"element\": ");
+		assertTrue(AbstractWriter.serializeOrRewind(ctx, mark, element, "element", "value"));
+		ctx.flush();
+		verify(empty, element);
+		assertEquals("{\"element\": value", os.toString());
+	}
+	
 	/**
 	 * Tests resolving the map entry's key when the key property is not set
 	 * @throws Exception 
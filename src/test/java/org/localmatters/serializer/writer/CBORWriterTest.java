@@ -0,0 +1,313 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.easymock.classextension.EasyMock.verify;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+import static org.localmatters.serializer.util.SerializationUtils.createValue;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>CBORWriter</code>
+ */
+public class CBORWriterTest extends TestCase {
+	private CBORWriter writer;
+	private SerializationContext ctx;
+	private ByteArrayOutputStream os;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		writer = new CBORWriter();
+		os = new ByteArrayOutputStream();
+		ctx = new SerializationContext(writer, null, os);
+	}
+
+	/**
+	 * @return The output written so far, in hexadecimal
+	 */
+	private String getOutput() throws Exception {
+		ctx.flush();
+		StringBuilder hex = new StringBuilder();
+		for (byte b : os.toByteArray()) {
+			hex.append(String.format("%02X", b & 0xFF));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @param str An ASCII string
+	 * @return The string in hexadecimal
+	 */
+	private static String hex(String str) {
+		StringBuilder hex = new StringBuilder();
+		for (int i=0; i<str.length(); i++) {
+			hex.append(String.format("%02X", (int) str.charAt(i)));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Tests the root serialization
+	 */
+	public void testRoot() throws Exception {
+		Serialization ser = createValue("listing");
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		assertEquals("A167" + hex("listing") + "6B" + hex("12345 Hotel"), getOutput());
+		assertEquals(StringUtils.EMPTY, ctx.getPath());
+	}
+
+	/**
+	 * Tests the root serialization when named complex
+	 */
+	public void testRootWhenNamedComplex() throws Exception {
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createConstantAttribute("id", 123456));
+		complex.addElement(createConstantAttribute("name", "12345 Hotel"));
+		complex.addElement(createConstantAttribute("empty", null));
+		writer.writeRoot(createName("listing", complex), null, ctx);
+		assertEquals("A262" + hex("id") + "1A0001E240" + "64" + hex("name") + "6B" + hex("12345 Hotel"), getOutput());
+	}
+
+	/**
+	 * Tests the root serialization when list
+	 */
+	public void testRootWhenList() throws Exception {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		writer.writeRoot(ser, Arrays.asList("hello", null, "world"), ctx);
+		assertEquals("8265" + hex("hello") + "65" + hex("world"), getOutput());
+	}
+
+	/**
+	 * Tests the root serialization when the list is too long for a 
+	 * definite-length header
+	 */
+	public void testRootWhenLongList() throws Exception {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		List<Integer> list = new ArrayList<Integer>();
+		StringBuilder expected = new StringBuilder("9F");
+		for (int i=0; i<24; i++) {
+			list.add(i);
+			expected.append(String.format("%02X", i));
+		}
+		writer.writeRoot(ser, list, ctx);
+		assertEquals(expected.append("FF").toString(), getOutput());
+	}
+
+	/**
+	 * Tests that a list larger than the spill threshold is written to a 
+	 * channel as it goes, the header of the root list being written before 
+	 * its end is known
+	 */
+	public void testRootWhenLargeListAndChannel() throws Exception {
+		final List<Integer> sizes = new ArrayList<Integer>();
+		ctx.setChannel(Channels.newChannel(os));
+		ctx.getBuffer().setSpillThreshold(64);
+		IteratorSerialization items = new IteratorSerialization();
+		items.setElement(new ValueSerialization() {
+			@Override
+			public void serialize(Serialization ser, String name, Object obj, SerializationContext ctx) throws SerializationException {
+				sizes.add(os.size());
+				super.serialize(ser, name, obj, ctx);
+			}
+		});
+		ComplexSerialization ser = new ComplexSerialization();
+		ser.addElement(createName("items", items));
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i=0; i<100; i++) {
+			list.add(1000);
+		}
+		writer.writeRoot(ser, list, ctx);
+		assertTrue(sizes.get(sizes.size() - 1) > 0);
+		// the headers have been spilled before the number of entries was 
+		// known, so both the root map and the list are closed by a break
+		StringBuilder expected = new StringBuilder("BF65" + hex("items") + "9F");
+		for (int i=0; i<100; i++) {
+			expected.append("1903E8");
+		}
+		assertEquals(expected.append("FFFF").toString(), getOutput());
+	}
+
+	/**
+	 * Tests the root serialization when empty
+	 */
+	public void testRootWhenEmpty() throws Exception {
+		writer.setStringReferences(true);
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		writer.writeRoot(ser, Arrays.asList(null, ""), ctx);
+		assertEquals("", getOutput());
+	}
+
+	/**
+	 * Tests that the output cannot be written as characters
+	 */
+	public void testRootWithAppendable() throws Exception {
+		try {
+			ctx.setAppendable(new StringBuilder());
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests serializing integers
+	 */
+	public void testValueWhenInteger() throws Exception {
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		replay(ser);
+		writer.writeValue(ser, null, 0, ctx);
+		writer.writeValue(ser, null, 23, ctx);
+		writer.writeValue(ser, null, (short) 24, ctx);
+		writer.writeValue(ser, null, -1, ctx);
+		writer.writeValue(ser, null, (byte) -25, ctx);
+		writer.writeValue(ser, null, 1000, ctx);
+		writer.writeValue(ser, null, Long.MIN_VALUE, ctx);
+		writer.writeValue(ser, null, new BigInteger("18446744073709551615"), ctx);
+		writer.writeValue(ser, null, new BigInteger("18446744073709551616"), ctx);
+		writer.writeValue(ser, null, new BigInteger("-18446744073709551617"), ctx);
+		verify(ser);
+		assertEquals("00" + "17" + "1818" + "20" + "3818" + "1903E8" + "3B7FFFFFFFFFFFFFFF" 
+				+ "1BFFFFFFFFFFFFFFFF" + "C249010000000000000000" + "C349010000000000000000", getOutput());
+	}
+
+	/**
+	 * Tests serializing floating point numbers and decimals
+	 */
+	public void testValueWhenDecimal() throws Exception {
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		replay(ser);
+		writer.writeValue(ser, null, 1.5d, ctx);
+		writer.writeValue(ser, null, -0.0f, ctx);
+		writer.writeValue(ser, null, 100000f, ctx);
+		writer.writeValue(ser, null, 0.1d, ctx);
+		writer.writeValue(ser, null, Double.NaN, ctx);
+		writer.writeValue(ser, null, new BigDecimal("12.5"), ctx);
+		verify(ser);
+		assertEquals("F93E00" + "F98000" + "FA47C35000" + "FB3FB999999999999A" + "F97E00" + "C48220187D", getOutput());
+	}
+
+	/**
+	 * Tests serializing booleans, bytes and nulls
+	 */
+	public void testValueWhenOther() throws Exception {
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		expect(ser.isWriteEmpty()).andReturn(true).times(2);
+		replay(ser);
+		writer.writeValue(ser, "sold", true, ctx);
+		writer.writeValue(ser, null, new byte[]{1, 2}, ctx);
+		writer.writeValue(ser, null, null, ctx);
+		writer.writeValue(ser, null, "", ctx);
+		verify(ser);
+		assertEquals("64" + hex("sold") + "F5" + "420102" + "F6" + "F6", getOutput());
+		assertEquals(StringUtils.EMPTY, ctx.getPath());
+	}
+
+	/**
+	 * Tests serializing a non ASCII string
+	 */
+	public void testValueWhenUnicode() throws Exception {
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		replay(ser);
+		writer.writeValue(ser, null, "caf\u00e9 \ud83d\ude00", ctx);
+		verify(ser);
+		assertEquals("6A" + hex("caf") + "C3A920F09F9880", getOutput());
+	}
+
+	/**
+	 * Tests the string references
+	 */
+	public void testStringReferences() throws Exception {
+		writer.setStringReferences(true);
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		writer.writeRoot(ser, Arrays.asList("hello", "hi", "hello", "hi"), ctx);
+		assertEquals("D9010084" + "65" + hex("hello") + "62" + hex("hi") + "D81900" + "62" + hex("hi"), getOutput());
+		assertNull(ctx.getWriterState());
+	}
+
+	/**
+	 * Tests that the strings of an empty complex are forgotten when it is
+	 * discarded
+	 */
+	public void testStringReferencesWhenEmpty() throws Exception {
+		writer.setStringReferences(true);
+		ComplexSerialization empty = new ComplexSerialization();
+		empty.addElement(createConstantAttribute("none", null));
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createName("address", empty));
+		complex.addElement(createConstantAttribute("name", "address"));
+		writer.writeRoot(complex, null, ctx);
+		assertEquals("D90100A1" + "64" + hex("name") + "67" + hex("address"), getOutput());
+	}
+
+	/**
+	 * Tests the table of the string references
+	 */
+	public void testStringReferencesTable() {
+		CBORWriter.StringReferences references = new CBORWriter.StringReferences();
+		references.add("hi", 2);
+		references.add("hello", 5);
+		references.add(null, 3);
+		references.add("world", 5);
+		assertEquals(3, references.size());
+		assertEquals(-1, references.indexOf("hi"));
+		assertEquals(0, references.indexOf("hello"));
+		assertEquals(2, references.indexOf("world"));
+		references.truncate(1);
+		assertEquals(1, references.size());
+		assertEquals(-1, references.indexOf("world"));
+	}
+
+	/**
+	 * Tests the conversion to half-precision floats
+	 */
+	public void testToHalf() {
+		assertEquals(0x3C00, CBORWriter.toHalf(1f));
+		assertEquals(0x7BFF, CBORWriter.toHalf(65504f));
+		assertEquals(0x0001, CBORWriter.toHalf(5.9604645E-8f));
+		assertEquals(0x0400, CBORWriter.toHalf(6.1035156E-5f));
+		assertEquals(0xFC00, CBORWriter.toHalf(Float.NEGATIVE_INFINITY));
+		assertEquals(-1, CBORWriter.toHalf(65536f));
+		assertEquals(-1, CBORWriter.toHalf(0.1f));
+		assertEquals(-1, CBORWriter.toHalf(1e-10f));
+	}
+}
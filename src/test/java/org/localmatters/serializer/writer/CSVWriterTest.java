@@ -0,0 +1,183 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import static org.localmatters.serializer.util.SerializationUtils.createComplex;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.config.ConfigurationException;
+import org.localmatters.serializer.resolver.BeanUtilsPropertyResolver;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.FlatElementExpectedException;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.ReferenceSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>CSVWriter</code>
+ */
+public class CSVWriterTest extends TestCase {
+	private CSVWriter writer;
+	private SerializationContext ctx;
+	private ByteArrayOutputStream os;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		writer = new CSVWriter();
+		os = new ByteArrayOutputStream();
+		ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), os);
+	}
+
+	/**
+	 * Creates a property serialization
+	 * @param property The property
+	 * @param delegate The delegate
+	 * @return The property serialization
+	 */
+	private static PropertySerialization createProperty(String property, Serialization delegate) {
+		PropertySerialization ser = new PropertySerialization();
+		ser.setProperty(property);
+		ser.setDelegate(delegate);
+		return ser;
+	}
+
+	/**
+	 * @return A list of listings with nested addresses
+	 */
+	private static IteratorSerialization createListings() {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(createComplex("listing", 
+				createConstantAttribute("type", "hotel"),
+				createProperty("name", new ValueSerialization()),
+				createProperty("address", createComplex(
+						createProperty("city", new ValueSerialization()),
+						createProperty("zip", new ValueSerialization()))),
+				createProperty("rating", new ValueSerialization())));
+		return ser;
+	}
+
+	/**
+	 * @return The listings to serialize
+	 */
+	private static Object[] getListings() {
+		Map<String, Object> address = new HashMap<String, Object>();
+		address.put("city", "Paris");
+		address.put("zip", 75001);
+		Map<String, Object> listing1 = new HashMap<String, Object>();
+		listing1.put("name", "12345 \"Hotel\", spa");
+		listing1.put("address", address);
+		listing1.put("rating", 4.5);
+		Map<String, Object> listing2 = new HashMap<String, Object>();
+		listing2.put("name", "Inn\tof the\nlake");
+		return new Object[]{listing1, listing2};
+	}
+
+	/**
+	 * Tests the root serialization when it is a list, as CSV
+	 */
+	public void testRootWhenList() throws Exception {
+		writer.writeRoot(createListings(), getListings(), ctx);
+		assertEquals("type,name,address.city,address.zip,rating\r\n" +
+				"hotel,\"12345 \"\"Hotel\"\", spa\",Paris,75001,4.5\r\n" +
+				"hotel,\"Inn\tof the\nlake\",,,\r\n", os.toString("UTF-8"));
+		assertEquals(StringUtils.EMPTY, ctx.getPath());
+		assertNull(ctx.getWriterState());
+	}
+
+	/**
+	 * Tests the root serialization when it is a list, as TSV without header
+	 */
+	public void testRootWhenListAsTsv() throws Exception {
+		writer = new CSVWriter(CSVWriter.Format.TSV);
+		writer.setHeader(false);
+		assertEquals(CSVWriter.Format.TSV, writer.getFormat());
+		assertFalse(writer.isHeader());
+		ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), os);
+		writer.writeRoot(createListings(), getListings(), ctx);
+		assertEquals("hotel\t12345 \"Hotel\", spa\tParis\t75001\t4.5\n" +
+				"hotel\tInn\\tof the\\nlake\t\t\t\n", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests the root serialization when it is a list of values, where the
+	 * empty elements are skipped
+	 */
+	public void testRootWhenListOfValues() throws Exception {
+		IteratorSerialization list = new IteratorSerialization();
+		list.setElement(createProperty("name", new ValueSerialization()));
+		Map<String, Object> sport = new HashMap<String, Object>();
+		sport.put("name", "baseball");
+		writer.writeRoot(createName("sports", list), Arrays.asList(sport, new HashMap<String, Object>(), sport), ctx);
+		assertEquals("name\r\nbaseball\r\nbaseball\r\n", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests the root serialization when it is not a list
+	 */
+	public void testRootWhenComplex() throws Exception {
+		writer.writeRoot(createListings().getElement(), getListings()[0], ctx);
+		assertEquals("type,name,address.city,address.zip,rating\r\n" +
+				"hotel,\"12345 \"\"Hotel\"\", spa\",Paris,75001,4.5\r\n", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests the root serialization when a record contains a list
+	 */
+	public void testRootWhenNestedList() throws Exception {
+		IteratorSerialization tags = new IteratorSerialization();
+		tags.setElement(new ValueSerialization());
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(createComplex("listing", createName("tags", tags)));
+		try {
+			writer.writeRoot(ser, Arrays.asList(Arrays.asList("a", "b")), ctx);
+			fail("FlatElementExpectedException expected");
+		} catch (FlatElementExpectedException e) {
+			assertEquals("record.complex.tags is a list or a map within a record, which cannot be written as flat columns!", e.getMessage());
+		}
+	}
+
+	/**
+	 * Tests the root serialization when a record contains itself
+	 */
+	public void testRootWhenRecursive() throws Exception {
+		ComplexSerialization complex = new ComplexSerialization();
+		ReferenceSerialization reference = new ReferenceSerialization();
+		reference.setReferenced(complex);
+		complex.addElement(createName("parent", reference));
+		try {
+			writer.writeRoot(complex, null, ctx);
+			fail("ConfigurationException expected");
+		} catch (ConfigurationException e) {
+			assertEquals(String.format(CSVWriter.RECURSIVE_ELEMENT_FORMAT, "parent"), e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>ChannelOutputBuffer</code>
+ */
+public class ChannelOutputBufferTest extends TestCase {
+
+	/**
+	 * Tests writing to a channel
+	 */
+	public void testWriteToChannel() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ChannelOutputBuffer buffer = new ChannelOutputBuffer(Channels.newChannel(os), null);
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write("hello");
+		buffer.write(" world");
+		assertEquals("hello", os.toString());
+		buffer.flush();
+		assertEquals("hello world", os.toString());
+	}
+
+	/**
+	 * Tests writing to a direct byte buffer
+	 */
+	public void testWriteToByteBuffer() throws Exception {
+		ByteBuffer bb = ByteBuffer.allocateDirect(32);
+		ChannelOutputBuffer buffer = new ChannelOutputBuffer(null, bb);
+		buffer.write("café");
+		buffer.writeLong(42);
+		buffer.flush();
+		bb.flip();
+		byte[] bytes = new byte[bb.remaining()];
+		bb.get(bytes);
+		assertEquals("café42", new String(bytes, "UTF-8"));
+	}
+
+	/**
+	 * Tests writing to a byte buffer that is too small
+	 */
+	public void testWriteToByteBufferWhenFull() throws Exception {
+		ChannelOutputBuffer buffer = new ChannelOutputBuffer(null, ByteBuffer.allocate(4));
+		buffer.write("hello world");
+		try {
+			buffer.flush();
+			fail("IOException expected");
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Tests writing an output larger than the byte buffer through a drain
+	 */
+	public void testWriteToByteBufferWhenDrain() throws Exception {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final List<Integer> drained = new ArrayList<Integer>();
+		ChannelOutputBuffer buffer = new ChannelOutputBuffer(null, ByteBuffer.allocateDirect(4));
+		buffer.setDrain(new ByteBufferDrain() {
+			public void drain(ByteBuffer byteBuffer) {
+				// leaves a byte unread when the byte buffer is full
+				int n = Math.min(byteBuffer.remaining(), 3);
+				drained.add(n);
+				for (int i=0; i<n; i++) {
+					os.write(byteBuffer.get());
+				}
+			}
+		});
+		buffer.write("hello world");
+		buffer.flush();
+		assertEquals("hello world", os.toString());
+		assertEquals(Arrays.asList(3, 3, 3, 2), drained);
+	}
+
+	/**
+	 * Tests writing to a byte buffer through a drain that does not consume 
+	 * anything
+	 */
+	public void testWriteToByteBufferWhenNotDrained() throws Exception {
+		ChannelOutputBuffer buffer = new ChannelOutputBuffer(null, ByteBuffer.allocate(4));
+		buffer.setDrain(new ByteBufferDrain() {
+			public void drain(ByteBuffer byteBuffer) {
+			}
+		});
+		buffer.write("hello world");
+		try {
+			buffer.flush();
+			fail("IOException expected");
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Tests serializing to a byte buffer with a drain through the context
+	 */
+	public void testContextWhenDrain() throws Exception {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		JSONWriter writer = new JSONWriter();
+		SerializationContext ctx = new SerializationContext(writer, null, null);
+		ctx.setByteBuffer(ByteBuffer.allocate(4), new ByteBufferDrain() {
+			public void drain(ByteBuffer byteBuffer) {
+				while (byteBuffer.hasRemaining()) {
+					os.write(byteBuffer.get());
+				}
+			}
+		});
+		writer.writeValue(new ValueSerialization(), "name", "value", ctx);
+		ctx.flush();
+		assertEquals("\"name\": \"value\"", os.toString());
+	}
+
+	/**
+	 * Tests staging the output in a byte buffer before writing it to a 
+	 * gathering channel
+	 */
+	public void testWriteToByteBufferAndChannel() throws Exception {
+		GatheringChannel channel = new GatheringChannel();
+		ChannelOutputBuffer buffer = new ChannelOutputBuffer(channel, ByteBuffer.allocateDirect(8));
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(6);
+		buffer.write("hello");
+		buffer.write(" big");
+		assertEquals(0, channel.os.size());
+		buffer.write(" world");
+		assertEquals("hello big", channel.os.toString());
+		assertEquals(1, channel.gathered);
+		buffer.write("!");
+		buffer.flush();
+		assertEquals("hello big world!", channel.os.toString());
+	}
+
+	/**
+	 * Tests serializing to a channel through the context
+	 */
+	public void testContext() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		JSONWriter writer = new JSONWriter();
+		SerializationContext ctx = new SerializationContext(writer, null, null);
+		ctx.setChannel(Channels.newChannel(os));
+		assertNotNull(ctx.getChannel());
+		assertNull(ctx.getByteBuffer());
+		writer.writeValue(new ValueSerialization(), "name", "value", ctx);
+		ctx.flush();
+		assertEquals("\"name\": \"value\"", os.toString());
+	}
+
+	/**
+	 * Gathering channel writing into a byte array output stream
+	 */
+	private static class GatheringChannel implements GatheringByteChannel {
+		private ByteArrayOutputStream os = new ByteArrayOutputStream();
+		private int gathered;
+
+		/**
+		 * @see java.nio.channels.GatheringByteChannel#write(java.nio.ByteBuffer[], int, int)
+		 */
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			gathered++;
+			long written = 0;
+			for (int i=offset; i<offset+length; i++) {
+				written += write(srcs[i]);
+			}
+			return written;
+		}
+
+		/**
+		 * @see java.nio.channels.GatheringByteChannel#write(java.nio.ByteBuffer[])
+		 */
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+
+		/**
+		 * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+		 */
+		public int write(ByteBuffer src) throws IOException {
+			int len = src.remaining();
+			while (src.hasRemaining()) {
+				os.write(src.get());
+			}
+			return len;
+		}
+
+		/**
+		 * @see java.nio.channels.Channel#isOpen()
+		 */
+		public boolean isOpen() {
+			return true;
+		}
+
+		/**
+		 * @see java.nio.channels.Channel#close()
+		 */
+		public void close() throws IOException {
+		}
+	}
+}
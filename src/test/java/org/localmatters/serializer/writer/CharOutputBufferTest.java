@@ -0,0 +1,113 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the <code>CharOutputBuffer</code>
+ */
+public class CharOutputBufferTest extends TestCase {
+	private CharOutputBuffer buffer;
+	private StringBuilder sb;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		sb = new StringBuilder();
+		buffer = new CharOutputBuffer(sb);
+	}
+
+	/**
+	 * Tests writing bytes, characters and strings
+	 */
+	public void testWrite() throws Exception {
+		buffer.write("<name>".getBytes());
+		buffer.write("hotel & caf\u00e9 \ud83c\udf7a");
+		buffer.write('!');
+		buffer.write(" \u00e9t\u00e9".getBytes("UTF-8"));
+		assertEquals(0, sb.length());
+		buffer.flush();
+		assertEquals("<name>hotel & caf\u00e9 \ud83c\udf7a! \u00e9t\u00e9", sb.toString());
+	}
+
+	/**
+	 * Tests writing escaped strings
+	 */
+	public void testWriteEscaped() throws Exception {
+		buffer.writeJson("\"caf\u00e9\"\n");
+		buffer.write(' ');
+		buffer.writeXml("<caf\u00e9 \ud83c\udf7a>", false);
+		buffer.flush();
+		assertEquals("\\\"caf\u00e9\\\"\\n &lt;caf&#233; &#127866;&gt;", sb.toString());
+	}
+
+	/**
+	 * Tests writing numbers
+	 */
+	public void testWriteNumbers() throws Exception {
+		buffer.writeLong(-9876543210L);
+		buffer.write(' ');
+		buffer.writeLong(Long.MIN_VALUE);
+		buffer.write(' ');
+		buffer.writeDouble(-12.5);
+		buffer.write(' ');
+		buffer.writeDouble(0.001);
+		buffer.write(' ');
+		buffer.writeDouble(1e7);
+		buffer.write(' ');
+		buffer.writeFloat(0.1f);
+		buffer.flush();
+		assertEquals("-9876543210 -9223372036854775808 -12.5 0.001 1.0E7 0.1", sb.toString());
+	}
+
+	/**
+	 * Tests the marks and the spilling to a <code>java.io.Writer</code>
+	 */
+	public void testSpillAndRewind() throws Exception {
+		StringWriter writer = new StringWriter();
+		buffer.setAppendable(writer);
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write("hello");
+		long mark = buffer.mark();
+		buffer.write(" big");
+		buffer.write(" world");
+		assertEquals("hello", writer.toString());
+		buffer.rewind(mark);
+		buffer.write(" world");
+		buffer.flush();
+		assertEquals("hello world", writer.toString());
+	}
+
+	/**
+	 * Tests writing to any other <code>Appendable</code>
+	 */
+	public void testWriteToAppendable() throws Exception {
+		CharBuffer chars = CharBuffer.allocate(16);
+		buffer.setAppendable(chars);
+		buffer.write("hello world");
+		buffer.flush();
+		chars.flip();
+		assertEquals("hello world", chars.toString());
+	}
+}
@@ -0,0 +1,184 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.resolver.BeanUtilsPropertyResolver;
+import org.localmatters.serializer.serialization.AbstractSerialization;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.MapSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>CompactJSONWriter</code>
+ */
+public class CompactJSONWriterTest extends TestCase {
+	private Serialization ser;
+	private Map<String, Object> root;
+	private boolean minimal;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createConstantValue("type", "hotel"));
+		complex.addElement(createProperty("name", new ValueSerialization(), false));
+		complex.addElement(createProperty("empty", new ValueSerialization(), true));
+		complex.addElement(createProperty("missing", new ValueSerialization(), true));
+		complex.addElement(createProperty("rating", new ValueSerialization(), false));
+		complex.addElement(createProperty("price", new ValueSerialization(), false));
+		complex.addElement(createProperty("open", new ValueSerialization(), false));
+		IteratorSerialization tags = new IteratorSerialization();
+		tags.setElement(new ValueSerialization());
+		complex.addElement(createProperty("tags", tags, false));
+		MapSerialization hours = new MapSerialization();
+		hours.setValue(new ValueSerialization());
+		complex.addElement(createProperty("hours", hours, false));
+		ser = createName("listing", complex);
+
+		Map<String, String> days = new LinkedHashMap<String, String>();
+		days.put("monday", "9-5");
+		days.put("sunday", null);
+		root = new LinkedHashMap<String, Object>();
+		root.put("name", "Joe's \"Hotel\"");
+		root.put("empty", "");
+		root.put("rating", 4);
+		root.put("price", new BigDecimal("99.90"));
+		root.put("open", Boolean.TRUE);
+		root.put("tags", Arrays.asList("pool", null, "spa"));
+		root.put("hours", days);
+	}
+
+	/**
+	 * Creates a property serialization
+	 * @param property The property
+	 * @param delegate The serialization of the property value
+	 * @param writeEmpty Whether to write the value when empty
+	 * @return The property serialization
+	 */
+	private static Serialization createProperty(String property, AbstractSerialization delegate, boolean writeEmpty) {
+		delegate.setWriteEmpty(writeEmpty);
+		PropertySerialization ser = new PropertySerialization();
+		ser.setProperty(property);
+		ser.setDelegate(delegate);
+		return ser;
+	}
+
+	/**
+	 * Serializes the root with the given writer
+	 * @param writer The writer
+	 * @param formatting Whether the context is formatting
+	 * @return The output
+	 */
+	private String serialize(Writer writer, boolean formatting) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SerializationContext ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), os);
+		ctx.setFormatting(formatting);
+		ctx.setMinimal(minimal);
+		writer.writeRoot(ser, root, ctx);
+		return os.toString("UTF-8");
+	}
+
+	/**
+	 * Tests that the output is the same as the compact output of the 
+	 * <code>JSONWriter</code>
+	 */
+	public void testRoot() throws Exception {
+		String expected = serialize(new JSONWriter(), false);
+		assertEquals("{\"type\": \"hotel\", \"name\": \"Joe's \\\"Hotel\\\"\", \"empty\": null, \"missing\": null, " +
+				"\"rating\": 4, \"price\": \"99.90\", \"open\": true, \"tags\": [\"pool\", \"spa\"], " +
+				"\"hours\": {\"monday\": \"9-5\"}}", expected);
+		assertEquals(expected, serialize(new CompactJSONWriter(), false));
+	}
+
+	/**
+	 * Tests that the output is not formatted even when the context is
+	 */
+	public void testRootWhenFormatting() throws Exception {
+		assertEquals(serialize(new JSONWriter(), false), serialize(new CompactJSONWriter(), true));
+	}
+
+	/**
+	 * Tests that the output is the same as the minimal output of the 
+	 * <code>JSONWriter</code>
+	 */
+	public void testRootWhenMinimal() throws Exception {
+		minimal = true;
+		String expected = serialize(new JSONWriter(), false);
+		assertEquals("{\"type\":\"hotel\",\"name\":\"Joe's \\\"Hotel\\\"\",\"rating\":4,\"price\":\"99.90\"," +
+				"\"open\":true,\"tags\":[\"pool\",\"spa\"],\"hours\":{\"monday\":\"9-5\"}}", expected);
+		assertEquals(expected, serialize(new CompactJSONWriter(), false));
+	}
+
+	/**
+	 * Tests that the output of a columnar list, whose rows are written 
+	 * without keys, is the same as the one of the <code>JSONWriter</code>
+	 */
+	public void testRootWhenColumnar() throws Exception {
+		IteratorSerialization listings = new IteratorSerialization();
+		listings.setColumnar(true);
+		listings.setElement(ser);
+		ser = createName("listings", listings);
+		List<Object> list = Arrays.<Object>asList(root, root);
+		String expected = serializeList(new JSONWriter(), list);
+		assertTrue(expected.contains("\"rows\": [[\"hotel\", \"Joe's \\\"Hotel\\\"\", null, null, 4, "));
+		assertEquals(expected, serializeList(new CompactJSONWriter(), list));
+		minimal = true;
+		assertEquals(serializeList(new JSONWriter(), list), serializeList(new CompactJSONWriter(), list));
+	}
+
+	/**
+	 * Serializes the given list with the given writer
+	 * @param writer The writer
+	 * @param list The list
+	 * @return The output
+	 */
+	private String serializeList(Writer writer, List<Object> list) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SerializationContext ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), os);
+		ctx.setMinimal(minimal);
+		writer.writeRoot(ser, list, ctx);
+		return os.toString("UTF-8");
+	}
+
+	/**
+	 * Tests that there is never any prefix
+	 */
+	public void testGettingPrefix() {
+		SerializationContext ctx = new SerializationContext(new CompactJSONWriter(), null, null);
+		ctx.setFormatting(true);
+		ctx.nextLevel("listing");
+		assertSame(AbstractWriter.NO_PREFIX, new CompactJSONWriter().getPrefix(ctx));
+	}
+}
@@ -0,0 +1,71 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import static org.localmatters.serializer.util.SerializationUtils.createComplex;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+import static org.localmatters.serializer.util.SerializationUtils.createValue;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+
+
+/**
+ * Tests the <code>CompressionDictionary</code>
+ */
+public class CompressionDictionaryTest extends TestCase {
+	private Serialization root;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		Serialization address = createComplex("address", createValue("city"), createValue("zip"));
+		IteratorSerialization iterator = new IteratorSerialization();
+		iterator.setElement(createComplex("listing", createConstantAttribute("type", "hotel"), createValue("name"), address));
+		root = createComplex("results", createValue("name"), createName("listings", iterator));
+	}
+
+	/**
+	 * Tests building a JSON dictionary
+	 */
+	public void testBuildForJson() throws Exception {
+		String dictionary = new String(CompressionDictionary.build(root, false), "UTF-8");
+		assertTrue(dictionary, dictionary.contains("\"results\": "));
+		assertTrue(dictionary, dictionary.contains("\"listing\": "));
+		assertTrue(dictionary, dictionary.contains("\"city\": "));
+		assertTrue(dictionary, dictionary.contains("\"type\": "));
+		assertTrue(dictionary, dictionary.contains("hotel"));
+		// the most used name is at the end
+		assertTrue(dictionary, dictionary.endsWith("\"name\": "));
+	}
+
+	/**
+	 * Tests building an XML dictionary
+	 */
+	public void testBuildForXml() throws Exception {
+		String dictionary = new String(CompressionDictionary.build(root, true), "UTF-8");
+		assertTrue(dictionary, dictionary.contains("<city>"));
+		assertTrue(dictionary, dictionary.contains("</city>"));
+		assertTrue(dictionary, dictionary.contains(" type=\""));
+		assertFalse(dictionary, dictionary.contains("<type>"));
+		assertTrue(dictionary, dictionary.endsWith("</name>"));
+	}
+}
@@ -0,0 +1,274 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.IteratorExpectedException;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>Compression</code> applied by the output buffers
+ */
+public class CompressionTest extends TestCase {
+	private static final String TEXT = "{\"listing\": {\"name\": \"12345 Hotel\", \"city\": \"Denver\"}}";
+	private ByteArrayOutputStream os;
+	private OutputBuffer buffer;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		os = new ByteArrayOutputStream();
+		buffer = new OutputBuffer(os);
+	}
+
+	/**
+	 * Inflates the given bytes
+	 * @param bytes The bytes to inflate
+	 * @param nowrap Whether the bytes are raw deflate or zlib
+	 * @param dictionary The preset dictionary
+	 * @return The inflated string
+	 */
+	private static String inflate(byte[] bytes, boolean nowrap, byte[] dictionary) throws Exception {
+		Inflater inflater = new Inflater(nowrap);
+		if (nowrap && (dictionary != null)) {
+			inflater.setDictionary(dictionary);
+		}
+		inflater.setInput(bytes);
+		byte[] result = new byte[1024];
+		int n = inflater.inflate(result);
+		if (inflater.needsDictionary()) {
+			inflater.setDictionary(dictionary);
+			n = inflater.inflate(result);
+		}
+		assertTrue(inflater.finished());
+		inflater.end();
+		return new String(result, 0, n, "UTF-8");
+	}
+
+	/**
+	 * Tests the gzip compression, across several spills and flushes
+	 */
+	public void testGzip() throws Exception {
+		buffer.setCompression(new Compression(Compression.Format.GZIP, Deflater.BEST_SPEED));
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write(TEXT);
+		buffer.flush();
+		buffer.write(TEXT);
+		buffer.flush();
+		// the two flushes produce two gzip members
+		GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(TEXT + TEXT, IOUtils.toString(is, "UTF-8"));
+	}
+
+	/**
+	 * Tests that the gzip output flushed before the end of the document can 
+	 * be decompressed as a whole
+	 */
+	public void testGzipWhenFlushAvailable() throws Exception {
+		buffer.setCompression(new Compression(Compression.Format.GZIP, Deflater.BEST_SPEED));
+		buffer.write(TEXT);
+		buffer.flushAvailable();
+		int flushed = os.size();
+		assertTrue(flushed > 0);
+		buffer.write(TEXT);
+		buffer.flushAvailable();
+		assertTrue(os.size() > flushed);
+		buffer.write(TEXT);
+		buffer.flush();
+		GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals(TEXT + TEXT + TEXT, IOUtils.toString(is, "UTF-8"));
+	}
+
+	/**
+	 * Tests that every flush of the gzip output starts a new member, whose
+	 * compression window starts empty
+	 */
+	public void testGzipWhenFlushAvailableCost() throws Exception {
+		buffer.setCompression(new Compression(Compression.Format.GZIP, Deflater.BEST_COMPRESSION));
+		for (int i=0; i<10; i++) {
+			buffer.write(TEXT);
+		}
+		buffer.flush();
+		int single = os.size();
+		os.reset();
+		for (int i=0; i<10; i++) {
+			buffer.write(TEXT);
+			buffer.flushAvailable();
+		}
+		buffer.flush();
+		assertTrue(os.size() > 5 * single);
+	}
+
+	/**
+	 * Tests that flushing the zlib and raw deflate outputs before the end of
+	 * the document does not end their stream
+	 */
+	public void testFlushAvailableWhenNotGzip() throws Exception {
+		byte[] dictionary = "\"listing\": \"name\": \"city\": ".getBytes();
+		for (Compression.Format format : Arrays.asList(Compression.Format.ZLIB, Compression.Format.DEFLATE)) {
+			os.reset();
+			buffer.setCompression(new Compression(format, Deflater.DEFAULT_COMPRESSION, dictionary));
+			buffer.write(TEXT);
+			buffer.flushAvailable();
+			buffer.write(TEXT);
+			buffer.flushAvailable();
+			buffer.flush();
+			assertEquals(TEXT + TEXT, inflate(os.toByteArray(), format == Compression.Format.DEFLATE, dictionary));
+		}
+	}
+
+	/**
+	 * Tests the raw deflate compression with a preset dictionary
+	 */
+	public void testDeflateWithDictionary() throws Exception {
+		byte[] dictionary = "\"listing\": \"name\": \"city\": ".getBytes();
+		buffer.setCompression(new Compression(Compression.Format.DEFLATE, Deflater.BEST_COMPRESSION, dictionary));
+		buffer.write(TEXT);
+		buffer.flush();
+		byte[] withDictionary = os.toByteArray();
+		assertEquals(TEXT, inflate(withDictionary, true, dictionary));
+
+		os.reset();
+		buffer.setCompression(new Compression(Compression.Format.DEFLATE, Deflater.BEST_COMPRESSION));
+		buffer.write(TEXT);
+		buffer.flush();
+		assertTrue(withDictionary.length < os.size());
+	}
+
+	/**
+	 * Tests the zlib compression with a preset dictionary
+	 */
+	public void testZlibWithDictionary() throws Exception {
+		byte[] dictionary = "\"listing\": \"name\": \"city\": ".getBytes();
+		buffer.setCompression(new Compression(Compression.Format.ZLIB, Deflater.DEFAULT_COMPRESSION, dictionary));
+		buffer.write(TEXT);
+		buffer.flush();
+		assertEquals(TEXT, inflate(os.toByteArray(), false, dictionary));
+	}
+
+	/**
+	 * Tests that nothing is written when the buffer is flushed empty
+	 */
+	public void testFlushWhenEmpty() throws Exception {
+		buffer.setCompression(new Compression(Compression.Format.GZIP, Deflater.DEFAULT_COMPRESSION));
+		buffer.flush();
+		assertEquals(0, os.size());
+	}
+
+	/**
+	 * Tests the invalid compressions
+	 */
+	public void testInvalid() {
+		try {
+			new Compression(Compression.Format.GZIP, Deflater.DEFAULT_COMPRESSION, new byte[1]);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new Compression(Compression.Format.DEFLATE, 10);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new CharOutputBuffer(new StringBuilder()).setCompression(new Compression(Compression.Format.GZIP, 1));
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests that the compression and the output as characters are rejected
+	 * together when the context is configured
+	 */
+	public void testContextWhenAppendable() throws Exception {
+		SerializationContext ctx = new SerializationContext(new JSONWriter(), null, os);
+		ctx.setCompression(new Compression(Compression.Format.GZIP, 1));
+		try {
+			ctx.setAppendable(new StringBuilder());
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+		ctx.setCompression(null);
+		ctx.setAppendable(new StringBuilder());
+		try {
+			ctx.setCompression(new Compression(Compression.Format.GZIP, 1));
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests that the compression is kept when the sink of the context changes
+	 */
+	public void testContext() throws Exception {
+		Compression compression = new Compression(Compression.Format.GZIP, 1);
+		SerializationContext ctx = new SerializationContext(null, null, os);
+		ctx.setCompression(compression);
+		ctx.setByteBuffer(java.nio.ByteBuffer.allocate(16));
+		assertSame(compression, ctx.getCompression());
+	}
+
+	/**
+	 * Tests that the buffer is returned to the pool and the compressed stream
+	 * ended when the writing of a document fails, so that the next document 
+	 * starts a new stream
+	 */
+	public void testContextWhenWritingFails() throws Exception {
+		Serialization failing = new ValueSerialization() {
+			@Override
+			public void serialize(Serialization ser, String name, Object obj, SerializationContext ctx) throws SerializationException {
+				for (int i=0; i<10; i++) {
+					super.serialize(ser, name, obj, ctx);
+				}
+				throw new IteratorExpectedException(ctx);
+			}
+		};
+		SerializationContext ctx = new SerializationContext(new JSONWriter(), null, os);
+		ctx.setCompression(new Compression(Compression.Format.GZIP, Deflater.BEST_SPEED));
+		ctx.getBuffer().setSpillThreshold(64);
+		// empties the pool of the current thread
+		BufferPool.acquire(1);
+		try {
+			ctx.getWriter().writeRoot(failing, TEXT, ctx);
+			fail("IteratorExpectedException expected");
+		} catch (IteratorExpectedException e) {
+		}
+		assertTrue(os.size() > 0);
+		assertTrue(BufferPool.acquire(1).length >= OutputBuffer.DEFAULT_INITIAL_CAPACITY);
+
+		os = new ByteArrayOutputStream();
+		ctx.setOutputStream(os);
+		ctx.getWriter().writeRoot(new ValueSerialization(), "Denver", ctx);
+		GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals("{\"Denver\"}", IOUtils.toString(is, "UTF-8"));
+	}
+}
@@ -0,0 +1,66 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the <code>FlushPolicy</code>
+ */
+public class FlushPolicyTest extends TestCase {
+
+	/**
+	 * Tests the policy on the number of bytes
+	 */
+	public void testIsDueWhenBytes() {
+		FlushPolicy policy = new FlushPolicy(100, 0, 0);
+		long now = System.currentTimeMillis();
+		assertFalse(policy.isDue(99, 1000, now - 100000));
+		assertTrue(policy.isDue(100, 0, now));
+	}
+
+	/**
+	 * Tests the policy on the number of elements
+	 */
+	public void testIsDueWhenElements() {
+		FlushPolicy policy = new FlushPolicy(0, 10, 0);
+		long now = System.currentTimeMillis();
+		assertFalse(policy.isDue(100000, 9, now - 100000));
+		assertTrue(policy.isDue(0, 10, now));
+	}
+
+	/**
+	 * Tests the policy on the time interval
+	 */
+	public void testIsDueWhenInterval() {
+		FlushPolicy policy = new FlushPolicy(0, 0, 1000);
+		long now = System.currentTimeMillis();
+		assertFalse(policy.isDue(100000, 1000, now + 1000));
+		assertTrue(policy.isDue(0, 0, now - 1000));
+	}
+
+	/**
+	 * Tests that a negative criterion is rejected
+	 */
+	public void testInvalid() {
+		try {
+			new FlushPolicy(0, -1, 0);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the <code>FragmentCache</code>
+ */
+public class FragmentCacheTest extends TestCase {
+	private FragmentCache cache;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		cache = new FragmentCache(3 * (FragmentCache.ENTRY_OVERHEAD + 10));
+	}
+
+	/**
+	 * Tests getting and putting fragments
+	 */
+	public void testGetAndPut() {
+		assertNull(cache.get("a"));
+		cache.put("a", new byte[10]);
+		assertEquals(10, cache.get("a").length);
+		cache.put("a", new byte[5]);
+		assertEquals(5, cache.get("a").length);
+		assertEquals(1, cache.getCount());
+		assertEquals(FragmentCache.ENTRY_OVERHEAD + 5, cache.getSize());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/**
+	 * Tests that the least recently used fragments are evicted once the 
+	 * capacity is exceeded
+	 */
+	public void testEviction() {
+		cache.put("a", new byte[10]);
+		cache.put("b", new byte[10]);
+		cache.put("c", new byte[10]);
+		assertNotNull(cache.get("a"));
+		cache.put("d", new byte[10]);
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertNotNull(cache.get("d"));
+		assertEquals(cache.getCapacity(), cache.getSize());
+		cache.clear();
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * Tests that a fragment larger than the capacity is not cached
+	 */
+	public void testPutWhenTooLarge() {
+		cache.put("a", new byte[10]);
+		cache.put("b", new byte[(int) cache.getCapacity()]);
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+	}
+
+	/**
+	 * Tests that the fragments whose keys reference collected objects are 
+	 * purged on the next access
+	 */
+	public void testPurge() {
+		Object key = new Object();
+		FragmentCache.KeyReference<Object> reference = new FragmentCache.KeyReference<Object>(new Object(), key, cache);
+		cache.put(key, new byte[10]);
+		cache.put("a", new byte[10]);
+		assertEquals(2, cache.getCount());
+		// as done by the garbage collector once the object is collected
+		reference.enqueue();
+		assertNotNull(cache.get("a"));
+		assertEquals(1, cache.getCount());
+		assertEquals(FragmentCache.ENTRY_OVERHEAD + 10, cache.getSize());
+		// the other reference of the same key
+		new FragmentCache.KeyReference<Object>(new Object(), key, cache).enqueue();
+		cache.put("b", new byte[10]);
+		assertEquals(2, cache.getCount());
+		assertEquals(2 * (FragmentCache.ENTRY_OVERHEAD + 10), cache.getSize());
+	}
+}
@@ -0,0 +1,373 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.localmatters.serializer.util.SerializationUtils.createComplex;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+import static org.localmatters.serializer.util.SerializationUtils.createValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.resolver.BeanUtilsPropertyResolver;
+import org.localmatters.serializer.serialization.AbstractSerialization;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.MapSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.UnknownPropertyException;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>GeneratorWriter</code>
+ */
+public class GeneratorWriterTest extends TestCase {
+	private StringBuilder sb;
+	private GeneratorWriter writer;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		sb = new StringBuilder();
+		writer = new GeneratorWriter(new GeneratorFactory() {
+			public StreamingGenerator createGenerator(SerializationContext ctx) {
+				return new TextGenerator(sb);
+			}
+		});
+	}
+
+	/**
+	 * Serializes the given root with the <code>JSONWriter</code> and the 
+	 * <code>GeneratorWriter</code> and checks that they are the same
+	 * @param ser The serialization of the root
+	 * @param root The root
+	 * @return The output
+	 */
+	private String assertSameAsJSON(Serialization ser, Object root) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		JSONWriter json = new JSONWriter();
+		json.writeRoot(ser, root, new SerializationContext(json, new BeanUtilsPropertyResolver(), os));
+		SerializationContext ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), null);
+		writer.writeRoot(ser, root, ctx);
+		assertEquals(os.toString("UTF-8"), sb.toString());
+		assertNull(ctx.getWriterState());
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a property serialization
+	 * @param property The property
+	 * @param delegate The serialization of the property value
+	 * @param writeEmpty Whether to write the value when empty
+	 * @return The property serialization
+	 */
+	private static Serialization createProperty(String property, AbstractSerialization delegate, boolean writeEmpty) {
+		delegate.setWriteEmpty(writeEmpty);
+		PropertySerialization ser = new PropertySerialization();
+		ser.setProperty(property);
+		ser.setDelegate(delegate);
+		return ser;
+	}
+
+	/**
+	 * Tests writing a value as the root
+	 */
+	public void testRootWhenValue() throws Exception {
+		assertEquals("{\"listing\": \"12345 \\\"caf\u00e9\\\"\"}", assertSameAsJSON(createValue("listing"), "12345 \"caf\u00e9\""));
+	}
+
+	/**
+	 * Tests writing a root that is empty
+	 */
+	public void testRootWhenEmpty() throws Exception {
+		assertEquals("", assertSameAsJSON(createName("listing", createComplex("listing", createValue("name"))), null));
+	}
+
+	/**
+	 * Tests writing a complex with values, lists and maps, some of which 
+	 * are empty
+	 */
+	public void testRoot() throws Exception {
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addAttribute(createConstantAttribute("type", "hotel"));
+		complex.addElement(createProperty("name", new ValueSerialization(), false));
+		complex.addElement(createProperty("empty", new ValueSerialization(), true));
+		complex.addElement(createProperty("missing", new ValueSerialization(), false));
+		complex.addElement(createProperty("rating", new ValueSerialization(), false));
+		complex.addElement(createProperty("price", new ValueSerialization(), false));
+		complex.addElement(createProperty("ratio", new ValueSerialization(), false));
+		complex.addElement(createProperty("open", new ValueSerialization(), false));
+		IteratorSerialization tags = new IteratorSerialization();
+		tags.setElement(new ValueSerialization());
+		complex.addElement(createProperty("tags", tags, false));
+		IteratorSerialization none = new IteratorSerialization();
+		none.setElement(new ValueSerialization());
+		complex.addElement(createProperty("none", none, true));
+		MapSerialization hours = new MapSerialization();
+		hours.setValue(new ValueSerialization());
+		complex.addElement(createProperty("hours", hours, false));
+		ComplexSerialization address = new ComplexSerialization();
+		address.addElement(createProperty("zip", new ValueSerialization(), false));
+		complex.addElement(createProperty("address", address, false));
+
+		Map<String, String> days = new LinkedHashMap<String, String>();
+		days.put("monday", "9-5");
+		days.put("sunday", null);
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("name", "Joe's");
+		root.put("empty", "");
+		root.put("rating", 4);
+		root.put("price", new BigDecimal("99.90"));
+		root.put("ratio", 0.25f);
+		root.put("open", Boolean.TRUE);
+		root.put("tags", Arrays.asList(null, "pool", "spa"));
+		root.put("hours", days);
+		root.put("address", new LinkedHashMap<String, Object>());
+
+		assertEquals("{\"type\": \"hotel\", \"name\": \"Joe's\", \"empty\": null, \"rating\": 4, \"price\": \"99.90\", " +
+				"\"ratio\": 0.25, \"open\": true, \"tags\": [\"pool\", \"spa\"], \"none\": [], " +
+				"\"hours\": {\"monday\": \"9-5\"}}", assertSameAsJSON(createName("listing", complex), root));
+	}
+
+	/**
+	 * Tests writing a columnar list, with a row that is empty
+	 */
+	public void testRootWhenColumnar() throws Exception {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setColumnar(true);
+		ser.setElement(createComplex("listing", 
+				createValue("name"), 
+				createConstantValue("type", "hotel"),
+				createComplex("address", createConstantAttribute("zip", "12345"))));
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createProperty("listings", ser, false));
+		IteratorSerialization names = new IteratorSerialization();
+		names.setColumnar(true);
+		names.setElement(createComplex("listing", createValue("name")));
+		complex.addElement(createProperty("others", names, false));
+
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("listings", Arrays.asList("12345 Hotel", null));
+		root.put("others", Arrays.asList(null, ""));
+		assertEquals("{\"listings\": {\"columns\": [\"name\", \"type\", \"address\"], \"rows\": [" +
+				"[\"12345 Hotel\", \"hotel\", {\"zip\": \"12345\"}], " +
+				"[null, \"hotel\", {\"zip\": \"12345\"}]]}}", assertSameAsJSON(createName("results", complex), root));
+	}
+
+	/**
+	 * Tests the events forwarded to the generator
+	 */
+	public void testRootEvents() throws Exception {
+		final StreamingGenerator generator = createStrictMock(StreamingGenerator.class);
+		generator.writeStartObject();
+		generator.writeFieldName("id");
+		generator.writeNumber(12L);
+		generator.writeFieldName("tags");
+		generator.writeStartArray();
+		generator.writeString("pool");
+		generator.writeEndArray();
+		generator.writeEndObject();
+		generator.flush();
+		replay(generator);
+
+		IteratorSerialization tags = new IteratorSerialization();
+		tags.setElement(new ValueSerialization());
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addElement(createProperty("id", new ValueSerialization(), false));
+		complex.addElement(createProperty("empty", new ComplexSerialization(), false));
+		complex.addElement(createProperty("tags", tags, false));
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("id", 12);
+		root.put("tags", Arrays.asList("pool", null));
+
+		writer.setGeneratorFactory(new GeneratorFactory() {
+			public StreamingGenerator createGenerator(SerializationContext ctx) {
+				return generator;
+			}
+		});
+		writer.writeRoot(createName("listing", complex), root, new SerializationContext(writer, new BeanUtilsPropertyResolver(), null));
+		verify(generator);
+	}
+
+	/**
+	 * Tests that the previous state of the context is restored when the 
+	 * writing of the root fails
+	 */
+	public void testRootWhenFailing() throws Exception {
+		SerializationContext ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), null);
+		Object state = new Object();
+		ctx.setWriterState(state);
+		Serialization ser = createName("listing", createComplex("listing", createProperty("unknown", new ValueSerialization(), false)));
+		try {
+			writer.writeRoot(ser, new Object(), ctx);
+			fail("UnknownPropertyException expected");
+		} catch (UnknownPropertyException e) {
+		}
+		assertSame(state, ctx.getWriterState());
+	}
+
+	/**
+	 * Tests writing a value without going through the root
+	 */
+	public void testValueWhenNoRoot() throws Exception {
+		try {
+			writer.writeValue(new ValueSerialization(), "name", "Joe's", new SerializationContext(writer, null, null));
+			fail("IOSerializationException expected");
+		} catch (IOSerializationException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/**
+	 * Generator writing JSON as the <code>JSONWriter</code> does when it is
+	 * not formatting
+	 */
+	private static class TextGenerator implements StreamingGenerator {
+		private final StringBuilder sb;
+		private final List<Boolean> firsts = new ArrayList<Boolean>();
+		private boolean named;
+
+		/**
+		 * Constructor with the specification of the output
+		 * @param sb The output
+		 */
+		private TextGenerator(StringBuilder sb) {
+			this.sb = sb;
+		}
+
+		/**
+		 * Writes the separator before an entry, if needed
+		 * @return The generator itself
+		 */
+		private TextGenerator separate() {
+			if (named) {
+				named = false;
+			} else if (!firsts.isEmpty()) {
+				if (!firsts.set(firsts.size() - 1, false)) {
+					sb.append(", ");
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeStartObject()
+		 */
+		public void writeStartObject() {
+			separate().sb.append('{');
+			firsts.add(true);
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeEndObject()
+		 */
+		public void writeEndObject() {
+			firsts.remove(firsts.size() - 1);
+			sb.append('}');
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeStartArray()
+		 */
+		public void writeStartArray() {
+			separate().sb.append('[');
+			firsts.add(true);
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeEndArray()
+		 */
+		public void writeEndArray() {
+			firsts.remove(firsts.size() - 1);
+			sb.append(']');
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeFieldName(java.lang.String)
+		 */
+		public void writeFieldName(String name) {
+			separate().sb.append('"').append(name).append("\": ");
+			named = true;
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeString(java.lang.String)
+		 */
+		public void writeString(String text) {
+			separate().sb.append('"').append(text.replace("\"", "\\\"")).append('"');
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeNumber(long)
+		 */
+		public void writeNumber(long value) {
+			separate().sb.append(value);
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeNumber(double)
+		 */
+		public void writeNumber(double value) {
+			separate().sb.append(value);
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeNumber(float)
+		 */
+		public void writeNumber(float value) {
+			separate().sb.append(value);
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeBoolean(boolean)
+		 */
+		public void writeBoolean(boolean state) {
+			separate().sb.append(state);
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#writeNull()
+		 */
+		public void writeNull() {
+			separate().sb.append("null");
+		}
+
+		/**
+		 * @see org.localmatters.serializer.writer.StreamingGenerator#flush()
+		 */
+		public void flush() throws IOException {
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the <code>Indentation</code>
+ */
+public class IndentationTest extends TestCase {
+
+	/**
+	 * Tests getting the prefixes within the table
+	 */
+	public void testGetPrefix() {
+		Indentation indentation = new Indentation("  ", 3);
+		assertEquals(3, indentation.getMaxDepth());
+		assertEquals("\n", new String(indentation.getPrefix(0)));
+		assertEquals("\n", new String(indentation.getPrefix(1)));
+		assertEquals("\n  ", new String(indentation.getPrefix(2)));
+		assertEquals("\n    ", new String(indentation.getPrefix(3)));
+		assertSame(indentation.getPrefix(3), indentation.getPrefix(3));
+	}
+
+	/**
+	 * Tests getting the prefixes deeper than the table
+	 */
+	public void testGetPrefixWhenDeeper() {
+		Indentation indentation = new Indentation("  ", 1);
+		assertEquals("\n      ", new String(indentation.getPrefix(4)));
+		assertNotSame(indentation.getPrefix(4), indentation.getPrefix(4));
+	}
+}
@@ -19,25 +19,32 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.classextension.EasyMock.createMock;
 import static org.easymock.classextension.EasyMock.replay;
 import static org.easymock.classextension.EasyMock.verify;
+import static org.localmatters.serializer.util.SerializationUtils.createComplex;
 import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
 import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
 import static org.localmatters.serializer.util.SerializationUtils.createName;
 import static org.localmatters.serializer.util.SerializationUtils.createValue;
 
 import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.lang.StringUtils;
 import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
 import org.localmatters.serializer.resolver.PropertyResolver;
+import org.localmatters.serializer.serialization.AttributeSerialization;
 import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.ConstantSerialization;
 import org.localmatters.serializer.serialization.IteratorSerialization;
 import org.localmatters.serializer.serialization.MapSerialization;
 import org.localmatters.serializer.serialization.NameSerialization;
@@ -51,7 +58,7 @@ import org.localmatters.serializer.serialization.ValueSerialization;
 public class JSONWriterTest extends TestCase {
 	private JSONWriter writer;
 	private SerializationContext ctx;
-	private OutputStream os;
+	private ByteArrayOutputStream os;
 
 	/**
 	 * @see junit.framework.TestCase#setUp()
@@ -62,13 +69,21 @@ public class JSONWriterTest extends TestCase {
 		os = new ByteArrayOutputStream();
 		ctx = new SerializationContext(writer, null, os);
 	}
+
+	/**
+	 * @return The output written so far
+	 */
+	private String getOutput() throws Exception {
+		ctx.flush();
+		return os.toString("UTF-8");
+	}
 	
 	/**
 	 * Tests getting the prefix when the writer is not formatting
 	 */
 	public void testGettingPrefixWhenNotFormatting() {
 		ctx.nextLevel("results").nextLevel("listings").nextLevel("address");
-		assertEquals(StringUtils.EMPTY, writer.getPrefix(ctx));
+		assertEquals(0, writer.getPrefix(ctx).length);
 		assertEquals("results.listings.address", ctx.getPath());
 	}
 	
@@ -78,7 +93,8 @@ public class JSONWriterTest extends TestCase {
 	public void testGettingPrefix() {
 		ctx.setFormatting(true);
 		ctx.nextLevel("results").nextLevel("listings").nextLevel("address");
-		assertEquals("\n      ", writer.getPrefix(ctx));
+		assertEquals("\n      ", new String(writer.getPrefix(ctx)));
+		assertSame(writer.getPrefix(ctx), writer.getPrefix(ctx));
 		assertEquals("results.listings.address", ctx.getPath());
 	}
 
@@ -90,7 +106,7 @@ public class JSONWriterTest extends TestCase {
 		Serialization ser = createValue("listing");
 		String root = "12345 Hotel";
 		writer.writeRoot(ser, root, ctx);
-		assertEquals("{\n\"listing\": \"12345 Hotel\"\n}", os.toString());
+		assertEquals("{\n\"listing\": \"12345 Hotel\"\n}", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -103,7 +119,7 @@ public class JSONWriterTest extends TestCase {
 		complex.addElement(createConstantAttribute("name", "12345 \"Hotel\" & spa"));
 		Serialization ser = createName("listing", complex);
 		writer.writeRoot(ser, null, ctx);
-		assertEquals("{\"id\": \"123456\", \"name\": \"12345 \\\"Hotel\\\" & spa\"}", os.toString());
+		assertEquals("{\"id\": \"123456\", \"name\": \"12345 \\\"Hotel\\\" & spa\"}", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -114,10 +130,129 @@ public class JSONWriterTest extends TestCase {
 		IteratorSerialization ser = new IteratorSerialization();
 		ser.setElement(new ValueSerialization());
 		writer.writeRoot(ser, Arrays.asList("hello", "world"), ctx);
-		assertEquals("[\"hello\", \"world\"]", os.toString());
+		assertEquals("[\"hello\", \"world\"]", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
+	/**
+	 * Tests that the elements of a root list are flushed as they are written
+	 * when there is a flush policy
+	 */
+	public void testRootWhenListAndFlushPolicy() throws Exception {
+		final List<String> flushed = new ArrayList<String>();
+		os = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.add(toString());
+			}
+		};
+		ctx = new SerializationContext(writer, null, os);
+		ctx.setFlushPolicy(new FlushPolicy(0, 1, 0));
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		ser.serialize(ser, null, Arrays.asList("hello", null, "world"), ctx);
+		assertEquals(Arrays.asList("[\"hello\"", "[\"hello\"", "[\"hello\", \"world\""), flushed);
+		assertEquals("[\"hello\", \"world\"]", getOutput());
+	}
+
+	/**
+	 * Tests that a list within a root complex is flushed as its elements 
+	 * are written
+	 */
+	public void testRootWhenNestedListAndFlushPolicy() throws Exception {
+		final List<String> flushed = new ArrayList<String>();
+		os = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.add(toString());
+			}
+		};
+		ctx = new SerializationContext(writer, null, os);
+		ctx.setFlushPolicy(new FlushPolicy(0, 1, 0));
+		IteratorSerialization items = new IteratorSerialization();
+		items.setElement(new ValueSerialization());
+		ComplexSerialization ser = new ComplexSerialization();
+		ser.addElement(createName("items", items));
+		writer.writeRoot(createName("results", ser), Arrays.asList("hello", null, "world"), ctx);
+		assertEquals(Arrays.asList("{\"items\": [\"hello\"", "{\"items\": [\"hello\"", "{\"items\": [\"hello\", \"world\""), flushed);
+		assertEquals("{\"items\": [\"hello\", \"world\"]}", os.toString());
+	}
+
+	/**
+	 * Tests that a large list within a root complex is spilled as it is 
+	 * written instead of being held until the end of the document
+	 */
+	public void testRootWhenNestedLargeList() throws Exception {
+		final List<Integer> sizes = new ArrayList<Integer>();
+		ctx.getBuffer().setSpillThreshold(256);
+		IteratorSerialization items = new IteratorSerialization();
+		items.setElement(new ValueSerialization() {
+			@Override
+			public void serialize(Serialization ser, String name, Object obj, SerializationContext ctx) throws SerializationException {
+				sizes.add(os.size());
+				super.serialize(ser, name, obj, ctx);
+			}
+		});
+		ComplexSerialization ser = new ComplexSerialization();
+		ser.addElement(createName("items", items));
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i=0; i<10000; i++) {
+			list.add(i);
+		}
+		writer.writeRoot(createName("results", ser), list, ctx);
+		String output = os.toString();
+		assertTrue(output.startsWith("{\"items\": [0, 1, 2, "));
+		assertTrue(output.endsWith(", 9998, 9999]}"));
+		int last = sizes.get(sizes.size() - 1);
+		assertTrue(last > 0);
+		assertTrue(output.length() - last < 512);
+	}
+
+	/**
+	 * Tests that the size of the output is recorded and used to pre-size the
+	 * buffer of the next serialization
+	 */
+	public void testRootWithSizeHistory() throws Exception {
+		SizeHistory history = new SizeHistory();
+		ctx.setSizeHistory(history);
+		Serialization ser = createValue("listing");
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		assertEquals(29, history.getEstimate(ser));
+		assertEquals(OutputBuffer.DEFAULT_INITIAL_CAPACITY, ctx.getBuffer().getInitialCapacity());
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		assertEquals(29, ctx.getBuffer().getInitialCapacity());
+		assertEquals("{\"listing\": \"12345 Hotel\"}{\"listing\": \"12345 Hotel\"}", getOutput());
+	}
+
+	/**
+	 * Tests that the buffer is not pre-sized beyond its spill threshold
+	 */
+	public void testRootWithSizeHistoryWhenLarge() throws Exception {
+		SizeHistory history = new SizeHistory();
+		ctx.setSizeHistory(history);
+		ctx.getBuffer().setSpillThreshold(16);
+		Serialization ser = createValue("listing");
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		assertEquals(29, history.getEstimate(ser));
+		assertEquals(16, ctx.getBuffer().getInitialCapacity());
+	}
+
+	/**
+	 * Tests that the buffer is not pre-sized when it writes to a channel
+	 */
+	public void testRootWithSizeHistoryWhenChannel() throws Exception {
+		SizeHistory history = new SizeHistory();
+		ctx.setSizeHistory(history);
+		ctx.setChannel(Channels.newChannel(os));
+		Serialization ser = createValue("listing");
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		assertEquals(29, history.getEstimate(ser));
+		assertEquals(OutputBuffer.DEFAULT_INITIAL_CAPACITY, ctx.getBuffer().getInitialCapacity());
+		assertEquals("{\"listing\": \"12345 Hotel\"}{\"listing\": \"12345 Hotel\"}", os.toString());
+	}
+
 	/**
 	 * Tests the root serialization
 	 */
@@ -125,7 +260,7 @@ public class JSONWriterTest extends TestCase {
 		Serialization ser = createValue("listing");
 		String root = "12345 Hotel";
 		writer.writeRoot(ser, root, ctx);
-		assertEquals("{\"listing\": \"12345 Hotel\"}", os.toString());
+		assertEquals("{\"listing\": \"12345 Hotel\"}", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -138,7 +273,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "name", null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -153,7 +288,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, null, null, ctx);
 		verify(ser);
-		assertEquals("\n   null", os.toString());
+		assertEquals("\n   null", getOutput());
 		assertEquals("something", ctx.getPath());
 	}
 	
@@ -166,7 +301,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "name", null, ctx);
 		verify(ser);
-		assertEquals("\"name\": null", os.toString());
+		assertEquals("\"name\": null", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -180,10 +315,73 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "id", 123456, ctx);
 		verify(ser);
-		assertEquals("\n   \"id\": 123456", os.toString());
+		assertEquals("\n   \"id\": 123456", getOutput());
 		assertEquals("listing", ctx.getPath());
 	}
 	
+	/**
+	 * Tests serializing into a <code>StringBuilder</code>
+	 */
+	public void testRootWithAppendable() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		ctx.setAppendable(sb);
+		assertSame(sb, ctx.getAppendable());
+		Serialization ser = createValue("listing");
+		writer.writeRoot(ser, "12345 \"caf\u00e9\"", ctx);
+		assertEquals("{\"listing\": \"12345 \\\"caf\u00e9\\\"\"}", sb.toString());
+		ctx.setOutputStream(os);
+		assertNull(ctx.getAppendable());
+		assertSame(os, ctx.getOutputStream());
+	}
+
+	/**
+	 * Tests serializing decimal numbers
+	 */
+	public void testValueWhenDecimal() throws Exception {
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		replay(ser);
+		writer.writeValue(ser, "price", 12.5d, ctx);
+		writer.writeValue(ser, "ratio", 0.25f, ctx);
+		writer.writeValue(ser, "amount", new BigDecimal("1234.50"), ctx);
+		verify(ser);
+		assertEquals("\"price\": 12.5\"ratio\": 0.25\"amount\": \"1234.50\"", getOutput());
+	}
+
+	/**
+	 * Tests serializing values when the context is minimal
+	 */
+	public void testValueWhenMinimal() throws Exception {
+		ctx.setMinimal(true);
+		ctx.setFormatting(true);
+		ctx.nextLevel("listing");
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		replay(ser);
+		writer.writeValue(ser, "price", 12d, ctx);
+		writer.writeValue(ser, "ratio", 2f, ctx);
+		writer.writeValue(ser, "rate", 0.25d, ctx);
+		writer.writeValue(ser, "zero", -0d, ctx);
+		writer.writeValue(ser, "huge", 1e20d, ctx);
+		writer.writeValue(ser, "id", 123456L, ctx);
+		writer.writeValue(ser, "name", "Joe's", ctx);
+		verify(ser);
+		assertEquals("\"price\":12\"ratio\":2\"rate\":0.25\"zero\":-0.0\"huge\":1.0E20\"id\":123456\"name\":\"Joe's\"", getOutput());
+	}
+
+	/**
+	 * Tests that the empty values are not written when the context is 
+	 * minimal, even when they should be
+	 */
+	public void testValueWhenNullAndWriteButMinimal() throws Exception {
+		ctx.setMinimal(true);
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		expect(ser.isWriteEmpty()).andReturn(true).anyTimes();
+		replay(ser);
+		writer.writeValue(ser, "name", null, ctx);
+		writer.writeValue(ser, "desc", "", ctx);
+		verify(ser);
+		assertEquals(StringUtils.EMPTY, getOutput());
+	}
+
 	/**
 	 * Tests serializing a boolean
 	 */
@@ -192,7 +390,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "sold", true, ctx);
 		verify(ser);
-		assertEquals("\"sold\": true", os.toString());
+		assertEquals("\"sold\": true", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -204,7 +402,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, null, "hotel & café", ctx);
 		verify(ser);
-		assertEquals("\"hotel & café\"", os.toString());
+		assertEquals("\"hotel & café\"", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -218,7 +416,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeAttribute(ser, "name", "hotel & café", ctx);
 		verify(ser);
-		assertEquals("\n   \"name\": \"hotel & café\"", os.toString());
+		assertEquals("\n   \"name\": \"hotel & café\"", getOutput());
 		assertEquals("listing", ctx.getPath());
 	}
 	
@@ -232,7 +430,7 @@ public class JSONWriterTest extends TestCase {
 	    replay(ser);
 	    writer.writeNamespace(ser, "lmi", "http://www.localmatter.com", ctx);
 	    verify(ser);
-	    assertEquals("", os.toString());
+	    assertEquals("", getOutput());
 	    assertEquals("listing", ctx.getPath());
 	}
 
@@ -245,7 +443,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeComplex(ser, "listing", null, null, null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -260,7 +458,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeComplex(ser, "listing", null, null, null, Arrays.asList("just a listing"), ctx);
 		verify(ser);
-		assertEquals("\n   \"listing\": {}", os.toString());
+		assertEquals("\n   \"listing\": {}", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 	
@@ -273,7 +471,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeComplex(ser, "listing", new Object(), null, null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -294,7 +492,7 @@ public class JSONWriterTest extends TestCase {
 		writer.writeComplex(ser, "listing", object, null, Arrays.asList(element1, element2, element3, element4), null, ctx);
 		verify(ser);
 
-		assertEquals("\n   \"listing\": {\n      \"id\": \"ABCD1234\", \n      \"name\": \"John Hotel\"\n   }", os.toString());
+		assertEquals("\n   \"listing\": {\n      \"id\": \"ABCD1234\", \n      \"name\": \"John Hotel\"\n   }", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 	
@@ -313,7 +511,7 @@ public class JSONWriterTest extends TestCase {
 		writer.writeComplex(ser, null, object, Arrays.asList(attribute1, attribute2), Arrays.asList(element), null, ctx);
 		verify(ser);
 
-		assertEquals("{\"id\": \"ABCD1234\", \"name\": \"John Hotel\"}", os.toString());
+		assertEquals("{\"id\": \"ABCD1234\", \"name\": \"John Hotel\"}", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 	
@@ -332,7 +530,7 @@ public class JSONWriterTest extends TestCase {
 		writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2, attribute3), null, null, ctx);
 		verify(ser);
 
-		assertEquals("\"listing\": {\"id\": \"ABCD1234\", \"name\": \"John Hotel\"}", os.toString());
+		assertEquals("\"listing\": {\"id\": \"ABCD1234\", \"name\": \"John Hotel\"}", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
     
@@ -358,7 +556,7 @@ public class JSONWriterTest extends TestCase {
         writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element, name), null, ctx);
         verify(ser);
 
-        assertEquals(StringUtils.EMPTY, os.toString());
+        assertEquals(StringUtils.EMPTY, getOutput());
         assertEquals("results", ctx.getPath());
     }
     
@@ -384,7 +582,7 @@ public class JSONWriterTest extends TestCase {
         writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element, name), null, ctx);
         verify(ser);
 
-        assertEquals("\"listing\": {}", os.toString());
+        assertEquals("\"listing\": {}", getOutput());
         assertEquals("results", ctx.getPath());
     }
     
@@ -410,7 +608,7 @@ public class JSONWriterTest extends TestCase {
         writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element, name), null, ctx);
         verify(ser);
 
-        assertEquals("\n   \"listing\": {\n      \"address\": {}\n   }", os.toString());
+        assertEquals("\n   \"listing\": {\n      \"address\": {}\n   }", getOutput());
         assertEquals("results", ctx.getPath());
     }
 	
@@ -429,7 +627,35 @@ public class JSONWriterTest extends TestCase {
 		writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element), null, ctx);
 		verify(ser);
 
-		assertEquals("\"listing\": {\"id\": \"ABCD1234\", \"name\": \"John Hotel\"}", os.toString());
+		assertEquals("\"listing\": {\"id\": \"ABCD1234\", \"name\": \"John Hotel\"}", getOutput());
+		assertEquals("results", ctx.getPath());
+	}
+
+	/**
+	 * Tests serializing a complex when the context is minimal
+	 */
+	public void testComplexWhenMinimal() throws Exception {
+		ctx.setMinimal(true);
+		ctx.setFormatting(true);
+		ctx.nextLevel("results");
+		ComplexSerialization ser = new ComplexSerialization();
+		ComplexSerialization address = new ComplexSerialization();
+		address.setWriteEmpty(true);
+		AttributeSerialization desc = new AttributeSerialization();
+		desc.setWriteEmpty(true);
+		NameSerialization attribute1 = createConstantAttribute("desc", null);
+		((ConstantSerialization) attribute1.getDelegate()).setDelegate(desc);
+		Serialization attribute2 = createConstantAttribute("id", "ABCD1234");
+		Serialization element1 = createConstantValue("name", "John Hotel");
+		Serialization element2 = createName("address", address);
+		IteratorSerialization tags = new IteratorSerialization();
+		tags.setElement(new ValueSerialization());
+		Serialization element3 = createName("tags", tags);
+		Object object = Arrays.asList("pool", "spa");
+
+		writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element1, element2, element3), null, ctx);
+
+		assertEquals("\"listing\":{\"id\":\"ABCD1234\",\"name\":\"John Hotel\",\"address\":{},\"tags\":[\"pool\",\"spa\"]}", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -443,7 +669,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeIterator(ser, "orders", Collections.EMPTY_LIST.iterator(), "order", null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals("listing", ctx.getPath());
 	}
 
@@ -456,7 +682,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeIterator(ser,"orders", Collections.EMPTY_LIST.iterator(), "order", null, null, ctx);
 		verify(ser);
-		assertEquals("\"orders\": []", os.toString());
+		assertEquals("\"orders\": []", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -473,7 +699,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeIterator(ser, null, itr, "sport", element, null, ctx);
 		verify(ser);
-		assertEquals("\n   [\n      \"baseball\", \n      \"hockey\"\n   ]", os.toString());
+		assertEquals("\n   [\n      \"baseball\", \n      \"hockey\"\n   ]", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -491,7 +717,7 @@ public class JSONWriterTest extends TestCase {
         replay(ser);
         writer.writeIterator(ser, "sports", itr, "sport", element, null, ctx);
         verify(ser);
-        assertEquals(StringUtils.EMPTY, os.toString());
+        assertEquals(StringUtils.EMPTY, getOutput());
         assertEquals("results", ctx.getPath());
     }
 
@@ -509,7 +735,7 @@ public class JSONWriterTest extends TestCase {
         replay(ser);
         writer.writeIterator(ser, "sports", itr, "sport", element, null, ctx);
         verify(ser);
-        assertEquals("\"sports\": []", os.toString());
+        assertEquals("\"sports\": []", getOutput());
         assertEquals("results", ctx.getPath());
     }
 
@@ -526,7 +752,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeIterator(ser, "sports", itr, "sport", element, null, ctx);
 		verify(ser);
-		assertEquals("\n   \"sports\": [\n      \"baseball\", \n      \"hockey\"\n   ]", os.toString());
+		assertEquals("\n   \"sports\": [\n      \"baseball\", \n      \"hockey\"\n   ]", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -542,9 +768,87 @@ public class JSONWriterTest extends TestCase {
         replay(ser);
         writer.writeIterator(ser, "sports", itr, "sport", createValue(null), null, ctx);
         verify(ser);
-        assertEquals("\n   \"sports\": [\n      \"baseball\", \n      \"hockey\"\n   ]", os.toString());
+        assertEquals("\n   \"sports\": [\n      \"baseball\", \n      \"hockey\"\n   ]", getOutput());
         assertEquals("results", ctx.getPath());
     }
+
+	/**
+	 * Creates a columnar list of complex elements
+	 * @return The list serialization
+	 */
+	private IteratorSerialization createColumnarList() {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setColumnar(true);
+		ser.setElement(createComplex("listing", 
+				createValue("name"), 
+				createConstantValue("type", "hotel"),
+				createComplex("address", createConstantAttribute("zip", "12345"))));
+		return ser;
+	}
+
+	/**
+	 * Tests serializing a columnar iterator
+	 */
+	public void testIteratorWhenColumnar() throws Exception {
+		ctx.nextLevel("results");
+		IteratorSerialization ser = createColumnarList();
+		Iterator<String> itr = Arrays.asList("12345 Hotel", null).iterator();
+		writer.writeIterator(ser, "listings", itr, null, ser.getElement(), null, ctx);
+		assertEquals("\"listings\": {\"columns\": [\"name\", \"type\", \"address\"], \"rows\": [" +
+				"[\"12345 Hotel\", \"hotel\", {\"zip\": \"12345\"}], " +
+				"[null, \"hotel\", {\"zip\": \"12345\"}]]}", getOutput());
+		assertEquals("results", ctx.getPath());
+		assertNull(ctx.getWriterState());
+	}
+
+	/**
+	 * Tests serializing a columnar iterator with formatting
+	 */
+	public void testIteratorWhenColumnarAndFormatting() throws Exception {
+		ctx.setFormatting(true);
+		IteratorSerialization ser = createColumnarList();
+		writer.writeRoot(createName("listings", ser), Arrays.asList("12345 Hotel"), ctx);
+		assertEquals("\n{\n   \"columns\": [\"name\", \"type\", \"address\"], \n   \"rows\": [" +
+				"\n      [\"12345 Hotel\", \"hotel\", {\"zip\": \"12345\"}]\n   ]\n}", getOutput());
+	}
+
+	/**
+	 * Tests serializing a columnar iterator when the context is minimal
+	 */
+	public void testIteratorWhenColumnarAndMinimal() throws Exception {
+		ctx.setMinimal(true);
+		IteratorSerialization ser = createColumnarList();
+		writer.writeRoot(createName("listings", ser), Arrays.asList("12345 Hotel", null), ctx);
+		assertEquals("{\"columns\":[\"name\",\"type\",\"address\"],\"rows\":[" +
+				"[\"12345 Hotel\",\"hotel\",{\"zip\":\"12345\"}]," +
+				"[null,\"hotel\",{\"zip\":\"12345\"}]]}", getOutput());
+	}
+
+	/**
+	 * Tests serializing a columnar iterator whose rows are all empty
+	 */
+	public void testIteratorWhenColumnarAndEmpty() throws Exception {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setColumnar(true);
+		ser.setElement(createComplex("listing", createValue("name")));
+		writer.writeIterator(ser, "listings", Arrays.asList(null, "").iterator(), null, ser.getElement(), null, ctx);
+		assertEquals(StringUtils.EMPTY, getOutput());
+
+		ser.setWriteEmpty(true);
+		writer.writeIterator(ser, "listings", Arrays.asList(null, "").iterator(), null, ser.getElement(), null, ctx);
+		assertEquals("\"listings\": {\"columns\": [\"name\"], \"rows\": []}", getOutput());
+	}
+
+	/**
+	 * Tests that an iterator of values is not written as columns
+	 */
+	public void testIteratorWhenColumnarButValues() throws Exception {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setColumnar(true);
+		ser.setElement(new ValueSerialization());
+		writer.writeIterator(ser, "sports", Arrays.asList("baseball", "hockey").iterator(), null, ser.getElement(), null, ctx);
+		assertEquals("\"sports\": [\"baseball\", \"hockey\"]", getOutput());
+	}
 	
 	/**
 	 * Tests serializing an empty map that should not be written
@@ -556,7 +860,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeMap(ser, "addresses", null, null, null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -571,7 +875,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeMap(ser, "addresses", null, null, null, null, ctx);
 		verify(ser);
-		assertEquals("\n   \"addresses\": {}", os.toString());
+		assertEquals("\n   \"addresses\": {}", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -591,7 +895,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser);
 		writer.writeMap(ser, "leisures", map.entrySet(), null, value, null, ctx);
 		verify(ser);
-		assertEquals("\n\"leisures\": {\n   \"sport\": \"baskeball\", \n   \"hobby\": \"photography\"\n}", os.toString());
+		assertEquals("\n\"leisures\": {\n   \"sport\": \"baskeball\", \n   \"hobby\": \"photography\"\n}", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -615,7 +919,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser, resolver);
 		writer.writeMap(ser, null, map.entrySet(), "keyProperty", value, null, ctx);
 		verify(ser, resolver);
-		assertEquals("{\"s\": \"baskeball\", \"h\": \"photography\"}", os.toString());
+		assertEquals("{\"s\": \"baskeball\", \"h\": \"photography\"}", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -640,7 +944,7 @@ public class JSONWriterTest extends TestCase {
         replay(ser, resolver);
         writer.writeMap(ser, "leisures", map.entrySet(), "keyProperty", value, null, ctx);
         verify(ser, resolver);
-        assertEquals(StringUtils.EMPTY, os.toString());
+        assertEquals(StringUtils.EMPTY, getOutput());
         assertEquals(StringUtils.EMPTY, ctx.getPath());
     }
 
@@ -665,7 +969,7 @@ public class JSONWriterTest extends TestCase {
         replay(ser, resolver);
         writer.writeMap(ser, "leisures", map.entrySet(), "keyProperty", value, null, ctx);
         verify(ser, resolver);
-        assertEquals("\"leisures\": {}", os.toString());
+        assertEquals("\"leisures\": {}", getOutput());
         assertEquals(StringUtils.EMPTY, ctx.getPath());
     }
 	
@@ -689,7 +993,7 @@ public class JSONWriterTest extends TestCase {
 		replay(ser, resolver);
 		writer.writeMap(ser, "leisures", map.entrySet(), "keyProperty", value, null, ctx);
 		verify(ser, resolver);
-		assertEquals("\"leisures\": {\"s\": \"baskeball\", \"h\": \"photography\"}", os.toString());
+		assertEquals("\"leisures\": {\"s\": \"baskeball\", \"h\": \"photography\"}", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 }
@@ -0,0 +1,141 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+import org.localmatters.serializer.util.SerializationUtils;
+
+
+/**
+ * Tests the <code>MappedOutputBuffer</code>
+ */
+public class MappedOutputBufferTest extends TestCase {
+	private File file;
+	private RandomAccessFile raf;
+	private MappedOutputBuffer buffer;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("mapped", ".json");
+		raf = new RandomAccessFile(file, "rw");
+		buffer = new MappedOutputBuffer(raf.getChannel());
+	}
+
+	/**
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		raf.close();
+		file.delete();
+	}
+
+	/**
+	 * @return The content of the file
+	 */
+	private String getContent() throws Exception {
+		FileInputStream is = new FileInputStream(file);
+		try {
+			return IOUtils.toString(is, "UTF-8");
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Tests writing across several windows
+	 */
+	public void testWriteAcrossWindows() throws Exception {
+		buffer.setWindowSize(8);
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(6);
+		buffer.write("{\"name\": \"café\", ");
+		buffer.writeLong(1234567890L);
+		buffer.write("}");
+		buffer.flush();
+		assertEquals("{\"name\": \"café\", 1234567890}", getContent());
+		assertEquals(file.length(), raf.getChannel().position());
+	}
+
+	/**
+	 * Tests writing again after a flush
+	 */
+	public void testWriteAfterFlush() throws Exception {
+		buffer.write("hello");
+		buffer.flush();
+		assertEquals(5, file.length());
+		buffer.write(" world");
+		buffer.flush();
+		assertEquals("hello world", getContent());
+	}
+
+	/**
+	 * Tests writing a large list within a root complex, which must be 
+	 * written through the windows as it goes instead of being held in the 
+	 * heap until the end of the document
+	 */
+	public void testWriteRootWhenLargeList() throws Exception {
+		final List<Long> lengths = new ArrayList<Long>();
+		final List<Integer> sizes = new ArrayList<Integer>();
+		SerializationContext ctx = new SerializationContext(new JSONWriter(), null, null);
+		ctx.setFileChannel(raf.getChannel());
+		((MappedOutputBuffer) ctx.getBuffer()).setWindowSize(1024);
+		ctx.getBuffer().setSpillThreshold(256);
+		IteratorSerialization items = new IteratorSerialization();
+		items.setElement(new ValueSerialization() {
+			@Override
+			public void serialize(Serialization ser, String name, Object obj, SerializationContext ctx) throws SerializationException {
+				lengths.add(file.length());
+				sizes.add(ctx.getBuffer().size());
+				super.serialize(ser, name, obj, ctx);
+			}
+		});
+		ComplexSerialization ser = new ComplexSerialization();
+		ser.addElement(SerializationUtils.createName("items", items));
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i=0; i<100000; i++) {
+			list.add(i);
+		}
+		ctx.getWriter().writeRoot(SerializationUtils.createName("results", ser), list, ctx);
+
+		String content = getContent();
+		assertTrue(content.startsWith("{\"items\": [0, 1, 2, "));
+		assertTrue(content.endsWith(", 99998, 99999]}"));
+		assertEquals(content.length(), file.length());
+		// the windows have been mapped all along the write
+		assertTrue(lengths.get(lengths.size() - 1) > content.length() - 1024);
+		for (int size : sizes) {
+			assertTrue(size < 512);
+		}
+	}
+}
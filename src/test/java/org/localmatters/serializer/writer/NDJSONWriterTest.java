@@ -0,0 +1,170 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import static org.localmatters.serializer.util.SerializationUtils.createComplex;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+import static org.localmatters.serializer.util.SerializationUtils.createValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>NDJSONWriter</code>
+ */
+public class NDJSONWriterTest extends TestCase {
+	private NDJSONWriter writer;
+	private SerializationContext ctx;
+	private ByteArrayOutputStream os;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		writer = new NDJSONWriter();
+		os = new ByteArrayOutputStream();
+		ctx = new SerializationContext(writer, null, os);
+	}
+
+	/**
+	 * Tests the root serialization when it is a list of complex elements
+	 */
+	public void testRootWhenList() throws Exception {
+		ctx.setFormatting(true);
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(createComplex("listing", 
+				createValue("name"),
+				createConstantValue("type", "hotel")));
+		writer.writeRoot(ser, Arrays.asList("abc", null, "de"), ctx);
+		assertEquals("{\"name\": \"abc\", \"type\": \"hotel\"}\n" +
+				"{\"type\": \"hotel\"}\n" +
+				"{\"name\": \"de\", \"type\": \"hotel\"}\n", os.toString("UTF-8"));
+		assertEquals(StringUtils.EMPTY, ctx.getPath());
+	}
+
+	/**
+	 * Tests the root serialization when it is a named list of values, some of
+	 * them empty
+	 */
+	public void testRootWhenNamedList() throws Exception {
+		IteratorSerialization list = new IteratorSerialization();
+		list.setElement(new ValueSerialization());
+		Serialization ser = createName("sports", list);
+		writer.writeRoot(ser, Arrays.asList("baseball", null, "", "hockey"), ctx);
+		assertEquals("\"baseball\"\n\"hockey\"\n", os.toString("UTF-8"));
+		assertEquals(StringUtils.EMPTY, ctx.getPath());
+	}
+
+	/**
+	 * Tests that the lists below the root are written as arrays
+	 */
+	public void testRootWhenNestedList() throws Exception {
+		IteratorSerialization nested = new IteratorSerialization();
+		nested.setElement(new ValueSerialization());
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(createComplex("listing", createName("tags", nested)));
+		List<List<String>> root = new ArrayList<List<String>>();
+		root.add(Arrays.asList("a", "b"));
+		root.add(Arrays.asList("c"));
+		writer.writeRoot(ser, root, ctx);
+		assertEquals("{\"tags\": [\"a\", \"b\"]}\n{\"tags\": [\"c\"]}\n", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests the root serialization when it is not a list
+	 */
+	public void testRoot() throws Exception {
+		ctx.setFormatting(true);
+		writer.writeRoot(createValue("listing"), "12345 Hotel", ctx);
+		assertEquals("{\"listing\": \"12345 Hotel\"}\n", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests flushing the output after every given number of records
+	 */
+	public void testFlushInterval() throws Exception {
+		final List<String> flushed = new ArrayList<String>();
+		os = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				flushed.add(new String(b, off, len));
+			}
+		};
+		ctx = new SerializationContext(writer, null, os);
+		writer.setFlushInterval(2);
+		assertEquals(2, writer.getFlushInterval());
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		writer.writeRoot(ser, Arrays.asList("a", null, "b", "c"), ctx);
+		assertEquals(Arrays.asList("\"a\"\n\"b\"\n", "\"c\"\n"), flushed);
+	}
+
+	/**
+	 * Tests that the gzip output flushed after every given number of records
+	 * can be decompressed as a whole
+	 */
+	public void testFlushIntervalWhenGzip() throws Exception {
+		final List<Integer> flushed = new ArrayList<Integer>();
+		os = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.add(size());
+			}
+		};
+		ctx = new SerializationContext(writer, null, os);
+		ctx.setCompression(new Compression(Compression.Format.GZIP, Deflater.BEST_SPEED));
+		writer.setFlushInterval(1);
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		writer.writeRoot(ser, Arrays.asList("a", "b", "c"), ctx);
+		assertEquals(3, flushed.size());
+		assertTrue(flushed.get(0) > 0);
+		GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals("\"a\"\n\"b\"\n\"c\"\n", IOUtils.toString(is, "UTF-8"));
+	}
+
+	/**
+	 * Tests that the zlib output can be flushed after every given number of
+	 * records, and is decompressed as a single stream
+	 */
+	public void testFlushIntervalWhenZlib() throws Exception {
+		ctx.setCompression(new Compression(Compression.Format.ZLIB, Deflater.BEST_SPEED));
+		writer.setFlushInterval(1);
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		writer.writeRoot(ser, Arrays.asList("a", "b", "c"), ctx);
+		InflaterInputStream is = new InflaterInputStream(new ByteArrayInputStream(os.toByteArray()));
+		assertEquals("\"a\"\n\"b\"\n\"c\"\n", IOUtils.toString(is, "UTF-8"));
+	}
+}
@@ -0,0 +1,455 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.easymock.classextension.EasyMock.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the <code>OutputBuffer</code>
+ */
+public class OutputBufferTest extends TestCase {
+	private OutputBuffer buffer;
+	private ByteArrayOutputStream os;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		os = new ByteArrayOutputStream();
+		buffer = new OutputBuffer(os);
+	}
+
+	/**
+	 * Tests that nothing is written to the stream before the flush
+	 */
+	public void testWriteIsBuffered() throws Exception {
+		OutputStream mock = createMock(OutputStream.class);
+		replay(mock);
+		buffer.setOutputStream(mock);
+		buffer.write("hello".getBytes());
+		buffer.write(' ');
+		buffer.write("world".getBytes());
+		assertEquals(11, buffer.size());
+		verify(mock);
+	}
+
+	/**
+	 * Tests flushing the buffer
+	 */
+	public void testFlush() throws Exception {
+		buffer.write("hello".getBytes());
+		buffer.write(' ');
+		buffer.write("big world".getBytes(), 4, 5);
+		buffer.flush();
+		assertEquals("hello world", os.toString());
+		assertEquals(0, buffer.size());
+		buffer.write("!".getBytes());
+		buffer.flush();
+		assertEquals("hello world!", os.toString());
+	}
+
+	/**
+	 * Tests that the buffer grows when its capacity is exceeded
+	 */
+	public void testGrow() throws Exception {
+		buffer.setInitialCapacity(4);
+		buffer.write("hello".getBytes());
+		buffer.write(" world".getBytes());
+		assertEquals(0, os.size());
+		buffer.flush();
+		assertEquals("hello world", os.toString());
+	}
+
+	/**
+	 * Tests that the buffer is written to the stream once the spill threshold
+	 * is reached
+	 */
+	public void testSpill() throws Exception {
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write("hello".getBytes());
+		buffer.write(" world".getBytes());
+		assertEquals("hello", os.toString());
+		assertEquals(6, buffer.size());
+		buffer.flush();
+		assertEquals("hello world", os.toString());
+	}
+
+	/**
+	 * Tests rewinding the buffer to a mark
+	 */
+	public void testMarkAndRewind() throws Exception {
+		buffer.write("hello".getBytes());
+		long mark = buffer.mark();
+		assertEquals(5, mark);
+		buffer.write(" world".getBytes());
+		long nested = buffer.mark();
+		buffer.write("!!".getBytes());
+		buffer.rewind(nested);
+		buffer.unmark();
+		assertEquals(11, buffer.position());
+		long other = buffer.mark();
+		buffer.write(" again".getBytes());
+		buffer.rewind(other);
+		buffer.flush();
+		assertEquals("hello world", os.toString());
+	}
+
+	/**
+	 * Tests replacing a byte held after a mark
+	 */
+	public void testSet() throws Exception {
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write("hello".getBytes());
+		long mark = buffer.mark();
+		buffer.write(" world".getBytes());
+		buffer.set(mark + 1, 'W');
+		try {
+			buffer.set(0, 'H');
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException e) {
+		}
+		buffer.unmark();
+		buffer.flush();
+		assertEquals("hello World", os.toString());
+	}
+
+	/**
+	 * Tests inserting bytes after a mark
+	 */
+	public void testInsert() throws Exception {
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write("hello".getBytes());
+		long mark = buffer.mark();
+		buffer.write("world".getBytes());
+		buffer.insert(mark, " big ".getBytes(), 0, 5);
+		assertEquals(15, buffer.position());
+		buffer.insert(buffer.position(), "!?".getBytes(), 0, 1);
+		try {
+			buffer.insert(buffer.position() + 1, "!".getBytes(), 0, 1);
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException e) {
+		}
+		buffer.unmark();
+		buffer.flush();
+		assertEquals("hello big world!", os.toString());
+	}
+
+	/**
+	 * Tests that the buffer does not spill past the oldest pending mark
+	 */
+	public void testSpillKeepsMarkedBytes() throws Exception {
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write("hello".getBytes());
+		long mark = buffer.mark();
+		buffer.write(" big".getBytes());
+		buffer.write(" world".getBytes());
+		assertEquals("hello", os.toString());
+		assertEquals(15, buffer.position());
+		buffer.rewind(mark);
+		buffer.write(" world".getBytes());
+		buffer.flush();
+		assertEquals("hello world", os.toString());
+	}
+
+	/**
+	 * Tests that flushing the available content writes the bytes before the
+	 * oldest pending mark and flushes the output
+	 */
+	public void testFlushAvailable() throws Exception {
+		final int[] flushes = new int[1];
+		os = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushes[0]++;
+			}
+		};
+		buffer = new OutputBuffer(os);
+		buffer.write("hello".getBytes());
+		long mark = buffer.mark();
+		buffer.write(" big".getBytes());
+		buffer.flushAvailable();
+		assertEquals("hello", os.toString());
+		assertEquals(1, flushes[0]);
+		buffer.rewind(mark);
+		buffer.write(" world".getBytes());
+		buffer.flushAvailable();
+		assertEquals("hello world", os.toString());
+		assertEquals(2, flushes[0]);
+	}
+
+	/**
+	 * Tests copying the bytes written from a marked position
+	 */
+	public void testCopy() throws Exception {
+		buffer.setInitialCapacity(4);
+		buffer.setSpillThreshold(8);
+		buffer.write("hello".getBytes());
+		long mark = buffer.mark();
+		buffer.write(" big".getBytes());
+		buffer.write(" world".getBytes());
+		assertEquals(" big world", new String(buffer.copy(mark)));
+		buffer.unmark();
+		buffer.write("!".getBytes());
+		try {
+			buffer.copy(0);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests writing strings in UTF-8
+	 */
+	public void testWriteStringInUtf8() throws Exception {
+		String str = "hotel & caf\u00e9 \u20ac \ud83c\udf7a";
+		buffer.write(str);
+		buffer.flush();
+		assertEquals(str, os.toString("UTF-8"));
+		assertEquals(str.getBytes("UTF-8").length, os.size());
+	}
+
+	/**
+	 * Tests writing a string with an unpaired surrogate in UTF-8
+	 */
+	public void testWriteStringInUtf8WithUnpairedSurrogate() throws Exception {
+		buffer.write("a\ud83cb\udf7a");
+		buffer.flush();
+		assertEquals("a?b?", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing part of a string
+	 */
+	public void testWriteStringRange() throws Exception {
+		buffer.write("hotel & caf\u00e9 spa", 8, 15);
+		buffer.flush();
+		assertEquals("caf\u00e9 sp", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing a JSON escaped string
+	 */
+	public void testWriteJson() throws Exception {
+		buffer.write("12345 \"Hotel\" & caf\u00e9\b\n\t\f\r\u0001 \\ /");
+		buffer.write(' ');
+		buffer.writeJson("12345 \"Hotel\" & caf\u00e9\b\n\t\f\r\u0001 \\ /");
+		buffer.flush();
+		assertEquals("12345 \"Hotel\" & caf\u00e9\b\n\t\f\r\u0001 \\ / 12345 \\\"Hotel\\\" & caf\u00e9\\b\\n\\t\\f\\r\u0001 \\\\ /", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing CSV fields
+	 */
+	public void testWriteCsv() throws Exception {
+		buffer.writeCsv("12345 Hotel & caf\u00e9", ',');
+		buffer.write(',');
+		buffer.writeCsv("12345 \"Hotel\", spa", ',');
+		buffer.write(',');
+		buffer.writeCsv("line\r\nbreak", ',');
+		buffer.write('\t');
+		buffer.writeCsv("a,b\tc", '\t');
+		buffer.flush();
+		assertEquals("12345 Hotel & caf\u00e9,\"12345 \"\"Hotel\"\", spa\",\"line\r\nbreak\"\t\"a,b\tc\"", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing TSV fields
+	 */
+	public void testWriteTsv() throws Exception {
+		buffer.writeTsv("caf\u00e9 \"spa\"");
+		buffer.write('\t');
+		buffer.writeTsv("a\tb\r\nc\\");
+		buffer.flush();
+		assertEquals("caf\u00e9 \"spa\"\ta\\tb\\r\\nc\\\\", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing a JSON string that does not need any escaping
+	 */
+	public void testWriteJsonWhenNothingToEscape() throws Exception {
+		buffer.writeJson("hotel & caf\u00e9");
+		buffer.writeJson("");
+		buffer.flush();
+		assertEquals("hotel & caf\u00e9", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing an XML escaped text
+	 */
+	public void testWriteXmlText() throws Exception {
+		buffer.writeXml("<b>\"Hotel\" & 'caf\u00e9'</b>\t\ud83c\udf7a", false);
+		buffer.flush();
+		assertEquals("&lt;b&gt;\"Hotel\" &amp; 'caf&#233;'&lt;/b&gt;\t&#127866;", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing an XML escaped attribute value
+	 */
+	public void testWriteXmlAttribute() throws Exception {
+		buffer.writeXml("<b>\"Hotel\" & 'caf\u00e9'</b>\t\n", true);
+		buffer.flush();
+		assertEquals("&lt;b&gt;&quot;Hotel&quot; &amp; 'caf&#233;'&lt;/b&gt;&#9;&#10;", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing an XML text that does not need any escaping
+	 */
+	public void testWriteXmlWhenNothingToEscape() throws Exception {
+		buffer.writeXml("12345 Hotel", false);
+		buffer.flush();
+		assertEquals("12345 Hotel", os.toString("UTF-8"));
+	}
+
+	/**
+	 * Tests writing longs
+	 */
+	public void testWriteLong() throws Exception {
+		long[] values = {0, 7, -7, 10, 123456, -9876543210L, Long.MAX_VALUE, Long.MIN_VALUE};
+		for (long value : values) {
+			buffer.writeLong(value);
+			buffer.write(' ');
+		}
+		buffer.flush();
+		assertEquals("0 7 -7 10 123456 -9876543210 9223372036854775807 -9223372036854775808 ", os.toString());
+	}
+
+	/**
+	 * Tests writing doubles
+	 */
+	public void testWriteDouble() throws Exception {
+		double[] values = {0d, -0d, 12d, -12.5, 0.1, 0.001, 1234567.891, 0.1 + 0.2, 1e7, 1e-4, Double.NaN, Double.NEGATIVE_INFINITY};
+		for (double value : values) {
+			buffer.writeDouble(value);
+			buffer.write(' ');
+		}
+		buffer.flush();
+		assertEquals("0.0 -0.0 12.0 -12.5 0.1 0.001 1234567.891 0.30000000000000004 1.0E7 1.0E-4 NaN -Infinity ", os.toString());
+	}
+
+	/**
+	 * Tests that the doubles written read back as the same double and are
+	 * never longer than their <code>Double.toString()</code> representation
+	 */
+	public void testWriteDoubleRoundTrip() throws Exception {
+		Random random = new Random(42);
+		for (int i=0; i<10000; i++) {
+			double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10) - 3);
+			if (i % 2 == 0) {
+				value = Math.round(value * 100) / 100d;
+			}
+			buffer.writeDouble(value);
+			buffer.flush();
+			String str = os.toString();
+			os.reset();
+			assertEquals(str, value, Double.parseDouble(str));
+			assertTrue(str, str.length() <= Double.toString(value).length());
+		}
+	}
+
+	/**
+	 * Tests writing floats
+	 */
+	public void testWriteFloat() throws Exception {
+		float[] values = {0f, -0f, 12f, -12.5f, 0.1f, 0.001f, 1234.567f, 1e7f, Float.NaN};
+		for (float value : values) {
+			buffer.writeFloat(value);
+			buffer.write(' ');
+		}
+		buffer.flush();
+		assertEquals("0.0 -0.0 12.0 -12.5 0.1 0.001 1234.567 1.0E7 NaN ", os.toString());
+	}
+
+	/**
+	 * Tests that the floats written read back as the same float and are never
+	 * longer than their <code>Float.toString()</code> representation
+	 */
+	public void testWriteFloatRoundTrip() throws Exception {
+		Random random = new Random(42);
+		for (int i=0; i<10000; i++) {
+			float value = (float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10) - 3));
+			buffer.writeFloat(value);
+			buffer.flush();
+			String str = os.toString();
+			os.reset();
+			assertEquals(str, value, Float.parseFloat(str));
+			assertTrue(str, str.length() <= Float.toString(value).length());
+		}
+	}
+
+	/**
+	 * Tests writing strings in ISO-8859-1 and US-ASCII
+	 */
+	public void testWriteStringInSingleByteCharset() throws Exception {
+		buffer.setCharset(OutputBuffer.ISO_8859_1);
+		buffer.write("caf\u00e9 \u20ac");
+		buffer.setCharset(OutputBuffer.US_ASCII);
+		buffer.write(" caf\u00e9");
+		buffer.flush();
+		assertEquals("caf\u00e9 ? caf?", os.toString("ISO-8859-1"));
+	}
+
+	/**
+	 * Tests writing strings in another ASCII compatible charset
+	 */
+	public void testWriteStringInOtherCharset() throws Exception {
+		Charset charset = Charset.forName("windows-1252");
+		buffer.setCharset(charset);
+		buffer.write("caf\u00e9 \u20ac");
+		buffer.flush();
+		assertEquals("caf\u00e9 \u20ac", os.toString("windows-1252"));
+		assertEquals(charset, buffer.getCharset());
+	}
+
+	/**
+	 * Tests setting a charset that is not ASCII compatible
+	 */
+	public void testSetCharsetWhenNotAsciiCompatible() {
+		try {
+			buffer.setCharset(Charset.forName("UTF-16"));
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(OutputBuffer.UTF_8, buffer.getCharset());
+	}
+
+	/**
+	 * Tests that the backing array is reused after a flush
+	 */
+	public void testPooling() throws Exception {
+		buffer.write("hello".getBytes());
+		buffer.flush();
+		byte[] pooled = BufferPool.acquire(1);
+		assertTrue(pooled.length >= OutputBuffer.DEFAULT_INITIAL_CAPACITY);
+		assertNotSame(pooled, BufferPool.acquire(1));
+		BufferPool.release(pooled);
+		assertSame(pooled, BufferPool.acquire(pooled.length));
+	}
+}
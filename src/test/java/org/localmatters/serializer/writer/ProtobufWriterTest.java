@@ -0,0 +1,216 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+import static org.localmatters.serializer.util.SerializationUtils.createComplex;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+import static org.localmatters.serializer.util.SerializationUtils.createValue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang.StringUtils;
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.FieldSerialization;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.MapSerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>ProtobufWriter</code>
+ */
+public class ProtobufWriterTest extends TestCase {
+	private ProtobufWriter writer;
+	private SerializationContext ctx;
+	private ByteArrayOutputStream os;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		writer = new ProtobufWriter();
+		os = new ByteArrayOutputStream();
+		ctx = new SerializationContext(writer, null, os);
+	}
+
+	/**
+	 * @return The output written so far, in hexadecimal
+	 */
+	private String getOutput() throws Exception {
+		ctx.flush();
+		StringBuilder hex = new StringBuilder();
+		for (byte b : os.toByteArray()) {
+			hex.append(String.format("%02X", b & 0xFF));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @param str An ASCII string
+	 * @return The string in hexadecimal
+	 */
+	private static String hex(String str) {
+		StringBuilder hex = new StringBuilder();
+		for (int i=0; i<str.length(); i++) {
+			hex.append(String.format("%02X", (int) str.charAt(i)));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Creates a field serialization
+	 * @param number The number of the field
+	 * @param delegate The delegate
+	 * @return The field serialization
+	 */
+	private static FieldSerialization createField(int number, Serialization delegate) {
+		FieldSerialization field = new FieldSerialization();
+		field.setNumber(number);
+		field.setDelegate(delegate);
+		return field;
+	}
+
+	/**
+	 * Tests the root serialization when complex
+	 */
+	public void testRootWhenComplex() throws Exception {
+		ComplexSerialization complex = createComplex(
+				createConstantAttribute("id", 150),
+				createConstantAttribute("name", "abc"),
+				createConstantAttribute("none", null),
+				createField(16, createConstantValue("sold", true)));
+		writer.writeRoot(createName("listing", complex), null, ctx);
+		assertEquals("08AC02" + "1203" + hex("abc") + "800101", getOutput());
+		assertEquals(StringUtils.EMPTY, ctx.getPath());
+		assertNull(ctx.getWriterState());
+	}
+
+	/**
+	 * Tests the root serialization when value
+	 */
+	public void testRootWhenValue() throws Exception {
+		writer.writeRoot(createValue("price"), 1.5d, ctx);
+		writer.writeRoot(createValue("ratio"), 1.5f, ctx);
+		writer.writeRoot(createValue("data"), new byte[] {1, 2}, ctx);
+		assertEquals("09000000000000F83F" + "0D0000C03F" + "0A020102", getOutput());
+	}
+
+	/**
+	 * Tests the sub-messages
+	 */
+	public void testSubMessages() throws Exception {
+		ComplexSerialization empty = createComplex(createConstantAttribute("none", null));
+		ComplexSerialization displayed = createComplex(createConstantAttribute("none", null));
+		displayed.setWriteEmpty(true);
+		ComplexSerialization complex = createComplex(
+				createName("address", createComplex(createConstantValue("city", "abc"))),
+				createName("empty", empty),
+				createName("displayed", displayed));
+		writer.writeRoot(complex, null, ctx);
+		assertEquals("0A05" + "0A03" + hex("abc") + "1A00", getOutput());
+	}
+
+	/**
+	 * Tests a sub-message whose length does not fit in a single byte
+	 */
+	public void testLongSubMessage() throws Exception {
+		String text = StringUtils.repeat("a", 200);
+		ComplexSerialization complex = createComplex(
+				createName("outer", createComplex(createName("inner", createComplex(createConstantValue("text", text))))));
+		ctx.getBuffer().setSpillThreshold(64);
+		writer.writeRoot(complex, null, ctx);
+		assertEquals("0ACE01" + "0ACB01" + "0AC801" + hex(text), getOutput());
+	}
+
+	/**
+	 * Tests the repeated fields
+	 */
+	public void testRepeated() throws Exception {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(new ValueSerialization());
+		writer.writeRoot(ser, Arrays.asList(1, -1, 2), ctx);
+		writer.writeRoot(ser, Arrays.asList(1, "a", null, 2, true), ctx);
+		assertEquals("0A03020104" + "0A0102" + "0A0161" + "0A020401", getOutput());
+	}
+
+	/**
+	 * Tests the repeated messages
+	 */
+	public void testRepeatedMessages() throws Exception {
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(createComplex(createName("value", new ValueSerialization())));
+		ComplexSerialization complex = createComplex(createField(2, createName("list", ser)));
+		writer.writeRoot(complex, Arrays.asList("a", "", "b"), ctx);
+		assertEquals("1203" + "0A01" + hex("a") + "1203" + "0A01" + hex("b"), getOutput());
+	}
+
+	/**
+	 * Tests the maps
+	 */
+	public void testMap() throws Exception {
+		MapSerialization ser = new MapSerialization();
+		ser.setValue(new ValueSerialization());
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("a", "x");
+		map.put("b", null);
+		map.put("c", 3);
+		writer.writeRoot(ser, map, ctx);
+		assertEquals("0A06" + "0A01" + hex("a") + "1201" + hex("x") + "0A05" + "0A01" + hex("c") + "1006", getOutput());
+	}
+
+	/**
+	 * Tests that the output cannot be written as characters
+	 */
+	public void testRootWithAppendable() throws Exception {
+		try {
+			ctx.setAppendable(new StringBuilder());
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests the Protocol Buffers types of the values
+	 */
+	public void testGetProtoType() {
+		assertEquals("bool", ProtobufWriter.getProtoType(boolean.class));
+		assertEquals("sint32", ProtobufWriter.getProtoType(Integer.class));
+		assertEquals("sint32", ProtobufWriter.getProtoType(short.class));
+		assertEquals("sint64", ProtobufWriter.getProtoType(Long.class));
+		assertEquals("float", ProtobufWriter.getProtoType(float.class));
+		assertEquals("double", ProtobufWriter.getProtoType(Double.class));
+		assertEquals("bytes", ProtobufWriter.getProtoType(byte[].class));
+		assertEquals("string", ProtobufWriter.getProtoType(String.class));
+		assertEquals("string", ProtobufWriter.getProtoType(Object.class));
+	}
+
+	/**
+	 * Tests the field numbers
+	 */
+	public void testGetFieldNumber() {
+		assertEquals(3, ProtobufWriter.getFieldNumber(createValue("name"), 3));
+		assertEquals(7, ProtobufWriter.getFieldNumber(createField(7, createValue("name")), 3));
+	}
+}
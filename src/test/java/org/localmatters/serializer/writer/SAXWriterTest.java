@@ -0,0 +1,212 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import static org.localmatters.serializer.util.SerializationUtils.createComplex;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
+import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
+import static org.localmatters.serializer.util.SerializationUtils.createValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.resolver.BeanUtilsPropertyResolver;
+import org.localmatters.serializer.serialization.AbstractSerialization;
+import org.localmatters.serializer.serialization.ComplexSerialization;
+import org.localmatters.serializer.serialization.IOSerializationException;
+import org.localmatters.serializer.serialization.IteratorSerialization;
+import org.localmatters.serializer.serialization.MapSerialization;
+import org.localmatters.serializer.serialization.PropertySerialization;
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.UnknownPropertyException;
+import org.localmatters.serializer.serialization.ValueSerialization;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+
+
+/**
+ * Tests the <code>SAXWriter</code>
+ */
+public class SAXWriterTest extends TestCase {
+	private DOMResult result;
+	private SAXWriter writer;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		result = new DOMResult();
+		writer = new SAXWriter(new ContentHandlerFactory() {
+			public ContentHandler createContentHandler(SerializationContext ctx) {
+				try {
+					TransformerHandler handler = ((SAXTransformerFactory) SAXTransformerFactory.newInstance()).newTransformerHandler();
+					handler.setResult(result);
+					return handler;
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Serializes the given root with the <code>XMLWriter</code> and the 
+	 * <code>SAXWriter</code> and checks that they describe the same document
+	 * @param ser The serialization of the root
+	 * @param root The root
+	 * @return The document built from the events
+	 */
+	private Document assertSameAsXML(Serialization ser, Object root) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		XMLWriter xml = new XMLWriter();
+		xml.writeRoot(ser, root, new SerializationContext(xml, new BeanUtilsPropertyResolver(), os));
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document expected = factory.newDocumentBuilder().parse(new ByteArrayInputStream(os.toByteArray()));
+
+		SerializationContext ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), null);
+		writer.writeRoot(ser, root, ctx);
+		Document actual = (Document) result.getNode();
+		assertTrue(expected.getDocumentElement().isEqualNode(actual.getDocumentElement()));
+		assertNull(ctx.getWriterState());
+		return actual;
+	}
+
+	/**
+	 * Creates a property serialization
+	 * @param property The property
+	 * @param delegate The serialization of the property value
+	 * @param writeEmpty Whether to write the value when empty
+	 * @return The property serialization
+	 */
+	private static Serialization createProperty(String property, AbstractSerialization delegate, boolean writeEmpty) {
+		delegate.setWriteEmpty(writeEmpty);
+		PropertySerialization ser = new PropertySerialization();
+		ser.setProperty(property);
+		ser.setDelegate(delegate);
+		return ser;
+	}
+
+	/**
+	 * Tests writing a complex with attributes, values, lists and maps, some 
+	 * of which are empty
+	 */
+	public void testRoot() throws Exception {
+		ComplexSerialization complex = new ComplexSerialization();
+		complex.addAttribute(createConstantAttribute("type", "hotel"));
+		complex.addAttribute(createProperty("id", new ValueSerialization(), false));
+		complex.addElement(createProperty("name", new ValueSerialization(), false));
+		complex.addElement(createProperty("empty", new ValueSerialization(), true));
+		complex.addElement(createProperty("missing", new ValueSerialization(), false));
+		complex.addElement(createProperty("rating", new ValueSerialization(), false));
+		IteratorSerialization tags = new IteratorSerialization();
+		tags.setElement(createValue("tag"));
+		complex.addElement(createProperty("tags", tags, false));
+		IteratorSerialization none = new IteratorSerialization();
+		none.setElement(createValue("tag"));
+		complex.addElement(createProperty("none", none, true));
+		MapSerialization hours = new MapSerialization();
+		hours.setValue(new ValueSerialization());
+		complex.addElement(createProperty("hours", hours, false));
+		complex.addElement(createName("address", createComplex(createProperty("zip", new ValueSerialization(), false))));
+		complex.addElement(createComplex("location", createConstantAttribute("country", "US")));
+
+		Map<String, String> days = new LinkedHashMap<String, String>();
+		days.put("monday", "9-5");
+		days.put("sunday", null);
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("name", "Joe & Son <Hotel>");
+		root.put("empty", "");
+		root.put("rating", 4);
+		root.put("tags", Arrays.asList(null, "pool", "spa"));
+		root.put("hours", days);
+		root.put("address", new LinkedHashMap<String, Object>());
+
+		Node listing = assertSameAsXML(createName("listing", complex), root).getDocumentElement();
+		assertEquals("listing", listing.getNodeName());
+		assertEquals(7, listing.getChildNodes().getLength());
+		assertEquals("Joe & Son <Hotel>", listing.getFirstChild().getTextContent());
+	}
+
+	/**
+	 * Tests writing a root that is empty but should be written
+	 */
+	public void testRootWhenEmpty() throws Exception {
+		ComplexSerialization complex = createComplex(createValue("name"));
+		complex.setWriteEmpty(true);
+		Node listing = assertSameAsXML(createName("listing", complex), null).getDocumentElement();
+		assertEquals("listing", listing.getNodeName());
+		assertFalse(listing.hasChildNodes());
+	}
+
+	/**
+	 * Tests that the comments are forwarded when the context is formatting
+	 */
+	public void testRootWithComments() throws Exception {
+		ComplexSerialization complex = createComplex(createConstantValue("name", "Joe's"));
+		complex.addComment("The listing -- or nothing");
+		SerializationContext ctx = new SerializationContext(writer, null, null);
+		ctx.setFormatting(true);
+		writer.writeRoot(createName("listing", complex), new Object(), ctx);
+		Node comment = ((Document) result.getNode()).getFirstChild();
+		assertEquals(Node.COMMENT_NODE, comment.getNodeType());
+		assertEquals("The listing ** or nothing", comment.getNodeValue());
+		assertEquals("Joe's", comment.getNextSibling().getTextContent());
+	}
+
+	/**
+	 * Tests that the previous state of the context is restored when the 
+	 * writing of the root fails
+	 */
+	public void testRootWhenFailing() throws Exception {
+		SerializationContext ctx = new SerializationContext(writer, new BeanUtilsPropertyResolver(), null);
+		Object state = new Object();
+		ctx.setWriterState(state);
+		Serialization ser = createName("listing", createComplex("listing", createProperty("unknown", new ValueSerialization(), false)));
+		try {
+			writer.writeRoot(ser, new Object(), ctx);
+			fail("UnknownPropertyException expected");
+		} catch (UnknownPropertyException e) {
+		}
+		assertSame(state, ctx.getWriterState());
+	}
+
+	/**
+	 * Tests writing a value without going through the root
+	 */
+	public void testValueWhenNoRoot() throws Exception {
+		try {
+			writer.writeValue(new ValueSerialization(), "name", "Joe's", new SerializationContext(writer, null, null));
+			fail("IOSerializationException expected");
+		} catch (IOSerializationException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+   Copyright 2010-present Local Matters, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.localmatters.serializer.writer;
+
+import junit.framework.TestCase;
+
+import org.localmatters.serializer.serialization.Serialization;
+import org.localmatters.serializer.serialization.ValueSerialization;
+
+
+/**
+ * Tests the <code>SizeHistory</code>
+ */
+public class SizeHistoryTest extends TestCase {
+	private SizeHistory history;
+	private Serialization ser;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		history = new SizeHistory(0.5);
+		ser = new ValueSerialization();
+	}
+
+	/**
+	 * Tests the estimate when no size has been recorded
+	 */
+	public void testEstimateWhenUnknown() {
+		assertEquals(0, history.getEstimate(ser));
+	}
+
+	/**
+	 * Tests that the estimate follows the weighted average of the sizes
+	 */
+	public void testEstimate() {
+		history.record(ser, 800);
+		assertEquals(900, history.getEstimate(ser));
+		history.record(ser, 1600);
+		assertEquals(1350, history.getEstimate(ser));
+		assertEquals(0, history.getEstimate(new ValueSerialization()));
+		history.clear();
+		assertEquals(0, history.getEstimate(ser));
+	}
+
+	/**
+	 * Tests that an invalid weight is rejected
+	 */
+	public void testInvalidWeight() {
+		try {
+			new SizeHistory(0);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -21,20 +21,23 @@ import static org.easymock.classextension.EasyMock.replay;
 import static org.easymock.classextension.EasyMock.verify;
 import static org.localmatters.serializer.util.SerializationUtils.createConstantAttribute;
 import static org.localmatters.serializer.util.SerializationUtils.createConstantValue;
+import static org.localmatters.serializer.util.SerializationUtils.createName;
 import static org.localmatters.serializer.util.SerializationUtils.createValue;
 
 import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.lang.StringUtils;
 import org.localmatters.serializer.SerializationContext;
+import org.localmatters.serializer.SerializationException;
 import org.localmatters.serializer.resolver.PropertyResolver;
 import org.localmatters.serializer.serialization.ComplexSerialization;
 import org.localmatters.serializer.serialization.IteratorSerialization;
@@ -50,7 +53,7 @@ import org.localmatters.serializer.serialization.ValueSerialization;
 public class XMLWriterTest extends TestCase {
 	private XMLWriter writer;
 	private SerializationContext ctx;
-	private OutputStream os;
+	private ByteArrayOutputStream os;
 
 	/**
 	 * @see junit.framework.TestCase#setUp()
@@ -61,13 +64,21 @@ public class XMLWriterTest extends TestCase {
 		os = new ByteArrayOutputStream();
 		ctx = new SerializationContext(writer, null, os);
 	}
+
+	/**
+	 * @return The output written so far
+	 */
+	private String getOutput() throws Exception {
+		ctx.flush();
+		return os.toString("UTF-8");
+	}
 	
 	/**
 	 * Tests getting the prefix when the writer is not formatting
 	 */
 	public void testGettingPrefixWhenNotFormatting() {
 		ctx.nextLevel("results").nextLevel("listings").nextLevel("address");
-		assertEquals(StringUtils.EMPTY, writer.getPrefix(ctx));
+		assertEquals(0, writer.getPrefix(ctx).length);
 	}
 	
 	/**
@@ -76,14 +87,15 @@ public class XMLWriterTest extends TestCase {
 	public void testGettingPrefix() {
 		ctx.setFormatting(true);
 		ctx.nextLevel("results").nextLevel("listings").nextLevel("address");
-		assertEquals("\n        ", writer.getPrefix(ctx));
+		assertEquals("\n        ", new String(writer.getPrefix(ctx)));
+		assertSame(writer.getPrefix(ctx), writer.getPrefix(ctx));
 	}
 	
 	/**
 	 * Tests process comments when not formatting
 	 */
 	public void testProcessCommentsWhenNotFormating() throws Exception {
-		assertEquals(StringUtils.EMPTY, writer.processComments(ctx, "\n    ", Arrays.asList("Hello -- World", "What's up?")));
+		assertEquals(0, writer.processComments(ctx, "\n    ".getBytes(), Arrays.asList("Hello -- World", "What's up?")).length);
 	}
 	
 	
@@ -92,7 +104,7 @@ public class XMLWriterTest extends TestCase {
 	 */
 	public void testWriteCommentsWhenEmpty() throws Exception {
 		ctx.setFormatting(true);
-		assertEquals("\n    ", writer.processComments(ctx, "\n    ", null));
+		assertEquals("\n    ", new String(writer.processComments(ctx, "\n    ".getBytes(), null)));
 	}
 	
 	/**
@@ -100,7 +112,18 @@ public class XMLWriterTest extends TestCase {
 	 */
 	public void testWritePrefixWithComment() throws Exception {
 		ctx.setFormatting(true);
-		assertEquals("\n\n    <!-- Hello ** World\n         What's up? -->\n    ", writer.processComments(ctx, "\n    ", Arrays.asList("Hello -- World", "What's up?")));
+		assertEquals("\n\n    <!-- Hello ** World\n         What's up? -->\n    ", new String(writer.processComments(ctx, "\n    ".getBytes(), Arrays.asList("Hello -- World", "What's up?"))));
+	}
+
+	/**
+	 * Tests that the comment blocks are rendered once per depth
+	 */
+	public void testProcessCommentsIsCached() throws Exception {
+		ctx.setFormatting(true);
+		List<String> comments = Arrays.asList("Hello -- World");
+		byte[] block = writer.processComments(ctx, "\n    ".getBytes(), comments);
+		assertSame(block, writer.processComments(ctx, "\n    ".getBytes(), comments));
+		assertEquals("\n\n        <!-- Hello ** World -->\n        ", new String(writer.processComments(ctx, "\n        ".getBytes(), comments)));
 	}
 
 	/**
@@ -111,10 +134,20 @@ public class XMLWriterTest extends TestCase {
 		Serialization ser = createValue("listing");
 		String root = "12345 Hotel";
 		writer.writeRoot(ser, root, ctx);
-		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<listing>12345 Hotel</listing>", os.toString());
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<listing>12345 Hotel</listing>", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
+	/**
+	 * Tests the root serialization with another charset
+	 */
+	public void testRootWithCharset() throws Exception {
+		ctx.setCharset(OutputBuffer.ISO_8859_1);
+		Serialization ser = createValue("listing");
+		writer.writeRoot(ser, "12345 Hotel", ctx);
+		assertEquals("<?xml version=\"1.0\" encoding=\"ISO-8859-1\" standalone=\"yes\"?><listing>12345 Hotel</listing>", getOutput());
+	}
+
 	/**
 	 * Tests the root serialization
 	 */
@@ -122,10 +155,23 @@ public class XMLWriterTest extends TestCase {
 		Serialization ser = createValue("listing");
 		String root = "12345 Hotel";
 		writer.writeRoot(ser, root, ctx);
-		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><listing>12345 Hotel</listing>", os.toString());
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><listing>12345 Hotel</listing>", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
+	/**
+	 * Tests serializing numbers and booleans
+	 */
+	public void testValueWhenDirect() throws Exception {
+		ValueSerialization ser = createMock(ValueSerialization.class);
+		replay(ser);
+		writer.writeValue(ser, "id", 123456L, ctx);
+		writer.writeValue(ser, "price", -12.5d, ctx);
+		writer.writeValue(ser, null, true, ctx);
+		verify(ser);
+		assertEquals("<id>123456</id><price>-12.5</price>true", getOutput());
+	}
+
 	/**
 	 * Tests serializing a null value that should not be written
 	 */
@@ -135,7 +181,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "name", null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -149,7 +195,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -163,7 +209,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "name", null, ctx);
 		verify(ser);
-		assertEquals("<name/>", os.toString());
+		assertEquals("<name/>", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -175,7 +221,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, null, "John Doé", ctx);
 		verify(ser);
-		assertEquals("John Do&#233;", os.toString());
+		assertEquals("John Do&#233;", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -189,7 +235,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "name", "John Doé", ctx);
 		verify(ser);
-		assertEquals("\n    <name>John Do&#233;</name>", os.toString());
+		assertEquals("\n    <name>John Do&#233;</name>", getOutput());
 		assertEquals(1, ctx.getDeepness());
 		assertEquals("listing", ctx.getPath());
 	}
@@ -202,7 +248,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeValue(ser, "name", "John Doé", ctx);
 		verify(ser);
-		assertEquals("<name>John Do&#233;</name>", os.toString());
+		assertEquals("<name>John Do&#233;</name>", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -215,7 +261,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeAttribute(ser, "name", null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -228,7 +274,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeAttribute(ser, "name", null, ctx);
 		verify(ser);
-		assertEquals(" name=\"\"", os.toString());
+		assertEquals(" name=\"\"", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -240,7 +286,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeAttribute(ser, "name", "John Doé", ctx);
 		verify(ser);
-		assertEquals(" name=\"John Do&#233;\"", os.toString());
+		assertEquals(" name=\"John Do&#233;\"", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -253,7 +299,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser);
         writer.writeNamespace(ser, "lmi", null, ctx);
         verify(ser);
-        assertEquals(StringUtils.EMPTY, os.toString());
+        assertEquals(StringUtils.EMPTY, getOutput());
         assertEquals(StringUtils.EMPTY, ctx.getPath());
     }
     
@@ -266,7 +312,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser);
         writer.writeNamespace(ser, "lmi", null, ctx);
         verify(ser);
-        assertEquals(" lmi=\"\"", os.toString());
+        assertEquals(" lmi=\"\"", getOutput());
         assertEquals(StringUtils.EMPTY, ctx.getPath());
     }
     
@@ -278,7 +324,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser);
         writer.writeNamespace(ser, "lmi", "http://www.localmatter.com", ctx);
         verify(ser);
-        assertEquals(" lmi=\"http://www.localmatter.com\"", os.toString());
+        assertEquals(" lmi=\"http://www.localmatter.com\"", getOutput());
         assertEquals(StringUtils.EMPTY, ctx.getPath());
     }
 	
@@ -291,7 +337,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeComplex(ser, "listing", null, null, null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -306,7 +352,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeComplex(ser, "listing", new Object(), null, null, Arrays.asList("just a listing"), ctx);
 		verify(ser);
-		assertEquals("\n\n    <!-- just a listing -->\n    <listing/>", os.toString());
+		assertEquals("\n\n    <!-- just a listing -->\n    <listing/>", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 	
@@ -319,7 +365,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeComplex(ser, "listing", null, null, null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 	
@@ -338,7 +384,7 @@ public class XMLWriterTest extends TestCase {
 		writer.writeComplex(ser, "listing", object, null, Arrays.asList(element1, element2), null, ctx);
 		verify(ser);
 
-		assertEquals("\n    <listing>\n        <id>ABCD1234</id>\n        <name>John Hotel</name>\n    </listing>", os.toString());
+		assertEquals("\n    <listing>\n        <id>ABCD1234</id>\n        <name>John Hotel</name>\n    </listing>", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 	
@@ -356,7 +402,7 @@ public class XMLWriterTest extends TestCase {
 		writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), null, Arrays.asList("just a listing"), ctx);
 		verify(ser);
 
-		assertEquals("<listing id=\"ABCD1234\" name=\"John Hotel\"/>", os.toString());
+		assertEquals("<listing id=\"ABCD1234\" name=\"John Hotel\"/>", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
     
@@ -387,7 +433,7 @@ public class XMLWriterTest extends TestCase {
         writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element, complexName, iteratorName), null, ctx);
         verify(ser);
 
-        assertEquals(StringUtils.EMPTY, os.toString());
+        assertEquals(StringUtils.EMPTY, getOutput());
         assertEquals("results", ctx.getPath());
     }
     
@@ -414,7 +460,7 @@ public class XMLWriterTest extends TestCase {
         writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element, name), null, ctx);
         verify(ser);
 
-        assertEquals("\n    <listing/>", os.toString());
+        assertEquals("\n    <listing/>", getOutput());
         assertEquals("results", ctx.getPath());
     }
     
@@ -439,7 +485,7 @@ public class XMLWriterTest extends TestCase {
         writer.writeComplex(ser, "listing", object, Arrays.asList(attribute1, attribute2), Arrays.asList(element, name), null, ctx);
         verify(ser);
 
-        assertEquals("<listing><address/></listing>", os.toString());
+        assertEquals("<listing><address/></listing>", getOutput());
         assertEquals("results", ctx.getPath());
     }
 	
@@ -457,7 +503,7 @@ public class XMLWriterTest extends TestCase {
 		writer.writeComplex(ser, "listing", object, Arrays.asList(attribute), Arrays.asList(element), Arrays.asList("just a listing"), ctx);
 		verify(ser);
 
-		assertEquals("<listing id=\"ABCD1234\"><name>John Hotel</name></listing>", os.toString());
+		assertEquals("<listing id=\"ABCD1234\"><name>John Hotel</name></listing>", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -471,10 +517,85 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeIterator(ser, "orders", Collections.EMPTY_LIST.iterator(), "order", null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals("listing", ctx.getPath());
 	}
 
+	/**
+	 * Tests that the elements of a list are flushed as they are written when
+	 * there is a flush policy
+	 */
+	public void testIteratorWhenFlushPolicy() throws Exception {
+		final List<String> flushed = new ArrayList<String>();
+		os = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.add(toString());
+			}
+		};
+		ctx = new SerializationContext(writer, null, os);
+		ctx.setFlushPolicy(new FlushPolicy(0, 2, 0));
+		IteratorSerialization ser = new IteratorSerialization();
+		ser.setElement(createValue("sport"));
+		ser.serialize(ser, "sports", Arrays.asList("baseball", "hockey", "soccer"), ctx);
+		assertEquals(Arrays.asList("<sports><sport>baseball</sport><sport>hockey</sport>"), flushed);
+		assertEquals("<sports><sport>baseball</sport><sport>hockey</sport><sport>soccer</sport></sports>", getOutput());
+	}
+
+	/**
+	 * Tests that a list within a root element is flushed as its elements 
+	 * are written
+	 */
+	public void testRootWhenNestedListAndFlushPolicy() throws Exception {
+		final List<String> flushed = new ArrayList<String>();
+		os = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushed.add(toString());
+			}
+		};
+		ctx = new SerializationContext(writer, null, os);
+		ctx.setFlushPolicy(new FlushPolicy(0, 2, 0));
+		IteratorSerialization sports = new IteratorSerialization();
+		sports.setElement(createValue("sport"));
+		ComplexSerialization ser = new ComplexSerialization();
+		ser.addElement(createName("sports", sports));
+		writer.writeRoot(createName("results", ser), Arrays.asList("baseball", "hockey", "soccer"), ctx);
+		assertEquals(Arrays.asList("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><results><sports><sport>baseball</sport><sport>hockey</sport>"), flushed);
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><results><sports><sport>baseball</sport><sport>hockey</sport><sport>soccer</sport></sports></results>", os.toString());
+	}
+
+	/**
+	 * Tests that a large list within a root element is spilled as it is 
+	 * written instead of being held until the end of the document
+	 */
+	public void testRootWhenNestedLargeList() throws Exception {
+		final List<Integer> sizes = new ArrayList<Integer>();
+		ctx.getBuffer().setSpillThreshold(256);
+		IteratorSerialization items = new IteratorSerialization();
+		items.setElement(createName("item", new ValueSerialization() {
+			@Override
+			public void serialize(Serialization ser, String name, Object obj, SerializationContext ctx) throws SerializationException {
+				sizes.add(os.size());
+				super.serialize(ser, name, obj, ctx);
+			}
+		}));
+		ComplexSerialization ser = new ComplexSerialization();
+		ser.addAttribute(createConstantAttribute("type", "page"));
+		ser.addElement(createName("items", items));
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i=0; i<10000; i++) {
+			list.add(i);
+		}
+		writer.writeRoot(createName("results", ser), list, ctx);
+		String output = os.toString();
+		assertTrue(output.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><results type=\"page\"><items><item>0</item>"));
+		assertTrue(output.endsWith("<item>9999</item></items></results>"));
+		int last = sizes.get(sizes.size() - 1);
+		assertTrue(last > "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>".length());
+		assertTrue(output.length() - last < 512);
+	}
+
 	/**
 	 * Tests serializing an empty iterator that should be written
 	 */
@@ -484,7 +605,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeIterator(ser,"orders", Collections.EMPTY_LIST.iterator(), "order", null, null, ctx);
 		verify(ser);
-		assertEquals("<orders/>", os.toString());
+		assertEquals("<orders/>", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -502,7 +623,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser);
         writer.writeIterator(ser, "sports", itr, "sport", element, null, ctx);
         verify(ser);
-        assertEquals(StringUtils.EMPTY, os.toString());
+        assertEquals(StringUtils.EMPTY, getOutput());
         assertEquals("results", ctx.getPath());
     }
 
@@ -520,7 +641,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser);
         writer.writeIterator(ser, "sports", itr, "sport", element, null, ctx);
         verify(ser);
-        assertEquals("<sports/>", os.toString());
+        assertEquals("<sports/>", getOutput());
         assertEquals("results", ctx.getPath());
     }
 	
@@ -537,7 +658,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeIterator(ser, "sports", itr, "sport", element, null, ctx);
 		verify(ser);
-		assertEquals("\n    <sports>\n        <sport>baseball</sport>\n        <sport>hockey</sport>\n    </sports>", os.toString());
+		assertEquals("\n    <sports>\n        <sport>baseball</sport>\n        <sport>hockey</sport>\n    </sports>", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
     
@@ -553,7 +674,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser);
         writer.writeIterator(ser, "sports", itr, "sport", createValue(null), null, ctx);
         verify(ser);
-        assertEquals("\n    <sports>\n        <sport>baseball</sport>\n        <sport>hockey</sport>\n    </sports>", os.toString());
+        assertEquals("\n    <sports>\n        <sport>baseball</sport>\n        <sport>hockey</sport>\n    </sports>", getOutput());
         assertEquals("results", ctx.getPath());
     }
 
@@ -567,7 +688,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeMap(ser, "addresses", null, null, null, null, ctx);
 		verify(ser);
-		assertEquals(StringUtils.EMPTY, os.toString());
+		assertEquals(StringUtils.EMPTY, getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -582,7 +703,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeMap(ser, "addresses", null, null, null, null, ctx);
 		verify(ser);
-		assertEquals("\n    <addresses/>", os.toString());
+		assertEquals("\n    <addresses/>", getOutput());
 		assertEquals("results", ctx.getPath());
 	}
 
@@ -601,7 +722,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser);
 		writer.writeMap(ser, "leisures", map.entrySet(), null, value, null, ctx);
 		verify(ser);
-		assertEquals("\n<leisures>\n    <sport>baskeball</sport>\n    <hobby>photography</hobby>\n</leisures>", os.toString());
+		assertEquals("\n<leisures>\n    <sport>baskeball</sport>\n    <hobby>photography</hobby>\n</leisures>", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 
@@ -626,7 +747,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser, resolver);
         writer.writeMap(ser, "leisures", map.entrySet(), "keyProperty", value, null, ctx);
         verify(ser, resolver);
-        assertEquals(StringUtils.EMPTY, os.toString());
+        assertEquals(StringUtils.EMPTY, getOutput());
         assertEquals(StringUtils.EMPTY, ctx.getPath());
     }
 
@@ -651,7 +772,7 @@ public class XMLWriterTest extends TestCase {
         replay(ser, resolver);
         writer.writeMap(ser, "leisures", map.entrySet(), "keyProperty", value, null, ctx);
         verify(ser, resolver);
-        assertEquals("<leisures/>", os.toString());
+        assertEquals("<leisures/>", getOutput());
         assertEquals(StringUtils.EMPTY, ctx.getPath());
     }
 
@@ -675,7 +796,7 @@ public class XMLWriterTest extends TestCase {
 		replay(ser, resolver);
 		writer.writeMap(ser, "leisures", map.entrySet(), "keyProperty", value, null, ctx);
 		verify(ser, resolver);
-		assertEquals("<leisures><s>baskeball</s><h>photography</h></leisures>", os.toString());
+		assertEquals("<leisures><s>baskeball</s><h>photography</h></leisures>", getOutput());
 		assertEquals(StringUtils.EMPTY, ctx.getPath());
 	}
 }